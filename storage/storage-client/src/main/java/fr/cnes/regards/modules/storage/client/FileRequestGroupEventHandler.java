@@ -55,6 +55,9 @@ public class FileRequestGroupEventHandler
     @Autowired(required = false)
     private IStorageRequestListener listener;
 
+    @Autowired
+    private StorageRequestRegistry registry;
+
     @Autowired
     private IRuntimeTenantResolver runtimeTenantResolver;
 
@@ -68,7 +71,7 @@ public class FileRequestGroupEventHandler
 
     @Override
     public void onApplicationEvent(ApplicationReadyEvent event) {
-        if (listener != null) {
+        if ((listener != null) || registry.isEnabled()) {
             subscriber.subscribeTo(FileRequestsGroupEvent.class, this);
         } else {
             LOGGER.warn("No listener configured to collect storage FileRequestEvent bus messages !!");
@@ -97,6 +100,7 @@ public class FileRequestGroupEventHandler
         Set<FileRequestsGroupEvent> granted = Sets.newHashSet();
         Set<FileRequestsGroupEvent> denied = Sets.newHashSet();
         for (FileRequestsGroupEvent event : events) {
+            completeRegistered(event);
             switch (event.getState()) {
                 case SUCCESS:
                 case ERROR:
@@ -114,9 +118,21 @@ public class FileRequestGroupEventHandler
         }
         LOGGER.trace("[STORAGE RESPONSES HANDLER] handling {} FileRequestsGroupEvent(s) dispatch by {} dones, {} granted, {} denied",
                      events.size(), dones.size(), granted.size(), denied.size());
-        handleDone(dones);
-        handleGranted(granted);
-        handleDenied(denied);
+        if (listener != null) {
+            handleDone(dones);
+            handleGranted(granted);
+            handleDenied(denied);
+        }
+    }
+
+    /**
+     * Complete the outstanding request registered in the {@link StorageRequestRegistry} if any.
+     * No database access is needed to correlate the response with the submitted request.
+     */
+    private void completeRegistered(FileRequestsGroupEvent event) {
+        if (registry.isEnabled() && (event.getState() != FlowItemStatus.GRANTED)) {
+            registry.complete(event, RequestInfo.build(event.getGroupId(), event.getSuccess(), event.getErrors()));
+        }
     }
 
     private void handleDenied(Set<FileRequestsGroupEvent> denied) {
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.client;
+
+import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
+import fr.cnes.regards.modules.storage.domain.flow.FlowItemStatus;
+
+/**
+ * POJO containing the final response of a group of requests tracked by the {@link StorageRequestRegistry}.
+ * @author Sébastien Binda
+ */
+public class RequestResponse {
+
+    private RequestInfo requestInfo;
+
+    private FileRequestType type;
+
+    private FlowItemStatus state;
+
+    public RequestInfo getRequestInfo() {
+        return requestInfo;
+    }
+
+    public FileRequestType getType() {
+        return type;
+    }
+
+    public FlowItemStatus getState() {
+        return state;
+    }
+
+    /**
+     * @return true if the group of requests has been successfully handled by storage.
+     */
+    public boolean isSuccess() {
+        return state == FlowItemStatus.SUCCESS;
+    }
+
+    public static RequestResponse build(RequestInfo requestInfo, FileRequestType type, FlowItemStatus state) {
+        RequestResponse response = new RequestResponse();
+        response.requestInfo = requestInfo;
+        response.type = type;
+        response.state = state;
+        return response;
+    }
+
+    @Override
+    public String toString() {
+        return "RequestResponse [groupId=" + (requestInfo != null ? requestInfo.getGroupId() : null) + ", type=" + type
+                + ", state=" + state + "]";
+    }
+
+}
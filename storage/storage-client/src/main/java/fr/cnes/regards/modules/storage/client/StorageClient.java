@@ -45,7 +45,9 @@ import fr.cnes.regards.modules.storage.domain.flow.StorageFlowItem;
 /**
  * Asynchronous client implementation based on the message broker for requesting the file storage service.<br />
  * As this client use message broker to communicate with the storage service, responses are asynchronous. Nevertheless,
- * you can easily listen responses by implementing your own {@link IStorageRequestListener}.
+ * you can easily listen responses by implementing your own {@link IStorageRequestListener}.<br/>
+ * If the {@link StorageRequestRegistry} is enabled, each group of requests is registered before being published so that
+ * responses can also be awaited through {@link StorageRequestRegistry#get(String)}.
  *
  * @author Marc SORDI
  * @author Sébastien Binda
@@ -57,9 +59,12 @@ public class StorageClient implements IStorageClient {
     @Autowired
     private IPublisher publisher;
 
+    @Autowired
+    private StorageRequestRegistry registry;
+
     @Override
     public RequestInfo copy(FileCopyRequestDTO file) {
-        RequestInfo requestInfo = RequestInfo.build();
+        RequestInfo requestInfo = newRequestInfo();
         publisher.publish(CopyFlowItem.build(file, requestInfo.getGroupId()));
         return requestInfo;
     }
@@ -71,7 +76,7 @@ public class StorageClient implements IStorageClient {
 
     @Override
     public RequestInfo delete(FileDeletionRequestDTO file) {
-        RequestInfo requestInfo = RequestInfo.build();
+        RequestInfo requestInfo = newRequestInfo();
         publisher.publish(DeletionFlowItem.build(file, requestInfo.getGroupId()));
         return requestInfo;
     }
@@ -83,7 +88,7 @@ public class StorageClient implements IStorageClient {
 
     @Override
     public RequestInfo reference(FileReferenceRequestDTO file) {
-        RequestInfo requestInfo = RequestInfo.build();
+        RequestInfo requestInfo = newRequestInfo();
         publisher.publish(ReferenceFlowItem.build(file, requestInfo.getGroupId()));
         return requestInfo;
     }
@@ -110,7 +115,7 @@ public class StorageClient implements IStorageClient {
 
     @Override
     public RequestInfo store(FileStorageRequestDTO file) {
-        RequestInfo requestInfo = RequestInfo.build();
+        RequestInfo requestInfo = newRequestInfo();
         publisher.publish(StorageFlowItem.build(file, requestInfo.getGroupId()));
         return requestInfo;
     }
@@ -125,7 +130,7 @@ public class StorageClient implements IStorageClient {
         Collection<RequestInfo> requestInfos = Lists.newArrayList();
         // If number of files in the request is less than the maximum allowed by request then publish it
         if (checksums.size() <= AvailabilityFlowItem.MAX_REQUEST_PER_GROUP) {
-            RequestInfo requestInfo = RequestInfo.build();
+            RequestInfo requestInfo = newRequestInfo();
             publisher.publish(AvailabilityFlowItem.build(checksums, expirationDate, requestInfo.getGroupId()));
             requestInfos.add(requestInfo);
         } else {
@@ -135,14 +140,14 @@ public class StorageClient implements IStorageClient {
             while (it.hasNext()) {
                 group.add(it.next());
                 if (group.size() >= AvailabilityFlowItem.MAX_REQUEST_PER_GROUP) {
-                    RequestInfo requestInfo = RequestInfo.build();
+                    RequestInfo requestInfo = newRequestInfo();
                     publisher.publish(AvailabilityFlowItem.build(group, expirationDate, requestInfo.getGroupId()));
                     requestInfos.add(requestInfo);
                     group.clear();
                 }
             }
             if (!group.isEmpty()) {
-                RequestInfo requestInfo = RequestInfo.build();
+                RequestInfo requestInfo = newRequestInfo();
                 publisher.publish(AvailabilityFlowItem.build(group, expirationDate, requestInfo.getGroupId()));
                 requestInfos.add(requestInfo);
             }
@@ -150,12 +155,21 @@ public class StorageClient implements IStorageClient {
         return requestInfos;
     }
 
+    /**
+     * Build a new {@link RequestInfo} and register it in the {@link StorageRequestRegistry} before any publication.
+     */
+    private RequestInfo newRequestInfo() {
+        RequestInfo requestInfo = RequestInfo.build();
+        registry.register(requestInfo);
+        return requestInfo;
+    }
+
     private <T> Collection<RequestInfo> publish(BiFunction<Collection<T>, String, ISubscribable> func,
             Collection<T> files, int maxFilesPerRequest) {
         Collection<RequestInfo> requestInfos = Lists.newArrayList();
         // If number of files in the request is less than the maximum allowed by request then publish it
         if (files.size() <= maxFilesPerRequest) {
-            RequestInfo requestInfo = RequestInfo.build();
+            RequestInfo requestInfo = newRequestInfo();
             publisher.publish(func.apply(files, requestInfo.getGroupId()));
             requestInfos.add(requestInfo);
         } else {
@@ -165,14 +179,14 @@ public class StorageClient implements IStorageClient {
             while (it.hasNext()) {
                 group.add(it.next());
                 if (group.size() >= maxFilesPerRequest) {
-                    RequestInfo requestInfo = RequestInfo.build();
+                    RequestInfo requestInfo = newRequestInfo();
                     publisher.publish(func.apply(group, requestInfo.getGroupId()));
                     requestInfos.add(requestInfo);
                     group.clear();
                 }
             }
             if (!group.isEmpty()) {
-                RequestInfo requestInfo = RequestInfo.build();
+                RequestInfo requestInfo = newRequestInfo();
                 publisher.publish(func.apply(group, requestInfo.getGroupId()));
                 requestInfos.add(requestInfo);
             }
@@ -0,0 +1,142 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.client;
+
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+
+import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
+import fr.cnes.regards.modules.storage.domain.event.FileRequestsGroupEvent;
+import fr.cnes.regards.modules.storage.domain.flow.FlowItemStatus;
+
+/**
+ * Optional bounded in-memory registry of the outstanding {@link RequestInfo}s submitted through the
+ * {@link StorageClient}.<br/>
+ * When enabled, each group of requests sent to storage is registered with a {@link CompletableFuture} completed
+ * directly by the {@link FileRequestGroupEventHandler} when the final {@link FileRequestsGroupEvent} of the group
+ * is received. Consumers can then correlate responses to their pending work without querying their own database for
+ * each event.<br/>
+ * Registry is bounded in size and entries expire after a configurable delay. Futures of entries evicted before their
+ * response are cancelled.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class StorageRequestRegistry {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageRequestRegistry.class);
+
+    private final boolean enabled;
+
+    /**
+     * Outstanding requests futures by group id
+     */
+    private final Cache<String, CompletableFuture<RequestResponse>> pendings;
+
+    public StorageRequestRegistry(@Value("${regards.storage.client.request.registry.enabled:false}") boolean enabled,
+            @Value("${regards.storage.client.request.registry.max.size:100000}") long maxSize,
+            @Value("${regards.storage.client.request.registry.expiration.hours:24}") long expirationHours) {
+        this.enabled = enabled;
+        this.pendings = CacheBuilder.newBuilder().maximumSize(maxSize).expireAfterWrite(expirationHours, TimeUnit.HOURS)
+                .removalListener(this::onRemoval).build();
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Register a new outstanding group of requests.
+     * @param requestInfo {@link RequestInfo} to register
+     * @return {@link CompletableFuture} completed when the final response of the group is received.
+     *  If the registry is disabled, the returned future is never completed.
+     */
+    public CompletableFuture<RequestResponse> register(RequestInfo requestInfo) {
+        CompletableFuture<RequestResponse> future = new CompletableFuture<>();
+        if (enabled) {
+            pendings.put(requestInfo.getGroupId(), future);
+        }
+        return future;
+    }
+
+    /**
+     * Retrieve the {@link CompletableFuture} associated to an outstanding group of requests.
+     * @param groupId group identifier
+     * @return {@link CompletableFuture} if the group is still registered
+     */
+    public Optional<CompletableFuture<RequestResponse>> get(String groupId) {
+        return Optional.ofNullable(pendings.getIfPresent(groupId));
+    }
+
+    /**
+     * Number of outstanding groups of requests.
+     */
+    public long size() {
+        return pendings.size();
+    }
+
+    /**
+     * Complete the future of the group associated to the given event if its state is final.
+     * @param event {@link FileRequestsGroupEvent}
+     * @param requestInfo {@link RequestInfo} built from the event
+     * @return true if a registered future has been completed
+     */
+    public boolean complete(FileRequestsGroupEvent event, RequestInfo requestInfo) {
+        return complete(event.getGroupId(), event.getType(), event.getState(), requestInfo);
+    }
+
+    /**
+     * Complete the future of the given group if the given state is final.
+     * @param groupId group identifier
+     * @param type {@link FileRequestType} of the group
+     * @param state {@link FlowItemStatus} of the group
+     * @param requestInfo {@link RequestInfo} containing results of the group
+     * @return true if a registered future has been completed
+     */
+    public boolean complete(String groupId, FileRequestType type, FlowItemStatus state, RequestInfo requestInfo) {
+        if (!enabled || (state == FlowItemStatus.GRANTED)) {
+            return false;
+        }
+        CompletableFuture<RequestResponse> future = pendings.getIfPresent(groupId);
+        if (future == null) {
+            return false;
+        }
+        pendings.invalidate(groupId);
+        return future.complete(RequestResponse.build(requestInfo, type, state));
+    }
+
+    private void onRemoval(RemovalNotification<String, CompletableFuture<RequestResponse>> notification) {
+        if (notification.wasEvicted() && (notification.getValue() != null) && !notification.getValue().isDone()) {
+            LOGGER.warn("[STORAGE CLIENT] Outstanding request group {} evicted from registry before response ({}).",
+                        notification.getKey(), notification.getCause());
+            notification.getValue().cancel(false);
+        }
+    }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.client;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
+import fr.cnes.regards.modules.storage.domain.flow.FlowItemStatus;
+
+/**
+ * Test class for {@link StorageRequestRegistry}
+ * @author Sébastien Binda
+ */
+public class StorageRequestRegistryTest {
+
+    @Test
+    public void registeredRequestCompletedOnFinalState() {
+        StorageRequestRegistry registry = new StorageRequestRegistry(true, 10, 1);
+        RequestInfo ri = RequestInfo.build();
+        CompletableFuture<RequestResponse> future = registry.register(ri);
+        Assert.assertEquals(1, registry.size());
+
+        Assert.assertFalse("Granted state is not final",
+                           registry.complete(ri.getGroupId(), FileRequestType.STORAGE, FlowItemStatus.GRANTED, ri));
+        Assert.assertFalse(future.isDone());
+
+        Assert.assertTrue(registry.complete(ri.getGroupId(), FileRequestType.STORAGE, FlowItemStatus.SUCCESS, ri));
+        Assert.assertTrue(future.isDone());
+        Assert.assertTrue(future.join().isSuccess());
+        Assert.assertEquals(FileRequestType.STORAGE, future.join().getType());
+        Assert.assertEquals(0, registry.size());
+        Assert.assertFalse("Group already completed",
+                           registry.complete(ri.getGroupId(), FileRequestType.STORAGE, FlowItemStatus.SUCCESS, ri));
+    }
+
+    @Test
+    public void evictedRequestIsCancelled() {
+        StorageRequestRegistry registry = new StorageRequestRegistry(true, 1, 1);
+        CompletableFuture<RequestResponse> first = registry.register(RequestInfo.build());
+        CompletableFuture<RequestResponse> second = registry.register(RequestInfo.build());
+        Assert.assertTrue(first.isCancelled());
+        Assert.assertFalse(second.isDone());
+    }
+
+    @Test
+    public void disabledRegistryDoesNotTrack() {
+        StorageRequestRegistry registry = new StorageRequestRegistry(false, 10, 1);
+        RequestInfo ri = RequestInfo.build();
+        registry.register(ri);
+        Assert.assertEquals(0, registry.size());
+        Assert.assertFalse(registry.get(ri.getGroupId()).isPresent());
+        Assert.assertFalse(registry.complete(ri.getGroupId(), FileRequestType.COPY, FlowItemStatus.ERROR, ri));
+    }
+
+}
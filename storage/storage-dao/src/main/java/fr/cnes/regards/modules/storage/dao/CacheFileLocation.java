@@ -0,0 +1,38 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.net.URL;
+
+import fr.cnes.regards.modules.storage.domain.database.CacheFile;
+
+/**
+ * Projection of a {@link CacheFile} on its location, used to check cache coherence without loading whole entities.
+ *
+ * @author Sébastien Binda
+ */
+public interface CacheFileLocation {
+
+    Long getId();
+
+    String getChecksum();
+
+    URL getLocation();
+
+}
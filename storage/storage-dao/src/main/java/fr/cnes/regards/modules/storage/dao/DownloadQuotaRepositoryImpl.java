@@ -19,7 +19,9 @@
 package fr.cnes.regards.modules.storage.dao;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Iterables;
 import fr.cnes.regards.modules.storage.dao.entity.download.DefaultDownloadQuotaLimitsEntity;
+import fr.cnes.regards.modules.storage.dao.entity.download.DownloadQuotaLimitsEntity;
 import fr.cnes.regards.modules.storage.dao.entity.download.UserDownloadQuotaEntity;
 import fr.cnes.regards.modules.storage.dao.entity.download.UserDownloadRateEntity;
 import fr.cnes.regards.modules.storage.dao.entity.mapping.DomainEntityMapper;
@@ -30,8 +32,17 @@ import org.springframework.stereotype.Repository;
 
 import javax.persistence.EntityManager;
 import javax.persistence.PersistenceContext;
+import javax.persistence.Query;
 import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
 
 @Repository
 public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
@@ -41,6 +52,20 @@ public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
     public static final String COUNTER = "counter";
     public static final String GAUGE = "gauge";
     public static final String EXPIRY = "expiry";
+    public static final String EMAILS = "emails";
+    public static final String MAX_QUOTA = "maxQuota";
+    public static final String RATE_LIMIT = "rateLimit";
+
+    /**
+     * Maximum number of rows per multi-row upsert statement (keeps bind parameters count far below PostgreSQL limit)
+     */
+    private static final int UPSERT_CHUNK_SIZE = 1_000;
+
+    /**
+     * Maximum number of emails per totals query
+     */
+    private static final int FETCH_CHUNK_SIZE = 5_000;
+
     @Autowired
     private IDefaultDownloadQuotaLimitsEntityRepository delegateDefaultQuotaLimitsRepo;
 
@@ -90,6 +115,49 @@ public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
             .map(mapper::toDomain);
     }
 
+    @Override
+    public Map<String, DownloadQuotaLimits> findOrCreateByEmailIn(Collection<String> emails, Long maxQuota, Long rateLimit) {
+        Map<String, DownloadQuotaLimits> result = new HashMap<>();
+        for (List<String> chunk : Iterables.partition(emails, FETCH_CHUNK_SIZE)) {
+            delegateQuotaLimitsRepo.findByEmailIn(chunk)
+                .forEach(entity -> result.put(entity.getEmail(), mapper.toDomain(entity)));
+        }
+        List<String> missing = new ArrayList<>();
+        emails.stream().distinct().filter(email -> !result.containsKey(email)).forEach(missing::add);
+        for (List<String> chunk : Iterables.partition(missing, UPSERT_CHUNK_SIZE)) {
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                values.append(i == 0 ? "" : ", ")
+                    .append("(nextval('{h-schema}seq_download_quota_limits'), :email")
+                    .append(i).append(", :maxQuota, :rateLimit)");
+            }
+            // limits created meanwhile by another thread or instance are ignored here and fetched just after
+            Query query = entityManager.createNativeQuery(
+                "INSERT INTO {h-schema}t_user_download_quota_limits " +
+                    " (id, email, max_quota, rate_limit) " +
+                    " VALUES " + values +
+                    " ON CONFLICT (email) DO NOTHING " +
+                    " RETURNING *", DownloadQuotaLimitsEntity.class)
+                .setParameter(MAX_QUOTA, maxQuota)
+                .setParameter(RATE_LIMIT, rateLimit);
+            for (int i = 0; i < chunk.size(); i++) {
+                query.setParameter(EMAIL + i, chunk.get(i));
+            }
+            for (Object row : query.getResultList()) {
+                DownloadQuotaLimitsEntity entity = (DownloadQuotaLimitsEntity) row;
+                result.put(entity.getEmail(), mapper.toDomain(entity));
+            }
+            List<String> concurrentlyCreated = chunk.stream()
+                .filter(email -> !result.containsKey(email))
+                .collect(Collectors.toList());
+            if (!concurrentlyCreated.isEmpty()) {
+                delegateQuotaLimitsRepo.findByEmailIn(concurrentlyCreated)
+                    .forEach(entity -> result.put(entity.getEmail(), mapper.toDomain(entity)));
+            }
+        }
+        return result;
+    }
+
     @Override
     public void deleteByEmail(String email) {
         delegateQuotaLimitsRepo.deleteByEmail(email);
@@ -97,31 +165,57 @@ public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
 
     @Override
     public UserQuotaAggregate fetchDownloadQuotaSum(String email) {
-        return delegateQuotaRepo.findByEmail(email)
-            .stream()
-            .reduce(
-                new UserQuotaAggregate(0L),
-                (userCounter, downloadCounter) ->
-                    new UserQuotaAggregate(userCounter.getCounter() + downloadCounter.getCounter()),
-                (left, right) -> left
-            );
+        return fetchDownloadQuotaSums(Collections.singleton(email)).get(email);
     }
 
     @Override
     public UserRateAggregate fetchDownloadRatesSum(String email) {
-        return delegateRateRepo.findByEmail(email)
-            .stream()
-            .reduce(
-                new UserRateAggregate(0L),
-                (userGauge, downloadGauge) ->
-                    new UserRateAggregate(userGauge.getGauge() + downloadGauge.getGauge()),
-                (left, right) -> left
-            );
+        return fetchDownloadRatesSums(Collections.singleton(email)).get(email);
+    }
+
+    /**
+     * Totals across instances are maintained by triggers on instance counters (see V1.4.0.2 script)
+     * so that reading them does not depend on the number of instances.
+     */
+    @Override
+    public Map<String, UserQuotaAggregate> fetchDownloadQuotaSums(Collection<String> emails) {
+        Map<String, UserQuotaAggregate> result = new HashMap<>();
+        emails.forEach(email -> result.put(email, new UserQuotaAggregate(0L)));
+        for (List<String> chunk : Iterables.partition(emails, FETCH_CHUNK_SIZE)) {
+            List<?> rows = entityManager.createNativeQuery(
+                "SELECT email, counter FROM {h-schema}t_user_download_quota_total " +
+                    " WHERE email IN (:emails)")
+                .setParameter(EMAILS, chunk)
+                .getResultList();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                result.put((String) columns[0], new UserQuotaAggregate(((Number) columns[1]).longValue()));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, UserRateAggregate> fetchDownloadRatesSums(Collection<String> emails) {
+        Map<String, UserRateAggregate> result = new HashMap<>();
+        emails.forEach(email -> result.put(email, new UserRateAggregate(0L)));
+        for (List<String> chunk : Iterables.partition(emails, FETCH_CHUNK_SIZE)) {
+            List<?> rows = entityManager.createNativeQuery(
+                "SELECT email, gauge FROM {h-schema}t_user_download_rate_total " +
+                    " WHERE email IN (:emails)")
+                .setParameter(EMAILS, chunk)
+                .getResultList();
+            for (Object row : rows) {
+                Object[] columns = (Object[]) row;
+                result.put((String) columns[0], new UserRateAggregate(((Number) columns[1]).longValue()));
+            }
+        }
+        return result;
     }
 
     @Override
     public UserDownloadQuota upsertOrCombineDownloadQuota(String instanceId, String email, Long diff) {
-        entityManager.createNativeQuery(
+        UserDownloadQuotaEntity entity = (UserDownloadQuotaEntity) entityManager.createNativeQuery(
             "INSERT INTO {h-schema}t_user_download_quota_counter AS c " +
                 " (id, instance_id, email, counter) " +
                 " VALUES (nextval('{h-schema}seq_download_quota_counter'), :instance, :email, :counter) " +
@@ -134,20 +228,12 @@ public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
             .setParameter(COUNTER, diff)
             .getSingleResult();
 
-        UserDownloadQuotaEntity entity = (UserDownloadQuotaEntity) entityManager.createNativeQuery(
-            "SELECT * FROM {h-schema}t_user_download_quota_counter " +
-                " WHERE instance_id  = :instance " +
-                "   AND email        = :email", UserDownloadQuotaEntity.class)
-            .setParameter(INSTANCE, instanceId)
-            .setParameter(EMAIL, email)
-            .getSingleResult();
-
         return mapper.toDomain(entity);
     }
 
     @Override
     public UserDownloadRate upsertOrCombineDownloadRate(String instanceId, String email, Long diff, LocalDateTime expiry) {
-        entityManager.createNativeQuery(
+        UserDownloadRateEntity entity = (UserDownloadRateEntity) entityManager.createNativeQuery(
             "INSERT INTO {h-schema}t_user_download_rate_gauge AS r " +
                 " (id, instance_id, email, gauge, expiry) " +
                 " VALUES (nextval('{h-schema}seq_download_rate_gauge'), :instance, :email, :gauge, :expiry) " +
@@ -162,17 +248,77 @@ public class DownloadQuotaRepositoryImpl implements IDownloadQuotaRepository {
             .setParameter(EXPIRY, expiry)
             .getSingleResult();
 
-        UserDownloadRateEntity entity = (UserDownloadRateEntity) entityManager.createNativeQuery(
-            "SELECT * FROM {h-schema}t_user_download_rate_gauge " +
-                " WHERE instance_id  = :instance " +
-                "   AND email        = :email", UserDownloadRateEntity.class)
-            .setParameter(INSTANCE, instanceId)
-            .setParameter(EMAIL, email)
-            .getSingleResult();
-
         return mapper.toDomain(entity);
     }
 
+    /**
+     * Rows are upserted in email order to prevent deadlocks between instances on the totals rows updated by triggers.
+     */
+    @Override
+    public Map<String, UserDownloadQuota> upsertOrCombineDownloadQuotas(String instanceId, Map<String, Long> diffsByEmail) {
+        Map<String, UserDownloadQuota> result = new HashMap<>();
+        for (List<Map.Entry<String, Long>> chunk : Iterables.partition(new TreeMap<>(diffsByEmail).entrySet(), UPSERT_CHUNK_SIZE)) {
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                values.append(i == 0 ? "" : ", ")
+                    .append("(nextval('{h-schema}seq_download_quota_counter'), :instance, :email")
+                    .append(i).append(", :counter").append(i).append(')');
+            }
+            Query query = entityManager.createNativeQuery(
+                "INSERT INTO {h-schema}t_user_download_quota_counter AS c " +
+                    " (id, instance_id, email, counter) " +
+                    " VALUES " + values +
+                    " ON CONFLICT (instance_id, email) " +
+                    " DO UPDATE " +
+                    " SET counter  = c.counter + EXCLUDED.counter " +
+                    " RETURNING *", UserDownloadQuotaEntity.class)
+                .setParameter(INSTANCE, instanceId);
+            for (int i = 0; i < chunk.size(); i++) {
+                query.setParameter(EMAIL + i, chunk.get(i).getKey());
+                query.setParameter(COUNTER + i, chunk.get(i).getValue());
+            }
+            for (Object row : query.getResultList()) {
+                UserDownloadQuota quota = mapper.toDomain((UserDownloadQuotaEntity) row);
+                result.put(quota.getEmail(), quota);
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, UserDownloadRate> upsertOrCombineDownloadRates(String instanceId, Map<String, Long> diffsByEmail,
+        LocalDateTime expiry) {
+        Map<String, UserDownloadRate> result = new HashMap<>();
+        for (List<Map.Entry<String, Long>> chunk : Iterables.partition(new TreeMap<>(diffsByEmail).entrySet(), UPSERT_CHUNK_SIZE)) {
+            StringBuilder values = new StringBuilder();
+            for (int i = 0; i < chunk.size(); i++) {
+                values.append(i == 0 ? "" : ", ")
+                    .append("(nextval('{h-schema}seq_download_rate_gauge'), :instance, :email")
+                    .append(i).append(", :gauge").append(i).append(", :expiry)");
+            }
+            Query query = entityManager.createNativeQuery(
+                "INSERT INTO {h-schema}t_user_download_rate_gauge AS r " +
+                    " (id, instance_id, email, gauge, expiry) " +
+                    " VALUES " + values +
+                    " ON CONFLICT (instance_id, email) " +
+                    " DO UPDATE " +
+                    " SET gauge  = r.gauge + EXCLUDED.gauge " +
+                    "   , expiry = EXCLUDED.expiry " +
+                    " RETURNING *", UserDownloadRateEntity.class)
+                .setParameter(INSTANCE, instanceId)
+                .setParameter(EXPIRY, expiry);
+            for (int i = 0; i < chunk.size(); i++) {
+                query.setParameter(EMAIL + i, chunk.get(i).getKey());
+                query.setParameter(GAUGE + i, chunk.get(i).getValue());
+            }
+            for (Object row : query.getResultList()) {
+                UserDownloadRate rate = mapper.toDomain((UserDownloadRateEntity) row);
+                result.put(rate.getEmail(), rate);
+            }
+        }
+        return result;
+    }
+
     @Override
     public void deleteExpiredRates() {
         delegateRateRepo.deleteAllExpiredSince(LocalDateTime.now());
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.Session;
+import org.postgresql.PGConnection;
+import org.postgresql.copy.CopyIn;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
+import fr.cnes.regards.modules.storage.domain.dto.request.FileReferenceRequestDTO;
+
+/**
+ * Bulk loader to reference large amounts of files.<br/>
+ * Requests are streamed with PostgreSQL COPY into a transaction scoped temporary staging table, then merged into
+ * {@link FileReference}s with set based statements :
+ * <ul>
+ * <li>New (checksum, storage) pairs are inserted with all their requested owners,</li>
+ * <li>New owners are added to already existing file references,</li>
+ * <li>One successful request result info is created for each request.</li>
+ * </ul>
+ * Must be called inside a transaction. Requests on files with a deletion request must not be loaded with this loader
+ * as they need a specific handling. As file references are modified by SQL statements, the persistence context is
+ * flushed before the load and cleared after it.
+ *
+ * @author Sébastien Binda
+ */
+@Repository
+public class FileReferenceBulkLoader {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(FileReferenceBulkLoader.class);
+
+    private static final String STAGING_TABLE = "t_file_reference_staging";
+
+    private static final String CREATE_STAGING_TABLE = "CREATE TEMPORARY TABLE IF NOT EXISTS " + STAGING_TABLE
+            + " (group_id varchar(128), checksum varchar(128), algorithm varchar(16), filename varchar(256),"
+            + " filesize int8, height int4, width int4, mime_type varchar(255), type varchar(256),"
+            + " storage varchar(128), url varchar(2048), owner varchar(128)) ON COMMIT DELETE ROWS";
+
+    private static final String COPY_STAGING = "COPY " + STAGING_TABLE
+            + " (group_id, checksum, algorithm, filename, filesize, height, width, mime_type, type, storage, url,"
+            + " owner) FROM STDIN WITH (FORMAT csv)";
+
+    private static final String STAGED_OWNERS = "(SELECT checksum, storage, jsonb_agg(DISTINCT owner) AS owners FROM "
+            + STAGING_TABLE + " GROUP BY checksum, storage)";
+
+    private static final String INSERT_NEW_REFERENCES = "INSERT INTO {h-schema}t_file_reference"
+            + " (id, storage, url, algorithm, checksum, filename, filesize, height, width, mime_type, type, owners,"
+            + " storagedate)"
+            + " SELECT nextval('{h-schema}seq_file_reference'), s.storage, s.url, s.algorithm, s.checksum, s.filename,"
+            + " s.filesize, s.height, s.width, s.mime_type, s.type, o.owners, now() at time zone 'UTC'"
+            + " FROM (SELECT DISTINCT ON (checksum, storage) * FROM " + STAGING_TABLE + " ORDER BY checksum, storage) s"
+            + " JOIN " + STAGED_OWNERS + " o ON o.checksum = s.checksum AND o.storage = s.storage"
+            + " WHERE NOT EXISTS (SELECT 1 FROM {h-schema}t_file_reference f"
+            + " WHERE f.checksum = s.checksum AND f.storage = s.storage)"
+            + " ON CONFLICT ON CONSTRAINT uk_t_file_reference_checksum_storage DO NOTHING";
+
+    private static final String ADD_OWNERS = "UPDATE {h-schema}t_file_reference f SET owners ="
+            + " (SELECT jsonb_agg(x.owner) FROM"
+            + " (SELECT jsonb_array_elements_text(coalesce(f.owners, cast('[]' AS jsonb)))"
+            + " UNION SELECT jsonb_array_elements_text(o.owners)) AS x(owner))"
+            + " FROM " + STAGED_OWNERS + " o"
+            + " WHERE f.checksum = o.checksum AND f.storage = o.storage"
+            + " AND NOT (coalesce(f.owners, cast('[]' AS jsonb)) @> o.owners)";
+
+    private static final String INSERT_RESULTS = "INSERT INTO {h-schema}t_request_result_info"
+            + " (id, error, group_id, request_checksum, request_owners, request_storage, request_type,"
+            + " result_file_ref_id)"
+            + " SELECT nextval('{h-schema}seq_groups_requests_info'), false, s.group_id, s.checksum, f.owners,"
+            + " s.storage, 'REFERENCE', f.id"
+            + " FROM " + STAGING_TABLE + " s JOIN {h-schema}t_file_reference f"
+            + " ON f.checksum = s.checksum AND f.storage = s.storage"
+            + " RETURNING result_file_ref_id, group_id";
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Reference all the given files.
+     * @param requests {@link FileReferenceRequestDTO}s to reference by group identifier
+     * @return group identifiers by identifier of the created or updated {@link FileReference}s
+     */
+    public Multimap<Long, String> reference(Multimap<String, FileReferenceRequestDTO> requests) {
+        long start = System.currentTimeMillis();
+        entityManager.flush();
+        entityManager.createNativeQuery(CREATE_STAGING_TABLE).executeUpdate();
+        entityManager.createNativeQuery("TRUNCATE " + STAGING_TABLE).executeUpdate();
+        entityManager.unwrap(Session.class).doWork(connection -> {
+            CopyIn copyIn = connection.unwrap(PGConnection.class).getCopyAPI().copyIn(COPY_STAGING);
+            try {
+                for (Map.Entry<String, FileReferenceRequestDTO> request : requests.entries()) {
+                    byte[] row = toCsvRow(request.getKey(), request.getValue()).getBytes(StandardCharsets.UTF_8);
+                    copyIn.writeToCopy(row, 0, row.length);
+                }
+                copyIn.endCopy();
+            } finally {
+                if (copyIn.isActive()) {
+                    copyIn.cancelCopy();
+                }
+            }
+        });
+        int created = entityManager.createNativeQuery(INSERT_NEW_REFERENCES).executeUpdate();
+        int updated = entityManager.createNativeQuery(ADD_OWNERS).executeUpdate();
+        @SuppressWarnings("unchecked")
+        List<Object[]> results = entityManager.createNativeQuery(INSERT_RESULTS).getResultList();
+        Multimap<Long, String> groupsByFileRef = HashMultimap.create();
+        for (Object[] result : results) {
+            groupsByFileRef.put(((Number) result[0]).longValue(), (String) result[1]);
+        }
+        entityManager.clear();
+        LOGGER.info("[REFERENCE BULK] {} requests loaded ({} new files, {} files with new owners) in {}ms",
+                    requests.size(), created, updated, System.currentTimeMillis() - start);
+        return groupsByFileRef;
+    }
+
+    private static String toCsvRow(String groupId, FileReferenceRequestDTO request) {
+        StringBuilder row = new StringBuilder();
+        appendCsv(row, groupId).append(',');
+        appendCsv(row, request.getChecksum()).append(',');
+        appendCsv(row, request.getAlgorithm()).append(',');
+        appendCsv(row, request.getFileName()).append(',');
+        appendCsv(row, request.getFileSize()).append(',');
+        appendCsv(row, request.getHeight()).append(',');
+        appendCsv(row, request.getWidth()).append(',');
+        appendCsv(row, request.getMimeType()).append(',');
+        appendCsv(row, request.getType()).append(',');
+        appendCsv(row, request.getStorage()).append(',');
+        appendCsv(row, request.getUrl()).append(',');
+        appendCsv(row, request.getOwner()).append('\n');
+        return row.toString();
+    }
+
+    /**
+     * Append a CSV value. Null values are written as unquoted empty values, others are always quoted.
+     */
+    private static StringBuilder appendCsv(StringBuilder row, Object value) {
+        if (value != null) {
+            row.append('"').append(value.toString().replace("\"", "\"\"")).append('"');
+        }
+        return row;
+    }
+
+}
@@ -24,6 +24,8 @@ import java.util.Set;
 
 import javax.persistence.criteria.Join;
 import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+import javax.persistence.criteria.Subquery;
 
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort;
@@ -33,6 +35,7 @@ import com.google.common.collect.Sets;
 
 import fr.cnes.regards.framework.jpa.utils.SpecificationUtils;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
+import fr.cnes.regards.modules.storage.domain.database.FileReferenceOwner;
 
 /**
  * Specification class to filter DAO searches on {@link FileReference} entities
@@ -65,7 +68,11 @@ public class FileReferenceSpecification {
                 predicates.add(root.get("location").get("storage").in(storages));
             }
             if ((owners != null) && !owners.isEmpty()) {
-                predicates.add(root.get("owners").in(owners));
+                // Owners are stored as jsonb, so use the normalized and indexed owners table to filter on them.
+                Subquery<Long> ownersQuery = query.subquery(Long.class);
+                Root<FileReferenceOwner> ownerRoot = ownersQuery.from(FileReferenceOwner.class);
+                ownersQuery.select(ownerRoot.get("fileRefId")).where(ownerRoot.get("owner").in(owners));
+                predicates.add(root.get("id").in(ownersQuery));
             }
             if (from != null) {
                 predicates.add(cb.greaterThanOrEqualTo(root.get("storageDate"), from));
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.List;
+
+/**
+ * Repository fragment adding bulk writes to JPA repositories.<br/>
+ * Combined with hibernate JDBC batching configuration, entities are sent to the database by JDBC batches instead of
+ * one statement each.
+ *
+ * @param <T> entity type
+ * @author Sébastien Binda
+ */
+public interface IBatchSaveRepository<T> {
+
+    /**
+     * Save all the given entities, flushing and clearing the persistence context every batch of entities.<br/>
+     * <b>Note :</b> As the persistence context is cleared, all entities previously loaded in the current transaction
+     * are detached. Callers must not rely on them to be managed after this call. Detached entities given are merged,
+     * which costs one select each, so prefer saving new or managed entities.
+     * @param entities entities to save
+     * @return saved entities
+     */
+    <S extends T> List<S> saveAllInBatches(Iterable<S> entities);
+
+}
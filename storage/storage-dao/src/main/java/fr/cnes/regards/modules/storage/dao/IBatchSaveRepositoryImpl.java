@@ -0,0 +1,73 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.springframework.beans.factory.annotation.Value;
+
+/**
+ * Implementation of the {@link IBatchSaveRepository} fragment, shared by all repositories extending it.
+ *
+ * @param <T> entity type
+ * @author Sébastien Binda
+ */
+public class IBatchSaveRepositoryImpl<T> implements IBatchSaveRepository<T> {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Number of entities between two flushes. Should match hibernate JDBC batch size.
+     */
+    @Value("${spring.jpa.properties.hibernate.jdbc.batch_size:50}")
+    private int batchSize;
+
+    @Override
+    public <S extends T> List<S> saveAllInBatches(Iterable<S> entities) {
+        List<S> saved = new ArrayList<>();
+        int count = 0;
+        for (S entity : entities) {
+            if (entityManager.contains(entity)) {
+                // Managed entity, changes are sent at flush
+                saved.add(entity);
+            } else if (entityManager.getEntityManagerFactory().getPersistenceUnitUtil().getIdentifier(entity) == null) {
+                entityManager.persist(entity);
+                saved.add(entity);
+            } else {
+                saved.add(entityManager.merge(entity));
+            }
+            count++;
+            if ((count % batchSize) == 0) {
+                entityManager.flush();
+                entityManager.clear();
+            }
+        }
+        if ((count % batchSize) != 0) {
+            entityManager.flush();
+            entityManager.clear();
+        }
+        return saved;
+    }
+
+}
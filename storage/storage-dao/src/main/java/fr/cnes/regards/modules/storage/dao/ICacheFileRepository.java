@@ -19,13 +19,17 @@
 package fr.cnes.regards.modules.storage.dao;
 
 import java.time.OffsetDateTime;
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.query.Param;
 
 import fr.cnes.regards.modules.storage.domain.database.CacheFile;
 
@@ -34,7 +38,8 @@ import fr.cnes.regards.modules.storage.domain.database.CacheFile;
  *
  * @author Sébastien Binda
  */
-public interface ICacheFileRepository extends JpaRepository<CacheFile, Long> {
+public interface ICacheFileRepository extends JpaRepository<CacheFile, Long>,
+        IBatchSaveRepository<CacheFile> {
 
     /**
      * Get all {@link CacheFile}s for the given {@link String}s of checksums.
@@ -57,6 +62,24 @@ public interface ICacheFileRepository extends JpaRepository<CacheFile, Long> {
      */
     Page<CacheFile> findByExpirationDateBefore(OffsetDateTime pEpirationDate, Pageable pageable);
 
+    /**
+     * Retrieve the location of the {@link CacheFile}s expired before the given date with an id greater than the given
+     * one, ordered by id.
+     * @param expirationDate {@link OffsetDateTime}
+     * @param lastId last id already handled
+     * @param pageable page size
+     * @return {@link CacheFileLocation}s
+     */
+    List<CacheFileLocation> findByExpirationDateBeforeAndIdGreaterThanOrderByIdAsc(OffsetDateTime expirationDate,
+            Long lastId, Pageable pageable);
+
+    /**
+     * Count {@link CacheFile}s with expiration date before the given {@link OffsetDateTime}
+     * @param expirationDate {@link OffsetDateTime}
+     * @return number of expired {@link CacheFile}s
+     */
+    long countByExpirationDateBefore(OffsetDateTime expirationDate);
+
     /**
      * Remove a {@link CacheFile} by his checksum.
      * @param checksum {@link String}
@@ -65,4 +88,56 @@ public interface ICacheFileRepository extends JpaRepository<CacheFile, Long> {
 
     @Query("select coalesce(sum(cf.fileSize), 0) from CacheFile cf")
     Long getTotalFileSize();
+
+    @Query("select coalesce(sum(cf.fileSize), 0) from CacheFile cf where cf.prefetch = true")
+    Long getPrefetchFileSize();
+
+    /**
+     * Retrieve prefetched {@link CacheFile}s, the ones expiring first first.
+     * @param page {@link Pageable}
+     * @return prefetched {@link CacheFile}s
+     */
+    Page<CacheFile> findByPrefetchTrueOrderByExpirationDateAsc(Pageable page);
+
+    /**
+     * Calculate the cache space used by each of the given requesters.
+     * @param requesters requesters
+     * @return {@link RequesterCacheSize}s
+     */
+    @Query("select cf.requester as requester, sum(cf.fileSize) as usedSize from CacheFile cf"
+            + " where cf.requester in (:requesters) group by cf.requester")
+    List<RequesterCacheSize> getFileSizeByRequester(@Param("requesters") Collection<String> requesters);
+
+    /**
+     * Retrieve the distinct first two characters of the cached files checksums. Those are the names of the first
+     * level directories of the cache.
+     * @return checksum prefixes
+     */
+    @Query(value = "select distinct substring(checksum, 1, 2) from {h-schema}t_cache_file", nativeQuery = true)
+    Set<String> findChecksumPrefixes();
+
+    /**
+     * Retrieve the location of all {@link CacheFile}s with a checksum starting with the given prefix.
+     * @param prefix checksum prefix
+     * @return {@link CacheFileLocation}s
+     */
+    List<CacheFileLocation> findByChecksumStartingWith(String prefix);
+
+    /**
+     * Delete the {@link CacheFile}s with the given ids, without loading them.
+     * @param ids {@link CacheFile} ids
+     * @return number of deleted {@link CacheFile}s
+     */
+    default int deleteAllByIdIn(Collection<Long> ids) {
+        deleteGroupIdsByCacheFileIdIn(ids);
+        return deleteByIdIn(ids);
+    }
+
+    @Modifying
+    @Query(value = "delete from {h-schema}ta_cache_file_group_ids where cache_file_id in (:ids)", nativeQuery = true)
+    int deleteGroupIdsByCacheFileIdIn(@Param("ids") Collection<Long> ids);
+
+    @Modifying
+    @Query("delete from CacheFile cf where cf.id in (:ids)")
+    int deleteByIdIn(@Param("ids") Collection<Long> ids);
 }
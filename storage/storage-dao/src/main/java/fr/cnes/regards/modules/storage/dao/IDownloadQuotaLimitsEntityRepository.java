@@ -22,6 +22,8 @@ import fr.cnes.regards.modules.storage.dao.entity.download.DownloadQuotaLimitsEn
 import org.springframework.data.jpa.repository.JpaRepository;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 
 @Repository
@@ -29,6 +31,8 @@ public interface IDownloadQuotaLimitsEntityRepository extends JpaRepository<Down
 
     Optional<DownloadQuotaLimitsEntity> findByEmail(String email);
 
+    List<DownloadQuotaLimitsEntity> findByEmailIn(Collection<String> emails);
+
     void deleteByEmail(String email);
 
 }
@@ -18,6 +18,8 @@
  */
 package fr.cnes.regards.modules.storage.dao;
 
+import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -42,7 +44,7 @@ public interface IFileCacheRequestRepository extends JpaRepository<FileCacheRequ
 
     Page<FileCacheRequest> findByStatus(FileRequestStatus status, Pageable page);
 
-    @Query("select storage from FileCacheRequest where status = :status")
+    @Query("select distinct storage from FileCacheRequest where status = :status")
     Set<String> findStoragesByStatus(@Param("status") FileRequestStatus status);
 
     Optional<FileCacheRequest> findByChecksum(String checksum);
@@ -52,6 +54,9 @@ public interface IFileCacheRequestRepository extends JpaRepository<FileCacheRequ
     Page<FileCacheRequest> findAllByStorageAndStatusAndIdGreaterThan(String storage, FileRequestStatus status,
             Long maxId, Pageable page);
 
+    Page<FileCacheRequest> findAllByStorageAndStatusAndPrefetchAndInteractiveAndIdGreaterThan(String storage,
+            FileRequestStatus status, boolean prefetch, boolean interactive, Long maxId, Pageable page);
+
     Set<FileCacheRequest> findByGroupId(String groupId);
 
     Set<FileCacheRequest> findByGroupIdAndStatus(String groupId, FileRequestStatus status);
@@ -69,7 +74,8 @@ public interface IFileCacheRequestRepository extends JpaRepository<FileCacheRequ
     int updateStatus(@Param("status") FileRequestStatus status, @Param("id") Long id);
 
     @Modifying
-    @Query("update FileCacheRequest fcr set fcr.status = :status, fcr.errorCause = :errorCause where fcr.id = :id")
+    @Query("update FileCacheRequest fcr set fcr.status = :status, fcr.errorCause = :errorCause,"
+            + " fcr.reservedSize = null where fcr.id = :id")
     int updateError(@Param("status") FileRequestStatus status, @Param("errorCause") String errorCause,
             @Param("id") Long id);
 
@@ -81,4 +87,23 @@ public interface IFileCacheRequestRepository extends JpaRepository<FileCacheRequ
     @Query("select coalesce(sum(fcr.fileSize),0) from FileCacheRequest fcr where fcr.status = 'PENDING'")
     Long getPendingFileSize();
 
+    @Query("select coalesce(sum(fcr.fileSize),0) from FileCacheRequest fcr where fcr.prefetch = true")
+    Long getPrefetchFileSize();
+
+    @Query("select coalesce(sum(fcr.reservedSize),0) from FileCacheRequest fcr")
+    Long getReservedSize();
+
+    /**
+     * Calculate the cache space reserved by in-flight restorations of each of the given requesters.
+     * @param requesters requesters
+     * @return {@link RequesterCacheSize}s
+     */
+    @Query("select fcr.requester as requester, sum(fcr.reservedSize) as usedSize from FileCacheRequest fcr"
+            + " where fcr.requester in (:requesters) and fcr.reservedSize is not null group by fcr.requester")
+    List<RequesterCacheSize> getReservedSizeByRequester(@Param("requesters") Collection<String> requesters);
+
+    @Modifying
+    @Query("update FileCacheRequest fcr set fcr.reservedSize = :size where fcr.id = :id")
+    int updateReservedSize(@Param("size") Long size, @Param("id") Long id);
+
 }
@@ -46,7 +46,7 @@ public interface IFileDeletetionRequestRepository extends JpaRepository<FileDele
 
     Page<FileDeletionRequest> findByStorage(String storage, Pageable page);
 
-    @Query("select storage from FileDeletionRequest where status = :status")
+    @Query("select distinct storage from FileDeletionRequest where status = :status")
     Set<String> findStoragesByStatus(@Param("status") FileRequestStatus status);
 
     Set<FileDeletionRequest> findByGroupId(String groupId);
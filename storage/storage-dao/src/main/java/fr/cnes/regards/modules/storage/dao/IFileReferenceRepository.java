@@ -39,7 +39,8 @@ import fr.cnes.regards.modules.storage.domain.database.StorageMonitoringAggregat
  *
  */
 public interface IFileReferenceRepository
-        extends JpaRepository<FileReference, Long>, JpaSpecificationExecutor<FileReference> {
+        extends JpaRepository<FileReference, Long>, JpaSpecificationExecutor<FileReference>,
+        IBatchSaveRepository<FileReference>, IFileReferenceStreamRepository {
 
     Page<FileReference> findByLocationStorage(String storage, Pageable page);
 
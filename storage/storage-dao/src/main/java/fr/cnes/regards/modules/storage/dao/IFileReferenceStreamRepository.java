@@ -0,0 +1,45 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.function.Consumer;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
+
+/**
+ * Repository fragment to read large amounts of {@link FileReference}s.<br/>
+ * References are read through a server side cursor instead of pages, so that no count and no offset is computed
+ * whatever the number of references read.
+ *
+ * @author Sébastien Binda
+ */
+public interface IFileReferenceStreamRepository {
+
+    /**
+     * Read all the {@link FileReference}s matching the given criterion, ordered by id.<br/>
+     * Must be called in a transaction. Each reference is detached from the persistence context once consumed.
+     * @param spec criterion
+     * @param consumer consumer of each {@link FileReference}
+     * @return number of {@link FileReference}s read
+     */
+    long streamAll(Specification<FileReference> spec, Consumer<FileReference> consumer);
+
+}
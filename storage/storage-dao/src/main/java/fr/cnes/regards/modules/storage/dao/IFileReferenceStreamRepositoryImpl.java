@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.Iterator;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Root;
+
+import org.hibernate.jpa.QueryHints;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
+
+/**
+ * Implementation of the {@link IFileReferenceStreamRepository} fragment.
+ *
+ * @author Sébastien Binda
+ */
+public class IFileReferenceStreamRepositoryImpl implements IFileReferenceStreamRepository {
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    /**
+     * Number of rows fetched from the database cursor at once
+     */
+    @Value("${regards.storage.files.stream.fetch.size:10000}")
+    private int fetchSize;
+
+    @Override
+    public long streamAll(Specification<FileReference> spec, Consumer<FileReference> consumer) {
+        CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+        CriteriaQuery<FileReference> query = cb.createQuery(FileReference.class);
+        Root<FileReference> root = query.from(FileReference.class);
+        query.select(root);
+        if (spec != null) {
+            query.where(spec.toPredicate(root, query, cb));
+        }
+        long count = 0;
+        try (Stream<FileReference> stream = entityManager.createQuery(query)
+                .setHint(QueryHints.HINT_FETCH_SIZE, fetchSize).setHint(QueryHints.HINT_READONLY, true)
+                .getResultStream()) {
+            Iterator<FileReference> it = stream.iterator();
+            while (it.hasNext()) {
+                FileReference fileRef = it.next();
+                consumer.accept(fileRef);
+                entityManager.detach(fileRef);
+                count++;
+            }
+        }
+        return count;
+    }
+
+}
@@ -38,7 +38,8 @@ import fr.cnes.regards.modules.storage.domain.database.request.FileStorageReques
  * @author Sébatien Binda
  *
  */
-public interface IFileStorageRequestRepository extends JpaRepository<FileStorageRequest, Long> {
+public interface IFileStorageRequestRepository extends JpaRepository<FileStorageRequest, Long>,
+        IBatchSaveRepository<FileStorageRequest> {
 
     Page<FileStorageRequest> findByStorage(String storage, Pageable pageable);
 
@@ -64,7 +65,7 @@ public interface IFileStorageRequestRepository extends JpaRepository<FileStorage
     Page<FileStorageRequest> findAllByStorageAndStatusAndOwnersInAndIdGreaterThan(String storage,
             FileRequestStatus status, Collection<String> owners, Long id, Pageable page);
 
-    @Query("select storage from FileStorageRequest where status = :status")
+    @Query("select distinct storage from FileStorageRequest where status = :status")
     Set<String> findStoragesByStatus(@Param("status") FileRequestStatus status);
 
     @Modifying
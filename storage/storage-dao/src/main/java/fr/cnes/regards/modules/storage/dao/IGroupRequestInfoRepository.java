@@ -31,7 +31,8 @@ import fr.cnes.regards.modules.storage.domain.database.request.RequestResultInfo
  * @author Sébatien Binda
  *
  */
-public interface IGroupRequestInfoRepository extends JpaRepository<RequestResultInfo, Long> {
+public interface IGroupRequestInfoRepository extends JpaRepository<RequestResultInfo, Long>,
+        IBatchSaveRepository<RequestResultInfo> {
 
     /**
      * Retrieve all {@RequestResultInfo}s matching the given group id.
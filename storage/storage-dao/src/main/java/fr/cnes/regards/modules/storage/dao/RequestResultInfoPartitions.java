@@ -0,0 +1,233 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.modules.storage.domain.database.request.RequestResultInfo;
+
+/**
+ * Handle the daily partitions of the {@link RequestResultInfo}s table.<br/>
+ * Each partition holds the results created during one day (UTC). Partitions are named
+ * t_request_result_info_pYYYYMMDD.<br/>
+ * Rows created on a day without partition go to the default partition t_request_result_info_default. They are moved
+ * to the daily partition when it is created.<br/>
+ * When the transient request tables mode is enabled, new partitions are created unlogged (see
+ * {@link TransientRequestTables}).
+ *
+ * @author Sébastien Binda
+ */
+@Repository
+@MultitenantTransactional
+public class RequestResultInfoPartitions {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestResultInfoPartitions.class);
+
+    private static final String TABLE = "t_request_result_info";
+
+    private static final String PARTITION_PREFIX = TABLE + "_p";
+
+    private static final String DEFAULT_PARTITION = TABLE + "_default";
+
+    private static final String MOVED_TABLE = "tmp_request_result_info_moved";
+
+    private static final String GROUP_TABLE = "t_request_group";
+
+    private static final DateTimeFormatter PARTITION_SUFFIX = DateTimeFormatter.BASIC_ISO_DATE;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Value("${" + TransientRequestTables.UNLOGGED_PROPERTY + ":false}")
+    private boolean unlogged;
+
+    /**
+     * Maximum time to wait for the lock of the results table to detach a partition
+     */
+    @Value("${regards.storage.groups.results.partitions.lock.timeout:5000}")
+    private long lockTimeoutMs;
+
+    @Autowired
+    private RequestResultInfoPartitions self;
+
+    /**
+     * @return days of the existing partitions
+     */
+    public SortedSet<LocalDate> getPartitionDays() {
+        @SuppressWarnings("unchecked")
+        List<String> names = entityManager
+                .createNativeQuery("SELECT c.relname FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid"
+                        + " WHERE i.inhparent = cast('{h-schema}" + TABLE + "' AS regclass)")
+                .getResultList();
+        SortedSet<LocalDate> days = new TreeSet<>();
+        for (String name : names) {
+            if (name.startsWith(PARTITION_PREFIX)) {
+                days.add(LocalDate.parse(name.substring(PARTITION_PREFIX.length()), PARTITION_SUFFIX));
+            }
+        }
+        return days;
+    }
+
+    /**
+     * Create the missing daily partitions from the given first day to the given last day included.<br/>
+     * Rows of the default partition belonging to a created partition are moved into it.
+     * @param from first day
+     * @param to last day
+     * @return number of created partitions
+     */
+    public int createPartitions(LocalDate from, LocalDate to) {
+        SortedSet<LocalDate> existing = getPartitionDays();
+        int created = 0;
+        for (LocalDate day = from; !day.isAfter(to); day = day.plusDays(1)) {
+            if (!existing.contains(day)) {
+                int moved = moveOutOfDefaultPartition(day);
+                String query = String.format("CREATE %sTABLE IF NOT EXISTS {h-schema}%s PARTITION OF {h-schema}%s"
+                        + " FOR VALUES FROM ('%s') TO ('%s')", unlogged ? "UNLOGGED " : "", getPartitionName(day),
+                                             TABLE, day, day.plusDays(1));
+                entityManager.createNativeQuery(query).executeUpdate();
+                if (moved > 0) {
+                    entityManager.createNativeQuery(String.format("WITH moved AS (DELETE FROM %s RETURNING *)"
+                            + " INSERT INTO {h-schema}%s SELECT * FROM moved", MOVED_TABLE, TABLE)).executeUpdate();
+                }
+                LOGGER.info("[REQUEST RESULTS] Partition {} created with {} rows from the default partition",
+                            getPartitionName(day), moved);
+                created++;
+            }
+        }
+        return created;
+    }
+
+    /**
+     * Drop all the daily partitions before the given day, excluded.<br/>
+     * Results of still pending groups are moved to the given day before their partition is dropped. Old results of
+     * terminated groups are also deleted from the default partition.<br/>
+     * Each partition is handled in its own transactions (see {@link #dropPartition(LocalDate)}). A partition that
+     * cannot be detached in time is kept for the next call.
+     * @param day first day to keep
+     * @return number of dropped partitions
+     */
+    public int dropPartitionsBefore(LocalDate day) {
+        int dropped = 0;
+        for (LocalDate partitionDay : getPartitionDays().headSet(day)) {
+            // Past partitions receive no new results, so results moved here cannot be missed by the drop
+            int moved = self.keepPendingResults(partitionDay, day);
+            try {
+                self.dropPartition(partitionDay);
+                LOGGER.info("[REQUEST RESULTS] Partition {} dropped. {} results of pending groups kept",
+                            getPartitionName(partitionDay), moved);
+                dropped++;
+            } catch (DataAccessException e) {
+                LOGGER.warn("[REQUEST RESULTS] Partition {} not dropped, it will be retried later. Cause : {}",
+                            getPartitionName(partitionDay), e.getMessage());
+            }
+        }
+        int deleted = entityManager.createNativeQuery(String.format("DELETE FROM {h-schema}%s"
+                + " WHERE creation_date < '%s' AND group_id NOT IN (SELECT id FROM {h-schema}%s)", DEFAULT_PARTITION,
+                                                                    day, GROUP_TABLE))
+                .executeUpdate();
+        if (deleted > 0) {
+            LOGGER.info("[REQUEST RESULTS] {} old results of terminated groups deleted from partition {}", deleted,
+                        DEFAULT_PARTITION);
+        }
+        return dropped;
+    }
+
+    /**
+     * Move the results of pending groups created during the given partition day to the given day.
+     * @param partitionDay day of the partition to empty of pending groups results
+     * @param day day to move the results to
+     * @return number of moved results
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public int keepPendingResults(LocalDate partitionDay, LocalDate day) {
+        return entityManager.createNativeQuery(String.format("UPDATE {h-schema}%s SET creation_date = '%s'"
+                + " WHERE creation_date >= '%s' AND creation_date < '%s'"
+                + " AND group_id IN (SELECT id FROM {h-schema}%s)", TABLE, day, partitionDay, partitionDay.plusDays(1),
+                                                             GROUP_TABLE))
+                .executeUpdate();
+    }
+
+    /**
+     * Detach the partition of the given day then drop it, in a dedicated short transaction.<br/>
+     * Detaching locks the parent table in ACCESS EXCLUSIVE mode until commit, which blocks every result insert. The
+     * lock is therefore held only for the detach and the drop of the detached table, and is not waited for more than
+     * regards.storage.groups.results.partitions.lock.timeout milliseconds, so that a long running transaction on the
+     * table does not make the inserts queue behind the detach. DETACH PARTITION CONCURRENTLY, which would only take a
+     * SHARE UPDATE EXCLUSIVE lock, cannot be used: PostgreSQL refuses it on a table with a default partition, and
+     * inside a transaction block.
+     * @param day
+     */
+    @Transactional(propagation = Propagation.REQUIRES_NEW)
+    public void dropPartition(LocalDate day) {
+        entityManager.createNativeQuery(String.format("SET LOCAL lock_timeout = %d", lockTimeoutMs)).executeUpdate();
+        entityManager.createNativeQuery(String.format("ALTER TABLE {h-schema}%s DETACH PARTITION {h-schema}%s", TABLE,
+                                                      getPartitionName(day)))
+                .executeUpdate();
+        entityManager.createNativeQuery(String.format("DROP TABLE {h-schema}%s", getPartitionName(day)))
+                .executeUpdate();
+    }
+
+    /**
+     * @return names of the existing partitions, default partition included
+     */
+    public List<String> getPartitionNames() {
+        List<String> names = getPartitionDays().stream().map(RequestResultInfoPartitions::getPartitionName)
+                .collect(Collectors.toList());
+        names.add(DEFAULT_PARTITION);
+        return names;
+    }
+
+    /**
+     * Move the rows of the default partition created during the given day into a temporary table, as the partition
+     * of the day cannot be created while the default partition holds some of its rows.
+     * @param day
+     * @return number of moved rows
+     */
+    private int moveOutOfDefaultPartition(LocalDate day) {
+        entityManager.createNativeQuery(String.format("CREATE TEMPORARY TABLE IF NOT EXISTS %s"
+                + " (LIKE {h-schema}%s) ON COMMIT DROP", MOVED_TABLE, TABLE)).executeUpdate();
+        return entityManager.createNativeQuery(String.format("WITH moved AS (DELETE FROM {h-schema}%s"
+                + " WHERE creation_date >= '%s' AND creation_date < '%s' RETURNING *)"
+                + " INSERT INTO %s SELECT * FROM moved", DEFAULT_PARTITION, day, day.plusDays(1), MOVED_TABLE))
+                .executeUpdate();
+    }
+
+    private static String getPartitionName(LocalDate day) {
+        return PARTITION_PREFIX + day.format(PARTITION_SUFFIX);
+    }
+
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Repository;
+
+import com.google.common.collect.Lists;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+
+/**
+ * Handle the durability of the transient request tables : storage requests, cache requests, requests groups and
+ * requests results.<br/>
+ * Rows of those tables only live from a few minutes to a few hours, so they generate most of the WAL of the storage
+ * database. When the {@link #UNLOGGED_PROPERTY} mode is enabled those tables are UNLOGGED : writes are not WAL-logged,
+ * which makes inserts, updates and deletes cheaper, but the tables are truncated after a database crash and are not
+ * replicated to standby servers.<br/>
+ * An unlogged marker table is used to detect such truncation, so that the in-flight requests can be rebuilt.
+ *
+ * @author Sébastien Binda
+ */
+@Repository
+@MultitenantTransactional
+public class TransientRequestTables {
+
+    /**
+     * Property to enable the unlogged mode of the transient request tables.
+     */
+    public static final String UNLOGGED_PROPERTY = "regards.storage.transient.tables.unlogged";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransientRequestTables.class);
+
+    private static final String MARKER_TABLE = "t_transient_tables_marker";
+
+    /**
+     * Transient tables, referencing tables first as a logged table cannot reference an unlogged one.
+     */
+    private static final List<String> TABLES = Lists
+            .newArrayList("ta_file_storage_request_owners", "ta_storage_request_group_ids", "t_file_storage_request",
+                          "t_file_cache_request", "t_request_group", MARKER_TABLE);
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private RequestResultInfoPartitions resultPartitions;
+
+    /**
+     * @param table table name
+     * @return true if the given table is unlogged
+     */
+    public boolean isUnlogged(String table) {
+        Object persistence = entityManager
+                .createNativeQuery("SELECT cast(relpersistence AS text) FROM pg_class"
+                        + " WHERE oid = cast('{h-schema}" + table + "' AS regclass)")
+                .getSingleResult();
+        return "u".equals(persistence);
+    }
+
+    /**
+     * Switch all the transient tables to unlogged or logged tables. Tables already in the expected mode are not
+     * altered. Each switch rewrites the table under an exclusive lock.
+     * @param unlogged true to switch to unlogged tables
+     * @return number of altered tables
+     */
+    public int setUnlogged(boolean unlogged) {
+        List<String> tables = Lists.newArrayList(resultPartitions.getPartitionNames());
+        tables.addAll(TABLES);
+        if (!unlogged) {
+            tables = Lists.reverse(tables);
+        }
+        int altered = 0;
+        for (String table : tables) {
+            if (isUnlogged(table) != unlogged) {
+                entityManager.createNativeQuery(String.format("ALTER TABLE {h-schema}%s SET %s", table,
+                                                              unlogged ? "UNLOGGED" : "LOGGED"))
+                        .executeUpdate();
+                LOGGER.info("[TRANSIENT TABLES] Table {} is now {}", table, unlogged ? "unlogged" : "logged");
+                altered++;
+            }
+        }
+        return altered;
+    }
+
+    /**
+     * @return true if the transient tables are unlogged and have been truncated since the last call to {@link #mark()}
+     */
+    public boolean isTruncated() {
+        return isUnlogged(MARKER_TABLE) && !isMarked();
+    }
+
+    /**
+     * Mark the transient tables as complete. The mark is lost if the tables are truncated.
+     */
+    public void mark() {
+        entityManager.createNativeQuery("INSERT INTO {h-schema}" + MARKER_TABLE
+                + " (id, marked_at) VALUES (1, now()) ON CONFLICT (id) DO UPDATE SET marked_at = excluded.marked_at")
+                .executeUpdate();
+    }
+
+    private boolean isMarked() {
+        return !entityManager.createNativeQuery("SELECT id FROM {h-schema}" + MARKER_TABLE).getResultList().isEmpty();
+    }
+
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Allow the read-only transaction started by the annotated method to be routed to the read replica of the tenant
+ * database (see {@link ReadReplicaConnectionProvider}).<br/>
+ * Only use on methods that do not write anything. The call is routed to the replica only if no transaction is active
+ * when the method is called, a replica is configured for the tenant, and the replica lag is lower than
+ * {@link #maxStalenessMs()}. Otherwise the primary database is used.<br/>
+ * Do not use on methods reading the transient request tables, as unlogged tables cannot be read on a replica.
+ *
+ * @author Sébastien Binda
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReadReplica {
+
+    /**
+     * @return maximum replica lag in milliseconds tolerated by the call site
+     */
+    long maxStalenessMs() default 5_000L;
+
+}
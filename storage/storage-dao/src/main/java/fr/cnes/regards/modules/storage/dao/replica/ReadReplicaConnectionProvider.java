@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Optional;
+import java.util.Set;
+
+import javax.sql.DataSource;
+
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * {@link MultiTenantConnectionProvider} routing the connections of the {@link ReadReplica} calls to the read replica
+ * of the tenant, and all the other connections to the tenant primary database provided by the decorated provider.<br/>
+ * When no connection can be obtained from the replica, the primary is used.
+ *
+ * @author Sébastien Binda
+ */
+public class ReadReplicaConnectionProvider implements MultiTenantConnectionProvider {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadReplicaConnectionProvider.class);
+
+    private final MultiTenantConnectionProvider delegate;
+
+    private final transient ReadReplicaDataSources replicas;
+
+    /**
+     * Connections provided by replicas, to release them to their pools
+     */
+    private final transient Set<Connection> replicaConnections = Collections
+            .synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    public ReadReplicaConnectionProvider(MultiTenantConnectionProvider delegate, ReadReplicaDataSources replicas) {
+        this.delegate = delegate;
+        this.replicas = replicas;
+    }
+
+    @Override
+    public Connection getConnection(String tenantIdentifier) throws SQLException {
+        Optional<Long> maxStaleness = ReadReplicaContext.getMaxStalenessMs();
+        if (maxStaleness.isPresent()) {
+            Optional<DataSource> replica = replicas.getReplica(tenantIdentifier, maxStaleness.get());
+            if (replica.isPresent()) {
+                try {
+                    Connection connection = replica.get().getConnection();
+                    replicaConnections.add(connection);
+                    return connection;
+                } catch (SQLException | RuntimeException e) {
+                    LOGGER.warn("[READ REPLICA] Unable to connect to the replica of tenant {}. Primary is used. "
+                            + "Cause : {}", tenantIdentifier, e.getMessage());
+                    replicas.markUnavailable(tenantIdentifier);
+                }
+            }
+        }
+        return delegate.getConnection(tenantIdentifier);
+    }
+
+    @Override
+    public void releaseConnection(String tenantIdentifier, Connection connection) throws SQLException {
+        if (replicaConnections.remove(connection)) {
+            connection.close();
+        } else {
+            delegate.releaseConnection(tenantIdentifier, connection);
+        }
+    }
+
+    @Override
+    public Connection getAnyConnection() throws SQLException {
+        return delegate.getAnyConnection();
+    }
+
+    @Override
+    public void releaseAnyConnection(Connection connection) throws SQLException {
+        delegate.releaseAnyConnection(connection);
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return delegate.supportsAggressiveRelease();
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return delegate.isUnwrappableAs(unwrapType);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType) {
+        return delegate.unwrap(unwrapType);
+    }
+
+}
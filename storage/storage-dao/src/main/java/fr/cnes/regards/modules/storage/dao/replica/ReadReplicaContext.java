@@ -0,0 +1,57 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.util.Optional;
+
+/**
+ * Thread context of the {@link ReadReplica} calls being executed.
+ *
+ * @author Sébastien Binda
+ */
+public final class ReadReplicaContext {
+
+    private static final ThreadLocal<Long> MAX_STALENESS = new ThreadLocal<>();
+
+    private ReadReplicaContext() {
+    }
+
+    /**
+     * @return maximum replica lag tolerated by the current call, empty if the current call must use the primary
+     */
+    public static Optional<Long> getMaxStalenessMs() {
+        return Optional.ofNullable(MAX_STALENESS.get());
+    }
+
+    /**
+     * Set the maximum replica lag tolerated by the current call
+     * @param maxStalenessMs maximum lag or null to use the primary
+     * @return previous maximum lag, to be restored at the end of the call
+     */
+    public static Long setMaxStalenessMs(Long maxStalenessMs) {
+        Long previous = MAX_STALENESS.get();
+        if (maxStalenessMs == null) {
+            MAX_STALENESS.remove();
+        } else {
+            MAX_STALENESS.set(maxStalenessMs);
+        }
+        return previous;
+    }
+
+}
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.core.env.Environment;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+/**
+ * Pools of connections to the read replicas of the tenants databases, with their replication lag.<br/>
+ * The replica of a tenant is configured with properties :
+ * <ul>
+ * <li>regards.storage.replica.tenants.&lt;tenant&gt;.url</li>
+ * <li>regards.storage.replica.tenants.&lt;tenant&gt;.user</li>
+ * <li>regards.storage.replica.tenants.&lt;tenant&gt;.password</li>
+ * </ul>
+ * The lag of each replica is measured asynchronously, at most once per regards.storage.replica.lag.check.period
+ * milliseconds. Until its first measure, or when it cannot be measured, a replica is considered too late and the
+ * primary is used.<br/>
+ * Replica pools are created without checking the replica is reachable, and connections to the replicas time out after
+ * regards.storage.replica.connection.timeout milliseconds.
+ *
+ * @author Sébastien Binda
+ */
+public class ReadReplicaDataSources {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadReplicaDataSources.class);
+
+    private static final String TENANT_PROPERTY_PREFIX = "regards.storage.replica.tenants.";
+
+    /**
+     * Lag is zero when all the received WAL is replayed, else it is the age of the last replayed transaction.
+     * A database that is not in recovery is never late.
+     */
+    private static final String LAG_QUERY = "SELECT CASE WHEN NOT pg_is_in_recovery()"
+            + " OR pg_last_wal_receive_lsn() = pg_last_wal_replay_lsn() THEN 0"
+            + " ELSE COALESCE(EXTRACT(EPOCH FROM now() - pg_last_xact_replay_timestamp()) * 1000, 0) END";
+
+    private final Environment env;
+
+    private final long lagCheckPeriodMs;
+
+    private final int maxPoolSize;
+
+    private final long connectionTimeoutMs;
+
+    private final long validationTimeoutMs;
+
+    private final Map<String, Optional<DataSource>> replicas = new ConcurrentHashMap<>();
+
+    private final Map<String, ReplicaLag> lags = new ConcurrentHashMap<>();
+
+    /**
+     * Tenants whose replica lag is being measured
+     */
+    private final Set<String> measuring = ConcurrentHashMap.newKeySet();
+
+    private final Executor lagExecutor;
+
+    public ReadReplicaDataSources(Environment env) {
+        this(env, Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "replica-lag");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+    ReadReplicaDataSources(Environment env, Executor lagExecutor) {
+        this.env = env;
+        this.lagExecutor = lagExecutor;
+        this.lagCheckPeriodMs = env.getProperty("regards.storage.replica.lag.check.period", Long.class, 1_000L);
+        this.maxPoolSize = env.getProperty("regards.storage.replica.pool.size", Integer.class, 5);
+        this.connectionTimeoutMs = env.getProperty("regards.storage.replica.connection.timeout", Long.class, 1_000L);
+        this.validationTimeoutMs = Math.min(connectionTimeoutMs, 500L);
+    }
+
+    /**
+     * Retrieve the replica of the given tenant if its lag is lower than the given tolerated staleness.
+     * @param tenant tenant
+     * @param maxStalenessMs tolerated staleness
+     * @return replica {@link DataSource}, empty if no replica is configured or if it is too late
+     */
+    public Optional<DataSource> getReplica(String tenant, long maxStalenessMs) {
+        Optional<DataSource> replica = replicas.computeIfAbsent(tenant, this::createReplica);
+        if (replica.isPresent() && (getLag(tenant, replica.get()) <= maxStalenessMs)) {
+            return replica;
+        }
+        return Optional.empty();
+    }
+
+    /**
+     * Consider the replica of the given tenant as too late until its next lag measure, after a connection failure.
+     * @param tenant tenant
+     */
+    public void markUnavailable(String tenant) {
+        lags.put(tenant, new ReplicaLag(System.currentTimeMillis(), Long.MAX_VALUE));
+    }
+
+    /**
+     * @return last measured lag of the replica, the measure is refreshed asynchronously when it is outdated
+     */
+    private long getLag(String tenant, DataSource replica) {
+        ReplicaLag lag = lags.get(tenant);
+        if (((lag == null) || ((System.currentTimeMillis() - lag.checkTime) > lagCheckPeriodMs))
+                && measuring.add(tenant)) {
+            try {
+                lagExecutor.execute(() -> {
+                    try {
+                        lags.put(tenant, new ReplicaLag(System.currentTimeMillis(), measureLag(tenant, replica)));
+                    } finally {
+                        measuring.remove(tenant);
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                measuring.remove(tenant);
+                LOGGER.warn("[READ REPLICA] Unable to measure lag of the replica of tenant {}. Cause : {}", tenant,
+                            e.getMessage());
+            }
+        }
+        return lag != null ? lag.lagMs : Long.MAX_VALUE;
+    }
+
+    private long measureLag(String tenant, DataSource replica) {
+        try (Connection connection = replica.getConnection(); Statement statement = connection.createStatement();
+                ResultSet result = statement.executeQuery(LAG_QUERY)) {
+            result.next();
+            return result.getLong(1);
+        } catch (SQLException | RuntimeException e) {
+            LOGGER.warn("[READ REPLICA] Unable to measure lag of the replica of tenant {}. Primary is used. Cause : {}",
+                        tenant, e.getMessage());
+            return Long.MAX_VALUE;
+        }
+    }
+
+    private Optional<DataSource> createReplica(String tenant) {
+        String url = env.getProperty(TENANT_PROPERTY_PREFIX + tenant + ".url");
+        if (url == null) {
+            return Optional.empty();
+        }
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("replica-" + tenant);
+        config.setJdbcUrl(url);
+        config.setUsername(env.getProperty(TENANT_PROPERTY_PREFIX + tenant + ".user"));
+        config.setPassword(env.getProperty(TENANT_PROPERTY_PREFIX + tenant + ".password"));
+        config.setMaximumPoolSize(maxPoolSize);
+        config.setReadOnly(true);
+        config.setAutoCommit(false);
+        // Do not fail nor wait when the replica is not reachable, primary is used until the replica is back
+        config.setInitializationFailTimeout(-1);
+        config.setConnectionTimeout(connectionTimeoutMs);
+        config.setValidationTimeout(validationTimeoutMs);
+        try {
+            HikariDataSource dataSource = new HikariDataSource(config);
+            LOGGER.info("[READ REPLICA] Read replica {} configured for tenant {}", url, tenant);
+            return Optional.of(dataSource);
+        } catch (RuntimeException e) {
+            LOGGER.error(String.format("[READ REPLICA] Invalid read replica %s for tenant %s. Primary is used.", url,
+                                       tenant),
+                         e);
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Close all replicas pools
+     */
+    public void close() {
+        if (lagExecutor instanceof ExecutorService) {
+            ((ExecutorService) lagExecutor).shutdownNow();
+        }
+        replicas.values().forEach(r -> r.filter(HikariDataSource.class::isInstance)
+                .ifPresent(ds -> ((HikariDataSource) ds).close()));
+        replicas.clear();
+    }
+
+    private static class ReplicaLag {
+
+        private final long checkTime;
+
+        private final long lagMs;
+
+        private ReplicaLag(long checkTime, long lagMs) {
+            this.checkTime = checkTime;
+            this.lagMs = lagMs;
+        }
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.context.EnvironmentAware;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Decorate the multitenant connection providers with a {@link ReadReplicaConnectionProvider} when read replicas are
+ * enabled with property regards.storage.replica.enabled.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class ReadReplicaPostProcessor implements BeanPostProcessor, EnvironmentAware, DisposableBean {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReadReplicaPostProcessor.class);
+
+    private boolean enabled;
+
+    private ReadReplicaDataSources replicas;
+
+    @Override
+    public void setEnvironment(Environment environment) {
+        enabled = environment.getProperty("regards.storage.replica.enabled", Boolean.class, false);
+        if (enabled) {
+            replicas = new ReadReplicaDataSources(environment);
+        }
+    }
+
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (enabled && (bean instanceof MultiTenantConnectionProvider)
+                && !(bean instanceof ReadReplicaConnectionProvider)) {
+            LOGGER.info("[READ REPLICA] Read-only calls of connection provider {} are routed to read replicas",
+                        beanName);
+            return new ReadReplicaConnectionProvider((MultiTenantConnectionProvider) bean, replicas);
+        }
+        return bean;
+    }
+
+    @Override
+    public void destroy() {
+        if (replicas != null) {
+            replicas.close();
+        }
+    }
+
+}
@@ -0,0 +1,5 @@
+/* requester and priority class of cache requests, for the fair-share admission of restorations */
+alter table t_file_cache_request add column requester varchar(128);
+alter table t_file_cache_request add column interactive boolean default false not null;
+alter table t_cache_file add column requester varchar(128);
+create index idx_cache_file_requester on t_cache_file (requester);
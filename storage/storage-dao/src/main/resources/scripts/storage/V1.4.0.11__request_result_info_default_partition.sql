@@ -0,0 +1,15 @@
+/* default partition of request results, rows created on a day without partition are not rejected anymore. */
+/* they are moved to the daily partition when it is created. */
+create table if not exists t_request_result_info_default partition of t_request_result_info default;
+
+/* partitions of today and tomorrow, next ones are created at tenant connection and by the storage scheduler */
+do $$
+declare
+    day date;
+begin
+    for day in select generate_series((now() at time zone 'UTC')::date, (now() at time zone 'UTC')::date + 1, interval '1 day')::date loop
+        execute format('create table if not exists %I partition of t_request_result_info for values from (%L) to (%L)',
+                       't_request_result_info_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    end loop;
+end;
+$$;
@@ -0,0 +1,5 @@
+/* (storage, checksum) and (storage) indexes are prefixes of idx_file_storage_request_storage_cs_status, */
+/* which serves the same queries. */
+/* indexes are dropped concurrently so that storage requests writes are not locked while the migration runs */
+drop index concurrently if exists idx_file_storage_request;
+drop index concurrently if exists idx_file_storage_request_storage;
@@ -0,0 +1,48 @@
+/* per user totals across all instances, maintained by triggers on instance counters and gauges */
+create table t_user_download_quota_total (email varchar(128) not null, counter int8 not null default 0, primary key (email));
+create table t_user_download_rate_total (email varchar(128) not null, gauge int8 not null default 0, primary key (email));
+
+insert into t_user_download_quota_total (email, counter) select email, sum(counter) from t_user_download_quota_counter group by email;
+insert into t_user_download_rate_total (email, gauge) select email, sum(gauge) from t_user_download_rate_gauge group by email;
+
+/* tables are qualified with the schema of the triggering table as search_path is not set at runtime */
+create or replace function f_user_download_quota_total() returns trigger as $$
+begin
+    /* avoid locking the total row when only the expiry date is updated */
+    if (tg_op = 'UPDATE' and old.counter = new.counter and old.email = new.email) then
+        return null;
+    end if;
+    if (tg_op = 'UPDATE' or tg_op = 'DELETE') then
+        execute format('update %I.t_user_download_quota_total set counter = counter - $1 where email = $2', tg_table_schema)
+            using old.counter, old.email;
+    end if;
+    if (tg_op = 'INSERT' or tg_op = 'UPDATE') then
+        execute format('insert into %I.t_user_download_quota_total as t (email, counter) values ($1, $2) on conflict (email) do update set counter = t.counter + excluded.counter', tg_table_schema)
+            using new.email, new.counter;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create or replace function f_user_download_rate_total() returns trigger as $$
+begin
+    /* avoid locking the total row when only the expiry date is updated */
+    if (tg_op = 'UPDATE' and old.gauge = new.gauge and old.email = new.email) then
+        return null;
+    end if;
+    if (tg_op = 'UPDATE' or tg_op = 'DELETE') then
+        execute format('update %I.t_user_download_rate_total set gauge = gauge - $1 where email = $2', tg_table_schema)
+            using old.gauge, old.email;
+    end if;
+    if (tg_op = 'INSERT' or tg_op = 'UPDATE') then
+        execute format('insert into %I.t_user_download_rate_total as t (email, gauge) values ($1, $2) on conflict (email) do update set gauge = t.gauge + excluded.gauge', tg_table_schema)
+            using new.email, new.gauge;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger trg_user_download_quota_total after insert or update or delete on t_user_download_quota_counter
+    for each row execute procedure f_user_download_quota_total();
+create trigger trg_user_download_rate_total after insert or update or delete on t_user_download_rate_gauge
+    for each row execute procedure f_user_download_rate_total();
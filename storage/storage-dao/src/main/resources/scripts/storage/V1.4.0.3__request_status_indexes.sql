@@ -0,0 +1,9 @@
+/* indexes matching the status filtered scheduling queries. */
+/* indexes are built concurrently so that requests writes are not locked during the build on large tenants. */
+/* statuses are bound as parameters, so composite indexes are used instead of partial ones that generic plans could not match. */
+create index concurrently idx_file_storage_request_status on t_file_storage_request (status, storage, id);
+create index concurrently idx_file_storage_request_storage_cs_status on t_file_storage_request (storage, checksum, status);
+create index concurrently idx_file_deletion_request_status on t_file_deletion_request (status, storage, file_reference);
+create index concurrently idx_file_cache_request_status on t_file_cache_request (status, storage, id);
+/* pending restorations size is computed with a literal status */
+create index concurrently idx_file_cache_request_pending_size on t_file_cache_request (file_size) where status = 'PENDING';
@@ -0,0 +1,30 @@
+/* normalized owners of file references, maintained by trigger from the jsonb owners column, to search references by owner with btree indexes */
+create table ta_file_reference_owners (file_ref_id int8 not null, owner text not null, primary key (file_ref_id, owner));
+insert into ta_file_reference_owners (file_ref_id, owner) select distinct id, jsonb_array_elements_text(owners) from t_file_reference where jsonb_typeof(owners) = 'array';
+alter table ta_file_reference_owners add constraint fk_ta_file_reference_owners_t_file_reference foreign key (file_ref_id) references t_file_reference on delete cascade;
+create index idx_file_reference_owners_owner on ta_file_reference_owners (owner, file_ref_id);
+
+/* tables are qualified with the schema of the triggering table as search_path is not set at runtime */
+create or replace function f_file_reference_owners() returns trigger as $$
+begin
+    if (tg_op = 'UPDATE') then
+        /* hibernate updates every column, skip updates that do not change owners */
+        if (old.owners is not distinct from new.owners) then
+            return null;
+        end if;
+        execute format('delete from %I.ta_file_reference_owners where file_ref_id = $1', tg_table_schema) using new.id;
+    end if;
+    if (jsonb_typeof(new.owners) = 'array') then
+        execute format('insert into %I.ta_file_reference_owners (file_ref_id, owner) select $1, o from jsonb_array_elements_text($2) o on conflict do nothing', tg_table_schema)
+            using new.id, new.owners;
+    end if;
+    return null;
+end;
+$$ language plpgsql;
+
+create trigger trg_file_reference_owners after insert or update of owners on t_file_reference
+    for each row execute procedure f_file_reference_owners();
+
+/* owners of storage requests are already normalized, index them for retry by owners */
+create index idx_file_storage_request_owners_owner on ta_file_storage_request_owners (owner, file_storage_request_id);
+create index idx_file_storage_request_owners_request on ta_file_storage_request_owners (file_storage_request_id);
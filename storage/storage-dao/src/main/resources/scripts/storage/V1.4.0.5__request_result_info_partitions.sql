@@ -0,0 +1,27 @@
+/* request results are partitioned by creation day (UTC). Results of terminated groups are not deleted row by row anymore, */
+/* old partitions are dropped once no pending group can own results in them. */
+alter table t_request_result_info rename to t_request_result_info_old;
+alter index t_request_result_info_pkey rename to t_request_result_info_old_pkey;
+alter index idx_group_id rename to idx_group_id_old;
+alter index idx_group_file_ref_id rename to idx_group_file_ref_id_old;
+
+create table t_request_result_info (id int8 not null, error boolean, error_cause varchar(512), group_id varchar(128) not null, request_checksum varchar(128) not null, request_owners jsonb, request_storage varchar(128), request_store_path varchar(2048), request_type varchar(255) not null, result_file_ref_id int8, creation_date timestamp not null default (now() at time zone 'UTC'), primary key (id, creation_date)) partition by range (creation_date);
+create index idx_group_id on t_request_result_info (group_id);
+create index idx_group_file_ref_id on t_request_result_info (result_file_ref_id);
+alter table t_request_result_info add constraint fk_request_result_info_file_reference foreign key (result_file_ref_id) references t_file_reference;
+
+/* daily partitions from yesterday to next week, next ones are created by the storage scheduler */
+do $$
+declare
+    day date;
+begin
+    for day in select generate_series((now() at time zone 'UTC')::date - 1, (now() at time zone 'UTC')::date + 7, interval '1 day')::date loop
+        execute format('create table %I partition of t_request_result_info for values from (%L) to (%L)',
+                       't_request_result_info_p' || to_char(day, 'YYYYMMDD'), day, day + 1);
+    end loop;
+end;
+$$;
+
+insert into t_request_result_info (id, error, error_cause, group_id, request_checksum, request_owners, request_storage, request_store_path, request_type, result_file_ref_id)
+    select id, error, error_cause, group_id, request_checksum, request_owners, request_storage, request_store_path, request_type, result_file_ref_id from t_request_result_info_old;
+drop table t_request_result_info_old;
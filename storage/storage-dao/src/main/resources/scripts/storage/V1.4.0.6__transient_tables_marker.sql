@@ -0,0 +1,3 @@
+/* marker of the transient request tables mode. When the transient tables are unlogged, the marker table is unlogged too
+   so that an empty marker table means that transient tables have been truncated by a database crash recovery */
+create table t_transient_tables_marker (id int4 not null, marked_at timestamp not null, primary key (id));
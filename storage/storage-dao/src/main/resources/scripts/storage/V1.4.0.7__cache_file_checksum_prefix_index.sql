@@ -0,0 +1,2 @@
+/* cache coherence verification searches cache files by checksum prefix, the default collation index cannot be used for prefix searches */
+create index idx_cache_file_checksum_prefix on t_cache_file (checksum varchar_pattern_ops);
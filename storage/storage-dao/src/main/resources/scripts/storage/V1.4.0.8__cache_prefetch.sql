@@ -0,0 +1,4 @@
+/* files restored ahead of any request by the cache prefetch */
+alter table t_file_cache_request add column prefetch boolean default false not null;
+alter table t_cache_file add column prefetch boolean default false not null;
+create index idx_cache_file_prefetch on t_cache_file (expiration_date) where prefetch;
@@ -0,0 +1,3 @@
+/* cache space reserved by in-flight restorations */
+alter table t_file_cache_request add column reserved_size bigint;
+update t_file_cache_request set reserved_size = file_size where status = 'PENDING';
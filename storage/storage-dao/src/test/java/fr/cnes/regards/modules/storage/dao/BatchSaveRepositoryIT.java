@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.List;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.jpa.multitenant.test.AbstractDaoTransactionalTest;
+import fr.cnes.regards.framework.jpa.multitenant.test.DefaultDaoTestConfiguration;
+import fr.cnes.regards.modules.storage.dao.config.StorageDaoConfiguration;
+import fr.cnes.regards.modules.storage.domain.database.request.RequestResultInfo;
+import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
+
+/**
+ * Check that {@link IBatchSaveRepository#saveAllInBatches(Iterable)} sends entities by JDBC batches.
+ *
+ * @author Sébastien Binda
+ */
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_batch_dao",
+        "spring.jpa.properties.hibernate.jdbc.batch_size=50", "spring.jpa.properties.hibernate.order_inserts=true",
+        "spring.jpa.properties.hibernate.order_updates=true" })
+@ContextConfiguration(classes = { DefaultDaoTestConfiguration.class, StorageDaoConfiguration.class })
+public class BatchSaveRepositoryIT extends AbstractDaoTransactionalTest {
+
+    private static final int BATCH_SIZE = 50;
+
+    private static final int NB_ENTITIES = 1_000;
+
+    @Autowired
+    private IGroupRequestInfoRepository repo;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    private Statistics statistics;
+
+    @Before
+    public void init() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        statistics = entityManager.getEntityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.setStatisticsEnabled(true);
+        statistics.clear();
+    }
+
+    @Test
+    public void saveAllInBatchesUsesJdbcBatches() {
+        List<RequestResultInfo> infos = Lists.newArrayList();
+        for (int i = 0; i < NB_ENTITIES; i++) {
+            infos.add(new RequestResultInfo("group", FileRequestType.STORAGE, "checksum" + i, "storage", null,
+                    Sets.newHashSet("owner")));
+        }
+        List<RequestResultInfo> saved = repo.saveAllInBatches(infos);
+        Assert.assertEquals(NB_ENTITIES, saved.size());
+        Assert.assertTrue(saved.stream().allMatch(i -> i.getId() != null));
+        Assert.assertEquals(NB_ENTITIES, statistics.getEntityInsertCount());
+        // One statement per batch of inserts and one sequence call per allocation of identifiers
+        long maxStatements = 2 * (NB_ENTITIES / BATCH_SIZE);
+        Assert.assertTrue(String.format("Too many statements prepared for %d inserts : %d", NB_ENTITIES,
+                                        statistics.getPrepareStatementCount()),
+                          statistics.getPrepareStatementCount() <= maxStatements);
+        Assert.assertEquals(NB_ENTITIES, repo.findByGroupId("group").size());
+
+        // Updates of managed entities are batched too
+        Set<RequestResultInfo> loaded = repo.findByGroupId("group");
+        loaded.forEach(i -> i.setError(true));
+        statistics.clear();
+        repo.saveAllInBatches(loaded);
+        Assert.assertEquals(NB_ENTITIES, statistics.getEntityUpdateCount());
+        Assert.assertTrue(String.format("Too many statements prepared for %d updates : %d", NB_ENTITIES,
+                                        statistics.getPrepareStatementCount()),
+                          statistics.getPrepareStatementCount() <= (NB_ENTITIES / BATCH_SIZE));
+    }
+
+}
@@ -22,6 +22,8 @@ import fr.cnes.regards.framework.jpa.multitenant.test.AbstractDaoTransactionalTe
 import fr.cnes.regards.framework.jpa.multitenant.test.AbstractMultitenantServiceTest;
 import fr.cnes.regards.framework.jpa.multitenant.test.DefaultDaoTestConfiguration;
 import fr.cnes.regards.modules.storage.dao.config.StorageDaoConfiguration;
+import fr.cnes.regards.modules.storage.domain.database.UserDownloadQuota;
+import fr.cnes.regards.modules.storage.domain.database.UserDownloadRate;
 import fr.cnes.regards.modules.storage.domain.database.UserQuotaAggregate;
 import fr.cnes.regards.modules.storage.domain.database.UserRateAggregate;
 import fr.cnes.regards.modules.storage.domain.database.repository.IDownloadQuotaRepository;
@@ -33,6 +35,9 @@ import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestPropertySource;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
 import java.util.Random;
 import java.util.concurrent.*;
 
@@ -112,4 +117,51 @@ public class DownloadQuotaRepositoryIT extends AbstractMultitenantServiceTest {
         // then
         assertEquals(iter, userQuotaAggregate.getCounter().longValue());
     }
+
+    @Test
+    public void batched_upserts_should_insert_or_accumulate_and_sum_by_email() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        Map<String, Long> diffs = new HashMap<>();
+        for (int i = 0; i < 2_500; i++) {
+            diffs.put("user" + i, (long) i);
+        }
+
+        // two instances, two syncs on the first one
+        repo.upsertOrCombineDownloadQuotas("instance1", diffs);
+        Map<String, UserDownloadQuota> upserted = repo.upsertOrCombineDownloadQuotas("instance1", diffs);
+        repo.upsertOrCombineDownloadQuotas("instance2", diffs);
+        repo.upsertOrCombineDownloadRates("instance1", diffs, LocalDateTime.now());
+        Map<String, UserDownloadRate> upsertedRates = repo.upsertOrCombineDownloadRates("instance2", diffs, LocalDateTime.now());
+
+        // then RETURNING rows reflect the combined instance values
+        assertEquals(diffs.size(), upserted.size());
+        assertEquals(2 * 42L, upserted.get("user42").getCounter().longValue());
+        assertEquals(42L, upsertedRates.get("user42").getGauge().longValue());
+
+        // and sums are computed across instances
+        Map<String, UserQuotaAggregate> quotas = repo.fetchDownloadQuotaSums(Arrays.asList("user42", "user2000", "unknown"));
+        Map<String, UserRateAggregate> rates = repo.fetchDownloadRatesSums(Arrays.asList("user42", "user2000", "unknown"));
+        assertEquals(3 * 42L, quotas.get("user42").getCounter().longValue());
+        assertEquals(3 * 2000L, quotas.get("user2000").getCounter().longValue());
+        assertEquals(0L, quotas.get("unknown").getCounter().longValue());
+        assertEquals(2 * 42L, rates.get("user42").getGauge().longValue());
+        assertEquals(0L, rates.get("unknown").getGauge().longValue());
+        runtimeTenantResolver.clearTenant();
+    }
+
+    @Test
+    public void totals_should_follow_instances_gauges_expiration() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        String email = "plop";
+        repo.upsertOrCombineDownloadRate("instance1", email, 3L, LocalDateTime.now().minusSeconds(1));
+        repo.upsertOrCombineDownloadRate("instance2", email, 4L, LocalDateTime.now().plusHours(1));
+        // expiry update only must not change totals
+        repo.upsertOrCombineDownloadRate("instance2", email, 0L, LocalDateTime.now().plusHours(2));
+        assertEquals(7L, repo.fetchDownloadRatesSum(email).getGauge().longValue());
+
+        repo.deleteExpiredRates();
+
+        assertEquals(4L, repo.fetchDownloadRatesSum(email).getGauge().longValue());
+        runtimeTenantResolver.clearTenant();
+    }
 }
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.jpa.multitenant.test.AbstractDaoTransactionalTest;
+import fr.cnes.regards.framework.jpa.multitenant.test.DefaultDaoTestConfiguration;
+import fr.cnes.regards.modules.storage.dao.config.StorageDaoConfiguration;
+import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
+
+/**
+ * Check that requests scheduling queries are served by the expected indexes.<br/>
+ * SQL statements generated by the repositories are captured with a {@link StatementInspector} and explained with
+ * their parameters bound, on request tables filled with a realistic status distribution : a few requests to handle
+ * among a lot of requests in error.
+ *
+ * @author Sébastien Binda
+ */
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_query_plan_dao",
+        "spring.jpa.properties.hibernate.session_factory.statement_inspector=fr.cnes.regards.modules.storage.dao."
+                + "RequestSchedulingQueryPlanIT$SqlCapture" })
+@ContextConfiguration(classes = { DefaultDaoTestConfiguration.class, StorageDaoConfiguration.class })
+public class RequestSchedulingQueryPlanIT extends AbstractDaoTransactionalTest {
+
+    private static final int NB_ROWS = 20_000;
+
+    private static final Pattern PARAMETER = Pattern.compile("\\?");
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Autowired
+    private IFileStorageRequestRepository storageReqRepo;
+
+    @Autowired
+    private IFileDeletetionRequestRepository deletionReqRepo;
+
+    @Autowired
+    private IFileCacheRequestRepository cacheReqRepo;
+
+    /**
+     * Captures SQL statements prepared by hibernate
+     */
+    public static class SqlCapture implements StatementInspector {
+
+        private static final List<String> STATEMENTS = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public String inspect(String sql) {
+            STATEMENTS.add(sql);
+            return sql;
+        }
+
+        static void clear() {
+            STATEMENTS.clear();
+        }
+
+        static List<String> get() {
+            synchronized (STATEMENTS) {
+                return new ArrayList<>(STATEMENTS);
+            }
+        }
+    }
+
+    @Before
+    public void init() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        // Storages and checksums are spread so that each (storage, checksum) couple matches a few rows only
+        execute("INSERT INTO {h-schema}t_file_reference (id, storage, url, algorithm, checksum, fileName, mime_type)"
+                + " SELECT i, 'storage' || (i % 10), 'file:///file' || i, 'MD5', 'checksum' || i, 'file' || i,"
+                + " 'application/octet-stream' FROM generate_series(1, " + NB_ROWS + ") i");
+        execute("INSERT INTO {h-schema}t_file_storage_request (id, algorithm, checksum, fileName, mime_type, status,"
+                + " storage) SELECT i, 'MD5', 'checksum' || (i % 1000), 'file' || i, 'application/octet-stream',"
+                + " CASE WHEN i % 500 = 0 THEN 'TO_DO' WHEN i % 499 = 0 THEN 'DELAYED' ELSE 'ERROR' END,"
+                + " 'storage' || ((i / 1000) % 10) FROM generate_series(1, " + NB_ROWS + ") i");
+        execute("INSERT INTO {h-schema}t_file_deletion_request (file_reference, group_id, status, storage)"
+                + " SELECT i, 'group', CASE WHEN i % 500 = 0 THEN 'TO_DO' ELSE 'ERROR' END, 'storage' || (i % 10)"
+                + " FROM generate_series(1, " + NB_ROWS + ") i");
+        execute("INSERT INTO {h-schema}t_file_cache_request (id, checksum, file_size, group_id, destination_path,"
+                + " status, storage, file_ref_id) SELECT i, 'checksum' || i, i, 'group', '/cache/file' || i,"
+                + " CASE WHEN i % 500 = 0 THEN 'TO_DO' WHEN i % 499 = 0 THEN 'PENDING' ELSE 'ERROR' END,"
+                + " 'storage' || (i % 10), i FROM generate_series(1, " + NB_ROWS + ") i");
+        execute("ANALYZE {h-schema}t_file_storage_request");
+        execute("ANALYZE {h-schema}t_file_deletion_request");
+        execute("ANALYZE {h-schema}t_file_cache_request");
+    }
+
+    @Test
+    public void storageRequestsSchedulingUseIndexes() {
+        assertIndexUsed(() -> storageReqRepo.findStoragesByStatus(FileRequestStatus.TO_DO),
+                        "idx_file_storage_request_status", "TO_DO");
+        assertIndexUsed(() -> storageReqRepo
+                .findAllByStorageAndStatusAndIdGreaterThan("storage1", FileRequestStatus.TO_DO, 0L,
+                                                           PageRequest.of(0, 100, Sort.by("id"))),
+                        "idx_file_storage_request_status", "storage1", "TO_DO", 0, 100);
+        assertIndexUsed(() -> storageReqRepo.findByStatus(FileRequestStatus.DELAYED, PageRequest.of(0, 100)),
+                        "idx_file_storage_request_status", "DELAYED", 100);
+        Set<FileRequestStatus> running = Sets.newHashSet(FileRequestStatus.TO_DO, FileRequestStatus.PENDING);
+        assertIndexUsed(() -> storageReqRepo.existsByStorageAndMetaInfoChecksumAndStatusIn("storage1", "checksum1",
+                                                                                           running),
+                        "idx_file_storage_request_storage_cs_status", "storage1", "checksum1", "TO_DO", "PENDING",
+                        1);
+    }
+
+    @Test
+    public void deletionRequestsSchedulingUseIndexes() {
+        assertIndexUsed(() -> deletionReqRepo.findStoragesByStatus(FileRequestStatus.TO_DO),
+                        "idx_file_deletion_request_status", "TO_DO");
+        assertIndexUsed(() -> deletionReqRepo
+                .findByStorageAndStatusAndIdGreaterThan("storage1", FileRequestStatus.TO_DO, 0L,
+                                                        PageRequest.of(0, 100, Sort.by("id"))),
+                        "idx_file_deletion_request_status", "storage1", "TO_DO", 0, 100);
+    }
+
+    @Test
+    public void cacheRequestsSchedulingUseIndexes() {
+        assertIndexUsed(() -> cacheReqRepo.findStoragesByStatus(FileRequestStatus.TO_DO),
+                        "idx_file_cache_request_status", "TO_DO");
+        assertIndexUsed(() -> cacheReqRepo
+                .findAllByStorageAndStatusAndIdGreaterThan("storage1", FileRequestStatus.TO_DO, 0L,
+                                                           PageRequest.of(0, 100, Sort.by("id"))),
+                        "idx_file_cache_request_status", "storage1", "TO_DO", 0, 100);
+        assertIndexUsed(() -> cacheReqRepo.getPendingFileSize(), "idx_file_cache_request_pending_size");
+    }
+
+    /**
+     * Run the given repository call and check that the plan of every select statement it sends uses the given index.
+     * @param parameters values bound to the statements parameters, in order. Extra values are ignored.
+     */
+    private void assertIndexUsed(Runnable repositoryCall, String index, Object... parameters) {
+        SqlCapture.clear();
+        repositoryCall.run();
+        List<String> statements = SqlCapture.get().stream().filter(sql -> sql.trim().toLowerCase().startsWith("select"))
+                .collect(Collectors.toList());
+        Assert.assertFalse("No select statement captured", statements.isEmpty());
+        for (String sql : statements) {
+            String plan = explain(sql, parameters);
+            Assert.assertTrue(String.format("Index %s not used by query %s :%n%s", index, sql, plan),
+                              plan.contains(index));
+        }
+    }
+
+    private String explain(String sql, Object... parameters) {
+        Matcher matcher = PARAMETER.matcher(sql);
+        StringBuffer prepared = new StringBuffer();
+        int nbParameters = 0;
+        while (matcher.find()) {
+            nbParameters++;
+            matcher.appendReplacement(prepared, "\\$" + nbParameters);
+        }
+        matcher.appendTail(prepared);
+        Assert.assertTrue(String.format("Missing parameters values for query %s", sql),
+                          nbParameters <= parameters.length);
+        String values = nbParameters == 0 ? ""
+                : Arrays.stream(parameters).limit(nbParameters).map(value -> "'" + value + "'")
+                        .collect(Collectors.joining(", ", "(", ")"));
+        execute("PREPARE plan_check AS " + prepared);
+        try {
+            @SuppressWarnings("unchecked")
+            List<Object> plan = entityManager.createNativeQuery("EXPLAIN EXECUTE plan_check" + values)
+                    .getResultList();
+            return plan.stream().map(Object::toString).collect(Collectors.joining("\n"));
+        } finally {
+            execute("DEALLOCATE plan_check");
+        }
+    }
+
+    private void execute(String statement) {
+        entityManager.createNativeQuery(statement).executeUpdate();
+    }
+
+}
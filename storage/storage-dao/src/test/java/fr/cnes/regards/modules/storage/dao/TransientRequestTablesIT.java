@@ -0,0 +1,105 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import fr.cnes.regards.framework.jpa.multitenant.test.AbstractDaoTransactionalTest;
+import fr.cnes.regards.framework.jpa.multitenant.test.DefaultDaoTestConfiguration;
+import fr.cnes.regards.modules.storage.dao.config.StorageDaoConfiguration;
+
+/**
+ * Test class for {@link TransientRequestTables}.<br/>
+ * Measures the WAL generated by requests groups creation with logged and unlogged transient tables.
+ *
+ * @author Sébastien Binda
+ */
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_transient_tables_dao" })
+@ContextConfiguration(classes = { DefaultDaoTestConfiguration.class, StorageDaoConfiguration.class })
+public class TransientRequestTablesIT extends AbstractDaoTransactionalTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransientRequestTablesIT.class);
+
+    private static final int NB_GROUPS = 10_000;
+
+    @Autowired
+    private TransientRequestTables transientTables;
+
+    @PersistenceContext
+    private EntityManager entityManager;
+
+    @Before
+    public void init() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+    }
+
+    @Test
+    public void unloggedTablesDoNotGenerateWal() {
+        transientTables.setUnlogged(false);
+        long loggedWal = measureGroupsCreationWal("logged");
+        Assert.assertTrue("Tables should be switched to unlogged", transientTables.setUnlogged(true) > 0);
+        Assert.assertTrue(transientTables.isUnlogged("t_request_group"));
+        long unloggedWal = measureGroupsCreationWal("unlogged");
+        LOGGER.info("WAL generated for {} groups : logged={} bytes, unlogged={} bytes", NB_GROUPS, loggedWal,
+                    unloggedWal);
+        Assert.assertTrue(String.format("Unlogged tables should generate far less WAL (logged=%d, unlogged=%d)",
+                                        loggedWal, unloggedWal),
+                          (unloggedWal * 10) < loggedWal);
+    }
+
+    @Test
+    public void truncationDetection() {
+        transientTables.setUnlogged(false);
+        Assert.assertFalse("Logged tables are never truncated", transientTables.isTruncated());
+        transientTables.setUnlogged(true);
+        Assert.assertTrue("Unlogged tables without mark should be detected as truncated",
+                          transientTables.isTruncated());
+        transientTables.mark();
+        Assert.assertFalse("Marked tables are not truncated", transientTables.isTruncated());
+        // Simulate the truncation of unlogged tables by PostgreSQL crash recovery
+        entityManager.createNativeQuery("TRUNCATE {h-schema}t_transient_tables_marker").executeUpdate();
+        Assert.assertTrue("Truncated tables should be detected", transientTables.isTruncated());
+        Assert.assertTrue("Tables should be switched back to logged", transientTables.setUnlogged(false) > 0);
+        Assert.assertFalse(transientTables.isUnlogged("ta_file_storage_request_owners"));
+    }
+
+    private long measureGroupsCreationWal(String prefix) {
+        String start = (String) entityManager.createNativeQuery("SELECT cast(pg_current_wal_insert_lsn() AS text)")
+                .getSingleResult();
+        entityManager.createNativeQuery("INSERT INTO {h-schema}t_request_group"
+                + " (id, creation_date, expiration_date, type) SELECT '" + prefix + "-' || i, now(), now(), 'STORAGE'"
+                + " FROM generate_series(1, " + NB_GROUPS + ") i").executeUpdate();
+        Number wal = (Number) entityManager
+                .createNativeQuery("SELECT pg_wal_lsn_diff(pg_current_wal_insert_lsn(), cast('" + start
+                        + "' AS pg_lsn))")
+                .getSingleResult();
+        return wal.longValue();
+    }
+
+}
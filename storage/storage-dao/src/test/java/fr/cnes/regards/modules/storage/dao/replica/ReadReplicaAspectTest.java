@@ -0,0 +1,83 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.util.Optional;
+
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+/**
+ * Test class for {@link ReadReplicaAspect}
+ *
+ * @author Sébastien Binda
+ */
+public class ReadReplicaAspectTest {
+
+    private final ReadReplicaAspect aspect = new ReadReplicaAspect();
+
+    @After
+    public void clear() {
+        TransactionSynchronizationManager.setActualTransactionActive(false);
+        ReadReplicaContext.setMaxStalenessMs(null);
+    }
+
+    @Test
+    public void contextSetDuringCall() throws Throwable {
+        ProceedingJoinPoint joinPoint = Mockito.mock(ProceedingJoinPoint.class);
+        Mockito.when(joinPoint.proceed()).thenAnswer(i -> ReadReplicaContext.getMaxStalenessMs());
+        Assert.assertEquals(Optional.of(2_000L), aspect.route(joinPoint, readReplica(2_000L)));
+        Assert.assertFalse("Context should be cleared after the call",
+                           ReadReplicaContext.getMaxStalenessMs().isPresent());
+    }
+
+    @Test
+    public void contextRestoredAfterFailure() throws Throwable {
+        ProceedingJoinPoint joinPoint = Mockito.mock(ProceedingJoinPoint.class);
+        Mockito.when(joinPoint.proceed()).thenThrow(new IllegalStateException("failure"));
+        ReadReplicaContext.setMaxStalenessMs(10_000L);
+        try {
+            aspect.route(joinPoint, readReplica(2_000L));
+            Assert.fail("Failure should be propagated");
+        } catch (IllegalStateException e) {
+            Assert.assertEquals("Previous context should be restored", Optional.of(10_000L),
+                                ReadReplicaContext.getMaxStalenessMs());
+        }
+    }
+
+    @Test
+    public void primaryInsideTransaction() throws Throwable {
+        ProceedingJoinPoint joinPoint = Mockito.mock(ProceedingJoinPoint.class);
+        Mockito.when(joinPoint.proceed()).thenAnswer(i -> ReadReplicaContext.getMaxStalenessMs());
+        TransactionSynchronizationManager.setActualTransactionActive(true);
+        Assert.assertEquals("Calls inside a transaction should keep its connection", Optional.empty(),
+                            aspect.route(joinPoint, readReplica(2_000L)));
+    }
+
+    private static ReadReplica readReplica(long maxStalenessMs) {
+        ReadReplica readReplica = Mockito.mock(ReadReplica.class);
+        Mockito.when(readReplica.maxStalenessMs()).thenReturn(maxStalenessMs);
+        return readReplica;
+    }
+
+}
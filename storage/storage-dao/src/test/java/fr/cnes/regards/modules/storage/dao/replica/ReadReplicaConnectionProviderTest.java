@@ -0,0 +1,112 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+/**
+ * Test class for {@link ReadReplicaConnectionProvider} routing.
+ *
+ * @author Sébastien Binda
+ */
+public class ReadReplicaConnectionProviderTest {
+
+    private static final String TENANT = "tenant";
+
+    private MultiTenantConnectionProvider primary;
+
+    private ReadReplicaDataSources replicas;
+
+    private DataSource replica;
+
+    private ReadReplicaConnectionProvider provider;
+
+    @Before
+    public void init() {
+        primary = Mockito.mock(MultiTenantConnectionProvider.class);
+        replicas = Mockito.mock(ReadReplicaDataSources.class);
+        replica = Mockito.mock(DataSource.class);
+        provider = new ReadReplicaConnectionProvider(primary, replicas);
+    }
+
+    @After
+    public void clear() {
+        ReadReplicaContext.setMaxStalenessMs(null);
+    }
+
+    @Test
+    public void primaryWithoutContext() throws SQLException {
+        Connection primaryConnection = Mockito.mock(Connection.class);
+        Mockito.when(primary.getConnection(TENANT)).thenReturn(primaryConnection);
+        Assert.assertSame(primaryConnection, provider.getConnection(TENANT));
+        Mockito.verifyZeroInteractions(replicas);
+        provider.releaseConnection(TENANT, primaryConnection);
+        Mockito.verify(primary).releaseConnection(TENANT, primaryConnection);
+    }
+
+    @Test
+    public void replicaWithContext() throws SQLException {
+        Connection replicaConnection = Mockito.mock(Connection.class);
+        Mockito.when(replicas.getReplica(TENANT, 5_000L)).thenReturn(Optional.of(replica));
+        Mockito.when(replica.getConnection()).thenReturn(replicaConnection);
+        ReadReplicaContext.setMaxStalenessMs(5_000L);
+        Assert.assertSame(replicaConnection, provider.getConnection(TENANT));
+        provider.releaseConnection(TENANT, replicaConnection);
+        Mockito.verify(replicaConnection).close();
+        Mockito.verify(primary, Mockito.never()).getConnection(TENANT);
+        Mockito.verify(primary, Mockito.never()).releaseConnection(TENANT, replicaConnection);
+    }
+
+    @Test
+    public void primaryWhenReplicaTooLate() throws SQLException {
+        Connection primaryConnection = Mockito.mock(Connection.class);
+        Mockito.when(primary.getConnection(TENANT)).thenReturn(primaryConnection);
+        Mockito.when(replicas.getReplica(TENANT, 1_000L)).thenReturn(Optional.empty());
+        ReadReplicaContext.setMaxStalenessMs(1_000L);
+        Assert.assertSame("Primary should be used when replica is too late", primaryConnection,
+                          provider.getConnection(TENANT));
+        Mockito.verifyZeroInteractions(replica);
+    }
+
+    @Test
+    public void primaryWhenReplicaUnreachable() throws SQLException {
+        Connection primaryConnection = Mockito.mock(Connection.class);
+        Mockito.when(primary.getConnection(TENANT)).thenReturn(primaryConnection);
+        Mockito.when(replicas.getReplica(TENANT, 5_000L)).thenReturn(Optional.of(replica));
+        Mockito.when(replica.getConnection()).thenThrow(new SQLException("Connection is not available"));
+        ReadReplicaContext.setMaxStalenessMs(5_000L);
+        Assert.assertSame("Primary should be used when replica is unreachable", primaryConnection,
+                          provider.getConnection(TENANT));
+        Mockito.verify(replicas).markUnavailable(TENANT);
+        provider.releaseConnection(TENANT, primaryConnection);
+        Mockito.verify(primary).releaseConnection(TENANT, primaryConnection);
+    }
+
+}
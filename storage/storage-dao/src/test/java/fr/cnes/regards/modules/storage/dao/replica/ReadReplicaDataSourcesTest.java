@@ -0,0 +1,94 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+
+/**
+ * Test class for {@link ReadReplicaDataSources} fallback to the primary.
+ *
+ * @author Sébastien Binda
+ */
+public class ReadReplicaDataSourcesTest {
+
+    private static final String TENANT = "tenant";
+
+    /**
+     * Lag measures submitted, run by the tests
+     */
+    private final List<Runnable> measures = new ArrayList<>();
+
+    private ReadReplicaDataSources replicas;
+
+    @Before
+    public void init() {
+        Map<String, Object> properties = new HashMap<>();
+        // No database listens on port 1
+        properties.put("regards.storage.replica.tenants." + TENANT + ".url", "jdbc:postgresql://localhost:1/replica");
+        properties.put("regards.storage.replica.tenants." + TENANT + ".user", "user");
+        properties.put("regards.storage.replica.tenants." + TENANT + ".password", "password");
+        properties.put("regards.storage.replica.connection.timeout", "250");
+        StandardEnvironment env = new StandardEnvironment();
+        env.getPropertySources().addFirst(new MapPropertySource("replicas", properties));
+        replicas = new ReadReplicaDataSources(env, measures::add);
+    }
+
+    @After
+    public void clear() {
+        replicas.close();
+    }
+
+    @Test
+    public void noReplicaConfigured() {
+        Assert.assertFalse(replicas.getReplica("other", Long.MAX_VALUE - 1).isPresent());
+        Assert.assertTrue("No lag should be measured without replica", measures.isEmpty());
+    }
+
+    @Test
+    public void primaryUntilLagMeasured() {
+        Assert.assertFalse("Primary should be used until the replica lag is measured",
+                           replicas.getReplica(TENANT, Long.MAX_VALUE - 1).isPresent());
+        Assert.assertEquals("Lag should be measured asynchronously", 1, measures.size());
+        Assert.assertFalse(replicas.getReplica(TENANT, Long.MAX_VALUE - 1).isPresent());
+        Assert.assertEquals("Only one lag measure should run at a time", 1, measures.size());
+    }
+
+    @Test
+    public void primaryWhenReplicaUnreachable() {
+        replicas.getReplica(TENANT, Long.MAX_VALUE - 1);
+        // Lag measure fails on connection timeout
+        measures.remove(0).run();
+        Assert.assertFalse("Primary should be used when the replica is unreachable",
+                           replicas.getReplica(TENANT, Long.MAX_VALUE - 1).isPresent());
+        // Connection failures of the replica also route to the primary until the next measure
+        replicas.markUnavailable(TENANT);
+        Assert.assertFalse(replicas.getReplica(TENANT, Long.MAX_VALUE - 1).isPresent());
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.dao.replica;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import org.hibernate.engine.jdbc.connections.spi.AbstractDataSourceBasedMultiTenantConnectionProviderImpl;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.StandardEnvironment;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestPropertySource;
+
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+
+import fr.cnes.regards.framework.jpa.multitenant.test.AbstractDaoTransactionalTest;
+import fr.cnes.regards.framework.jpa.multitenant.test.DefaultDaoTestConfiguration;
+import fr.cnes.regards.modules.storage.dao.config.StorageDaoConfiguration;
+
+/**
+ * Test class for {@link ReadReplicaConnectionProvider} routing between two real connection pools.<br/>
+ * The primary and the replica pools both connect to the test database, which is never late as it is not in recovery.
+ *
+ * @author Sébastien Binda
+ */
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_replica_dao" })
+@ContextConfiguration(classes = { DefaultDaoTestConfiguration.class, StorageDaoConfiguration.class })
+public class ReadReplicaRoutingIT extends AbstractDaoTransactionalTest {
+
+    private static final String TENANT_PROPERTY_PREFIX = "regards.jpa.multitenant.tenants[0].";
+
+    @Autowired
+    private Environment env;
+
+    private String tenant;
+
+    private HikariDataSource primary;
+
+    private ReadReplicaDataSources replicas;
+
+    private ReadReplicaConnectionProvider provider;
+
+    @Before
+    public void init() {
+        tenant = getDefaultTenant();
+        String url = env.getProperty(TENANT_PROPERTY_PREFIX + "url");
+        String user = env.getProperty(TENANT_PROPERTY_PREFIX + "userName");
+        String password = env.getProperty(TENANT_PROPERTY_PREFIX + "password");
+
+        HikariConfig config = new HikariConfig();
+        config.setPoolName("primary-" + tenant);
+        config.setJdbcUrl(url);
+        config.setUsername(user);
+        config.setPassword(password);
+        config.setMaximumPoolSize(2);
+        primary = new HikariDataSource(config);
+
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("regards.storage.replica.tenants." + tenant + ".url", url);
+        properties.put("regards.storage.replica.tenants." + tenant + ".user", user);
+        properties.put("regards.storage.replica.tenants." + tenant + ".password", password);
+        properties.put("regards.storage.replica.pool.size", "2");
+        StandardEnvironment replicaEnv = new StandardEnvironment();
+        replicaEnv.getPropertySources().addFirst(new MapPropertySource("replicas", properties));
+        // Lag is measured synchronously
+        replicas = new ReadReplicaDataSources(replicaEnv, Runnable::run);
+
+        provider = new ReadReplicaConnectionProvider(new AbstractDataSourceBasedMultiTenantConnectionProviderImpl() {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected DataSource selectAnyDataSource() {
+                return primary;
+            }
+
+            @Override
+            protected DataSource selectDataSource(String tenantIdentifier) {
+                return primary;
+            }
+        }, replicas);
+    }
+
+    @After
+    public void clear() {
+        ReadReplicaContext.setMaxStalenessMs(null);
+        replicas.close();
+        primary.close();
+    }
+
+    @Test
+    public void replicaPoolReceivesQueries() throws SQLException {
+        HikariDataSource replica = measureReplicaLag();
+        ReadReplicaContext.setMaxStalenessMs(5_000L);
+        Connection connection = provider.getConnection(tenant);
+        try {
+            Assert.assertEquals("Read-only query should run on the read-only replica connection", "on",
+                                query(connection, "SHOW transaction_read_only"));
+            Assert.assertEquals("Connection should be borrowed from the replica pool", 1,
+                                replica.getHikariPoolMXBean().getActiveConnections());
+            Assert.assertEquals("Primary pool should not be used", 0,
+                                primary.getHikariPoolMXBean().getActiveConnections());
+        } finally {
+            provider.releaseConnection(tenant, connection);
+        }
+        Assert.assertEquals("Connection should be given back to the replica pool", 0,
+                            replica.getHikariPoolMXBean().getActiveConnections());
+    }
+
+    @Test
+    public void primaryWhenReplicaTooLate() throws SQLException {
+        HikariDataSource replica = measureReplicaLag();
+        // Measured lag is zero, so a negative staleness makes the replica too late for the call
+        ReadReplicaContext.setMaxStalenessMs(-1L);
+        assertPrimaryConnection(replica);
+    }
+
+    @Test
+    public void primaryWhenReplicaConnectionFails() throws SQLException {
+        HikariDataSource replica = measureReplicaLag();
+        // Replica pool can no longer provide connections
+        replica.close();
+        ReadReplicaContext.setMaxStalenessMs(5_000L);
+        assertPrimaryConnection(replica);
+        Assert.assertFalse("Replica should not be used until its next lag measure",
+                           replicas.getReplica(tenant, 5_000L).isPresent());
+    }
+
+    /**
+     * @return replica pool, once its lag is measured
+     */
+    private HikariDataSource measureReplicaLag() {
+        // Replica is considered too late until the lag measure triggered by this first call
+        replicas.getReplica(tenant, 0L);
+        Optional<DataSource> replica = replicas.getReplica(tenant, 0L);
+        Assert.assertTrue("Replica should be available once its lag is measured", replica.isPresent());
+        return (HikariDataSource) replica.get();
+    }
+
+    private void assertPrimaryConnection(HikariDataSource replica) throws SQLException {
+        Connection connection = provider.getConnection(tenant);
+        try {
+            Assert.assertEquals("Query should run on the primary", "off",
+                                query(connection, "SHOW transaction_read_only"));
+            Assert.assertEquals("Connection should be borrowed from the primary pool", 1,
+                                primary.getHikariPoolMXBean().getActiveConnections());
+            if (!replica.isClosed()) {
+                Assert.assertEquals(0, replica.getHikariPoolMXBean().getActiveConnections());
+            }
+        } finally {
+            provider.releaseConnection(tenant, connection);
+        }
+        Assert.assertEquals(0, primary.getHikariPoolMXBean().getActiveConnections());
+    }
+
+    private static String query(Connection connection, String sql) throws SQLException {
+        try (Statement statement = connection.createStatement(); ResultSet result = statement.executeQuery(sql)) {
+            result.next();
+            return result.getString(1);
+        }
+    }
+
+}
@@ -98,6 +98,18 @@ public class CacheFile {
             foreignKey = @ForeignKey(name = "fk_ta_cache_file_request_ids_t_file_cache")))
     private final Set<String> groupIds = Sets.newHashSet();
 
+    /**
+     * True if the file has been restored ahead of any request. Prefetched files are the first evicted from cache.
+     */
+    @Column(name = "prefetch", nullable = false)
+    private boolean prefetch = false;
+
+    /**
+     * User who requested the file first. Cache space used by the file is counted in this user quota.
+     */
+    @Column(name = "requester", length = 128)
+    private String requester;
+
     /**
      * Default constructor
      */
@@ -191,6 +203,22 @@ public class CacheFile {
         this.type = type;
     }
 
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public String getRequester() {
+        return requester;
+    }
+
+    public void setRequester(String requester) {
+        this.requester = requester;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) {
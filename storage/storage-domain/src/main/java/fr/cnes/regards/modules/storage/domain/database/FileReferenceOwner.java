@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.domain.database;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.IdClass;
+import javax.persistence.Index;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Immutable;
+
+/**
+ * Read only database definition of one owner of a {@link FileReference}.<br/>
+ * Rows are maintained by database trigger from the jsonb {@link FileReference#getOwners()} column, and are used to
+ * search file references by owners with a btree index.<br/>
+ * Each change of owners costs the trigger a delete and an insert of one row per owner, whereas an update that keeps
+ * the owners costs one comparison only.
+ *
+ * @author Sébastien Binda
+ */
+@Entity
+@Immutable
+@IdClass(FileReferenceOwner.FileReferenceOwnerId.class)
+@Table(name = "ta_file_reference_owners",
+        indexes = { @Index(name = "idx_file_reference_owners_owner", columnList = "owner, file_ref_id") })
+public class FileReferenceOwner {
+
+    @Id
+    @Column(name = "file_ref_id", nullable = false, insertable = false, updatable = false)
+    private Long fileRefId;
+
+    @Id
+    @Column(name = "owner", nullable = false, insertable = false, updatable = false)
+    private String owner;
+
+    public Long getFileRefId() {
+        return fileRefId;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    /**
+     * Composite identifier of {@link FileReferenceOwner}
+     */
+    public static class FileReferenceOwnerId implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Long fileRefId;
+
+        private String owner;
+
+        public FileReferenceOwnerId() {
+            super();
+        }
+
+        public FileReferenceOwnerId(Long fileRefId, String owner) {
+            this.fileRefId = fileRefId;
+            this.owner = owner;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if ((o == null) || (getClass() != o.getClass())) {
+                return false;
+            }
+            FileReferenceOwnerId that = (FileReferenceOwnerId) o;
+            return Objects.equals(fileRefId, that.fileRefId) && Objects.equals(owner, that.owner);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileRefId, owner);
+        }
+    }
+
+}
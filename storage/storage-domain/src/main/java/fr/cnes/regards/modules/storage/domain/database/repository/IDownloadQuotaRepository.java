@@ -4,6 +4,8 @@ import com.google.common.annotations.VisibleForTesting;
 import fr.cnes.regards.modules.storage.domain.database.*;
 
 import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Map;
 import java.util.Optional;
 
 public interface IDownloadQuotaRepository {
@@ -16,16 +18,48 @@ public interface IDownloadQuotaRepository {
 
     Optional<DownloadQuotaLimits> findByEmail(String email);
 
+    /**
+     * Retrieve limits of all the given users, creating the missing ones with the given default values.
+     * Missing limits are created in bulk and creation is safe against concurrent creations of the same limits.
+     * @return limits by email
+     */
+    Map<String, DownloadQuotaLimits> findOrCreateByEmailIn(Collection<String> emails, Long maxQuota, Long rateLimit);
+
     void deleteByEmail(String email);
 
     UserQuotaAggregate fetchDownloadQuotaSum(String email);
 
     UserRateAggregate fetchDownloadRatesSum(String email);
 
+    /**
+     * Sum quota counters of all instances for each of the given emails in a single grouped query.
+     * Emails without any counter are associated to a zero aggregate.
+     */
+    Map<String, UserQuotaAggregate> fetchDownloadQuotaSums(Collection<String> emails);
+
+    /**
+     * Sum rate gauges of all instances for each of the given emails in a single grouped query.
+     * Emails without any gauge are associated to a zero aggregate.
+     */
+    Map<String, UserRateAggregate> fetchDownloadRatesSums(Collection<String> emails);
+
     UserDownloadQuota upsertOrCombineDownloadQuota(String instanceId, String email, Long diff);
 
     UserDownloadRate upsertOrCombineDownloadRate(String instanceId, String email, Long diff, LocalDateTime expiry);
 
+    /**
+     * Multi-row version of {@link #upsertOrCombineDownloadQuota(String, String, Long)}.
+     * @return upserted counters of the given instance by email
+     */
+    Map<String, UserDownloadQuota> upsertOrCombineDownloadQuotas(String instanceId, Map<String, Long> diffsByEmail);
+
+    /**
+     * Multi-row version of {@link #upsertOrCombineDownloadRate(String, String, Long, LocalDateTime)}.
+     * @return upserted gauges of the given instance by email
+     */
+    Map<String, UserDownloadRate> upsertOrCombineDownloadRates(String instanceId, Map<String, Long> diffsByEmail,
+            LocalDateTime expiry);
+
     void deleteExpiredRates();
 
     @VisibleForTesting
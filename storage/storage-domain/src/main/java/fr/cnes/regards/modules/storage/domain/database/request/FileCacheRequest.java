@@ -50,7 +50,8 @@ import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
         indexes = { @Index(name = "idx_file_cache_request_grp", columnList = "group_id"),
                 @Index(name = "idx_file_cache_request_cs", columnList = "checksum"),
                 @Index(name = "idx_file_cache_request_storage", columnList = "storage"),
-                @Index(name = "idx_file_cache_file_ref", columnList = "file_ref_id") },
+                @Index(name = "idx_file_cache_file_ref", columnList = "file_ref_id"),
+                @Index(name = "idx_file_cache_request_status", columnList = "status, storage, id") },
         uniqueConstraints = {
                 @UniqueConstraint(name = "uk_t_file_cache_request_checksum", columnNames = { "checksum" }) })
 public class FileCacheRequest {
@@ -100,6 +101,30 @@ public class FileCacheRequest {
     @Column(name = "job_id")
     private String jobId;
 
+    /**
+     * True if the file is restored ahead of any request, because it is likely to be requested soon.
+     */
+    @Column(name = "prefetch", nullable = false)
+    private boolean prefetch = false;
+
+    /**
+     * Cache space in bytes reserved for the restoration of the file, from the scheduling of its job to its end.
+     */
+    @Column(name = "reserved_size")
+    private Long reservedSize;
+
+    /**
+     * User who requested the file, used to share the cache between users.
+     */
+    @Column(name = "requester", length = 128)
+    private String requester;
+
+    /**
+     * True if a user is waiting for the file to download it. Interactive requests are restored before batch ones.
+     */
+    @Column(name = "interactive", nullable = false)
+    private boolean interactive = false;
+
     public FileCacheRequest(FileReference fileReference, String restorationDirectory, OffsetDateTime expirationDate,
             String groupId) {
         super();
@@ -174,6 +199,10 @@ public class FileCacheRequest {
         return groupId;
     }
 
+    public void setGroupId(String groupId) {
+        this.groupId = groupId;
+    }
+
     public void setId(long id) {
         this.id = id;
     }
@@ -186,4 +215,36 @@ public class FileCacheRequest {
         this.jobId = jobId;
     }
 
+    public boolean isPrefetch() {
+        return prefetch;
+    }
+
+    public void setPrefetch(boolean prefetch) {
+        this.prefetch = prefetch;
+    }
+
+    public Long getReservedSize() {
+        return reservedSize;
+    }
+
+    public void setReservedSize(Long reservedSize) {
+        this.reservedSize = reservedSize;
+    }
+
+    public String getRequester() {
+        return requester;
+    }
+
+    public void setRequester(String requester) {
+        this.requester = requester;
+    }
+
+    public boolean isInteractive() {
+        return interactive;
+    }
+
+    public void setInteractive(boolean interactive) {
+        this.interactive = interactive;
+    }
+
 }
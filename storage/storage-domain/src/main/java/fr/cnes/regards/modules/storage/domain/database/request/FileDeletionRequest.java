@@ -52,7 +52,8 @@ import fr.cnes.regards.modules.storage.domain.database.FileReference;
 @Table(name = "t_file_deletion_request",
         indexes = { @Index(name = "idx_file_deletion_request", columnList = "storage"),
                 @Index(name = "idx_file_deletion_grp", columnList = "group_id"),
-                @Index(name = "idx_file_deletion_file_ref", columnList = "file_reference") },
+                @Index(name = "idx_file_deletion_file_ref", columnList = "file_reference"),
+                @Index(name = "idx_file_deletion_request_status", columnList = "status, storage, file_reference") },
         uniqueConstraints = { @UniqueConstraint(name = "uk_t_file_deletion_request_file_reference",
                 columnNames = { "file_reference" }) })
 public class FileDeletionRequest {
@@ -57,9 +57,9 @@ import fr.cnes.regards.modules.storage.domain.dto.request.FileStorageRequestDTO;
  */
 @Entity
 @Table(name = "t_file_storage_request",
-        indexes = { @Index(name = "idx_file_storage_request", columnList = "storage, checksum"),
-                @Index(name = "idx_file_storage_request_cs", columnList = "checksum"),
-                @Index(name = "idx_file_storage_request_storage", columnList = "storage") })
+        indexes = { @Index(name = "idx_file_storage_request_cs", columnList = "checksum"),
+                @Index(name = "idx_file_storage_request_status", columnList = "status, storage, id"),
+                @Index(name = "idx_file_storage_request_storage_cs_status", columnList = "storage, checksum, status") })
 public class FileStorageRequest {
 
     /**
@@ -83,7 +83,10 @@ public class FileStorageRequest {
     @ElementCollection(fetch = FetchType.EAGER)
     @CollectionTable(name = "ta_file_storage_request_owners",
             joinColumns = @JoinColumn(name = "file_storage_request_id",
-                    foreignKey = @ForeignKey(name = "fk_ta_file_storage_request_owners_t_file_storage_request")))
+                    foreignKey = @ForeignKey(name = "fk_ta_file_storage_request_owners_t_file_storage_request")),
+            indexes = { @Index(name = "idx_file_storage_request_owners_owner",
+                    columnList = "owner, file_storage_request_id"),
+                    @Index(name = "idx_file_storage_request_owners_request", columnList = "file_storage_request_id") })
     private final Set<String> owners = Sets.newHashSet();
 
     @Column(name = "origin_url", length = FileLocation.URL_MAX_LENGTH)
@@ -18,6 +18,9 @@
  */
 package fr.cnes.regards.modules.storage.domain.dto.cache;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * DTO to regroup cache system informations
  *
@@ -30,6 +33,8 @@ public class CacheDTO {
 
     private long occupedSizeInBytes = 0L;
 
+    private final List<CacheTierDTO> tiers = new ArrayList<>();
+
     public static CacheDTO build(long sizeLimitInBytes, long occupedSizeInBytes) {
         CacheDTO dto = new CacheDTO();
         dto.sizeLimitInBytes = sizeLimitInBytes;
@@ -45,4 +50,13 @@ public class CacheDTO {
         return occupedSizeInBytes;
     }
 
+    public List<CacheTierDTO> getTiers() {
+        return tiers;
+    }
+
+    public CacheDTO withTier(CacheTierDTO tier) {
+        tiers.add(tier);
+        return this;
+    }
+
 }
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.domain.dto.cache;
+
+/**
+ * DTO to regroup informations and metrics of one tier of the cache system
+ *
+ * @author Sébastien Binda
+ *
+ */
+public class CacheTierDTO {
+
+    private String name;
+
+    private long sizeLimitInBytes = 0L;
+
+    private long occupedSizeInBytes = 0L;
+
+    private long nbFiles = 0L;
+
+    private long hits = 0L;
+
+    private long misses = 0L;
+
+    public static CacheTierDTO build(String name, long sizeLimitInBytes, long occupedSizeInBytes, long nbFiles,
+            long hits, long misses) {
+        CacheTierDTO dto = new CacheTierDTO();
+        dto.name = name;
+        dto.sizeLimitInBytes = sizeLimitInBytes;
+        dto.occupedSizeInBytes = occupedSizeInBytes;
+        dto.nbFiles = nbFiles;
+        dto.hits = hits;
+        dto.misses = misses;
+        return dto;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getSizeLimitInBytes() {
+        return sizeLimitInBytes;
+    }
+
+    public long getOccupedSizeInBytes() {
+        return occupedSizeInBytes;
+    }
+
+    public long getNbFiles() {
+        return nbFiles;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+}
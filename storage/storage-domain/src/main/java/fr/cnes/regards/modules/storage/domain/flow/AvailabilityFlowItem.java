@@ -65,6 +65,11 @@ public class AvailabilityFlowItem implements ISubscribable {
      */
     private String groupId;
 
+    /**
+     * Optional user requesting the files. Cache space is shared between requesters.
+     */
+    private String requester;
+
     /**
      * Build a availability request item.
      * @param checksums
@@ -97,4 +102,18 @@ public class AvailabilityFlowItem implements ISubscribable {
         return groupId;
     }
 
+    public String getRequester() {
+        return requester;
+    }
+
+    /**
+     * Add optional requester to current {@link AvailabilityFlowItem}
+     * @param requester
+     * @return current {@link AvailabilityFlowItem}
+     */
+    public AvailabilityFlowItem withRequester(String requester) {
+        this.requester = requester;
+        return this;
+    }
+
 }
@@ -18,7 +18,10 @@
  */
 package fr.cnes.regards.modules.storage.domain.plugin;
 
+import java.util.Collection;
+
 import fr.cnes.regards.framework.modules.plugins.annotations.PluginInterface;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
 import fr.cnes.regards.modules.storage.domain.flow.AvailabilityFlowItem;
 
 /**
@@ -39,4 +42,18 @@ public interface INearlineStorageLocation extends IStorageLocation {
      */
     void retrieve(FileRestorationWorkingSubset workingSubset, IRestorationProgressManager progressManager);
 
+    /**
+     * Physical locality of a file to restore (tape volume, archive, directory, ...). Cache requests are sorted and
+     * grouped by locality key before {@link #prepareForRestoration(Collection)}, so that files read from the same
+     * physical location are restored together.<br/>
+     * Default key is the directory of the file url.
+     * @param request {@link FileCacheRequest} to restore
+     * @return locality key
+     */
+    default String getLocalityKey(FileCacheRequest request) {
+        String url = request.getFileReference().getLocation().getUrl();
+        int idx = url.lastIndexOf('/');
+        return idx > 0 ? url.substring(0, idx) : url;
+    }
+
 }
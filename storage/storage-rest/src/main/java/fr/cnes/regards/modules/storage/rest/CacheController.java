@@ -29,6 +29,7 @@ import fr.cnes.regards.framework.security.annotation.ResourceAccess;
 import fr.cnes.regards.framework.security.role.DefaultRole;
 import fr.cnes.regards.modules.storage.domain.dto.cache.CacheDTO;
 import fr.cnes.regards.modules.storage.service.cache.CacheService;
+import fr.cnes.regards.modules.storage.service.cache.HotCacheTier;
 
 /**
  * Controller to provide information about cache system
@@ -45,11 +46,18 @@ public class CacheController {
     @Autowired
     private CacheService cacheService;
 
+    @Autowired
+    private HotCacheTier hotTier;
+
     @RequestMapping(method = RequestMethod.GET)
     @ResourceAccess(description = "Download one file by checksum.", role = DefaultRole.EXPLOIT)
     public ResponseEntity<CacheDTO> getOccupation() {
-        return new ResponseEntity<CacheDTO>(
-                CacheDTO.build(cacheService.getCacheSizeLimit(), cacheService.getCacheSizeUsedBytes()), HttpStatus.OK);
+        CacheDTO cache = CacheDTO.build(cacheService.getCacheSizeLimit(), cacheService.getCacheSizeUsedBytes())
+                .withTier(cacheService.getDiskTierMetrics());
+        if (hotTier.isEnabled()) {
+            cache.withTier(hotTier.getMetrics());
+        }
+        return new ResponseEntity<CacheDTO>(cache, HttpStatus.OK);
     }
 
 }
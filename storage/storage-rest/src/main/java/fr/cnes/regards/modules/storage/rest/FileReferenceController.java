@@ -27,6 +27,7 @@ import fr.cnes.regards.framework.module.rest.exception.ModuleException;
 import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
 import fr.cnes.regards.framework.security.annotation.ResourceAccess;
 import fr.cnes.regards.framework.security.role.DefaultRole;
+import fr.cnes.regards.modules.storage.dao.FileReferenceSpecification;
 import fr.cnes.regards.modules.storage.domain.DownloadableFile;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.flow.StorageFlowItem;
@@ -42,13 +43,14 @@ import org.apache.commons.csv.CSVPrinter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.InputStreamResource;
-import org.springframework.data.domain.Page;
-import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
+import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.*;
 import org.springframework.util.MimeType;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.context.request.async.DeferredResult;
 import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import javax.servlet.http.HttpServletResponse;
@@ -56,10 +58,17 @@ import javax.validation.Valid;
 import java.io.BufferedWriter;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.time.OffsetDateTime;
 import java.util.Collection;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Controller to access {@link FileReference} by rest API.
@@ -75,10 +84,36 @@ public class FileReferenceController {
 
     public static final String DOWNLOAD_PATH = "/{checksum}/download";
 
+    public static final String AVAILABILITY_WAIT_PATH = "/{checksum}/availability/wait";
+
     public static final String STORE_PATH = "/store";
 
     public static final String EXPORT_PATH = "/csv";
 
+    public static final String STORAGES_PARAM = "storages";
+
+    public static final String TYPES_PARAM = "types";
+
+    public static final String OWNERS_PARAM = "owners";
+
+    public static final String FROM_PARAM = "from";
+
+    public static final String TO_PARAM = "to";
+
+    public static final String GZIP_PARAM = "gzip";
+
+    public static final String TIMEOUT_PARAM = "timeout";
+
+    /**
+     * Size of the buffers used to write exported file references
+     */
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Number of exported file references between two flushes to the client
+     */
+    private static final int EXPORT_FLUSH_RECORDS = 10_000;
+
     @Autowired
     private FileDownloadService downloadService;
 
@@ -100,6 +135,12 @@ public class FileReferenceController {
     @Autowired
     private StorageFlowItemHandler storageHandler;
 
+    /**
+     * Maximum duration of a wait for a file availability, in seconds
+     */
+    @Value("${regards.storage.availability.wait.max.seconds:120}")
+    private long maxWaitSeconds;
+
     /**
      * End-point to Download a file referenced by a storage location with the given checksum.
      * @param checksum checksum of the file to download
@@ -128,6 +169,40 @@ public class FileReferenceController {
             }).get();
     }
 
+    /**
+     * End-point to wait for a file to be available for download, instead of polling the download end-point. The
+     * restoration of a nearline file is requested if needed. Response is sent as soon as the restoration ends :
+     * <ul>
+     * <li>200 if the file is available for download</li>
+     * <li>202 if the file is still not available at the end of the timeout, the client can wait again</li>
+     * <li>503 if the file cannot be made available</li>
+     * <li>404 if the file is not referenced</li>
+     * </ul>
+     * @param checksum checksum of the file to wait for
+     * @param timeout maximum duration of the wait in seconds
+     * @return {@link DeferredResult}
+     */
+    @RequestMapping(path = AVAILABILITY_WAIT_PATH, method = RequestMethod.GET)
+    @ResourceAccess(description = "Wait for a file to be available for download.", role = DefaultRole.PROJECT_ADMIN)
+    public DeferredResult<ResponseEntity<Void>> waitAvailability(@PathVariable("checksum") String checksum,
+            @RequestParam(name = TIMEOUT_PARAM, required = false, defaultValue = "30") long timeout) {
+        long timeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(1, Math.min(timeout, maxWaitSeconds)));
+        DeferredResult<ResponseEntity<Void>> result = new DeferredResult<>(timeoutMillis,
+                new ResponseEntity<>(HttpStatus.ACCEPTED));
+        try {
+            CompletableFuture<Boolean> availability = downloadService.waitAvailability(checksum);
+            availability.whenComplete((available, error) -> result
+                    .setResult(new ResponseEntity<>((error == null) && available ? HttpStatus.OK
+                            : HttpStatus.SERVICE_UNAVAILABLE)));
+            // Expired waits give up their restoration result
+            result.onCompletion(() -> availability.cancel(false));
+        } catch (EntityNotFoundException e) {
+            LOGGER.debug(e.getMessage(), e);
+            result.setResult(new ResponseEntity<>(HttpStatus.NOT_FOUND));
+        }
+        return result;
+    }
+
     /**
      * End-point to Download a file referenced by a storage location with the given checksum.
      * @param checksum checksum of the file to download
@@ -247,29 +322,54 @@ public class FileReferenceController {
         });
     }
 
+    /**
+     * End-point to export all the file references matching the given optional filters in a csv file.<br/>
+     * References are read through a database cursor and written as they are read, so the export duration is linear
+     * whatever the number of references.
+     */
     @RequestMapping(method = RequestMethod.GET, path = EXPORT_PATH)
     @ResourceAccess(description = "Export all file referenced in csv file", role = DefaultRole.PROJECT_ADMIN)
-    public void export(HttpServletResponse response) throws IOException {
-        response.addHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=files.csv");
-        response.setContentType("text/csv");
-        BufferedWriter writer = new BufferedWriter(response.getWriter());
-        CSVPrinter printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withHeader("id", "url", "storage", "owners"));
-        Pageable page = null;
-        Page<FileReference> results;
-        do {
-            if (page == null) {
-                page = PageRequest.of(0, 100);
-            } else {
-                page = page.next();
-            }
-            results = fileRefService.search(page);
-            for (FileReference fileRef : results.getContent()) {
-                printer.printRecord(fileRef.getId(), fileRef.getLocation().getUrl(), fileRef.getLocation().getStorage(),
-                                    fileRef.getOwners().stream().collect(Collectors.joining(",")));
-            }
-        } while (results.hasNext());
-        printer.close();
-        writer.close();
+    public void export(@RequestParam(name = STORAGES_PARAM, required = false) Collection<String> storages,
+            @RequestParam(name = TYPES_PARAM, required = false) Collection<String> types,
+            @RequestParam(name = OWNERS_PARAM, required = false) Collection<String> owners,
+            @RequestParam(name = FROM_PARAM, required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime from,
+            @RequestParam(name = TO_PARAM, required = false)
+            @DateTimeFormat(iso = DateTimeFormat.ISO.DATE_TIME) OffsetDateTime to,
+            @RequestParam(name = GZIP_PARAM, required = false, defaultValue = "false") boolean gzip,
+            HttpServletResponse response) throws IOException {
+        if (gzip) {
+            response.addHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=files.csv.gz");
+            response.setContentType("application/gzip");
+        } else {
+            response.addHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment;filename=files.csv");
+            response.setContentType("text/csv");
+        }
+        OutputStream out = gzip ? new GZIPOutputStream(response.getOutputStream(), EXPORT_BUFFER_SIZE)
+                : response.getOutputStream();
+        try (BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8),
+                EXPORT_BUFFER_SIZE);
+                CSVPrinter printer = new CSVPrinter(writer,
+                        CSVFormat.DEFAULT.withHeader("id", "url", "storage", "owners"))) {
+            AtomicLong count = new AtomicLong();
+            fileRefService.streamAll(FileReferenceSpecification.search(null, null, types, storages, owners, from, to,
+                                                                       Pageable.unpaged()),
+                                     fileRef -> {
+                                         try {
+                                             printer.printRecord(fileRef.getId(), fileRef.getLocation().getUrl(),
+                                                                 fileRef.getLocation().getStorage(),
+                                                                 String.join(",", fileRef.getOwners()));
+                                             // Periodically send written records to the client
+                                             if ((count.incrementAndGet() % EXPORT_FLUSH_RECORDS) == 0) {
+                                                 printer.flush();
+                                             }
+                                         } catch (IOException e) {
+                                             throw new UncheckedIOException(e);
+                                         }
+                                     });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     @RequestMapping(method = RequestMethod.POST, path = STORE_PATH)
@@ -37,10 +37,13 @@ import fr.cnes.regards.framework.utils.plugins.PluginUtils;
 import fr.cnes.regards.modules.storage.dao.IFileReferenceRepository;
 import fr.cnes.regards.modules.storage.dao.IGroupRequestInfoRepository;
 import fr.cnes.regards.modules.storage.domain.database.DownloadQuotaLimits;
+import fr.cnes.regards.modules.storage.domain.database.FileLocation;
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
 import fr.cnes.regards.modules.storage.domain.database.repository.IDownloadQuotaRepository;
 import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
 import fr.cnes.regards.modules.storage.rest.plugin.SimpleOnlineDataStorage;
+import fr.cnes.regards.modules.storage.service.file.FileDownloadService;
 import fr.cnes.regards.modules.storage.service.file.FileReferenceService;
 import fr.cnes.regards.modules.storage.service.file.request.FileStorageRequestService;
 import fr.cnes.regards.modules.storage.service.location.StorageLocationConfigurationService;
@@ -48,16 +51,21 @@ import fr.cnes.regards.modules.storage.service.location.StoragePluginConfigurati
 import io.vavr.collection.List;
 import io.vavr.control.Try;
 import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
 import org.junit.After;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.Mockito;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.mock.mockito.SpyBean;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockAsyncContext;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.annotation.DirtiesContext.ClassMode;
 import org.springframework.test.annotation.DirtiesContext.HierarchyMode;
@@ -66,16 +74,23 @@ import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.web.servlet.MvcResult;
 import org.springframework.test.web.servlet.ResultActions;
+import org.springframework.test.web.servlet.result.MockMvcResultMatchers;
 import org.springframework.web.bind.annotation.RequestMethod;
 import reactor.core.Disposable;
 import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import reactor.core.scheduler.Schedulers;
 
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+
+import java.io.ByteArrayInputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -84,11 +99,13 @@ import java.time.Duration;
 import java.util.Optional;
 import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.stream.LongStream;
+import java.util.zip.GZIPInputStream;
 
 import static org.junit.Assert.*;
 
@@ -101,6 +118,7 @@ import static org.junit.Assert.*;
     "spring.jpa.properties.hibernate.default_schema=storage_rest_it",
     "regards.storage.cache.path=target/cache",
     "regards.storage.quota.report.tick=1",
+    "regards.storage.availability.wait.max.seconds=" + FileReferenceControllerIT.MAX_WAIT_SECONDS,
     "regards.amqp.enabled=true"
 })
 @ActiveProfiles(value = { "testAmqp", "default", "test" }, inheritProfiles = false)
@@ -112,6 +130,8 @@ public class FileReferenceControllerIT extends AbstractRegardsTransactionalIT im
 
     private static final String STORAGE_PATH = "target/ONLINE-STORAGE";
 
+    static final long MAX_WAIT_SECONDS = 5;
+
     @Autowired
     private FileStorageRequestService storeReqService;
 
@@ -139,6 +159,9 @@ public class FileReferenceControllerIT extends AbstractRegardsTransactionalIT im
     @Autowired
     private IRuntimeTenantResolver tenantResolver;
 
+    @SpyBean
+    private FileDownloadService downloadService;
+
     private String storedFileChecksum;
 
     private final AtomicInteger notificationEvents = new AtomicInteger(0);
@@ -213,6 +236,63 @@ public class FileReferenceControllerIT extends AbstractRegardsTransactionalIT im
                           UUID.randomUUID().toString());
     }
 
+    @Test
+    public void waitAvailability() throws Exception {
+        assertEquals("Online file should be available at once", HttpStatus.OK,
+                     getWaitStatus(waitAvailability(storedFileChecksum, 10)));
+        assertEquals("Unknown file should not be found", HttpStatus.NOT_FOUND,
+                     getWaitStatus(waitAvailability(UUID.randomUUID().toString(), 10)));
+
+        // File referenced on a storage location that does not exist anymore
+        String checksum = UUID.randomUUID().toString();
+        fileRepo.save(new FileReference("owner", new FileReferenceMetaInfo(checksum, "MD5", "file.txt", 10L,
+                MediaType.APPLICATION_OCTET_STREAM), new FileLocation("unknown", "file:///unknown/file.txt")));
+        assertEquals("File that cannot be restored should be unavailable", HttpStatus.SERVICE_UNAVAILABLE,
+                     getWaitStatus(waitAvailability(checksum, 10)));
+
+        // Rolled back restoration
+        String rolledBack = UUID.randomUUID().toString();
+        CompletableFuture<Boolean> failed = new CompletableFuture<>();
+        failed.completeExceptionally(new IllegalStateException("Restoration request has been rolled back"));
+        Mockito.doReturn(failed).when(downloadService).waitAvailability(rolledBack);
+        assertEquals("Rolled back restoration should be unavailable", HttpStatus.SERVICE_UNAVAILABLE,
+                     getWaitStatus(waitAvailability(rolledBack, 10)));
+    }
+
+    @Test
+    public void waitAvailability_timeout() throws Exception {
+        String checksum = UUID.randomUUID().toString();
+        CompletableFuture<Boolean> pending = new CompletableFuture<>();
+        Mockito.doReturn(pending).when(downloadService).waitAvailability(checksum);
+        MvcResult result = waitAvailability(checksum, 3_600);
+        AsyncContext asyncContext = result.getRequest().getAsyncContext();
+        assertEquals("Wait should be capped to the maximum duration", TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS),
+                     asyncContext.getTimeout());
+
+        // Simulate the expiration of the wait
+        for (AsyncListener listener : ((MockAsyncContext) asyncContext).getListeners()) {
+            listener.onTimeout(new AsyncEvent(asyncContext));
+        }
+        assertEquals("Client should wait again when the file is not available yet", HttpStatus.ACCEPTED,
+                     getWaitStatus(result));
+        asyncContext.complete();
+        assertTrue("Expired wait should give up the restoration result", pending.isCancelled());
+    }
+
+    private MvcResult waitAvailability(String checksum, long timeout) {
+        RequestBuilderCustomizer requestBuilderCustomizer = customizer()
+                .expect(MockMvcResultMatchers.request().asyncStarted())
+                .addParameter(FileReferenceController.TIMEOUT_PARAM, String.valueOf(timeout));
+        return performDefaultGet(FileReferenceController.FILE_PATH + FileReferenceController.AVAILABILITY_WAIT_PATH,
+                                 requestBuilderCustomizer, "Wait for file availability should start", checksum)
+                .andReturn();
+    }
+
+    private static HttpStatus getWaitStatus(MvcResult result) {
+        return ((ResponseEntity<?>) result.getAsyncResult(TimeUnit.SECONDS.toMillis(MAX_WAIT_SECONDS)))
+                .getStatusCode();
+    }
+
     @Test
     @Requirement("REGARDS_DSL_STO_AIP_130")
     @Requirement("REGARDS_DSL_STO_ARC_200")
@@ -432,6 +512,34 @@ public class FileReferenceControllerIT extends AbstractRegardsTransactionalIT im
         assertTrue("Several notification should have been sent on quota exceeded", notificationEvents.get() > 1);
     }
 
+    @Test
+    public void exportFiles() throws IOException {
+        RequestBuilderCustomizer requestBuilderCustomizer = customizer().expectStatusOk()
+                .addParameter(FileReferenceController.STORAGES_PARAM, TARGET_STORAGE);
+        String csv = performDefaultGet(FileReferenceController.FILE_PATH + FileReferenceController.EXPORT_PATH,
+                                       requestBuilderCustomizer, "Export should be OK").andReturn().getResponse()
+                                               .getContentAsString();
+        assertTrue("Exported csv should contain the stored file", csv.contains(TARGET_STORAGE));
+        assertEquals("Exported csv should contain header and stored file", 2, csv.trim().split("\r?\n").length);
+
+        requestBuilderCustomizer = customizer().expectStatusOk()
+                .addParameter(FileReferenceController.STORAGES_PARAM, "unknown");
+        csv = performDefaultGet(FileReferenceController.FILE_PATH + FileReferenceController.EXPORT_PATH,
+                                requestBuilderCustomizer, "Export should be OK").andReturn().getResponse()
+                                        .getContentAsString();
+        assertEquals("Exported csv should only contain header", 1, csv.trim().split("\r?\n").length);
+
+        requestBuilderCustomizer = customizer().expectStatusOk()
+                .addParameter(FileReferenceController.GZIP_PARAM, "true");
+        byte[] gzip = performDefaultGet(FileReferenceController.FILE_PATH + FileReferenceController.EXPORT_PATH,
+                                        requestBuilderCustomizer, "Gzip export should be OK").andReturn()
+                                                .getResponse().getContentAsByteArray();
+        try (GZIPInputStream in = new GZIPInputStream(new ByteArrayInputStream(gzip))) {
+            csv = IOUtils.toString(in, StandardCharsets.UTF_8);
+        }
+        assertTrue("Exported gzip csv should contain the stored file", csv.contains(TARGET_STORAGE));
+    }
+
     private void initDataStoragePluginConfiguration() throws ModuleException {
         try {
             PluginMetaData dataStoMeta = PluginUtils.createPluginMetaData(SimpleOnlineDataStorage.class);
@@ -26,8 +26,12 @@ package fr.cnes.regards.modules.storage.service;
  */
 public enum JobsPriority {
 
+    FILE_CACHE_PREFETCH_JOB(10),
+
     FILE_CACHE_JOB(30),
 
+    FILE_CACHE_INTERACTIVE_JOB(35),
+
     FILE_STORAGE_JOB(40),
 
     FILE_REFERENCE_JOB(50),
@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.modules.storage.dao.ICacheFileRepository;
+import fr.cnes.regards.modules.storage.dao.IFileCacheRequestRepository;
+import fr.cnes.regards.modules.storage.dao.RequesterCacheSize;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
+
+/**
+ * Fair-share admission of the restorations in cache, enabled with regards.storage.cache.fairshare.enabled.<br/>
+ * Each tenant has its own cache, limited by regards.storage.cache.size.limit.ko.per.tenant. Within a tenant cache, the
+ * space available is shared between the requesters of the files :
+ * <ul>
+ * <li>The requester using the least cache space relative to its weight is served first. Weights are configured with
+ * regards.storage.cache.fairshare.weights as a list of requester:weight, other requesters have a weight of 1.</li>
+ * <li>Requesters using more than the regards.storage.cache.fairshare.quota.ko soft quota are only served with the space
+ * not needed by the others.</li>
+ * </ul>
+ * Requests without known requester are shared as the ones of a single {@link #BATCH_REQUESTER} requester.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class CacheFairShare {
+
+    public static final String BATCH_REQUESTER = "batch";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheFairShare.class);
+
+    @Value("${regards.storage.cache.fairshare.enabled:false}")
+    private boolean enabled;
+
+    @Value("${regards.storage.cache.fairshare.weights:}")
+    private String weightsProperty;
+
+    /**
+     * Soft quota of cache space per requester in ko, 0 for no quota
+     */
+    @Value("${regards.storage.cache.fairshare.quota.ko:0}")
+    private long quotaKo;
+
+    @Autowired
+    private ICacheFileRepository cacheFileRepository;
+
+    @Autowired
+    private IFileCacheRequestRepository fileCacheRequestRepository;
+
+    private final Map<String, Integer> weights = Maps.newHashMap();
+
+    @PostConstruct
+    public void init() {
+        try {
+            Splitter.on(',').omitEmptyStrings().trimResults().withKeyValueSeparator(':').split(weightsProperty)
+                    .forEach((requester, weight) -> weights.put(requester.trim(),
+                                                                Math.max(1, Integer.parseInt(weight.trim()))));
+        } catch (IllegalArgumentException e) {
+            LOGGER.warn("[CACHE FAIR SHARE] Invalid requesters weights {}, default weight is used. Cause : {}",
+                        weightsProperty, e.getMessage());
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Select the requests to restore in the given cache space, sharing it between their requesters.
+     * @param requests {@link FileCacheRequest}s of a same priority class, in arrival order
+     * @param availableSize cache space available in bytes
+     * @return selected {@link FileCacheRequest}s, in admission order
+     */
+    public List<FileCacheRequest> select(List<FileCacheRequest> requests, long availableSize) {
+        Map<String, Deque<FileCacheRequest>> queues = new LinkedHashMap<>();
+        requests.forEach(r -> queues.computeIfAbsent(getRequester(r), k -> new ArrayDeque<>()).add(r));
+        Map<String, Long> usedSizes = getUsedSizes(queues.keySet());
+        long quota = quotaKo * 1024;
+        PriorityQueue<String> requesters = new PriorityQueue<>(Comparator
+                .comparing((String r) -> (quota > 0) && (usedSizes.get(r) > quota))
+                .thenComparingDouble(r -> (double) usedSizes.get(r) / getWeight(r)));
+        requesters.addAll(queues.keySet());
+        List<FileCacheRequest> selected = Lists.newArrayListWithCapacity(requests.size());
+        long remainingSize = availableSize;
+        while (!requesters.isEmpty()) {
+            String requester = requesters.poll();
+            FileCacheRequest request = queues.get(requester).poll();
+            if (request.getFileSize() <= remainingSize) {
+                selected.add(request);
+                remainingSize -= request.getFileSize();
+                usedSizes.merge(requester, request.getFileSize(), Long::sum);
+            }
+            if (!queues.get(requester).isEmpty()) {
+                requesters.add(requester);
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * @return cache space in bytes used by cached files and in-flight restorations of each requester
+     */
+    private Map<String, Long> getUsedSizes(Collection<String> requesters) {
+        Map<String, Long> usedSizes = Maps.newHashMap();
+        requesters.forEach(r -> usedSizes.put(r, 0L));
+        for (RequesterCacheSize size : cacheFileRepository.getFileSizeByRequester(requesters)) {
+            usedSizes.merge(size.getRequester(), size.getUsedSize(), Long::sum);
+        }
+        for (RequesterCacheSize size : fileCacheRequestRepository.getReservedSizeByRequester(requesters)) {
+            usedSizes.merge(size.getRequester(), size.getUsedSize(), Long::sum);
+        }
+        return usedSizes;
+    }
+
+    private int getWeight(String requester) {
+        return weights.getOrDefault(requester, 1);
+    }
+
+    private static String getRequester(FileCacheRequest request) {
+        return request.getRequester() != null ? request.getRequester() : BATCH_REQUESTER;
+    }
+
+}
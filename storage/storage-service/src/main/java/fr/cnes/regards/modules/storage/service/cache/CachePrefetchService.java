@@ -0,0 +1,322 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.time.OffsetDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.modules.storage.dao.FileReferenceSpecification;
+import fr.cnes.regards.modules.storage.dao.IFileCacheRequestRepository;
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
+import fr.cnes.regards.modules.storage.domain.database.StorageLocationConfiguration;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
+import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
+import fr.cnes.regards.modules.storage.service.file.FileReferenceService;
+import fr.cnes.regards.modules.storage.service.file.request.FileCacheRequestService;
+import fr.cnes.regards.modules.storage.service.location.StorageLocationConfigurationService;
+
+/**
+ * Predictive prefetch of nearline files, enabled with regards.storage.cache.prefetch.enabled.<br/>
+ * Files of a same product are usually downloaded together, so availability requests are recorded to learn which files
+ * are accessed together :
+ * <ul>
+ * <li>files requested in a same requests group,</li>
+ * <li>files requested within regards.storage.cache.prefetch.window.seconds of each other,</li>
+ * <li>files of a same owner.</li>
+ * </ul>
+ * {@link #schedulePrefetch()} creates low priority {@link FileCacheRequest}s for the files most likely requested next,
+ * within regards.storage.cache.prefetch.share percent of the cache size. Prefetched files expire after
+ * regards.storage.cache.prefetch.ttl.minutes unless they are requested, and they are the first evicted when cache is
+ * full (see {@link CacheService#evictPrefetched(long)}).<br/>
+ * Co-access relationships are kept in memory of each instance, with a bounded number of files for each tenant.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class CachePrefetchService {
+
+    /**
+     * Prefix of the business identifier of the prefetch requests groups
+     */
+    public static final String PREFETCH_GROUP_PREFIX = "prefetch-";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachePrefetchService.class);
+
+    /**
+     * Maximum number of files for which co-accessed files are kept, for each tenant
+     */
+    private static final int MAX_TRACKED_FILES = 10_000;
+
+    /**
+     * Maximum number of co-accessed files kept for each file
+     */
+    private static final int MAX_NEIGHBOURS = 20;
+
+    /**
+     * Maximum number of files of one request, or of recent accesses, linked together
+     */
+    private static final int MAX_LINKED_FILES = 50;
+
+    /**
+     * Maximum number of recorded accesses waiting for the next prefetch
+     */
+    private static final int MAX_PENDING_ACCESSES = 1_000;
+
+    @Value("${regards.storage.cache.prefetch.enabled:false}")
+    private boolean enabled;
+
+    @Value("${regards.storage.cache.prefetch.share:10}")
+    private int prefetchShare;
+
+    @Value("${regards.storage.cache.prefetch.window.seconds:300}")
+    private long windowSeconds;
+
+    @Value("${regards.storage.cache.prefetch.max.files:20}")
+    private int maxFiles;
+
+    @Value("${regards.storage.cache.prefetch.ttl.minutes:60}")
+    private long ttlMinutes;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    @Autowired
+    private CacheService cacheService;
+
+    @Autowired
+    private FileReferenceService fileRefService;
+
+    @Autowired
+    private FileCacheRequestService fileCacheReqService;
+
+    @Autowired
+    private StorageLocationConfigurationService storageLocationConfService;
+
+    @Autowired
+    private IFileCacheRequestRepository fileCacheReqRepository;
+
+    @Autowired
+    private CacheReservationLedger reservationLedger;
+
+    private final Map<String, CoAccesses> coAccessesByTenant = new ConcurrentHashMap<>();
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Record an availability request of the given files, all requested in a same requests group.
+     * @param files requested {@link FileReference}s
+     */
+    public void recordAccess(Collection<FileReference> files) {
+        if (enabled && !files.isEmpty()) {
+            getCoAccesses().record(files, System.currentTimeMillis() - (windowSeconds * 1000));
+        }
+    }
+
+    /**
+     * Create prefetch {@link FileCacheRequest}s for the nearline files most likely requested after the accesses
+     * recorded since the last call.
+     * @return number of prefetch requests created
+     */
+    public int schedulePrefetch() {
+        if (!enabled) {
+            return 0;
+        }
+        Map<String, Set<String>> accesses = getCoAccesses().drainPendingAccesses();
+        if (accesses.isEmpty()) {
+            return 0;
+        }
+        long budget = getAvailablePrefetchSize();
+        Set<String> nearlines = storageLocationConfService.search(StorageType.NEARLINE).stream()
+                .map(StorageLocationConfiguration::getName).collect(Collectors.toSet());
+        if ((budget <= 0) || nearlines.isEmpty()) {
+            return 0;
+        }
+        Map<String, Integer> scores = getCoAccesses().score(accesses.keySet());
+        // Files of the same owners are likely part of the same products
+        Set<String> owners = accesses.values().stream().flatMap(Set::stream).limit(MAX_LINKED_FILES)
+                .collect(Collectors.toSet());
+        if (!owners.isEmpty()) {
+            Pageable page = PageRequest.of(0, maxFiles + accesses.size());
+            fileRefService.search(FileReferenceSpecification.search(null, null, null, nearlines, owners, null, null,
+                                                                    page),
+                                  page)
+                    .forEach(f -> scores.merge(f.getMetaInfo().getChecksum(), 1, Integer::sum));
+        }
+        scores.keySet().removeAll(accesses.keySet());
+        if (scores.isEmpty()) {
+            return 0;
+        }
+        scores.keySet().removeAll(cacheService.getCachedChecksums(Sets.newHashSet(scores.keySet())));
+        List<String> candidates = scores.entrySet().stream()
+                .sorted(Map.Entry.<String, Integer> comparingByValue().reversed()).limit(maxFiles)
+                .map(Map.Entry::getKey).collect(Collectors.toList());
+        Map<String, List<FileReference>> filesByChecksum = fileRefService.search(candidates).stream()
+                .collect(Collectors.groupingBy(f -> f.getMetaInfo().getChecksum()));
+        String groupId = PREFETCH_GROUP_PREFIX + UUID.randomUUID().toString();
+        OffsetDateTime expirationDate = OffsetDateTime.now().plusMinutes(ttlMinutes);
+        int nbRequests = 0;
+        for (String checksum : candidates) {
+            List<FileReference> files = filesByChecksum.getOrDefault(checksum, Collections.emptyList());
+            // Files also stored on an online storage are already available
+            if (!files.isEmpty() && files.stream().allMatch(f -> nearlines.contains(f.getLocation().getStorage()))) {
+                FileReference file = files.get(0);
+                Long fileSize = file.getMetaInfo().getFileSize();
+                if ((fileSize <= budget) && fileCacheReqService.prefetch(file, expirationDate, groupId)) {
+                    budget -= fileSize;
+                    nbRequests++;
+                }
+            }
+        }
+        if (nbRequests > 0) {
+            LOGGER.info("[CACHE PREFETCH] {} files prefetched after {} recorded accesses", nbRequests,
+                        accesses.size());
+        }
+        return nbRequests;
+    }
+
+    /**
+     * @return space in bytes still available in cache for prefetched files
+     */
+    public long getAvailablePrefetchSize() {
+        long shareSize = (cacheService.getCacheSizeLimit() * prefetchShare) / 100;
+        long prefetchSize = cacheService.getPrefetchSizeUsedBytes() + fileCacheReqRepository.getPrefetchFileSize();
+        return Math.min(shareSize - prefetchSize, reservationLedger.getAvailableSize());
+    }
+
+    private CoAccesses getCoAccesses() {
+        return coAccessesByTenant.computeIfAbsent(runtimeTenantResolver.getTenant(), t -> new CoAccesses());
+    }
+
+    /**
+     * Co-access relationships between files of one tenant
+     */
+    private static class CoAccesses {
+
+        /**
+         * Number of co-accesses with other files, by file checksum, in least recently used order
+         */
+        private final Map<String, Map<String, Integer>> neighbours = new LinkedHashMap<String, Map<String, Integer>>(
+                16, 0.75f, true) {
+
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Map<String, Integer>> eldest) {
+                return size() > MAX_TRACKED_FILES;
+            }
+        };
+
+        /**
+         * Recently accessed files with their access time
+         */
+        private final Deque<Map.Entry<String, Long>> recents = new ArrayDeque<>();
+
+        /**
+         * Owners of the files accessed since the last prefetch, by file checksum
+         */
+        private Map<String, Set<String>> pendingAccesses = new LinkedHashMap<>();
+
+        private synchronized void record(Collection<FileReference> files, long windowStart) {
+            List<String> checksums = files.stream().map(f -> f.getMetaInfo().getChecksum()).distinct()
+                    .limit(MAX_LINKED_FILES).collect(Collectors.toList());
+            // Files requested together
+            for (String checksum : checksums) {
+                checksums.stream().filter(c -> !c.equals(checksum)).forEach(c -> link(checksum, c));
+            }
+            // Files requested within the time window
+            while (!recents.isEmpty() && (recents.peekFirst().getValue() < windowStart)) {
+                recents.pollFirst();
+            }
+            for (Map.Entry<String, Long> recent : recents) {
+                checksums.stream().filter(c -> !c.equals(recent.getKey())).forEach(c -> {
+                    link(recent.getKey(), c);
+                    link(c, recent.getKey());
+                });
+            }
+            long now = System.currentTimeMillis();
+            for (String checksum : checksums) {
+                recents.addLast(Maps.immutableEntry(checksum, now));
+                if (recents.size() > MAX_LINKED_FILES) {
+                    recents.pollFirst();
+                }
+            }
+            for (FileReference file : files) {
+                if (pendingAccesses.size() < MAX_PENDING_ACCESSES) {
+                    pendingAccesses.computeIfAbsent(file.getMetaInfo().getChecksum(), c -> Sets.newHashSet())
+                            .addAll(file.getOwners());
+                }
+            }
+        }
+
+        private void link(String from, String to) {
+            Map<String, Integer> counts = neighbours.computeIfAbsent(from, c -> Maps.newHashMap());
+            counts.merge(to, 1, Integer::sum);
+            if (counts.size() > MAX_NEIGHBOURS) {
+                // Forget the least co-accessed file
+                counts.entrySet().stream().filter(e -> !e.getKey().equals(to))
+                        .min(Comparator.comparing(Map.Entry::getValue)).ifPresent(e -> counts.remove(e.getKey()));
+            }
+        }
+
+        private synchronized Map<String, Set<String>> drainPendingAccesses() {
+            Map<String, Set<String>> accesses = pendingAccesses;
+            pendingAccesses = new LinkedHashMap<>();
+            return accesses;
+        }
+
+        private synchronized Map<String, Integer> score(Collection<String> checksums) {
+            Map<String, Integer> scores = Maps.newHashMap();
+            for (String checksum : checksums) {
+                Map<String, Integer> counts = neighbours.get(checksum);
+                if (counts != null) {
+                    counts.forEach((c, count) -> scores.merge(c, count, Integer::sum));
+                }
+            }
+            return scores;
+        }
+    }
+
+}
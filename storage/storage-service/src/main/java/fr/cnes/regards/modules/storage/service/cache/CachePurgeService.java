@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Lists;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.modules.storage.dao.CacheFileLocation;
+import fr.cnes.regards.modules.storage.dao.ICacheFileRepository;
+import fr.cnes.regards.modules.storage.domain.database.CacheFile;
+
+/**
+ * Service to purge one batch of expired {@link CacheFile}s, see {@link CacheService#purge()}.<br/>
+ * Physical files of the batch are deleted in parallel, then the {@link CacheFile}s of the deleted files are deleted
+ * from database with one bulk delete. Each batch is run in its own transaction, so purge progress is never lost.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class CachePurgeService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CachePurgeService.class);
+
+    @Autowired
+    private ICacheFileRepository cachedFileRepository;
+
+    @Autowired
+    private HotCacheTier hotTier;
+
+    @Autowired
+    private SharedCacheStore sharedStore;
+
+    /**
+     * Purge the next batch of {@link CacheFile}s expired before the given date.
+     * @param expirationDate expiration date
+     * @param lastId id of the last {@link CacheFile} handled by the previous batch
+     * @param batchSize maximum number of {@link CacheFile}s to purge
+     * @param executor executor used to delete physical files
+     * @return {@link PurgeBatch}
+     * @throws InterruptedException if interrupted while waiting for files deletion
+     */
+    public PurgeBatch purgeExpired(OffsetDateTime expirationDate, Long lastId, int batchSize,
+            ExecutorService executor) throws InterruptedException {
+        List<CacheFileLocation> files = cachedFileRepository
+                .findByExpirationDateBeforeAndIdGreaterThanOrderByIdAsc(expirationDate, lastId,
+                                                                        PageRequest.of(0, batchSize));
+        List<Future<Boolean>> deletions = Lists.newArrayListWithCapacity(files.size());
+        for (CacheFileLocation file : files) {
+            deletions.add(executor.submit(() -> deleteFile(file)));
+        }
+        List<Long> deletedIds = Lists.newArrayListWithCapacity(files.size());
+        for (int i = 0; i < files.size(); i++) {
+            try {
+                if (deletions.get(i).get()) {
+                    deletedIds.add(files.get(i).getId());
+                    hotTier.evict(files.get(i).getChecksum());
+                    sharedStore.release(files.get(i).getChecksum());
+                }
+            } catch (ExecutionException e) {
+                LOGGER.error(e.getMessage(), e);
+            }
+        }
+        if (!deletedIds.isEmpty()) {
+            cachedFileRepository.deleteAllByIdIn(deletedIds);
+        }
+        Long newLastId = files.isEmpty() ? lastId : files.get(files.size() - 1).getId();
+        return new PurgeBatch(deletedIds.size(), newLastId, files.size() == batchSize);
+    }
+
+    /**
+     * Delete the physical file of the given {@link CacheFile}.
+     * @return true if the file is deleted or does not exist, false if the file exists and is not deletable
+     */
+    private boolean deleteFile(CacheFileLocation file) {
+        if (file.getLocation() != null) {
+            try {
+                if (!Files.deleteIfExists(Paths.get(file.getLocation().getPath()))) {
+                    LOGGER.warn("File to delete {} does not exists", file.getLocation().getPath());
+                }
+            } catch (IOException e) {
+                // File exists but is not deletable.
+                LOGGER.error(e.getMessage(), e);
+                return false;
+            }
+        }
+        LOGGER.trace("[CACHE FILE DELETION SUCCESS] Cached file {} deleted.", file.getChecksum());
+        return true;
+    }
+
+    /**
+     * Result of the purge of one batch of expired {@link CacheFile}s
+     */
+    public static class PurgeBatch {
+
+        private final int nbPurged;
+
+        private final Long lastId;
+
+        private final boolean hasNext;
+
+        public PurgeBatch(int nbPurged, Long lastId, boolean hasNext) {
+            this.nbPurged = nbPurged;
+            this.lastId = lastId;
+            this.hasNext = hasNext;
+        }
+
+        public int getNbPurged() {
+            return nbPurged;
+        }
+
+        public Long getLastId() {
+            return lastId;
+        }
+
+        public boolean hasNext() {
+            return hasNext;
+        }
+    }
+
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import javax.persistence.EntityManager;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.modules.storage.dao.IFileCacheRequestRepository;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
+
+/**
+ * Ledger of the cache space reserved by the in-flight restorations of the current tenant.<br/>
+ * A {@link FileCacheRequest} reserves its size when its restoration job is scheduled. The reservation is given back
+ * when the restoration succeeds, as the restored file is then counted in cache with its real size, or when it fails.
+ * <br/>
+ * Reservations are stored with the requests. Before checking the available space, the ledger is locked with a
+ * PostgreSQL advisory lock until the end of the transaction, so that instances scheduling restorations concurrently
+ * never reserve the same space.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class CacheReservationLedger {
+
+    private static final String LOCK_PREFIX = "storage-cache-ledger-";
+
+    @Autowired
+    private EntityManager em;
+
+    @Autowired
+    private IFileCacheRequestRepository fileCacheReqRepository;
+
+    @Autowired
+    private CacheService cacheService;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    /**
+     * Lock the ledger of the current tenant until the end of the current transaction.
+     */
+    public void lock() {
+        em.createNativeQuery("SELECT 1 FROM pg_advisory_xact_lock(hashtext(:name))")
+                .setParameter("name", LOCK_PREFIX + runtimeTenantResolver.getTenant()).getSingleResult();
+    }
+
+    /**
+     * @return space in bytes of the cache neither used by cached files nor reserved
+     */
+    public long getAvailableSize() {
+        return cacheService.getFreeSpaceInBytes() - getReservedSize();
+    }
+
+    /**
+     * @return space in bytes reserved by in-flight restorations
+     */
+    public long getReservedSize() {
+        return fileCacheReqRepository.getReservedSize();
+    }
+
+    /**
+     * Reserve the cache space of the given request. The ledger should be locked first, see {@link #lock()}.
+     * @param request {@link FileCacheRequest} to restore
+     */
+    public void reserve(FileCacheRequest request) {
+        fileCacheReqRepository.updateReservedSize(request.getFileSize(), request.getId());
+    }
+
+}
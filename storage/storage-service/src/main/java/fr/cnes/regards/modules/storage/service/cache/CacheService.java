@@ -21,25 +21,40 @@ package fr.cnes.regards.modules.storage.service.cache;
 import java.io.File;
 import java.io.IOException;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayDeque;
 import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.Optional;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntConsumer;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.event.EventListener;
-import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
-import org.springframework.data.domain.Pageable;
-import org.springframework.data.domain.Sort.Direction;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
@@ -55,8 +70,11 @@ import fr.cnes.regards.modules.storage.domain.database.CacheFile;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.StorageLocationConfiguration;
 import fr.cnes.regards.modules.storage.domain.dto.StorageLocationDTO;
+import fr.cnes.regards.modules.storage.domain.dto.cache.CacheTierDTO;
 import fr.cnes.regards.modules.storage.domain.plugin.INearlineStorageLocation;
 import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
+import fr.cnes.regards.modules.storage.service.cache.CachePurgeService.PurgeBatch;
+import fr.cnes.regards.modules.storage.service.cache.CacheVerificationService.ShardReconciliation;
 
 /**
  * Service to manage temporary accessibility of {@link FileReference} stored with a {@link INearlineStorageLocation}
@@ -83,8 +101,43 @@ public class CacheService {
 
     public static final String CACHE_NAME = "internal-cache";
 
+    public static final String DISK_TIER_NAME = "disk";
+
+    private static final String VERIFICATION_CHECKPOINT = ".verification-checkpoint";
+
     @Value("${regards.storage.cache.schedule.purge.bulk.size:500}")
-    private static int BULK_SIZE = 500;
+    private int bulkSize;
+
+    /**
+     * Number of workers deleting physical files during purge
+     */
+    @Value("${regards.storage.cache.purge.threads:8}")
+    private int purgeThreads;
+
+    /**
+     * Maximum duration of a purge in seconds, 0 for no limit
+     */
+    @Value("${regards.storage.cache.purge.time.budget:0}")
+    private long purgeTimeBudgetSeconds;
+
+    @Autowired
+    private CachePurgeService purgeService;
+
+    @Autowired
+    private HotCacheTier hotTier;
+
+    @Autowired
+    private SharedCacheStore sharedStore;
+
+    /**
+     * Number of downloads served from the cache directory, by tenant
+     */
+    private final ConcurrentMap<String, AtomicLong> diskHits = new ConcurrentHashMap<>();
+
+    /**
+     * Number of downloads of nearline files not available in cache, by tenant
+     */
+    private final ConcurrentMap<String, AtomicLong> diskMisses = new ConcurrentHashMap<>();
 
     @Autowired
     private IRuntimeTenantResolver runtimeTenantResolver;
@@ -104,6 +157,27 @@ public class CacheService {
     @Value("${regards.storage.cache.size.limit.ko.per.tenant:500000000}")
     private Long maxCacheSizeKo;
 
+    /**
+     * Number of cache shards verified in parallel by {@link #checkDiskDBCoherence()}
+     */
+    @Value("${regards.storage.cache.verification.threads:4}")
+    private int verificationThreads;
+
+    /**
+     * Delete files on disk without {@link CacheFile} during {@link #checkDiskDBCoherence()}
+     */
+    @Value("${regards.storage.cache.verification.reclaim.orphans:false}")
+    private boolean reclaimOrphans;
+
+    /**
+     * Minimum age of the orphan files to delete, in minutes
+     */
+    @Value("${regards.storage.cache.verification.orphan.grace.minutes:60}")
+    private long orphanGraceMinutes;
+
+    @Autowired
+    private CacheVerificationService verificationService;
+
     /**
      * Creates a new cache file if the checksum does not match an existing file.
      * If file already exists in cache, updates the associated information.
@@ -114,16 +188,34 @@ public class CacheService {
      */
     public void addFile(String checksum, Long fileSize, String fileName, MimeType mimeType, String type, URL location,
             OffsetDateTime expirationDate, String groupId) {
+        addFile(checksum, fileSize, fileName, mimeType, type, location, expirationDate, groupId, false, null);
+    }
+
+    /**
+     * Creates a new cache file if the checksum does not match an existing file.
+     * If file already exists in cache, updates the associated information.
+     * @param checksum
+     * @param fileSize
+     * @param location
+     * @param expirationDate
+     * @param prefetch true if the file has been restored ahead of any request
+     * @param requester user who requested the file, the cache space used by the file is counted in the requester quota
+     */
+    public void addFile(String checksum, Long fileSize, String fileName, MimeType mimeType, String type, URL location,
+            OffsetDateTime expirationDate, String groupId, boolean prefetch, String requester) {
         Optional<CacheFile> oCf = search(checksum);
         CacheFile cachedFile;
         if (!oCf.isPresent()) {
             cachedFile = new CacheFile(checksum, fileSize, fileName, mimeType, location, expirationDate, groupId, type);
+            cachedFile.setPrefetch(prefetch);
+            cachedFile.setRequester(requester);
         } else {
             cachedFile = oCf.get();
             if (expirationDate.isAfter(cachedFile.getExpirationDate())) {
                 cachedFile.setExpirationDate(expirationDate);
             }
             cachedFile.setFileSize(fileSize);
+            cachedFile.setPrefetch(cachedFile.isPrefetch() && prefetch);
         }
         cachedFileRepository.save(cachedFile);
     }
@@ -138,32 +230,94 @@ public class CacheService {
     }
 
     /**
-     * Check coherence between database and physical files in cache location.
+     * Check coherence between database and physical files in cache location.<br/>
+     * Each first level directory of the cache (shard) is walked in parallel and reconciled with the {@link CacheFile}s
+     * of the same checksum prefix (see {@link CacheVerificationService}) :
+     * <ul>
+     * <li>{@link CacheFile}s without physical file are deleted.</li>
+     * <li>Physical files without {@link CacheFile}, older than the orphan grace delay, are deleted if orphan files
+     * reclaim is enabled.</li>
+     * </ul>
+     * Last verified shard is saved in a checkpoint file, so an interrupted verification resumes after it.
      * @throws IOException
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public void checkDiskDBCoherence() throws IOException {
-        Page<CacheFile> shouldBeAvailableSet;
-        Pageable page = PageRequest.of(0, BULK_SIZE, Direction.ASC, "id");
-        Set<Long> toDelete = Sets.newHashSet();
-        do {
-            shouldBeAvailableSet = cachedFileRepository.findAll(page);
-            for (CacheFile shouldBeAvailable : shouldBeAvailableSet) {
-                Path path = Paths.get(shouldBeAvailable.getLocation().getPath());
-                if (Files.notExists(path)) {
-                    LOGGER.warn("Dirty cache file in database : {}", path.toString());
-                    toDelete.add(shouldBeAvailable.getId());
+        String tenant = runtimeTenantResolver.getTenant();
+        Path cachePath = getTenantCachePath();
+        Path checkpoint = cachePath.resolve(VERIFICATION_CHECKPOINT);
+        String lastVerified = Files.exists(checkpoint)
+                ? new String(Files.readAllBytes(checkpoint), StandardCharsets.UTF_8).trim()
+                : "";
+        SortedSet<String> shards = new TreeSet<>(cachedFileRepository.findChecksumPrefixes());
+        if (Files.isDirectory(cachePath)) {
+            try (Stream<Path> dirs = Files.list(cachePath)) {
+                dirs.filter(Files::isDirectory).forEach(d -> shards.add(d.getFileName().toString()));
+            }
+        }
+        Iterator<String> toVerify = shards.stream().filter(s -> !s.isEmpty() && (s.compareTo(lastVerified) > 0))
+                .iterator();
+        LOGGER.info("[CACHE VERIFICATION] Starting verification of {} cache shards{}", shards.size(),
+                    lastVerified.isEmpty() ? "" : " after checkpoint " + lastVerified);
+        long start = System.currentTimeMillis();
+        long nbFiles = 0;
+        long nbDirty = 0;
+        long nbOrphans = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(verificationThreads);
+        try {
+            // Shards are verified in parallel but completed in order, to checkpoint the last verified one
+            Deque<Future<ShardReconciliation>> running = new ArrayDeque<>();
+            while (toVerify.hasNext() || !running.isEmpty()) {
+                while (toVerify.hasNext() && (running.size() < (verificationThreads * 2))) {
+                    String shard = toVerify.next();
+                    running.add(executor.submit(() -> verifyShard(tenant, cachePath, shard)));
                 }
+                ShardReconciliation result = running.poll().get();
+                nbFiles += result.getNbFiles();
+                nbDirty += result.getNbDirty();
+                nbOrphans += result.getOrphans().size();
+                Files.write(checkpoint, result.getShard().getBytes(StandardCharsets.UTF_8));
             }
-            if (toDelete.size() > 10_000) {
-                // Do deletion and restart and page 0
-                toDelete.forEach(id -> cachedFileRepository.deleteById(id));
-                toDelete.clear();
-                page = PageRequest.of(0, BULK_SIZE, Direction.ASC, "id");
-            } else {
-                page = page.next();
+            Files.deleteIfExists(checkpoint);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Cache verification interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException(e.getCause().getMessage(), e.getCause());
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("[CACHE VERIFICATION] {} cache files verified in {}ms. {} dirty files deleted from database, "
+                + "{} orphan files found on disk.", nbFiles, System.currentTimeMillis() - start, nbDirty, nbOrphans);
+        // Tenant files deleted without release (orphans, manual deletions, ...) leave unreferenced shared files
+        sharedStore.sweep();
+    }
+
+    private ShardReconciliation verifyShard(String tenant, Path cachePath, String shard) throws IOException {
+        runtimeTenantResolver.forceTenant(tenant);
+        try {
+            SortedSet<Path> diskFiles = new TreeSet<>();
+            Path shardPath = cachePath.resolve(shard);
+            if (Files.isDirectory(shardPath)) {
+                try (Stream<Path> files = Files.walk(shardPath)) {
+                    files.filter(Files::isRegularFile).forEach(f -> diskFiles.add(f.toAbsolutePath().normalize()));
+                }
+            }
+            ShardReconciliation result = verificationService.reconcile(shard, diskFiles);
+            if (reclaimOrphans) {
+                FileTime graceLimit = FileTime.from(Instant.now().minus(orphanGraceMinutes, ChronoUnit.MINUTES));
+                for (Path orphanPath : result.getOrphans()) {
+                    // Recent files can be restorations in progress not referenced yet
+                    if (Files.getLastModifiedTime(orphanPath).compareTo(graceLimit) < 0) {
+                        LOGGER.warn("Orphan cache file deleted : {}", orphanPath);
+                        Files.deleteIfExists(orphanPath);
+                    }
+                }
             }
-        } while (shouldBeAvailableSet.hasNext());
-        toDelete.forEach(id -> cachedFileRepository.deleteById(id));
+            return result;
+        } finally {
+            runtimeTenantResolver.clearTenant();
+        }
     }
 
     /**
@@ -219,20 +373,30 @@ public class CacheService {
     /**
      * Retrieve all {@link FileReference}s available in cache.
      * @param fileReferences
+     * @param expirationDate availability expiration date of the prefetched files now requested
      * @param groupId new availability request business identifier. This id is added to the already existing cache files.
      * @return {@link FileReference}s available
      */
-    public Set<FileReference> getFilesAvailableInCache(Set<FileReference> fileReferences, String groupId) {
+    public Set<FileReference> getFilesAvailableInCache(Set<FileReference> fileReferences,
+            OffsetDateTime expirationDate, String groupId) {
         Set<FileReference> availables = Sets.newHashSet();
         Set<String> checksums = fileReferences.stream().map(f -> f.getMetaInfo().getChecksum())
                 .collect(Collectors.toSet());
         Set<CacheFile> cacheFiles = cachedFileRepository.findAllByChecksumIn(checksums);
-        Set<String> cacheFileChecksums = cacheFiles.stream().map(cf -> {
+        Set<String> cacheFileChecksums = Sets.newHashSet();
+        for (CacheFile cf : cacheFiles) {
             // Add new request id to the cache file
             cf.addGroupId(groupId);
-            cachedFileRepository.save(cf);
-            return cf.getChecksum();
-        }).collect(Collectors.toSet());
+            if (cf.isPrefetch()) {
+                // Prefetched file is now requested, so it is no longer the first to evict
+                cf.setPrefetch(false);
+                if ((expirationDate != null) && expirationDate.isAfter(cf.getExpirationDate())) {
+                    cf.setExpirationDate(expirationDate);
+                }
+            }
+            cacheFileChecksums.add(cf.getChecksum());
+        }
+        cachedFileRepository.saveAll(cacheFiles);
         for (FileReference f : fileReferences) {
             if (cacheFileChecksums.contains(f.getMetaInfo().getChecksum())) {
                 availables.add(f);
@@ -241,6 +405,44 @@ public class CacheService {
         return availables;
     }
 
+    /**
+     * @param checksums file checksums
+     * @return checksums of the given files present in cache
+     */
+    public Set<String> getCachedChecksums(Set<String> checksums) {
+        return cachedFileRepository.findAllByChecksumIn(checksums).stream().map(CacheFile::getChecksum)
+                .collect(Collectors.toSet());
+    }
+
+    /**
+     * Return the size of the prefetched files in cache in bytes.
+     * @return {@link Long}
+     */
+    public Long getPrefetchSizeUsedBytes() {
+        return cachedFileRepository.getPrefetchFileSize();
+    }
+
+    /**
+     * Delete prefetched files from cache, the ones expiring first first, to free the given space.
+     * At most one bulk of files is deleted by call.
+     * @param bytes space to free in bytes
+     * @return space freed in bytes
+     */
+    public long evictPrefetched(long bytes) {
+        long freed = 0L;
+        Iterator<CacheFile> it = cachedFileRepository
+                .findByPrefetchTrueOrderByExpirationDateAsc(PageRequest.of(0, bulkSize)).iterator();
+        while ((freed < bytes) && it.hasNext()) {
+            CacheFile cacheFile = it.next();
+            delete(cacheFile);
+            freed += cacheFile.getFileSize();
+        }
+        if (freed > 0) {
+            LOGGER.info("[CACHE] {} bytes of prefetched files evicted from cache", freed);
+        }
+        return freed;
+    }
+
     /**
      * Return the current size of the cache in bytes.
      * @return {@link Long}
@@ -255,20 +457,69 @@ public class CacheService {
 
     /**
      * Delete all out dated {@link CacheFile}s.<br/>
+     * See {@link #purge(IntConsumer)}.
      */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
     public int purge() {
+        return purge(nbPurged -> {
+        });
+    }
+
+    /**
+     * Delete out dated {@link CacheFile}s by batches of regards.storage.cache.schedule.purge.bulk.size files.
+     * Physical files are deleted by regards.storage.cache.purge.threads workers, and each batch is committed
+     * independently. Purge stops after regards.storage.cache.purge.time.budget seconds if set, the remaining expired
+     * files are purged by the next run.
+     * @param progress consumer of the number of files purged, called after each batch
+     * @return number of purged files
+     */
+    @Transactional(propagation = Propagation.NOT_SUPPORTED)
+    public int purge(IntConsumer progress) {
         int nbPurged = 0;
-        LOGGER.debug("Deleting expired files from cache. Current date : {}", OffsetDateTime.now().toString());
-        Pageable page = PageRequest.of(0, BULK_SIZE, Direction.ASC, "id");
-        Page<CacheFile> files;
-        do {
-            files = cachedFileRepository.findByExpirationDateBefore(OffsetDateTime.now(), page);
-            deleteCachedFiles(files.getContent());
-            nbPurged = nbPurged + files.getNumberOfElements();
-        } while (files.hasNext());
+        OffsetDateTime now = OffsetDateTime.now();
+        LOGGER.debug("Deleting expired files from cache. Current date : {}", now.toString());
+        long start = System.currentTimeMillis();
+        long deadline = purgeTimeBudgetSeconds > 0 ? start + (purgeTimeBudgetSeconds * 1000) : Long.MAX_VALUE;
+        ExecutorService executor = Executors.newFixedThreadPool(purgeThreads);
+        try {
+            PurgeBatch batch;
+            Long lastId = 0L;
+            do {
+                batch = purgeService.purgeExpired(now, lastId, bulkSize, executor);
+                lastId = batch.getLastId();
+                nbPurged = nbPurged + batch.getNbPurged();
+                progress.accept(nbPurged);
+                LOGGER.debug("[CACHE PURGE] {} expired files purged in {}ms", nbPurged,
+                             System.currentTimeMillis() - start);
+            } while (batch.hasNext() && (System.currentTimeMillis() < deadline));
+            if (batch.hasNext()) {
+                LOGGER.info("[CACHE PURGE] Purge time budget of {}s reached, remaining expired files will be purged "
+                        + "by next run", purgeTimeBudgetSeconds);
+            }
+        } catch (InterruptedException e) {
+            LOGGER.warn("[CACHE PURGE] Purge interrupted after {} files", nbPurged);
+            Thread.currentThread().interrupt();
+        } finally {
+            executor.shutdownNow();
+        }
+        LOGGER.info("[CACHE PURGE] {} expired files purged in {}ms", nbPurged, System.currentTimeMillis() - start);
         return nbPurged;
     }
 
+    /**
+     * @return number of {@link CacheFile}s expired
+     */
+    public long countExpiredFiles() {
+        return cachedFileRepository.countByExpirationDateBefore(OffsetDateTime.now());
+    }
+
+    /**
+     * @return number of files purged by each batch
+     */
+    public int getPurgeBulkSize() {
+        return bulkSize;
+    }
+
     /**
      * Delete all given {@link CacheFile}s.<br/>
      * <ul>
@@ -283,6 +534,7 @@ public class CacheService {
     }
 
     public void delete(CacheFile cachedFile) {
+        hotTier.evict(cachedFile.getChecksum());
         if (cachedFile.getLocation() != null) {
             Path fileLocation = Paths.get(cachedFile.getLocation().getPath());
             if (fileLocation.toFile().exists()) {
@@ -314,6 +566,7 @@ public class CacheService {
             LOGGER.debug("[CACHE FILE DELETION SUCCESS] Cached file {} deleted (exp date={}).",
                          cachedFile.getChecksum(), cachedFile.getExpirationDate().toString());
         }
+        sharedStore.release(cachedFile.getChecksum());
     }
 
     /**
@@ -371,6 +624,30 @@ public class CacheService {
         return cachedFileRepository.count();
     }
 
+    /**
+     * Count a download of a cached file for the current tenant, see {@link #getDiskTierMetrics()}
+     * @param cachedFile {@link CacheFile} downloaded from the cache directory, null if the file is not in cache
+     */
+    public void recordDownload(CacheFile cachedFile) {
+        String tenant = runtimeTenantResolver.getTenant();
+        if (cachedFile != null) {
+            diskHits.computeIfAbsent(tenant, t -> new AtomicLong()).incrementAndGet();
+            hotTier.recordAccess(cachedFile);
+        } else {
+            diskMisses.computeIfAbsent(tenant, t -> new AtomicLong()).incrementAndGet();
+        }
+    }
+
+    /**
+     * @return metrics of the cache directory tier for the current tenant
+     */
+    public CacheTierDTO getDiskTierMetrics() {
+        String tenant = runtimeTenantResolver.getTenant();
+        return CacheTierDTO.build(DISK_TIER_NAME, getCacheSizeLimit(), getCacheSizeUsedBytes(), getTotalCachedFiles(),
+                                  diskHits.getOrDefault(tenant, new AtomicLong()).get(),
+                                  diskMisses.getOrDefault(tenant, new AtomicLong()).get());
+    }
+
     public StorageLocationDTO toStorageLocation() {
         StorageLocationConfiguration conf = new StorageLocationConfiguration(CACHE_NAME, null, maxCacheSizeKo);
         conf.setStorageType(StorageType.CACHE);
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.modules.storage.dao.CacheFileLocation;
+import fr.cnes.regards.modules.storage.dao.ICacheFileRepository;
+import fr.cnes.regards.modules.storage.domain.database.CacheFile;
+
+/**
+ * Service to reconcile one shard of the cache, that is to say one first level directory of the cache (see
+ * {@link CacheService#getCacheDirectoryPath(String)}), with the {@link CacheFile}s of the database.<br/>
+ * Each shard is reconciled in its own transaction, so that shards can be verified in parallel and the progress of a
+ * verification is kept if it is interrupted.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class CacheVerificationService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheVerificationService.class);
+
+    private static final int DELETE_BULK_SIZE = 1_000;
+
+    @Autowired
+    private ICacheFileRepository cachedFileRepository;
+
+    @Autowired
+    private HotCacheTier hotTier;
+
+    /**
+     * Reconcile the sorted paths of the files found on disk in the given shard with the locations of the
+     * {@link CacheFile}s of the database for this shard. Files are matched by path, as files restored by the storage
+     * plugins are not always named by their checksum.<br/>
+     * {@link CacheFile}s without file on disk are deleted. Files on disk without {@link CacheFile} are returned as
+     * orphans.
+     * @param shard checksum prefix of the shard
+     * @param diskFiles sorted absolute and normalized paths of the files on disk in the shard directory
+     * @return {@link ShardReconciliation}
+     */
+    public ShardReconciliation reconcile(String shard, SortedSet<Path> diskFiles) {
+        List<CacheFileLocation> dbFiles = Lists.newArrayList(cachedFileRepository.findByChecksumStartingWith(shard));
+        Map<CacheFileLocation, Path> dbPaths = Maps.newHashMap();
+        dbFiles.forEach(f -> dbPaths.put(f, getPath(f)));
+        dbFiles.sort(Comparator.comparing(dbPaths::get, Comparator.nullsFirst(Comparator.naturalOrder())));
+        List<Long> dirtyIds = Lists.newArrayList();
+        Set<Path> orphans = Sets.newHashSet();
+        Iterator<Path> disk = diskFiles.iterator();
+        Iterator<CacheFileLocation> db = dbFiles.iterator();
+        Path diskFile = disk.hasNext() ? disk.next() : null;
+        CacheFileLocation dbFile = db.hasNext() ? db.next() : null;
+        while ((diskFile != null) || (dbFile != null)) {
+            Path dbPath = dbFile == null ? null : dbPaths.get(dbFile);
+            int cmp = diskFile == null ? 1 : dbFile == null ? -1 : dbPath == null ? 1 : diskFile.compareTo(dbPath);
+            if (cmp < 0) {
+                orphans.add(diskFile);
+                diskFile = disk.hasNext() ? disk.next() : null;
+            } else if (cmp > 0) {
+                if (isDirty(dbPath)) {
+                    LOGGER.warn("Dirty cache file in database : {}", dbFile.getLocation());
+                    dirtyIds.add(dbFile.getId());
+                    hotTier.evict(dbFile.getChecksum());
+                }
+                dbFile = db.hasNext() ? db.next() : null;
+            } else {
+                diskFile = disk.hasNext() ? disk.next() : null;
+                dbFile = db.hasNext() ? db.next() : null;
+            }
+        }
+        delete(dirtyIds);
+        return new ShardReconciliation(shard, dbFiles.size(), dirtyIds.size(), orphans);
+    }
+
+    /**
+     * @return absolute and normalized path of the given {@link CacheFile}, null if it has no location
+     */
+    private static Path getPath(CacheFileLocation dbFile) {
+        return dbFile.getLocation() == null ? null
+                : Paths.get(dbFile.getLocation().getPath()).toAbsolutePath().normalize();
+    }
+
+    /**
+     * A file not found in its shard directory can still exist elsewhere, for example if it has been referenced with
+     * a location outside of the cache directories layout, or if it has been restored after the shard walk.
+     */
+    private boolean isDirty(Path dbPath) {
+        return (dbPath == null) || Files.notExists(dbPath);
+    }
+
+    private void delete(Collection<Long> ids) {
+        for (List<Long> bulk : Iterables.partition(ids, DELETE_BULK_SIZE)) {
+            cachedFileRepository.deleteAllByIdIn(bulk);
+        }
+    }
+
+    /**
+     * Result of the reconciliation of a cache shard
+     */
+    public static class ShardReconciliation {
+
+        private final String shard;
+
+        private final int nbFiles;
+
+        private final int nbDirty;
+
+        private final Set<Path> orphans;
+
+        public ShardReconciliation(String shard, int nbFiles, int nbDirty, Set<Path> orphans) {
+            this.shard = shard;
+            this.nbFiles = nbFiles;
+            this.nbDirty = nbDirty;
+            this.orphans = orphans;
+        }
+
+        public String getShard() {
+            return shard;
+        }
+
+        public int getNbFiles() {
+            return nbFiles;
+        }
+
+        public int getNbDirty() {
+            return nbDirty;
+        }
+
+        public Set<Path> getOrphans() {
+            return orphans;
+        }
+    }
+
+}
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.framework.urn.DataType;
+import fr.cnes.regards.modules.storage.domain.database.CacheFile;
+import fr.cnes.regards.modules.storage.domain.dto.cache.CacheTierDTO;
+
+/**
+ * Optional off-heap tier above the cache directory handled by {@link CacheService}, enabled with
+ * regards.storage.cache.hot.enabled.<br/>
+ * Small cached files that are not {@link DataType#RAWDATA} (quicklooks, thumbnails, ...) are promoted into direct
+ * memory buffers once they have been read regards.storage.cache.hot.promotion.hits times from the cache directory.
+ * The tier is bounded by regards.storage.cache.hot.size.limit.ko for all tenants, least recently used files are
+ * evicted first. Metrics are computed for the current tenant.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class HotCacheTier {
+
+    public static final String TIER_NAME = "hot";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(HotCacheTier.class);
+
+    /**
+     * Maximum number of files for which accesses are counted
+     */
+    private static final int MAX_COUNTED_FILES = 10_000;
+
+    @Value("${regards.storage.cache.hot.enabled:false}")
+    private boolean enabled;
+
+    @Value("${regards.storage.cache.hot.size.limit.ko:102400}")
+    private long sizeLimitKo;
+
+    @Value("${regards.storage.cache.hot.max.file.size.ko:1024}")
+    private long maxFileSizeKo;
+
+    @Value("${regards.storage.cache.hot.promotion.hits:3}")
+    private int promotionHits;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    /**
+     * Promoted files in least recently used order
+     */
+    private final LinkedHashMap<String, ByteBuffer> files = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Accesses of the files not promoted yet
+     */
+    private final Map<String, Integer> accesses = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+            return size() > MAX_COUNTED_FILES;
+        }
+    };
+
+    private long sizeInBytes = 0L;
+
+    /**
+     * Number of reads served from the tier, by tenant
+     */
+    private final ConcurrentMap<String, AtomicLong> hits = new ConcurrentHashMap<>();
+
+    /**
+     * Number of reads of files not in the tier, by tenant
+     */
+    private final ConcurrentMap<String, AtomicLong> misses = new ConcurrentHashMap<>();
+
+    /**
+     * Read a file from the tier.
+     * @param checksum file checksum
+     * @return stream of the file, empty if the file is not in the tier
+     */
+    public Optional<InputStream> get(String checksum) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        ByteBuffer buffer;
+        synchronized (this) {
+            buffer = files.get(getKey(checksum));
+        }
+        String tenant = runtimeTenantResolver.getTenant();
+        if (buffer == null) {
+            misses.computeIfAbsent(tenant, t -> new AtomicLong()).incrementAndGet();
+            return Optional.empty();
+        }
+        hits.computeIfAbsent(tenant, t -> new AtomicLong()).incrementAndGet();
+        return Optional.of(new ByteBufferInputStream(buffer.duplicate()));
+    }
+
+    /**
+     * Count a read of the given file from the cache directory, and promote it into the tier if it is read enough.
+     * @param cacheFile {@link CacheFile} read
+     */
+    public void recordAccess(CacheFile cacheFile) {
+        if (!enabled || !isEligible(cacheFile)) {
+            return;
+        }
+        String key = getKey(cacheFile.getChecksum());
+        boolean promote;
+        synchronized (this) {
+            int count = accesses.merge(key, 1, Integer::sum);
+            promote = (count >= promotionHits) && !files.containsKey(key);
+            if (promote) {
+                accesses.remove(key);
+            }
+        }
+        if (promote) {
+            promote(key, Paths.get(cacheFile.getLocation().getPath()));
+        }
+    }
+
+    /**
+     * Remove a file from the tier, when it is deleted from cache.
+     * @param checksum file checksum
+     */
+    public void evict(String checksum) {
+        if (enabled) {
+            String key = getKey(checksum);
+            synchronized (this) {
+                ByteBuffer buffer = files.remove(key);
+                if (buffer != null) {
+                    sizeInBytes -= buffer.capacity();
+                }
+                accesses.remove(key);
+            }
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * @return metrics of the tier for the current tenant. The size limit is shared by all tenants.
+     */
+    public synchronized CacheTierDTO getMetrics() {
+        String tenant = runtimeTenantResolver.getTenant();
+        String prefix = getKey("");
+        long tenantSize = 0L;
+        long tenantFiles = 0L;
+        for (Map.Entry<String, ByteBuffer> file : files.entrySet()) {
+            if (file.getKey().startsWith(prefix)) {
+                tenantSize += file.getValue().capacity();
+                tenantFiles++;
+            }
+        }
+        return CacheTierDTO.build(TIER_NAME, sizeLimitKo * 1024, tenantSize, tenantFiles,
+                                  hits.getOrDefault(tenant, new AtomicLong()).get(),
+                                  misses.getOrDefault(tenant, new AtomicLong()).get());
+    }
+
+    private boolean isEligible(CacheFile cacheFile) {
+        return !Objects.equals(cacheFile.getType(), DataType.RAWDATA.name()) && (cacheFile.getLocation() != null)
+                && (cacheFile.getFileSize() != null) && (cacheFile.getFileSize() <= (maxFileSizeKo * 1024));
+    }
+
+    private void promote(String key, Path path) {
+        byte[] content;
+        try {
+            content = Files.readAllBytes(path);
+        } catch (IOException e) {
+            LOGGER.warn("[HOT CACHE] Unable to promote file {}. Cause : {}", path, e.getMessage());
+            return;
+        }
+        if ((content.length > (maxFileSizeKo * 1024)) || (content.length > (sizeLimitKo * 1024))) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocateDirect(content.length);
+        buffer.put(content);
+        buffer.flip();
+        synchronized (this) {
+            ByteBuffer previous = files.put(key, buffer.asReadOnlyBuffer());
+            sizeInBytes += content.length - (previous != null ? previous.capacity() : 0);
+            // Evict least recently used files
+            Iterator<Map.Entry<String, ByteBuffer>> it = files.entrySet().iterator();
+            while ((sizeInBytes > (sizeLimitKo * 1024)) && it.hasNext()) {
+                Map.Entry<String, ByteBuffer> eldest = it.next();
+                sizeInBytes -= eldest.getValue().capacity();
+                it.remove();
+            }
+        }
+        LOGGER.debug("[HOT CACHE] File {} promoted ({} bytes)", path, content.length);
+    }
+
+    private String getKey(String checksum) {
+        return runtimeTenantResolver.getTenant() + ":" + checksum;
+    }
+
+    /**
+     * {@link InputStream} reading a {@link ByteBuffer}
+     */
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buffer;
+
+        private ByteBufferInputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public int read() {
+            return buffer.hasRemaining() ? (buffer.get() & 0xFF) : -1;
+        }
+
+        @Override
+        public int read(byte[] bytes, int off, int len) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int read = Math.min(len, buffer.remaining());
+            buffer.get(bytes, off, read);
+            return read;
+        }
+
+        @Override
+        public int available() {
+            return buffer.remaining();
+        }
+    }
+
+}
@@ -0,0 +1,290 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.cache;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.annotation.PostConstruct;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import fr.cnes.regards.framework.utils.file.ChecksumUtils;
+
+/**
+ * Optional content-addressed store shared by the caches of all tenants, enabled with
+ * regards.storage.cache.shared.enabled.<br/>
+ * Restored files are published in the store by checksum algorithm and checksum. The published file is a read-only
+ * copy of the tenant cache file, whose digest is checked against its checksum, and the tenant cache file is replaced
+ * by a hard link of the published file. When a tenant needs a file already in the store, the file is hard linked into
+ * its cache instead of being restored again from its nearline storage.<br/>
+ * The number of links of a shared file is its reference count : once only the store links it, no tenant references it
+ * anymore and it is deleted. The store is located in the cache directory, as hard links can only be created on the same
+ * file system, and requires the unix file attribute view : the store is disabled when it is not supported.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class SharedCacheStore {
+
+    public static final String STORE_DIRECTORY = ".shared";
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SharedCacheStore.class);
+
+    /**
+     * Suffix of the files being published or linked
+     */
+    private static final String TMP_SUFFIX = ".tmp";
+
+    @Value("${regards.storage.cache.shared.enabled:false}")
+    private boolean enabled;
+
+    /**
+     * Cache path origin for all tenants.
+     */
+    @Value("${regards.storage.cache.path}")
+    private String globalCachePath;
+
+    @PostConstruct
+    public void init() {
+        if (enabled && !FileSystems.getDefault().supportedFileAttributeViews().contains("unix")) {
+            LOGGER.warn("[SHARED CACHE] Shared cache store disabled as the unix file attribute view is not supported");
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Publish a file of a tenant cache in the store, if the store does not contain it yet.<br/>
+     * The file is copied in the store and published only if the digest of the copy matches the given checksum. The
+     * tenant cache file is then replaced by a link of the read-only published file.
+     * @param checksum file checksum
+     * @param algorithm checksum algorithm
+     * @param file tenant cache file
+     */
+    public void publish(String checksum, String algorithm, Path file) {
+        if (enabled && (algorithm != null)) {
+            Path shared = getPath(checksum, algorithm);
+            if (Files.exists(shared)) {
+                return;
+            }
+            Path copy = shared.resolveSibling(checksum + "." + UUID.randomUUID() + TMP_SUFFIX);
+            Path link = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + TMP_SUFFIX);
+            try {
+                Files.createDirectories(shared.getParent());
+                Files.copy(file, copy);
+                String digest;
+                try (InputStream is = Files.newInputStream(copy)) {
+                    digest = ChecksumUtils.computeHexChecksum(is, algorithm);
+                }
+                if (!checksum.equalsIgnoreCase(digest)) {
+                    LOGGER.warn("[SHARED CACHE] File {} not published in shared cache store, its {} digest {} does not "
+                            + "match its checksum {}", file, algorithm, digest, checksum);
+                    return;
+                }
+                if (!copy.toFile().setWritable(false, false)) {
+                    throw new IOException(String.format("Unable to set file %s read-only", copy));
+                }
+                Files.createLink(shared, copy);
+                Files.createLink(link, shared);
+                Files.move(link, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                LOGGER.debug("[SHARED CACHE] File {} published in shared cache store", checksum);
+            } catch (FileAlreadyExistsException e) {
+                // Published at the same time by an other tenant
+                LOGGER.trace(e.getMessage(), e);
+            } catch (IOException | NoSuchAlgorithmException | UnsupportedOperationException e) {
+                LOGGER.warn("[SHARED CACHE] Unable to publish file {} in shared cache store : {}", file,
+                            e.getMessage());
+            } finally {
+                deleteQuietly(copy);
+                deleteQuietly(link);
+            }
+        }
+    }
+
+    /**
+     * Publish a file of a tenant cache in the store once the current transaction is committed, so that the copy of the
+     * file and the computation of its digest do not keep the transaction opened. Without transaction synchronization,
+     * the file is published at once.
+     * @param checksum file checksum
+     * @param algorithm checksum algorithm
+     * @param file tenant cache file
+     */
+    public void publishAfterCommit(String checksum, String algorithm, Path file) {
+        if (enabled && (algorithm != null)) {
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                    @Override
+                    public void afterCommit() {
+                        publish(checksum, algorithm, file);
+                    }
+                });
+            } else {
+                publish(checksum, algorithm, file);
+            }
+        }
+    }
+
+    /**
+     * Link a file of the store into a tenant cache.
+     * @param checksum file checksum
+     * @param algorithm checksum algorithm
+     * @param file tenant cache file to create
+     * @return true if the file is available at the given path
+     */
+    public boolean link(String checksum, String algorithm, Path file) {
+        if (!enabled || (algorithm == null)) {
+            return false;
+        }
+        Path shared = getPath(checksum, algorithm);
+        if (!Files.isRegularFile(shared)) {
+            return false;
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            Files.deleteIfExists(file);
+            Files.createLink(file, shared);
+            LOGGER.debug("[SHARED CACHE] File {} linked from shared cache store", checksum);
+            return true;
+        } catch (IOException | UnsupportedOperationException e) {
+            // Shared file can have been released in the meantime, file is restored from its storage.
+            LOGGER.debug("[SHARED CACHE] Unable to link file {} from shared cache store : {}", checksum,
+                         e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Release the shared file of the given checksum after the deletion of a tenant cache file. The shared file is
+     * deleted if no tenant references it anymore.
+     * @param checksum file checksum
+     */
+    public void release(String checksum) {
+        if (enabled) {
+            for (Path algorithmDir : getAlgorithmDirectories()) {
+                Path shared = algorithmDir.resolve(getShard(checksum)).resolve(checksum);
+                try {
+                    deleteIfUnreferenced(shared);
+                } catch (IOException | UnsupportedOperationException e) {
+                    LOGGER.warn("[SHARED CACHE] Unable to release shared file {} : {}", shared, e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Delete all shared files no longer referenced by any tenant, as tenant files can be deleted without release
+     * (orphan files reclaiming, manual deletion, ...).
+     * @return number of deleted shared files
+     * @throws IOException
+     */
+    public int sweep() throws IOException {
+        int nbDeleted = 0;
+        if (enabled) {
+            for (Path algorithmDir : getAlgorithmDirectories()) {
+                try (Stream<Path> files = Files.walk(algorithmDir)) {
+                    Iterator<Path> it = files.filter(Files::isRegularFile)
+                            .filter(f -> !f.getFileName().toString().endsWith(TMP_SUFFIX)).iterator();
+                    while (it.hasNext()) {
+                        if (deleteIfUnreferenced(it.next())) {
+                            nbDeleted++;
+                        }
+                    }
+                }
+            }
+            LOGGER.info("[SHARED CACHE] {} unreferenced shared files deleted", nbDeleted);
+        }
+        return nbDeleted;
+    }
+
+    /**
+     * @param shared shared file
+     * @return number of tenant cache files linked to the given shared file
+     * @throws IOException if the number of links cannot be read, unix file attribute view included
+     */
+    public int getReferenceCount(Path shared) throws IOException {
+        try {
+            return ((Number) Files.getAttribute(shared, "unix:nlink")).intValue() - 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            throw new IOException(String.format("Unable to read number of links of %s", shared), e);
+        }
+    }
+
+    public Path getPath(String checksum, String algorithm) {
+        return Paths.get(globalCachePath, STORE_DIRECTORY, algorithm.toUpperCase().replaceAll("[^A-Z0-9-]", "_"),
+                         getShard(checksum), checksum);
+    }
+
+    private boolean deleteIfUnreferenced(Path shared) throws IOException {
+        if (Files.isRegularFile(shared) && (getReferenceCount(shared) <= 0)) {
+            Files.deleteIfExists(shared);
+            LOGGER.debug("[SHARED CACHE] Unreferenced shared file {} deleted", shared);
+            return true;
+        }
+        return false;
+    }
+
+    private static void deleteQuietly(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOGGER.warn("[SHARED CACHE] Unable to delete temporary file {} : {}", file, e.getMessage());
+        }
+    }
+
+    private List<Path> getAlgorithmDirectories() {
+        Path storePath = Paths.get(globalCachePath, STORE_DIRECTORY);
+        if (!Files.isDirectory(storePath)) {
+            return Collections.emptyList();
+        }
+        try (Stream<Path> dirs = Files.list(storePath)) {
+            return dirs.filter(Files::isDirectory).collect(Collectors.toList());
+        } catch (IOException e) {
+            LOGGER.warn("[SHARED CACHE] Unable to list shared cache store {} : {}", storePath, e.getMessage());
+            return Collections.emptyList();
+        }
+    }
+
+    private static String getShard(String checksum) {
+        return checksum.length() > 2 ? checksum.substring(0, 2) : "_";
+    }
+
+}
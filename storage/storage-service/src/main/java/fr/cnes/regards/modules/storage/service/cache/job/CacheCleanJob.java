@@ -35,9 +35,23 @@ public class CacheCleanJob extends AbstractJob<Void> {
     @Autowired
     private CacheService cacheService;
 
+    private int nbBatches = 0;
+
     @Override
     public void run() {
-        cacheService.purge();
+        long nbExpired = cacheService.countExpiredFiles();
+        nbBatches = (int) Math.min(Integer.MAX_VALUE, (nbExpired / cacheService.getPurgeBulkSize()) + 1);
+        logger.info("[CACHE PURGE JOB] Purging {} expired files from cache", nbExpired);
+        int purged = cacheService.purge(nbPurged -> {
+            advanceCompletion();
+            logger.debug("[CACHE PURGE JOB] {}/{} expired files purged", nbPurged, nbExpired);
+        });
+        logger.info("[CACHE PURGE JOB] {} expired files purged from cache", purged);
+    }
+
+    @Override
+    public int getCompletionCount() {
+        return nbBatches > 0 ? nbBatches : super.getCompletionCount();
     }
 
 }
@@ -38,8 +38,10 @@ import fr.cnes.regards.modules.storage.domain.exception.NearlineFileNotAvailable
 import fr.cnes.regards.modules.storage.domain.plugin.IOnlineStorageLocation;
 import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
 import fr.cnes.regards.modules.storage.service.cache.CacheService;
+import fr.cnes.regards.modules.storage.service.cache.HotCacheTier;
 import fr.cnes.regards.modules.storage.service.file.download.IQuotaService;
 import fr.cnes.regards.modules.storage.service.file.request.FileCacheRequestService;
+import fr.cnes.regards.modules.storage.service.file.request.NearlineRestorationFlights;
 import fr.cnes.regards.modules.storage.service.location.StorageLocationConfigurationService;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
@@ -63,6 +65,7 @@ import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 import java.util.*;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
@@ -105,9 +108,15 @@ public class FileDownloadService {
     @Autowired
     private CacheService cachedFileService;
 
+    @Autowired
+    private HotCacheTier hotCacheTier;
+
     @Autowired
     private FileCacheRequestService fileCacheReqService;
 
+    @Autowired
+    private NearlineRestorationFlights restorationFlights;
+
     @Autowired
     private IAuthenticationResolver authResolver;
 
@@ -205,7 +214,7 @@ public class FileDownloadService {
                     Long fileSize = cachedFileToDownload.getFileSize();
                     String fileName = cachedFileToDownload.getFileName();
                     MimeType mimeType = cachedFileToDownload.getMimeType();
-                    FileInputStream is = new FileInputStream(cachedFileToDownload.getLocation().getPath());
+                    InputStream is = openCacheFile(cachedFileToDownload);
                     return isRawData(cachedFileToDownload)
                         ? new QuotaLimitedDownloadableFile(is, fileSize, fileName, mimeType)
                         : new StandardDownloadableFile(is, fileSize, fileName, mimeType);
@@ -219,6 +228,22 @@ public class FileDownloadService {
             });
     }
 
+    /**
+     * Open a cached file from the hot cache tier if it is promoted, else from the cache directory.
+     * @param cachedFile {@link CacheFile} to read
+     * @return stream of the file
+     * @throws FileNotFoundException if the file does not exist in the cache directory
+     */
+    private InputStream openCacheFile(CacheFile cachedFile) throws FileNotFoundException {
+        Optional<InputStream> hot = hotCacheTier.get(cachedFile.getChecksum());
+        if (hot.isPresent()) {
+            return hot.get();
+        }
+        InputStream is = new FileInputStream(cachedFile.getLocation().getPath());
+        cachedFileService.recordDownload(cachedFile);
+        return is;
+    }
+
     private boolean isRawData(CacheFile cachedFile) {
         return Objects.equals(cachedFile.getType(), DataType.RAWDATA.name());
     }
@@ -271,19 +296,60 @@ public class FileDownloadService {
             // File is in cache and can be download
             try {
                 // File is present in cache return stream
-                return new FileInputStream(ocf.get().getLocation().getPath());
+                return openCacheFile(ocf.get());
             } catch (FileNotFoundException e) {
                 // Only log error and then ask for new availability of the file
                 LOGGER.error(e.getMessage(), e);
             }
         }
-        // ask for file availability and return a not available yet response
-        fileCacheReqService.makeAvailable(Sets.newHashSet(fileToDownload), OffsetDateTime.now().plusHours(1),
-                                          UUID.randomUUID().toString());
+        cachedFileService.recordDownload(null);
+        // ask for file availability, or attach to the restoration in progress, and return a not available yet response
+        restorationFlights.join(fileToDownload.getMetaInfo().getChecksum(),
+                                groupId -> fileCacheReqService.makeAvailable(Sets.newHashSet(fileToDownload),
+                                                                             OffsetDateTime.now().plusHours(1),
+                                                                             groupId, authResolver.getUser(), true));
         throw new NearlineFileNotAvailableException(String.format("File %s is not available yet. Please try later.",
                                                                   fileToDownload.getMetaInfo().getFileName()));
     }
 
+    /**
+     * Wait for a file to be available for download, without polling the database.<br/>
+     * Files in cache or stored on an online storage location are available at once. A nearline file not in cache is
+     * restored, or attached to its restoration in progress, and the returned result is completed when the restoration
+     * ends on this instance of the microservice (see {@link NearlineRestorationFlights}).<br/>
+     * The caller gives up the wait by cancelling the returned result, which is then detached from the restoration.
+     * @param checksum checksum of the file
+     * @return result completed with true when the file is available, false if it cannot be made available. It is
+     *         completed exceptionally if the restoration request is rolled back.
+     * @throws EntityNotFoundException if the file is not referenced
+     */
+    public CompletableFuture<Boolean> waitAvailability(String checksum) throws EntityNotFoundException {
+        if (cachedFileService.search(checksum).isPresent()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        Set<FileReference> fileRefs = fileRefService.search(checksum);
+        if (fileRefs.isEmpty()) {
+            throw new EntityNotFoundException(checksum, FileReferenceDTO.class);
+        }
+        Map<String, FileReference> storages = fileRefs.stream()
+                .collect(Collectors.toMap(f -> f.getLocation().getStorage(), f -> f));
+        if (storageLocationConfService.searchActiveHigherPriority(storages.keySet(), StorageType.ONLINE)
+                .isPresent()) {
+            return CompletableFuture.completedFuture(true);
+        }
+        Optional<StorageLocationConfiguration> nearline = storageLocationConfService
+                .searchActiveHigherPriority(storages.keySet(), StorageType.NEARLINE);
+        if (!nearline.isPresent()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        FileReference fileToRestore = storages.get(nearline.get().getPluginConfiguration().getLabel());
+        return restorationFlights
+                .join(checksum, groupId -> fileCacheReqService.makeAvailable(Sets.newHashSet(fileToRestore),
+                                                                             OffsetDateTime.now().plusHours(1),
+                                                                             groupId, authResolver.getUser(), true))
+                .listen();
+    }
+
     /**
      * Generate a public download URL for the file associated to the given Checksum
      * @param checksum
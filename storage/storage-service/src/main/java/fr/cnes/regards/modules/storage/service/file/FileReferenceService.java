@@ -19,8 +19,10 @@
 package fr.cnes.regards.modules.storage.service.file;
 
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -35,6 +37,7 @@ import org.springframework.util.Assert;
 
 import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
 import fr.cnes.regards.modules.storage.dao.IFileReferenceRepository;
+import fr.cnes.regards.modules.storage.dao.replica.ReadReplica;
 import fr.cnes.regards.modules.storage.domain.database.FileLocation;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
@@ -175,6 +178,16 @@ public class FileReferenceService {
         return fileRefRepo.findByMetaInfoChecksumIn(checksums);
     }
 
+    /**
+     * Search for all {@link FileReference}s with the given identifiers.
+     * @param ids
+     * @return {@link FileReference}s
+     */
+    @Transactional(readOnly = true)
+    public List<FileReference> searchByIds(Collection<Long> ids) {
+        return fileRefRepo.findAllById(ids);
+    }
+
     /**
      * Search for all {@link FileReference}s associated to the given checksum.
      * @return {@link FileReference}s
@@ -200,11 +213,25 @@ public class FileReferenceService {
      * @param page
      * @return {@link FileReference}s
      */
+    @ReadReplica
     @Transactional(readOnly = true)
     public Page<FileReference> search(Specification<FileReference> spec, Pageable page) {
         return fileRefRepo.findAll(spec, page);
     }
 
+    /**
+     * Read all {@link FileReference}s matching the given criterion through a database cursor. To be used instead of
+     * pages to read a large number of {@link FileReference}s.
+     * @param spec criterion
+     * @param consumer consumer of each {@link FileReference}
+     * @return number of {@link FileReference}s read
+     */
+    @ReadReplica(maxStalenessMs = 60_000L)
+    @Transactional(readOnly = true)
+    public long streamAll(Specification<FileReference> spec, Consumer<FileReference> consumer) {
+        return fileRefRepo.streamAll(spec, consumer);
+    }
+
     /**
      * Update the given fileReference
      * @param updatedFile
@@ -13,14 +13,16 @@ import fr.cnes.regards.modules.accessrights.domain.projects.ProjectUserEvent;
 import fr.cnes.regards.modules.storage.domain.database.DefaultDownloadQuotaLimits;
 import fr.cnes.regards.modules.storage.domain.database.DownloadQuotaLimits;
 import fr.cnes.regards.modules.storage.domain.database.UserCurrentQuotas;
+import fr.cnes.regards.modules.storage.domain.database.UserQuotaAggregate;
+import fr.cnes.regards.modules.storage.domain.database.UserRateAggregate;
 import fr.cnes.regards.modules.storage.domain.database.repository.IDownloadQuotaRepository;
 import fr.cnes.regards.modules.storage.domain.dto.quota.DownloadQuotaLimitsDto;
 import io.vavr.Tuple;
+import io.vavr.Tuple2;
 import io.vavr.Tuple3;
 import io.vavr.collection.HashMap;
 import io.vavr.collection.Map;
 import io.vavr.collection.Seq;
-import io.vavr.control.Either;
 import io.vavr.control.Option;
 import io.vavr.control.Try;
 import org.postgresql.util.PSQLException;
@@ -42,6 +44,7 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import static fr.cnes.regards.modules.storage.dao.entity.download.DownloadQuotaLimitsEntity.UK_DOWNLOAD_QUOTA_LIMITS_EMAIL;
 import static fr.cnes.regards.modules.storage.service.file.exception.DownloadLimitExceededException.buildDownloadQuotaExceededException;
@@ -222,22 +225,12 @@ public class DownloadQuotaService<T>
 
     @Override
     public Try<List<DownloadQuotaLimitsDto>> getDownloadQuotaLimits(String[] userEmails) {
-        return Arrays.stream(userEmails)
-            .map(userEmail -> {
-                QuotaKey key = QuotaKey.make(runtimeTenantResolver.getTenant(), userEmail);
-                return cacheUserQuota(userEmail, key);
-            })
-            .map(quotaLimits -> quotaLimits
-                .map(DownloadQuotaLimitsDto::fromDownloadQuotaLimits))
-            .reduce(
-                Either.<ListUserQuotaLimitsResultException, io.vavr.collection.List<DownloadQuotaLimitsDto>>right(io.vavr.collection.List.empty()),
-                (e, t) -> t.isSuccess()
-                    ? e.map(l -> l.append(t.get()))
-                    : e.isRight() ? Either.left(ListUserQuotaLimitsResultException.make(t.getCause())) : e.mapLeft(err -> err.compose(ListUserQuotaLimitsResultException.make(t.getCause()))),
-                (l, r) -> l
-            )
-            .map(io.vavr.collection.List::toJavaList)
-            .toTry();
+        return cacheUserQuotas(userEmails)
+            .map(limitsByEmail -> Arrays.stream(userEmails)
+                .map(limitsByEmail::get)
+                .map(DownloadQuotaLimitsDto::fromDownloadQuotaLimits)
+                .collect(Collectors.toList()))
+            .recoverWith(t -> Try.failure(ListUserQuotaLimitsResultException.make(t)));
     }
 
     @Override
@@ -262,17 +255,25 @@ public class DownloadQuotaService<T>
 
     @Override
     public Try<List<UserCurrentQuotas>> getCurrentQuotas(String[] userEmails) {
-        return Arrays.stream(userEmails)
-            .map(userEmail -> Try.of(() -> getCurrentQuotas(userEmail)))
-            .reduce(
-                Either.<ListUserQuotaLimitsResultException, io.vavr.collection.List<UserCurrentQuotas>>right(io.vavr.collection.List.empty()),
-                (e, t) -> t.isSuccess()
-                    ? e.map(l -> l.append(t.get()))
-                    : e.isRight() ? Either.left(ListUserQuotaLimitsResultException.make(t.getCause())) : e.mapLeft(err -> err.compose(ListUserQuotaLimitsResultException.make(t.getCause()))),
-                (l, r) -> l
-            )
-            .map(io.vavr.collection.List::toJavaList)
-            .toTry();
+        return cacheUserQuotas(userEmails)
+            .mapTry(limitsByEmail -> {
+                java.util.Map<String, Tuple2<UserQuotaAggregate, UserRateAggregate>> quotasAndRates =
+                    quotaManager.get(limitsByEmail.values());
+                return Arrays.stream(userEmails)
+                    .map(userEmail -> {
+                        DownloadQuotaLimits quota = limitsByEmail.get(userEmail);
+                        Tuple2<UserQuotaAggregate, UserRateAggregate> quotaAndRate = quotasAndRates.get(userEmail);
+                        return new UserCurrentQuotas(
+                            userEmail,
+                            quota.getMaxQuota(),
+                            quota.getRateLimit(),
+                            quotaAndRate._1.getCounter(),
+                            quotaAndRate._2.getGauge()
+                        );
+                    })
+                    .collect(Collectors.toList());
+            })
+            .recoverWith(t -> Try.failure(ListUserQuotaLimitsResultException.make(t)));
     }
 
     @VisibleForTesting
@@ -283,6 +284,34 @@ public class DownloadQuotaService<T>
         );
     }
 
+    /**
+     * Bulk version of {@link #cacheUserQuota(String, QuotaKey)} : limits missing from cache are fetched (or created
+     * with default values) all together in a single transaction and put in cache in one go.
+     * @return limits by email
+     */
+    @VisibleForTesting
+    protected Try<java.util.Map<String, DownloadQuotaLimits>> cacheUserQuotas(String[] userEmails) {
+        String tenant = runtimeTenantResolver.getTenant();
+        DefaultDownloadQuotaLimits defaults = getDefaultLimits();
+        Set<QuotaKey> keys = Arrays.stream(userEmails)
+            .map(userEmail -> QuotaKey.make(tenant, userEmail))
+            .collect(Collectors.toSet());
+        return Try.of(() ->
+            cache.getAll(keys, missingKeys -> {
+                Set<String> missingEmails = new HashSet<>();
+                missingKeys.forEach(key -> missingEmails.add(key.getUserEmail()));
+                java.util.Map<QuotaKey, DownloadQuotaLimits> loaded = new java.util.HashMap<>();
+                self.findOrCreateDownloadQuotas(missingEmails, defaults.getMaxQuota(), defaults.getRateLimit())
+                    .forEach((email, limits) -> loaded.put(QuotaKey.make(tenant, email), limits));
+                return loaded;
+            })
+        ).map(limitsByKey -> {
+            java.util.Map<String, DownloadQuotaLimits> limitsByEmail = new java.util.HashMap<>();
+            limitsByKey.forEach((key, limits) -> limitsByEmail.put(key.getUserEmail(), limits));
+            return limitsByEmail;
+        });
+    }
+
     @VisibleForTesting
     protected Try<Tuple3<DownloadQuotaLimits, Long, Long>> getUserQuotaAndRate(DownloadQuotaLimits quotaLimits) {
         return Try.of(() -> quotaManager.get(quotaLimits))
@@ -380,6 +409,12 @@ public class DownloadQuotaService<T>
             });
     }
 
+    @Transactional(isolation = Isolation.READ_COMMITTED, propagation = Propagation.REQUIRES_NEW)
+    public java.util.Map<String, DownloadQuotaLimits> findOrCreateDownloadQuotas(Set<String> userEmails, Long maxQuota,
+        Long rateLimit) {
+        return quotaRepository.findOrCreateByEmailIn(userEmails, maxQuota, rateLimit);
+    }
+
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public DownloadQuotaLimits createDownloadQuota(String userEmail, Long maxQuota, Long rateLimit) {
         return quotaRepository.save(
@@ -5,12 +5,21 @@ import fr.cnes.regards.modules.storage.domain.database.UserQuotaAggregate;
 import fr.cnes.regards.modules.storage.domain.database.UserRateAggregate;
 import io.vavr.Tuple2;
 
+import java.util.Collection;
+import java.util.Map;
 import java.util.concurrent.Future;
 
 public interface IQuotaManager {
 
     Tuple2<UserQuotaAggregate, UserRateAggregate> get(DownloadQuotaLimits quota);
 
+    /**
+     * Bulk version of {@link #get(DownloadQuotaLimits)} for users of the same tenant.
+     * Users missing from the cache are initialized and fetched together.
+     * @return current quota and rate by email
+     */
+    Map<String, Tuple2<UserQuotaAggregate, UserRateAggregate>> get(Collection<DownloadQuotaLimits> quotas);
+
     void increment(DownloadQuotaLimits quota);
 
     void decrement(DownloadQuotaLimits quota);
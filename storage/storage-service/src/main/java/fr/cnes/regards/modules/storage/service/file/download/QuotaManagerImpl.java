@@ -6,13 +6,18 @@ import static fr.cnes.regards.modules.storage.service.file.download.QuotaConfigu
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.annotation.PostConstruct;
 
@@ -29,6 +34,7 @@ import org.springframework.transaction.annotation.Transactional;
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.Sets;
 
 import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
 import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
@@ -163,29 +169,27 @@ public class QuotaManagerImpl implements IQuotaManager {
             // sync will start, diffsAcc should be initialized if not found
             diffsAccumulatorByTenant.computeIfAbsent(tenant, t -> new java.util.HashMap<>());
 
-            // swap current instance diff counters for tenant users to 0 and get previous value
+            // snapshot current instance diff counters for tenant users and fold them into cached globals
+            // counters are never swapped nor reset so get/incr/decr keep working on them => no contention with this method
             ConcurrentMap<String, UserDiffs> userDiffs = getUserDiffsCache(tenant).asMap();
-            Map<String, UserDiffs> currentSync = new HashMap<>();
-            userDiffs.replaceAll((q, ud) -> {
-                currentSync.put(q, ud);
-                return UserDiffs.renew(ud);
-            });
-            // now get/incr/decr can continue working on a new userDiff => no contention with this method
+            Map<String, DiffSync> currentSync = new HashMap<>();
+            userDiffs.forEach((q, ud) -> currentSync.put(q, ud.snapshot()));
 
             // accumulate quota/rate diffs in case sync fails
             Map<String, DiffSync> diffsAcc = diffsAccumulatorByTenant.get(tenant);
-            currentSync.forEach((q, u) -> {
-                DiffSync r = new DiffSync(u.rateDiff, u.quotaDiff);
-                diffsAcc.compute(q, (ignored, l) -> (l == null) ? r : DiffSync.combine(l, r));
-            });
+            currentSync.forEach((q, r) -> diffsAcc.compute(q, (ignored, l) -> (l == null) ? r : DiffSync.combine(l, r)));
 
             // do sync quota/rate with db
             Map<String, UserDiffs> newUserDiffs = self.flushSyncAndRefreshQuotas(diffsAccumulatorByTenant.get(tenant)//.get()
             );
 
             // swap user gauges for fresh global gauge but keep working instance counter diff
-            newUserDiffs
-                    .forEach((q, r) -> userDiffs.compute(q, (ignored, l) -> (r == null) ? l : UserDiffs.refresh(l, r)));
+            newUserDiffs.forEach((q, r) -> {
+                UserDiffs l = userDiffs.get(q);
+                if ((l != null) && (r != null)) {
+                    l.refresh(r);
+                }
+            });
 
             // sync is finished, diffsAcc for current tenant can be cleared for next sync
             diffsAccumulatorByTenant.put(tenant, new HashMap<>());
@@ -203,19 +207,27 @@ public class QuotaManagerImpl implements IQuotaManager {
     @Transactional(propagation = Propagation.REQUIRES_NEW)
     public Map<String, UserDiffs> flushSyncAndRefreshQuotas(Map<String, DiffSync> diffSyncs) {
         Map<String, UserDiffs> result = new HashMap<>();
+        if (diffSyncs.isEmpty()) {
+            return result;
+        }
 
+        // sync current instance quota/rate for all users at once
+        Map<String, Long> quotaDiffs = new HashMap<>();
+        Map<String, Long> rateDiffs = new HashMap<>();
         diffSyncs.forEach((email, sync) -> {
-            // sync current instance quota/rate for user
-            quotaRepository.upsertOrCombineDownloadQuota(instanceId, email, sync.quotaDiff);
-            quotaRepository.upsertOrCombineDownloadRate(instanceId, email, sync.rateDiff,
-                                                        LocalDateTime.now().plusSeconds(syncTick));
+            quotaDiffs.put(email, sync.quotaDiff);
+            rateDiffs.put(email, sync.rateDiff);
+        });
+        quotaRepository.upsertOrCombineDownloadQuotas(instanceId, quotaDiffs);
+        quotaRepository.upsertOrCombineDownloadRates(instanceId, rateDiffs, LocalDateTime.now().plusSeconds(syncTick));
 
-            // and refresh its global quota/rate (select across all instances gauges)
-            UserQuotaAggregate globalQuota = quotaRepository.fetchDownloadQuotaSum(email);
-            UserRateAggregate globalRate = quotaRepository.fetchDownloadRatesSum(email);
+        // and refresh their global quota/rate (grouped select across all instances gauges)
+        Map<String, UserQuotaAggregate> globalQuotas = quotaRepository.fetchDownloadQuotaSums(diffSyncs.keySet());
+        Map<String, UserRateAggregate> globalRates = quotaRepository.fetchDownloadRatesSums(diffSyncs.keySet());
 
-            result.put(email, new UserDiffs(globalRate, 0L, globalQuota, 0L));
-        });
+        diffSyncs.keySet()
+                .forEach(email -> result.put(email,
+                                             new UserDiffs(globalRates.get(email), 0L, globalQuotas.get(email), 0L)));
 
         return result;
     }
@@ -241,39 +253,69 @@ public class QuotaManagerImpl implements IQuotaManager {
         });
 
         //noinspection ConstantConditions
-        long counter = diffs.quota.getCounter() + diffs.quotaDiff;
-        long gauge = diffs.rate.getGauge() + diffs.rateDiff;
+        long counter = diffs.getTotalQuota();
+        long gauge = diffs.getTotalRate();
 
         return Tuple.of(new UserQuotaAggregate(counter), new UserRateAggregate(gauge));
     }
 
+    @Override
+    public Map<String, Tuple2<UserQuotaAggregate, UserRateAggregate>> get(Collection<DownloadQuotaLimits> quotas) {
+        Map<String, Tuple2<UserQuotaAggregate, UserRateAggregate>> result = new HashMap<>();
+        if (quotas.isEmpty()) {
+            return result;
+        }
+
+        String tenant = quotas.iterator().next().getTenant();
+        runtimeTenantResolver.forceTenant(tenant);
+
+        Set<String> emails = quotas.stream().map(DownloadQuotaLimits::getEmail).collect(Collectors.toSet());
+        Map<String, UserDiffs> diffsByEmail = getUserDiffsCache(tenant).getAll(emails, keys -> {
+            Set<String> missing = Sets.newHashSet(keys);
+            // create their current instance quota/rate if not exist (diff = 0L so operation is idempotent)
+            Map<String, Long> zeros = missing.stream().collect(Collectors.toMap(Function.identity(), email -> 0L));
+            quotaRepository.upsertOrCombineDownloadQuotas(instanceId, zeros);
+            quotaRepository.upsertOrCombineDownloadRates(instanceId, zeros, LocalDateTime.now().plusSeconds(syncTick));
+            // and get their global quota/rate
+            Map<String, UserQuotaAggregate> globalQuotas = quotaRepository.fetchDownloadQuotaSums(missing);
+            Map<String, UserRateAggregate> globalRates = quotaRepository.fetchDownloadRatesSums(missing);
+            return missing.stream().collect(Collectors.toMap(Function.identity(), email -> new UserDiffs(
+                    globalRates.get(email), 0L, globalQuotas.get(email), 0L)));
+        });
+
+        diffsByEmail.forEach((email, diffs) -> result.put(email, Tuple.of(new UserQuotaAggregate(diffs.getTotalQuota()),
+                                                                          new UserRateAggregate(diffs.getTotalRate()))));
+        return result;
+    }
+
     @Override
     public void increment(DownloadQuotaLimits quota) {
         String email = quota.getEmail();
 
-        Cache<String, UserDiffs> userDiffs = getUserDiffsCache(quota.getTenant());
-        if (userDiffs.getIfPresent(email) == null) {
+        UserDiffs diffs = getUserDiffsCache(quota.getTenant()).getIfPresent(email);
+        if (diffs == null) {
             throw new IllegalStateException("Cannot incr before get");
         }
-        userDiffs.asMap().computeIfPresent(email, (q, u) -> {
-            if ((u.getTotalRate() >= quota.getRateLimit()) && (quota.getRateLimit() >= 0)) {
-                // nice try little thread, but no, you're too late
-                throw DownloadLimitExceededException.buildDownloadRateExceededException(email, quota.getRateLimit(),
-                                                                                        u.getTotalRate());
-            }
-            return UserDiffs.incrementQuotaAndRateDiffs(u);
-        });
+        // increment first and check after so that concurrent threads can never all slip under the limit
+        diffs.incrementQuotaAndRateDiffs();
+        long totalRate = diffs.getTotalRate();
+        if ((totalRate > quota.getRateLimit()) && (quota.getRateLimit() >= 0)) {
+            // nice try little thread, but no, you're too late
+            diffs.cancelIncrement();
+            throw DownloadLimitExceededException.buildDownloadRateExceededException(email, quota.getRateLimit(),
+                                                                                    totalRate - 1);
+        }
     }
 
     @Override
     public void decrement(DownloadQuotaLimits quota) {
         String email = quota.getEmail();
 
-        Cache<String, UserDiffs> userDiffs = getUserDiffsCache(quota.getTenant());
-        if (userDiffs.getIfPresent(email) == null) {
+        UserDiffs diffs = getUserDiffsCache(quota.getTenant()).getIfPresent(email);
+        if (diffs == null) {
             throw new IllegalStateException("Cannot decr before get");
         }
-        userDiffs.asMap().computeIfPresent(email, (q, u) -> UserDiffs.decrementRateDiff(u));
+        diffs.decrementRateDiff();
     }
 
     @VisibleForTesting
@@ -301,66 +343,121 @@ public class QuotaManagerImpl implements IQuotaManager {
         this.instanceId = instanceId;
     }
 
+    /**
+     * Mutable per-user download counters of the current instance.<br/>
+     * Diffs are held in {@link LongAdder}s so that download start and stop are allocation-free and do not contend on
+     * a single map bin for hot users. Diffs are cumulative and never reset: each sync only folds the part of the diffs
+     * not yet synced into the cached globals. Only the (single threaded) sync writes the synced state.
+     */
     public static class UserDiffs {
 
-        private final UserRateAggregate rate;
+        private final LongAdder rateDiff = new LongAdder();
 
-        private final Long rateDiff;
+        private final LongAdder quotaDiff = new LongAdder();
 
-        private final UserQuotaAggregate quota;
-
-        private final Long quotaDiff;
+        private volatile Synced synced;
 
         public UserDiffs(UserRateAggregate rate, Long rateDiff, UserQuotaAggregate quota, Long quotaDiff) {
-            this.rate = rate;
-            this.rateDiff = rateDiff;
-            this.quota = quota;
-            this.quotaDiff = quotaDiff;
+            this.rateDiff.add(rateDiff);
+            this.quotaDiff.add(quotaDiff);
+            this.synced = new Synced(rate, 0L, quota, 0L);
         }
 
         @VisibleForTesting
         public UserRateAggregate getRate() {
-            return rate;
+            return synced.rate;
         }
 
+        /**
+         * @return rate diff not synced yet
+         */
         @VisibleForTesting
         public Long getRateDiff() {
-            return rateDiff;
+            return rateDiff.sum() - synced.rateDiff;
         }
 
         @VisibleForTesting
         public UserQuotaAggregate getQuota() {
-            return quota;
+            return synced.quota;
         }
 
+        /**
+         * @return quota diff not synced yet
+         */
         @VisibleForTesting
         public Long getQuotaDiff() {
-            return quotaDiff;
+            return quotaDiff.sum() - synced.quotaDiff;
         }
 
-        public static UserDiffs renew(UserDiffs old) {
-            return new UserDiffs(new UserRateAggregate(old.rate.getGauge() + old.rateDiff), 0L,
-                    new UserQuotaAggregate(old.quota.getCounter() + old.quotaDiff), 0L);
+        /**
+         * Fold the diffs not synced yet into the cached globals.
+         * @return the folded diffs to sync
+         */
+        public DiffSync snapshot() {
+            Synced current = synced;
+            long rateTotal = rateDiff.sum();
+            long quotaTotal = quotaDiff.sum();
+            long rateDelta = rateTotal - current.rateDiff;
+            long quotaDelta = quotaTotal - current.quotaDiff;
+            synced = new Synced(new UserRateAggregate(current.rate.getGauge() + rateDelta), rateTotal,
+                    new UserQuotaAggregate(current.quota.getCounter() + quotaDelta), quotaTotal);
+            return new DiffSync(rateDelta, quotaDelta);
         }
 
-        public static UserDiffs refresh(UserDiffs old, UserDiffs fresh) {
-            return new UserDiffs(fresh.rate, old.rateDiff, fresh.quota, old.quotaDiff);
+        /**
+         * Swap the cached globals for fresh ones, keeping the diffs not synced yet.
+         */
+        public void refresh(UserDiffs fresh) {
+            Synced current = synced;
+            synced = new Synced(fresh.getRate(), current.rateDiff, fresh.getQuota(), current.quotaDiff);
         }
 
-        public static UserDiffs incrementQuotaAndRateDiffs(UserDiffs old) {
-            return new UserDiffs(old.rate, old.rateDiff + 1, old.quota, old.quotaDiff + 1);
+        public void incrementQuotaAndRateDiffs() {
+            rateDiff.increment();
+            quotaDiff.increment();
         }
 
-        public static UserDiffs decrementRateDiff(UserDiffs old) {
-            return new UserDiffs(old.rate, old.rateDiff - 1, old.quota, old.quotaDiff);
+        /**
+         * Revert a previous {@link #incrementQuotaAndRateDiffs()}
+         */
+        public void cancelIncrement() {
+            rateDiff.decrement();
+            quotaDiff.decrement();
+        }
+
+        public void decrementRateDiff() {
+            rateDiff.decrement();
         }
 
         public Long getTotalQuota() {
-            return quota.getCounter() + quotaDiff;
+            Synced current = synced;
+            return current.quota.getCounter() + (quotaDiff.sum() - current.quotaDiff);
         }
 
         public Long getTotalRate() {
-            return rate.getGauge() + rateDiff;
+            Synced current = synced;
+            return current.rate.getGauge() + (rateDiff.sum() - current.rateDiff);
+        }
+
+        /**
+         * Immutable synced state : globals as of last sync and cumulative diffs already folded into them.
+         */
+        private static class Synced {
+
+            private final UserRateAggregate rate;
+
+            private final long rateDiff;
+
+            private final UserQuotaAggregate quota;
+
+            private final long quotaDiff;
+
+            private Synced(UserRateAggregate rate, long rateDiff, UserQuotaAggregate quota, long quotaDiff) {
+                this.rate = rate;
+                this.rateDiff = rateDiff;
+                this.quota = quota;
+                this.quotaDiff = quotaDiff;
+            }
         }
     }
 
@@ -74,6 +74,7 @@ public class RetryFlowItemHandler implements ApplicationListener<ApplicationRead
             switch (request.getType()) {
                 case STORAGE:
                     if (request.getGroupId() != null) {
+                        reqGroupService.deleteTerminatedGroupResults(request.getGroupId());
                         storageService.retryRequest(request.getGroupId());
                         reqGroupService.granted(request.getGroupId(), FileRequestType.STORAGE, 0,
                                                 storageService.getRequestExpirationDate());
@@ -83,6 +84,7 @@ public class RetryFlowItemHandler implements ApplicationListener<ApplicationRead
                     break;
                 case AVAILABILITY:
                     if (request.getGroupId() != null) {
+                        reqGroupService.deleteTerminatedGroupResults(request.getGroupId());
                         cacheService.retryRequest(request.getGroupId());
                         reqGroupService.granted(request.getGroupId(), FileRequestType.AVAILABILITY, 0,
                                                 storageService.getRequestExpirationDate());
@@ -18,14 +18,19 @@
  */
 package fr.cnes.regards.modules.storage.service.file.request;
 
+import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
@@ -48,6 +53,8 @@ import org.springframework.transaction.annotation.Transactional;
 
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Multimaps;
 import com.google.common.collect.Sets;
 
@@ -77,7 +84,11 @@ import fr.cnes.regards.modules.storage.domain.plugin.INearlineStorageLocation;
 import fr.cnes.regards.modules.storage.domain.plugin.IStorageLocation;
 import fr.cnes.regards.modules.storage.domain.plugin.PreparationResponse;
 import fr.cnes.regards.modules.storage.service.JobsPriority;
+import fr.cnes.regards.modules.storage.service.cache.CacheFairShare;
+import fr.cnes.regards.modules.storage.service.cache.CachePrefetchService;
+import fr.cnes.regards.modules.storage.service.cache.CacheReservationLedger;
 import fr.cnes.regards.modules.storage.service.cache.CacheService;
+import fr.cnes.regards.modules.storage.service.cache.SharedCacheStore;
 import fr.cnes.regards.modules.storage.service.file.FileDownloadService;
 import fr.cnes.regards.modules.storage.service.file.FileReferenceEventPublisher;
 import fr.cnes.regards.modules.storage.service.file.FileReferenceService;
@@ -142,9 +153,36 @@ public class FileCacheRequestService {
     @Autowired
     private INotificationClient notificationClient;
 
+    @Autowired
+    private NearlineRestorationFlights restorationFlights;
+
+    @Autowired
+    private CachePrefetchService prefetchService;
+
+    @Autowired
+    private CacheReservationLedger reservationLedger;
+
+    @Autowired
+    private SharedCacheStore sharedStore;
+
+    @Autowired
+    private CacheFairShare fairShare;
+
     @Value("${regards.storage.cache.requests.per.job:100}")
     private Integer nbRequestsPerJob;
 
+    /**
+     * Delay in seconds requests of a storage can wait for other requests, to be sorted together by locality.
+     */
+    @Value("${regards.storage.cache.restoration.locality.window.seconds:0}")
+    private long localityWindow;
+
+    /**
+     * Maximum number of requests of a storage sorted together by locality.
+     */
+    @Value("${regards.storage.cache.restoration.locality.max.requests:10000}")
+    private int localityMaxRequests;
+
     /**
      * Static variable to avoid sending notification of cache full event after each request.
      */
@@ -170,17 +208,46 @@ public class FileCacheRequestService {
      */
     public Optional<FileCacheRequest> create(FileReference fileRefToRestore, OffsetDateTime expirationDate,
             String groupId) {
+        return create(fileRefToRestore, expirationDate, groupId, null, false);
+    }
+
+    /**
+     * Creates a new {@link FileCacheRequest} if does not exists already.
+     * @param fileRefToRestore
+     * @param expirationDate
+     * @param groupId Business identifier of the deletion request
+     * @param requester user requesting the file, the current user if null
+     * @param interactive true if the user is waiting for the file to download it
+     * @return {@link FileCacheRequest} created.
+     */
+    public Optional<FileCacheRequest> create(FileReference fileRefToRestore, OffsetDateTime expirationDate,
+            String groupId, String requester, boolean interactive) {
         String checksum = fileRefToRestore.getMetaInfo().getChecksum();
         Optional<FileCacheRequest> oFcr = repository.findByChecksum(checksum);
         FileCacheRequest request = null;
         if (!oFcr.isPresent()) {
             request = new FileCacheRequest(fileRefToRestore, cacheService.getCacheDirectoryPath(checksum),
                     expirationDate, groupId);
+            request.setRequester(getRequester(requester));
+            request.setInteractive(interactive);
             request = repository.save(request);
             LOGGER.trace("File {} (checksum {}) is requested for cache.", fileRefToRestore.getMetaInfo().getFileName(),
                          fileRefToRestore.getMetaInfo().getChecksum());
         } else {
             request = oFcr.get();
+            if (request.isPrefetch()) {
+                // File is now requested, so its restoration is no longer a low priority one
+                request.setPrefetch(false);
+                request.setGroupId(groupId);
+                request.setExpirationDate(expirationDate);
+                request.setRequester(getRequester(requester));
+                request = repository.save(request);
+            }
+            if (interactive && !request.isInteractive()) {
+                // A user is now waiting for the file
+                request.setInteractive(true);
+                request = repository.save(request);
+            }
             if (request.getStatus() == FileRequestStatus.ERROR) {
                 request.setStatus(reqStatusService.getNewStatus(request));
                 request = repository.save(request);
@@ -191,11 +258,33 @@ public class FileCacheRequestService {
         return Optional.ofNullable(request);
     }
 
+    /**
+     * Creates a new low priority {@link FileCacheRequest} to restore a file ahead of any request, if the file is not
+     * already requested.
+     * @param fileRefToRestore file to prefetch
+     * @param expirationDate expiration date of the prefetched file in cache
+     * @param groupId Business identifier of the prefetch
+     * @return true if the request has been created
+     */
+    public boolean prefetch(FileReference fileRefToRestore, OffsetDateTime expirationDate, String groupId) {
+        String checksum = fileRefToRestore.getMetaInfo().getChecksum();
+        if (repository.findByChecksum(checksum).isPresent()) {
+            return false;
+        }
+        FileCacheRequest request = new FileCacheRequest(fileRefToRestore, cacheService.getCacheDirectoryPath(checksum),
+                expirationDate, groupId);
+        request.setPrefetch(true);
+        repository.save(request);
+        LOGGER.trace("File {} (checksum {}) is prefetched in cache.", fileRefToRestore.getMetaInfo().getFileName(),
+                     checksum);
+        return true;
+    }
+
     public void makeAvailable(Collection<AvailabilityFlowItem> items) {
         items.forEach(i -> {
             reqGrpService.granted(i.getGroupId(), FileRequestType.AVAILABILITY, i.getChecksums().size(),
                                   i.getExpirationDate());
-            makeAvailable(i.getChecksums(), i.getExpirationDate(), i.getGroupId());
+            makeAvailable(i.getChecksums(), i.getExpirationDate(), i.getGroupId(), i.getRequester());
         });
     }
 
@@ -207,6 +296,19 @@ public class FileCacheRequestService {
      * @return Number of availability requests created.
      */
     public int makeAvailable(Collection<String> checksums, OffsetDateTime expirationDate, String groupId) {
+        return makeAvailable(checksums, expirationDate, groupId, null);
+    }
+
+    /**
+     * Ensure availability of given files by their checksum for download.
+     * @param checksums
+     * @param expirationDate availability expiration date.
+     * @param groupId
+     * @param requester user requesting the files, the current user if null
+     * @return Number of availability requests created.
+     */
+    public int makeAvailable(Collection<String> checksums, OffsetDateTime expirationDate, String groupId,
+            String requester) {
 
         Set<FileReference> onlines = Sets.newHashSet();
         Set<FileReference> offlines = Sets.newHashSet();
@@ -271,7 +373,7 @@ public class FileCacheRequestService {
         // notifyNotAvailables(offlines, groupId);
         // Handle off lines as near lines files to create new FileCacheRequests.
         nearlines.addAll(offlines);
-        int nbRequests = makeAvailable(nearlines, expirationDate, groupId);
+        int nbRequests = makeAvailable(nearlines, expirationDate, groupId, requester, false);
         return nbRequests;
     }
 
@@ -302,7 +404,15 @@ public class FileCacheRequestService {
     }
 
     /**
-     * Schedule all {@link FileCacheRequest}s with given status to be handled in {@link JobInfo}s
+     * Schedule all {@link FileCacheRequest}s with given status to be handled in {@link JobInfo}s.<br/>
+     * Requests of a nearline storage are sorted and grouped by their locality key (see
+     * {@link INearlineStorageLocation#getLocalityKey(FileCacheRequest)}) before they are dispatched in jobs. If a
+     * locality window is configured, requests of a storage are scheduled only when the oldest one waits for the window
+     * or when the maximum number of sorted requests is reached, so that more requests are sorted together. Requests are
+     * sorted by batches of this maximum number, and all the batches ready to schedule are scheduled.<br/>
+     * Requests of files downloaded by users are scheduled first, then requests of batch availability requests, then
+     * prefetch requests. If fair share is enabled, the cache space is shared between the requesters of each class
+     * (see {@link CacheFairShare}).
      * @param status
      * @return scheduled {@link JobInfo}s
      */
@@ -312,18 +422,11 @@ public class FileCacheRequestService {
         Collection<JobInfo> jobList = Lists.newArrayList();
         Set<String> allStorages = repository.findStoragesByStatus(status);
         for (String storage : allStorages) {
-            Page<FileCacheRequest> filesPage;
-            Long maxId = 0L;
-            // Always search the first page of requests until there is no requests anymore.
-            // To do so, we order on id to ensure to not handle same requests multiple times.
-            Pageable page = PageRequest.of(0, nbRequestsPerJob, Direction.ASC, "id");
-            do {
-                filesPage = repository.findAllByStorageAndStatusAndIdGreaterThan(storage, status, maxId, page);
-                if (filesPage.hasContent()) {
-                    maxId = filesPage.stream().max(Comparator.comparing(FileCacheRequest::getId)).get().getId();
-                    jobList.addAll(self.scheduleJobsByStorage(storage, filesPage.getContent()));
-                }
-            } while (filesPage.hasContent());
+            Optional<INearlineStorageLocation> plugin = getNearlinePlugin(storage);
+            // Files downloaded by users are scheduled first, then files requested by batch, then prefetched ones
+            jobList.addAll(scheduleJobsByClass(storage, plugin, status, false, true));
+            jobList.addAll(scheduleJobsByClass(storage, plugin, status, false, false));
+            jobList.addAll(scheduleJobsByClass(storage, plugin, status, true, false));
         }
         if (!jobList.isEmpty()) {
             LOGGER.debug("[CACHE REQUESTS] {} jobs scheduled in {} ms", jobList.size(),
@@ -332,6 +435,125 @@ public class FileCacheRequestService {
         return jobList;
     }
 
+    /**
+     * Schedule jobs for the requests of the given priority class.
+     */
+    private Collection<JobInfo> scheduleJobsByClass(String storage, Optional<INearlineStorageLocation> plugin,
+            FileRequestStatus status, boolean prefetch, boolean interactive) {
+        Collection<JobInfo> jobList = Lists.newArrayList();
+        Long maxId = 0L;
+        List<FileCacheRequest> requests;
+        // Requests are sorted by batches of localityMaxRequests, until a batch is not full or not ready to schedule
+        do {
+            requests = searchRequestsToSchedule(storage, status, prefetch, interactive, maxId);
+            if (!isReadyToSchedule(requests)) {
+                break;
+            }
+            maxId = requests.stream().map(FileCacheRequest::getId).max(Comparator.naturalOrder()).get();
+            // Cache space is shared between requesters before restorations are sorted by locality
+            List<FileCacheRequest> toSchedule = fairShare.isEnabled()
+                    ? fairShare.select(requests, getAdmissionSize(requests))
+                    : requests;
+            plugin.ifPresent(p -> sortByLocality(toSchedule, p));
+            for (List<FileCacheRequest> jobRequests : Iterables.partition(toSchedule, nbRequestsPerJob)) {
+                jobList.addAll(self.scheduleJobsByStorage(storage, jobRequests));
+            }
+        } while (requests.size() >= localityMaxRequests);
+        return jobList;
+    }
+
+    /**
+     * @return cache space available for the given requests, prefetched files being evicted for requested ones
+     */
+    private long getAdmissionSize(List<FileCacheRequest> requests) {
+        long availableSize = reservationLedger.getAvailableSize();
+        if (requests.stream().noneMatch(FileCacheRequest::isPrefetch)) {
+            availableSize += cacheService.getPrefetchSizeUsedBytes();
+        }
+        return availableSize;
+    }
+
+    /**
+     * @return at most localityMaxRequests requests to schedule, with an id greater than the given one
+     */
+    private List<FileCacheRequest> searchRequestsToSchedule(String storage, FileRequestStatus status,
+            boolean prefetch, boolean interactive, Long fromId) {
+        List<FileCacheRequest> requests = Lists.newArrayList();
+        Page<FileCacheRequest> filesPage;
+        Long maxId = fromId;
+        // Always search the first page of requests until there is no requests anymore.
+        // To do so, we order on id to ensure to not handle same requests multiple times.
+        Pageable page = PageRequest.of(0, nbRequestsPerJob, Direction.ASC, "id");
+        do {
+            filesPage = repository
+                    .findAllByStorageAndStatusAndPrefetchAndInteractiveAndIdGreaterThan(storage, status, prefetch,
+                                                                                       interactive, maxId, page);
+            if (filesPage.hasContent()) {
+                maxId = filesPage.stream().max(Comparator.comparing(FileCacheRequest::getId)).get().getId();
+                requests.addAll(filesPage.getContent());
+            }
+        } while (filesPage.hasContent() && (requests.size() < localityMaxRequests));
+        return requests;
+    }
+
+    private boolean isReadyToSchedule(List<FileCacheRequest> requests) {
+        if (requests.isEmpty()) {
+            return false;
+        }
+        if ((localityWindow <= 0) || (requests.size() >= localityMaxRequests)) {
+            return true;
+        }
+        OffsetDateTime windowStart = OffsetDateTime.now().minusSeconds(localityWindow);
+        return requests.stream().map(FileCacheRequest::getCreationDate)
+                .anyMatch(d -> (d == null) || d.isBefore(windowStart));
+    }
+
+    /**
+     * Sort requests by locality key, then by url so that files of a same location are read in order.
+     */
+    private void sortByLocality(List<FileCacheRequest> requests, INearlineStorageLocation plugin) {
+        Map<FileCacheRequest, String> keys = Maps.newHashMap();
+        try {
+            requests.forEach(r -> keys.put(r, plugin.getLocalityKey(r)));
+        } catch (RuntimeException e) {
+            LOGGER.warn("[CACHE REQUESTS] Unable to calculate locality of requests, arrival order is kept. Cause : {}",
+                        e.getMessage());
+            return;
+        }
+        requests.sort(Comparator.comparing((FileCacheRequest r) -> keys.get(r),
+                                           Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(r -> r.getFileReference().getLocation().getUrl(),
+                               Comparator.nullsLast(Comparator.naturalOrder()))
+                .thenComparing(FileCacheRequest::getId));
+    }
+
+    /**
+     * @return the given requester, or the current user if none, or {@link CacheFairShare#BATCH_REQUESTER} if unknown
+     */
+    private String getRequester(String requester) {
+        if (requester != null) {
+            return requester;
+        }
+        String user = authResolver.getUser();
+        return user != null ? user : CacheFairShare.BATCH_REQUESTER;
+    }
+
+    private Optional<INearlineStorageLocation> getNearlinePlugin(String storage) {
+        if (storageHandler.isConfigured(storage)) {
+            try {
+                PluginConfiguration conf = pStorageService.getPluginConfiguration(storage);
+                IStorageLocation plugin = pluginService.getPlugin(conf.getBusinessId());
+                if (plugin instanceof INearlineStorageLocation) {
+                    return Optional.of((INearlineStorageLocation) plugin);
+                }
+            } catch (ModuleException | NotAvailablePluginConfigurationException e) {
+                LOGGER.warn("[CACHE REQUESTS] Unable to get storage {} plugin to sort requests by locality. Cause : {}",
+                            storage, e.getMessage());
+            }
+        }
+        return Optional.empty();
+    }
+
     /**
      * Schedule cache requests jobs for given storage using new transaction.
      * @param jobList
@@ -345,7 +567,7 @@ public class FileCacheRequestService {
             Collection<JobInfo> jobInfoList = Sets.newHashSet();
             if ((requests != null) && !requests.isEmpty()) {
                 try {
-                    PluginConfiguration conf = pluginService.getPluginConfigurationByLabel(storage);
+                    PluginConfiguration conf = pStorageService.getPluginConfiguration(storage);
                     IStorageLocation storagePlugin = pluginService.getPlugin(conf.getBusinessId());
                     PreparationResponse<FileRestorationWorkingSubset, FileCacheRequest> response = storagePlugin
                             .prepareForRestoration(requests);
@@ -381,6 +603,7 @@ public class FileCacheRequestService {
      *  <li> Creates the new {@link CacheFile}</li>
      *  <li> Deletes the {@link FileCacheRequest} handled.
      *  </ul>
+     * The restored file is published in the {@link SharedCacheStore} after the commit of the current transaction.
      * @param fileReq
      * @param cacheLocation
      * @param realFileSize
@@ -389,6 +612,8 @@ public class FileCacheRequestService {
             String successMessage) {
         LOGGER.debug("[AVAILABILITY SUCCESS {}] - {}", fileReq.getChecksum(), successMessage);
         Optional<FileCacheRequest> oRequest = repository.findById(fileReq.getId());
+        // A prefetched request can have been requested since its restoration was scheduled
+        FileCacheRequest request = oRequest.orElse(fileReq);
         if (oRequest.isPresent()) {
             // Create the cache file associated
             cacheService.addFile(
@@ -399,14 +624,23 @@ public class FileCacheRequestService {
                 oRequest.get().getFileReference().getMetaInfo().getType(),
                 cacheLocation,
                 oRequest.get().getExpirationDate(),
-                fileReq.getGroupId());
+                request.getGroupId(),
+                request.isPrefetch(),
+                request.getRequester());
+            sharedStore.publishAfterCommit(oRequest.get().getChecksum(),
+                                           oRequest.get().getFileReference().getMetaInfo().getAlgorithm(),
+                                           Paths.get(cacheLocation.getPath()));
+            // Reserved cache space is given back with the request, as the file is now counted in cache with its real size
             delete(oRequest.get());
         }
-        publisher.available(fileReq.getChecksum(), "cache", fileReq.getStorage(), cacheLocation, owners, successMessage,
-                            fileReq.getGroupId());
-        // Inform group that a request is done
-        reqGrpService.requestSuccess(fileReq.getGroupId(), FileRequestType.AVAILABILITY, fileReq.getChecksum(), null,
-                                     null, owners, null);
+        restorationFlights.complete(fileReq.getChecksum(), true);
+        if (!request.isPrefetch()) {
+            publisher.available(fileReq.getChecksum(), "cache", fileReq.getStorage(), cacheLocation, owners,
+                                successMessage, request.getGroupId());
+            // Inform group that a request is done
+            reqGrpService.requestSuccess(request.getGroupId(), FileRequestType.AVAILABILITY, fileReq.getChecksum(),
+                                         null, null, owners, null);
+        }
     }
 
     /**
@@ -420,17 +654,40 @@ public class FileCacheRequestService {
                      fileRef.getMetaInfo().getChecksum(), fileRef.getMetaInfo().getFileName(),
                      fileRef.getLocation().toString(), cause);
         Optional<FileCacheRequest> oRequest = repository.findById(fileReq.getId());
+        FileCacheRequest request = oRequest.orElse(fileReq);
+        restorationFlights.complete(fileReq.getChecksum(), false);
+        if (dropPrefetch(request)) {
+            return;
+        }
         if (oRequest.isPresent()) {
-            FileCacheRequest request = oRequest.get();
             request.setStatus(FileRequestStatus.ERROR);
             request.setErrorCause(cause);
+            // Release reserved cache space
+            request.setReservedSize(null);
             repository.save(request);
         }
-        publisher.notAvailable(fileReq.getChecksum(), fileReq.getStorage(), cause, fileReq.getGroupId());
-        reqGrpService.requestError(fileReq.getGroupId(), FileRequestType.AVAILABILITY, fileReq.getChecksum(),
+        publisher.notAvailable(fileReq.getChecksum(), fileReq.getStorage(), cause, request.getGroupId());
+        reqGrpService.requestError(request.getGroupId(), FileRequestType.AVAILABILITY, fileReq.getChecksum(),
                                    fileReq.getStorage(), null, fileReq.getFileReference().getOwners(), cause);
     }
 
+    /**
+     * Delete a prefetch {@link FileCacheRequest} that cannot be handled. Nobody is notified as the file has not been
+     * requested.
+     * @param request
+     * @return true if the request is a prefetch one
+     */
+    private boolean dropPrefetch(FileCacheRequest request) {
+        if (request.isPrefetch()) {
+            LOGGER.debug("[CACHE PREFETCH] Prefetch of file {} abandoned", request.getChecksum());
+            if ((request.getId() != null) && repository.existsById(request.getId())) {
+                repository.deleteById(request.getId());
+            }
+            return true;
+        }
+        return false;
+    }
+
     /**
      * Return all the request that can be restored in cache to not reach the cache size limit.
      * @param requests
@@ -438,11 +695,18 @@ public class FileCacheRequestService {
      */
     private List<FileCacheRequest> calculateRestorables(Collection<FileCacheRequest> requests) {
         List<FileCacheRequest> restorables = Lists.newArrayList();
-        // Calculate cache size available by adding cache file sizes sum and already queued requests
+        // Calculate cache size available by adding cache file sizes sum and space reserved by in-flight restorations.
+        // Ledger is locked until the reservations of the restorable requests are committed.
+        reservationLedger.lock();
         Long availableCacheSize = cacheService.getFreeSpaceInBytes();
         Long occupation = 100 - ((availableCacheSize / cacheService.getCacheSizeLimit()) * 100);
-        Long pendingSize = repository.getPendingFileSize();
-        Long availableSize = availableCacheSize - pendingSize;
+        Long availableSize = reservationLedger.getAvailableSize();
+        long requestedSize = requests.stream().filter(r -> !r.isPrefetch()).mapToLong(FileCacheRequest::getFileSize)
+                .sum();
+        if (requestedSize > availableSize) {
+            // Prefetched files are the first evicted to restore requested ones
+            availableSize += cacheService.evictPrefetched(requestedSize - availableSize);
+        }
         Iterator<FileCacheRequest> it = requests.iterator();
         boolean cacheLimitReached = false;
         Long totalSize = 0L;
@@ -451,7 +715,7 @@ public class FileCacheRequestService {
             if ((totalSize + request.getFileSize()) <= availableSize) {
                 restorables.add(request);
                 totalSize += request.getFileSize();
-            } else {
+            } else if (!dropPrefetch(request)) {
                 cacheLimitReached = true;
             }
         }
@@ -479,10 +743,21 @@ public class FileCacheRequestService {
         Set<JobParameter> parameters = Sets.newHashSet();
         parameters.add(new JobParameter(FileCacheRequestJob.DATA_STORAGE_CONF_BUSINESS_ID, plgBusinessId));
         parameters.add(new JobParameter(FileCacheRequestJob.WORKING_SUB_SET, workingSubset));
-        JobInfo jobInfo = jobInfoService.createAsQueued(new JobInfo(false, JobsPriority.FILE_CACHE_JOB.getPriority(),
-                parameters, authResolver.getUser(), FileCacheRequestJob.class.getName()));
-        workingSubset.getFileRestorationRequests().forEach(r -> repository
-                .updateStatusAndJobId(FileRequestStatus.PENDING, jobInfo.getId().toString(), r.getId()));
+        boolean prefetch = workingSubset.getFileRestorationRequests().stream().allMatch(FileCacheRequest::isPrefetch);
+        boolean interactive = workingSubset.getFileRestorationRequests().stream()
+                .anyMatch(FileCacheRequest::isInteractive);
+        int priority = JobsPriority.FILE_CACHE_JOB.getPriority();
+        if (interactive) {
+            priority = JobsPriority.FILE_CACHE_INTERACTIVE_JOB.getPriority();
+        } else if (prefetch) {
+            priority = JobsPriority.FILE_CACHE_PREFETCH_JOB.getPriority();
+        }
+        JobInfo jobInfo = jobInfoService.createAsQueued(new JobInfo(false, priority, parameters, authResolver.getUser(),
+                FileCacheRequestJob.class.getName()));
+        workingSubset.getFileRestorationRequests().forEach(r -> {
+            repository.updateStatusAndJobId(FileRequestStatus.PENDING, jobInfo.getId().toString(), r.getId());
+            reservationLedger.reserve(r);
+        });
         em.flush();
         em.clear();
         return jobInfo;
@@ -497,19 +772,74 @@ public class FileCacheRequestService {
      * @return number of cache request created.
      */
     public int makeAvailable(Set<FileReference> fileReferences, OffsetDateTime expirationDate, String groupId) {
+        return makeAvailable(fileReferences, expirationDate, groupId, null, false);
+    }
+
+    /**
+     * Creates {@link FileCacheRequest} for each nearline {@link FileReference} to be available for download.
+     * After copy in cache, files will be available until the given expiration date.
+     * @param fileReferences
+     * @param expirationDate
+     * @param groupId
+     * @param requester user requesting the files, the current user if null
+     * @param interactive true if the user is waiting for the files to download them
+     * @return number of cache request created.
+     */
+    public int makeAvailable(Set<FileReference> fileReferences, OffsetDateTime expirationDate, String groupId,
+            String requester, boolean interactive) {
+        prefetchService.recordAccess(fileReferences);
         // Check files already available in cache
-        Set<FileReference> availables = cacheService.getFilesAvailableInCache(fileReferences, groupId);
+        Set<FileReference> availables = cacheService.getFilesAvailableInCache(fileReferences, expirationDate, groupId);
         Set<FileReference> toRestore = fileReferences.stream().filter(f -> !availables.contains(f))
                 .collect(Collectors.toSet());
+        // Files already restored for an other tenant are linked from the shared cache store
+        Set<FileReference> linked = linkFromSharedStore(toRestore, expirationDate, groupId, requester);
+        toRestore.removeAll(linked);
         // Notify available
         notifyAlreadyAvailablesInCache(availables, groupId);
+        availables.forEach(f -> restorationFlights.complete(f.getMetaInfo().getChecksum(), true));
+        notifyAlreadyAvailablesInCache(linked, groupId);
         // Create a restoration request for all to restore
         for (FileReference f : toRestore) {
-            create(f, expirationDate, groupId);
+            create(f, expirationDate, groupId, requester, interactive);
         }
         return toRestore.size();
     }
 
+    /**
+     * Link the given files into the cache from the {@link SharedCacheStore}, if they are already restored for an other
+     * tenant and if the cache has enough space for them.
+     * @return linked files
+     */
+    private Set<FileReference> linkFromSharedStore(Set<FileReference> fileReferences, OffsetDateTime expirationDate,
+            String groupId, String requester) {
+        Set<FileReference> linked = Sets.newHashSet();
+        if (sharedStore.isEnabled() && !fileReferences.isEmpty()) {
+            long availableSize = reservationLedger.getAvailableSize();
+            for (FileReference f : fileReferences) {
+                String checksum = f.getMetaInfo().getChecksum();
+                Long fileSize = f.getMetaInfo().getFileSize();
+                Path path = Paths.get(cacheService.getFilePath(checksum));
+                if (((fileSize == null) || (fileSize <= availableSize))
+                        && sharedStore.link(checksum, f.getMetaInfo().getAlgorithm(), path)) {
+                    try {
+                        long realFileSize = Files.size(path);
+                        cacheService.addFile(checksum, realFileSize, f.getMetaInfo().getFileName(),
+                                             f.getMetaInfo().getMimeType(), f.getMetaInfo().getType(),
+                                             new URL("file", null, path.toString()), expirationDate, groupId,
+                                             false, getRequester(requester));
+                        availableSize -= realFileSize;
+                        linked.add(f);
+                        restorationFlights.complete(checksum, true);
+                    } catch (IOException e) {
+                        LOGGER.warn("[SHARED CACHE] Linked file {} is not readable : {}", path, e.getMessage());
+                    }
+                }
+            }
+        }
+        return linked;
+    }
+
     /**
      * Update a list of {@link FileCacheRequest}s when the storage origin cannot be handled.
      * A storage origin cannot be handled if <ul>
@@ -532,17 +862,23 @@ public class FileCacheRequestService {
      * @param request
      */
     private void handleStorageNotAvailable(FileCacheRequest request, Optional<String> errorCause) {
+        if (dropPrefetch(request)) {
+            restorationFlights.complete(request.getChecksum(), false);
+            return;
+        }
         // The storage destination is unknown, we can already set the request in error status
         String message = errorCause.orElse(String
                 .format("File <%s> cannot be handle for restoration as origin storage <%s> is unknown or disabled.",
                         request.getFileReference().getMetaInfo().getFileName(), request.getStorage()));
         request.setStatus(FileRequestStatus.ERROR);
         request.setErrorCause(message);
+        request.setReservedSize(null);
         repository.save(request);
         LOGGER.error("[AVAILABILITY ERROR] File {} is not available. Cause : {}",
                      request.getFileReference().getMetaInfo().getChecksum(), request.getErrorCause());
         publisher.notAvailable(request.getChecksum(), request.getStorage(), request.getErrorCause(),
                                request.getGroupId());
+        restorationFlights.complete(request.getChecksum(), false);
         reqGrpService.requestError(request.getGroupId(), FileRequestType.AVAILABILITY, request.getChecksum(),
                                    request.getStorage(), null, request.getFileReference().getOwners(), message);
     }
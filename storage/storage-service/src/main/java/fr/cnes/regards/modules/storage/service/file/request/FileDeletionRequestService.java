@@ -72,6 +72,7 @@ import fr.cnes.regards.modules.storage.service.file.FileReferenceService;
 import fr.cnes.regards.modules.storage.service.file.job.FileDeletionRequestJob;
 import fr.cnes.regards.modules.storage.service.file.job.FileDeletionRequestsCreatorJob;
 import fr.cnes.regards.modules.storage.service.file.job.FileStorageRequestJob;
+import fr.cnes.regards.modules.storage.service.location.StorageLocationConfigurationService;
 import fr.cnes.regards.modules.storage.service.location.StoragePluginConfigurationHandler;
 
 /**
@@ -91,6 +92,9 @@ public class FileDeletionRequestService {
     @Autowired
     private IPluginService pluginService;
 
+    @Autowired
+    private StorageLocationConfigurationService storageLocationConfService;
+
     @Autowired
     private IJobInfoService jobInfoService;
 
@@ -263,7 +267,7 @@ public class FileDeletionRequestService {
         Collection<JobInfo> jobInfoList = Sets.newHashSet();
         try {
 
-            PluginConfiguration conf = pluginService.getPluginConfigurationByLabel(storage);
+            PluginConfiguration conf = storageLocationConfService.getPluginConfiguration(storage);
             IStorageLocation storagePlugin = pluginService.getPlugin(conf.getBusinessId());
 
             PreparationResponse<FileDeletionWorkingSubset, FileDeletionRequest> response = storagePlugin
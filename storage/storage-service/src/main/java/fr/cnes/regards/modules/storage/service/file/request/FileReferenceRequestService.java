@@ -19,6 +19,7 @@
 package fr.cnes.regards.modules.storage.service.file.request;
 
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
@@ -33,7 +34,10 @@ import org.springframework.stereotype.Service;
 import org.springframework.validation.Errors;
 import org.springframework.validation.Validator;
 
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
@@ -42,12 +46,14 @@ import fr.cnes.regards.framework.module.validation.ErrorTranslator;
 import fr.cnes.regards.framework.modules.plugins.domain.PluginConfiguration;
 import fr.cnes.regards.framework.modules.plugins.service.IPluginService;
 import fr.cnes.regards.framework.utils.plugins.exception.NotAvailablePluginConfigurationException;
+import fr.cnes.regards.modules.storage.dao.FileReferenceBulkLoader;
 import fr.cnes.regards.modules.storage.dao.IFileReferenceRepository;
 import fr.cnes.regards.modules.storage.domain.database.FileLocation;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
 import fr.cnes.regards.modules.storage.domain.database.request.FileDeletionRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
+import fr.cnes.regards.modules.storage.domain.database.request.RequestResultInfo;
 import fr.cnes.regards.modules.storage.domain.dto.request.FileReferenceRequestDTO;
 import fr.cnes.regards.modules.storage.domain.event.FileReferenceEvent;
 import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
@@ -68,6 +74,11 @@ public class FileReferenceRequestService {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(FileReferenceRequestService.class);
 
+    /**
+     * Number of file references loaded at once to notify bulk referenced files
+     */
+    private static final int BULK_EVENTS_PAGE_SIZE = 1_000;
+
     @Autowired
     private FileReferenceEventPublisher fileRefEventPublisher;
 
@@ -80,6 +91,9 @@ public class FileReferenceRequestService {
     @Autowired
     private FileReferenceService fileRefService;
 
+    @Autowired
+    private FileReferenceBulkLoader bulkLoader;
+
     @Autowired
     private Validator validator;
 
@@ -93,22 +107,117 @@ public class FileReferenceRequestService {
     private Integer nbDaysBeforeExpiration;
 
     /**
-     * Initialize new reference requests from Flow items.
+     * Enable the bulk reference mode, loading files with PostgreSQL COPY when enough files are referenced at once.
+     */
+    @Value("${regards.storage.reference.bulk.enabled:false}")
+    private boolean bulkEnabled;
+
+    /**
+     * Minimum number of files to reference at once to use the bulk reference mode
+     */
+    @Value("${regards.storage.reference.bulk.threshold:1000}")
+    private int bulkThreshold;
+
+    /**
+     * Number of flow items handled between two flushes of the persistence context.
+     */
+    @Value("${regards.storage.requests.intake.items.per.chunk:10}")
+    private int itemsPerChunk;
+
+    /**
+     * Initialize new reference requests from Flow items.<br/>
+     * Items are handled by chunks. Results of each chunk are saved by JDBC batches, then the persistence context is
+     * cleared, so existing files are searched again for each chunk.
      * @param list
      */
     public void reference(List<ReferenceFlowItem> list) {
-        Set<FileReference> existingOnes = fileRefService.search(list.stream().map(ReferenceFlowItem::getFiles)
-                .flatMap(Set::stream).map(FileReferenceRequestDTO::getChecksum).collect(Collectors.toSet()));
-        Set<FileDeletionRequest> existingDeletionRequests = fileDeletionRequestService.search(existingOnes);
-        for (ReferenceFlowItem item : list) {
-            Errors errors = item.validate(validator);
-            if (errors.hasErrors()) {
-                reqGrpService.denied(item.getGroupId(), FileRequestType.REFERENCE,
-                                     ErrorTranslator.getErrorsAsString(errors));
+        boolean bulk = bulkEnabled && (list.stream().mapToInt(i -> i.getFiles().size()).sum() >= bulkThreshold);
+        Multimap<String, FileReferenceRequestDTO> bulkRequests = ArrayListMultimap.create();
+        for (List<ReferenceFlowItem> chunk : Iterables.partition(list, itemsPerChunk)) {
+            Set<FileReference> existingOnes = fileRefService.search(chunk.stream().map(ReferenceFlowItem::getFiles)
+                    .flatMap(Set::stream).map(FileReferenceRequestDTO::getChecksum).collect(Collectors.toSet()));
+            Set<FileDeletionRequest> existingDeletionRequests = fileDeletionRequestService.search(existingOnes);
+            List<RequestResultInfo> results = new ArrayList<>();
+            for (ReferenceFlowItem item : chunk) {
+                Errors errors = item.validate(validator);
+                if (errors.hasErrors()) {
+                    reqGrpService.denied(item.getGroupId(), FileRequestType.REFERENCE,
+                                         ErrorTranslator.getErrorsAsString(errors));
+                } else {
+                    reqGrpService.granted(item.getGroupId(), FileRequestType.REFERENCE, item.getFiles().size(),
+                                          getRequestExpirationDate());
+                    if (bulk) {
+                        prepareBulkReference(item.getFiles(), item.getGroupId(), existingOnes,
+                                             existingDeletionRequests, bulkRequests, results);
+                    } else {
+                        reference(item.getFiles(), item.getGroupId(), existingOnes, existingDeletionRequests,
+                                  results);
+                    }
+                }
+            }
+            reqGrpService.requestsDoneInBatches(results);
+        }
+        if (!bulkRequests.isEmpty()) {
+            referenceInBulk(bulkRequests);
+        }
+    }
+
+    /**
+     * Dispatch the given requests between the bulk reference mode and the standard one.
+     * Requests on files with a deletion request are handled immediately by the standard mode. Others are added to
+     * the given bulk requests, after validation of their url if the file is not referenced yet.
+     * @param requests
+     * @param groupId
+     * @param existingOnes
+     * @param existingDeletionRequests
+     * @param bulkRequests requests to reference in bulk by group identifier
+     * @param results results of the requests handled by the standard mode, completed by this method
+     */
+    private void prepareBulkReference(Collection<FileReferenceRequestDTO> requests, String groupId,
+            Collection<FileReference> existingOnes, Collection<FileDeletionRequest> existingDeletionRequests,
+            Multimap<String, FileReferenceRequestDTO> bulkRequests, List<RequestResultInfo> results) {
+        Set<FileReferenceRequestDTO> standardRequests = Sets.newHashSet();
+        for (FileReferenceRequestDTO file : requests) {
+            boolean deletionRequested = existingDeletionRequests.stream()
+                    .anyMatch(r -> r.getFileReference().getMetaInfo().getChecksum().equals(file.getChecksum())
+                            && r.getFileReference().getLocation().getStorage().equals(file.getStorage()));
+            boolean alreadyExists = existingOnes.stream()
+                    .anyMatch(f -> f.getMetaInfo().getChecksum().equals(file.getChecksum())
+                            && f.getLocation().getStorage().equals(file.getStorage()));
+            if (deletionRequested) {
+                standardRequests.add(file);
             } else {
-                reqGrpService.granted(item.getGroupId(), FileRequestType.REFERENCE, item.getFiles().size(),
-                                      getRequestExpirationDate());
-                reference(item.getFiles(), item.getGroupId(), existingOnes, existingDeletionRequests);
+                try {
+                    // As in standard mode, url is ignored for existing files where only the new owner is added
+                    if (!alreadyExists) {
+                        validateReferenceUrl(file);
+                    }
+                    bulkRequests.put(groupId, file);
+                } catch (ModuleException e) {
+                    LOGGER.error(e.getMessage(), e);
+                    handleReferenceError(file, groupId, e.getMessage());
+                }
+            }
+        }
+        if (!standardRequests.isEmpty()) {
+            reference(standardRequests, groupId, existingOnes, existingDeletionRequests, results);
+        }
+    }
+
+    /**
+     * Reference all the given requests with the {@link FileReferenceBulkLoader}, then notify listeners for each
+     * referenced file.<br/>
+     * <b>Note :</b> The persistence context is cleared by the bulk load.
+     * @param bulkRequests requests to reference by group identifier
+     */
+    private void referenceInBulk(Multimap<String, FileReferenceRequestDTO> bulkRequests) {
+        Multimap<Long, String> groupsByFileRef = bulkLoader.reference(bulkRequests);
+        for (List<Long> ids : Iterables.partition(groupsByFileRef.keySet(), BULK_EVENTS_PAGE_SIZE)) {
+            for (FileReference fileRef : fileRefService.searchByIds(ids)) {
+                String message = String.format("File <%s> referenced at <%s> (checksum: %s)",
+                                               fileRef.getMetaInfo().getFileName(), fileRef.getLocation().toString(),
+                                               fileRef.getMetaInfo().getChecksum());
+                fileRefEventPublisher.storeSuccess(fileRef, message, groupsByFileRef.get(fileRef.getId()));
             }
         }
     }
@@ -120,10 +229,12 @@ public class FileReferenceRequestService {
     * @param groupId
     * @param existingOnes
     * @param existingDeletionRequests
+    * @param results requests results to save, completed by this method
     * @return referenced files
     */
     private Collection<FileReference> reference(Collection<FileReferenceRequestDTO> requests, String groupId,
-            Collection<FileReference> existingOnes, Collection<FileDeletionRequest> existingDeletionRequests) {
+            Collection<FileReference> existingOnes, Collection<FileDeletionRequest> existingDeletionRequests,
+            List<RequestResultInfo> results) {
         Set<FileReference> fileRefs = Sets.newHashSet();
         for (FileReferenceRequestDTO file : requests) {
             long start = System.currentTimeMillis();
@@ -138,17 +249,16 @@ public class FileReferenceRequestService {
                     .findFirst();
             try {
                 FileReference fileRef = reference(file, oFileRef, oFileDeletionReq, Sets.newHashSet(groupId));
-                reqGrpService.requestSuccess(groupId, FileRequestType.REFERENCE, fileRef.getMetaInfo().getChecksum(),
-                                             fileRef.getLocation().getStorage(), null, fileRef.getOwners(), fileRef);
+                results.add(reqGrpService.buildRequestSuccess(groupId, FileRequestType.REFERENCE,
+                                                              fileRef.getMetaInfo().getChecksum(),
+                                                              fileRef.getLocation().getStorage(), null,
+                                                              fileRef.getOwners(), fileRef));
                 fileRefs.add(fileRef);
                 // Add newly created fileRef to existing file refs in case of the requests contains multiple time the same file to reference
                 existingOnes.add(fileRef);
             } catch (ModuleException e) {
                 LOGGER.error(e.getMessage(), e);
-                fileRefEventPublisher.storeError(file.getChecksum(), Sets.newHashSet(file.getOwner()),
-                                                 file.getStorage(), e.getMessage(), Sets.newHashSet(groupId));
-                reqGrpService.requestError(groupId, FileRequestType.REFERENCE, file.getChecksum(), file.getStorage(),
-                                           null, Sets.newHashSet(file.getOwner()), e.getMessage());
+                handleReferenceError(file, groupId, e.getMessage());
             } finally {
                 LOGGER.trace("[REFERENCE REQUEST] New reference request ({}) handled in {}ms", file.getFileName(),
                              System.currentTimeMillis() - start);
@@ -157,6 +267,13 @@ public class FileReferenceRequestService {
         return fileRefs;
     }
 
+    private void handleReferenceError(FileReferenceRequestDTO file, String groupId, String errorCause) {
+        fileRefEventPublisher.storeError(file.getChecksum(), Sets.newHashSet(file.getOwner()), file.getStorage(),
+                                         errorCause, Sets.newHashSet(groupId));
+        reqGrpService.requestError(groupId, FileRequestType.REFERENCE, file.getChecksum(), file.getStorage(), null,
+                                   Sets.newHashSet(file.getOwner()), errorCause);
+    }
+
     /**
      * Reference a new file. No file movement is made here. File is only referenced.
      * @param owner Owner of the new {@link FileReference}
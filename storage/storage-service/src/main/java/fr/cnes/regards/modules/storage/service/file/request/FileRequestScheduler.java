@@ -40,6 +40,7 @@ import fr.cnes.regards.modules.storage.domain.database.request.FileCopyRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileDeletionRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
 import fr.cnes.regards.modules.storage.domain.database.request.FileStorageRequest;
+import fr.cnes.regards.modules.storage.service.cache.CachePrefetchService;
 import net.javacrumbs.shedlock.core.LockAssert;
 import net.javacrumbs.shedlock.core.LockConfiguration;
 import net.javacrumbs.shedlock.core.LockingTaskExecutor.Task;
@@ -69,8 +70,16 @@ public class FileRequestScheduler extends AbstractTaskScheduler {
 
     private static final String STORAGE_ACTIONS = "STORAGE REQUESTS ACTIONS";
 
+    private static final String RESULT_PARTITIONS_LOCK = "storage-request-results-partitions";
+
+    private static final String RESULT_PARTITIONS_TITLE = "Storage request results partitions maintenance";
+
+    private static final String RESULT_PARTITIONS_ACTIONS = "STORAGE REQUEST RESULTS PARTITIONS ACTIONS";
+
     private static final String DEFAULT_INITIAL_DELAY = "30000";
 
+    private static final String DEFAULT_PARTITIONS_DELAY = "3600000";
+
     private static final String DEFAULT_SCHEDULING_DELAY = "1000";
 
     @Autowired
@@ -91,6 +100,9 @@ public class FileRequestScheduler extends AbstractTaskScheduler {
     @Autowired
     private FileCopyRequestService fileCopyRequestService;
 
+    @Autowired
+    private CachePrefetchService prefetchService;
+
     @Autowired
     private RequestsGroupService reqGrpService;
 
@@ -109,6 +121,11 @@ public class FileRequestScheduler extends AbstractTaskScheduler {
         handleFileCopyRequests();
     };
 
+    private final Task maintainResultPartitionsTask = () -> {
+        LockAssert.assertLocked();
+        reqGrpService.maintainRequestResultPartitions();
+    };
+
     public void handleFileStorageRequests() throws ModuleException {
         reqStatusService.checkDelayedStorageRequests();
         fileStorageRequestService.scheduleJobs(FileRequestStatus.TO_DO, Sets.newHashSet(), Sets.newHashSet());
@@ -116,6 +133,7 @@ public class FileRequestScheduler extends AbstractTaskScheduler {
 
     public void handleFileCacheRequests() throws ModuleException {
         reqStatusService.checkDelayedCacheRequests();
+        prefetchService.schedulePrefetch();
         fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
     }
 
@@ -151,6 +169,24 @@ public class FileRequestScheduler extends AbstractTaskScheduler {
         }
     }
 
+    @Scheduled(initialDelayString = "${regards.storage.schedule.initial.delay:" + DEFAULT_INITIAL_DELAY + "}",
+            fixedDelayString = "${regards.storage.groups.results.partitions.delay:" + DEFAULT_PARTITIONS_DELAY + "}")
+    public void scheduleRequestResultPartitions() {
+        for (String tenant : tenantResolver.getAllActiveTenants()) {
+            try {
+                runtimeTenantResolver.forceTenant(tenant);
+                traceScheduling(tenant, RESULT_PARTITIONS_ACTIONS);
+                lockingTaskExecutors.executeWithLock(maintainResultPartitionsTask,
+                                                     new LockConfiguration(RESULT_PARTITIONS_LOCK,
+                                                             Instant.now().plusSeconds(300)));
+            } catch (Throwable e) {
+                handleSchedulingError(RESULT_PARTITIONS_ACTIONS, RESULT_PARTITIONS_TITLE, e);
+            } finally {
+                runtimeTenantResolver.clearTenant();
+            }
+        }
+    }
+
     @Override
     protected Logger getLogger() {
         return LOGGER;
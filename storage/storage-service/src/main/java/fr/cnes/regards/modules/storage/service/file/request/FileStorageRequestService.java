@@ -21,6 +21,7 @@ package fr.cnes.regards.modules.storage.service.file.request;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.time.OffsetDateTime;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Comparator;
 import java.util.List;
@@ -28,6 +29,7 @@ import java.util.Map.Entry;
 import java.util.Optional;
 import java.util.Set;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +44,7 @@ import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Propagation;
 import org.springframework.transaction.annotation.Transactional;
 
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
@@ -63,6 +66,7 @@ import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
 import fr.cnes.regards.modules.storage.domain.database.request.FileDeletionRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
 import fr.cnes.regards.modules.storage.domain.database.request.FileStorageRequest;
+import fr.cnes.regards.modules.storage.domain.database.request.RequestResultInfo;
 import fr.cnes.regards.modules.storage.domain.dto.request.FileStorageRequestDTO;
 import fr.cnes.regards.modules.storage.domain.dto.request.FileStorageRequestResultDTO;
 import fr.cnes.regards.modules.storage.domain.event.FileRequestType;
@@ -74,6 +78,7 @@ import fr.cnes.regards.modules.storage.service.JobsPriority;
 import fr.cnes.regards.modules.storage.service.file.FileReferenceEventPublisher;
 import fr.cnes.regards.modules.storage.service.file.FileReferenceService;
 import fr.cnes.regards.modules.storage.service.file.job.FileStorageRequestJob;
+import fr.cnes.regards.modules.storage.service.location.StorageLocationConfigurationService;
 import fr.cnes.regards.modules.storage.service.location.StoragePluginConfigurationHandler;
 
 /**
@@ -91,6 +96,9 @@ public class FileStorageRequestService {
     @Autowired
     private IPluginService pluginService;
 
+    @Autowired
+    private StorageLocationConfigurationService storageLocationConfService;
+
     @Autowired
     private IFileStorageRequestRepository fileStorageRequestRepo;
 
@@ -131,19 +139,34 @@ public class FileStorageRequestService {
     private Integer nbRequestsPerJob;
 
     /**
-     * Initialize new storage requests from Flow items.
+     * Number of flow items handled between two flushes of the persistence context.
+     */
+    @Value("${regards.storage.requests.intake.items.per.chunk:10}")
+    private int itemsPerChunk;
+
+    /**
+     * Initialize new storage requests from Flow items.<br/>
+     * Items are handled by chunks. New requests and results of each chunk are saved by JDBC batches, then the
+     * persistence context is cleared, so existing files and requests are searched again for each chunk.
      * @param list
      */
     public void store(List<StorageFlowItem> list) {
-        Set<String> checksums = list.stream().map(StorageFlowItem::getFiles).flatMap(Set::stream)
-                .map(FileStorageRequestDTO::getChecksum).collect(Collectors.toSet());
-        Set<FileReference> existingOnes = fileRefService.search(checksums);
-        Set<FileStorageRequest> existingRequests = fileStorageRequestRepo.findByMetaInfoChecksumIn(checksums);
-        Set<FileDeletionRequest> existingDeletionRequests = fileDelReqService.searchByChecksums(checksums);
-        for (StorageFlowItem item : list) {
-            doStore(item.getFiles(), item.getGroupId(), existingOnes, existingRequests, existingDeletionRequests);
-            reqGroupService.granted(item.getGroupId(), FileRequestType.STORAGE, item.getFiles().size(),
-                                    getRequestExpirationDate());
+        for (List<StorageFlowItem> chunk : Iterables.partition(list, itemsPerChunk)) {
+            Set<String> checksums = chunk.stream().map(StorageFlowItem::getFiles).flatMap(Set::stream)
+                    .map(FileStorageRequestDTO::getChecksum).collect(Collectors.toSet());
+            Set<FileReference> existingOnes = fileRefService.search(checksums);
+            Set<FileStorageRequest> existingRequests = fileStorageRequestRepo.findByMetaInfoChecksumIn(checksums);
+            Set<FileDeletionRequest> existingDeletionRequests = fileDelReqService.searchByChecksums(checksums);
+            List<FileStorageRequest> newRequests = new ArrayList<>();
+            List<RequestResultInfo> results = new ArrayList<>();
+            for (StorageFlowItem item : chunk) {
+                doStore(item.getFiles(), item.getGroupId(), existingOnes, existingRequests, existingDeletionRequests,
+                        newRequests, results);
+                reqGroupService.granted(item.getGroupId(), FileRequestType.STORAGE, item.getFiles().size(),
+                                        getRequestExpirationDate());
+            }
+            fileStorageRequestRepo.saveAllInBatches(newRequests);
+            reqGroupService.requestsDoneInBatches(results);
         }
     }
 
@@ -154,10 +177,13 @@ public class FileStorageRequestService {
      * @param groupId
      * @param existingOnes
      * @param existingRequests
+     * @param newRequests new requests to save, completed by this method
+     * @param results requests results to save, completed by this method
      */
     private void doStore(Collection<FileStorageRequestDTO> requests, String groupId,
             Collection<FileReference> existingOnes, Set<FileStorageRequest> existingRequests,
-            Set<FileDeletionRequest> existingDeletionRequests) {
+            Set<FileDeletionRequest> existingDeletionRequests, List<FileStorageRequest> newRequests,
+            List<RequestResultInfo> results) {
         // Retrieve already existing ones by checksum only to improve performance. The associated storage location is checked later
         LOGGER.trace("[STORAGE REQUESTS] Handling {} requests ...", requests.size());
         for (FileStorageRequestDTO request : requests) {
@@ -167,22 +193,25 @@ public class FileStorageRequestService {
                     .filter(f -> f.getMetaInfo().getChecksum().equals(request.getChecksum())
                             && f.getLocation().getStorage().equals(request.getStorage()))
                     .findFirst();
-            Optional<FileStorageRequest> oReq = existingRequests.stream().filter(f -> f.getMetaInfo().getChecksum()
-                    .equals(request.getChecksum()) && f.getStorage().equals(request.getStorage())
-                    && ((f.getStatus() == FileRequestStatus.TO_DO) || (f.getStatus() == FileRequestStatus.ERROR)))
+            // New requests are not saved yet, so they are kept apart from the existing ones compared by identifier
+            Optional<FileStorageRequest> oReq = Stream.concat(existingRequests.stream(), newRequests.stream())
+                    .filter(f -> f.getMetaInfo().getChecksum().equals(request.getChecksum())
+                            && f.getStorage().equals(request.getStorage())
+                            && ((f.getStatus() == FileRequestStatus.TO_DO)
+                                    || (f.getStatus() == FileRequestStatus.ERROR)))
                     .findFirst();
             Optional<FileDeletionRequest> oDelReq = existingDeletionRequests.stream()
                     .filter(f -> f.getFileReference().getMetaInfo().getChecksum().equals(request.getChecksum())
                             && f.getStorage().equals(request.getStorage())
                             && f.getStatus().equals(FileRequestStatus.TO_DO))
                     .findFirst();
-            RequestResult result = handleRequest(request, oFileRef, oReq, oDelReq, groupId);
+            RequestResult result = handleRequest(request, oFileRef, oReq, oDelReq, groupId, newRequests, results);
             if (result.getFileReference().isPresent()) {
                 // Update file reference in the list of file references existing
                 existingOnes.removeIf(f -> f.getId().equals(result.getFileReference().get().getId()));
                 existingOnes.add(result.getFileReference().get());
             }
-            if (result.getStorageRequest().isPresent()) {
+            if (result.getStorageRequest().isPresent() && (result.getStorageRequest().get().getId() != null)) {
                 // Update file reference in the list of file references existing
                 existingRequests.removeIf(f -> f.getId().equals(result.getStorageRequest().get().getId()));
                 existingRequests.add(result.getStorageRequest().get());
@@ -211,7 +240,13 @@ public class FileStorageRequestService {
                 .build(metaInfo.getFileName(), metaInfo.getChecksum(), metaInfo.getAlgorithm(),
                        metaInfo.getMimeType().toString(), owner, originUrl, storage, subDirectory);
         request.withType(metaInfo.getType());
-        return handleRequest(request, oFileRef, oReq, oDeletionReq, groupId).getFileReference();
+        List<FileStorageRequest> newRequests = new ArrayList<>();
+        List<RequestResultInfo> results = new ArrayList<>();
+        Optional<FileReference> fileRef = handleRequest(request, oFileRef, oReq, oDeletionReq, groupId, newRequests,
+                                                        results).getFileReference();
+        fileStorageRequestRepo.saveAll(newRequests);
+        reqGroupService.requestsDone(results);
+        return fileRef;
     }
 
     /**
@@ -259,9 +294,11 @@ public class FileStorageRequestService {
      * @throws MalformedURLException
      */
     private RequestResult handleRequest(FileStorageRequestDTO request, Optional<FileReference> fileRef,
-            Optional<FileStorageRequest> oReq, Optional<FileDeletionRequest> oDeletionReq, String groupId) {
+            Optional<FileStorageRequest> oReq, Optional<FileDeletionRequest> oDeletionReq, String groupId,
+            List<FileStorageRequest> newRequests, List<RequestResultInfo> results) {
         if (fileRef.isPresent()) {
-            return handleFileToStoreAlreadyExists(fileRef.get(), request, oDeletionReq, groupId);
+            return handleFileToStoreAlreadyExists(fileRef.get(), request, oDeletionReq, groupId, newRequests,
+                                                  results);
         } else if (oReq.isPresent()) {
             FileStorageRequest existingReq = oReq.get();
             existingReq.update(request, groupId);
@@ -286,9 +323,10 @@ public class FileStorageRequestService {
                 cause = Optional.of(errorMessage);
             }
             return RequestResult
-                    .build(createNewFileStorageRequest(Sets.newHashSet(request.getOwner()), request.buildMetaInfo(),
-                                                       request.getOriginUrl(), request.getStorage(),
-                                                       request.getOptionalSubDirectory(), groupId, cause, status));
+                    .build(initNewFileStorageRequest(Sets.newHashSet(request.getOwner()), request.buildMetaInfo(),
+                                                     request.getOriginUrl(), request.getStorage(),
+                                                     request.getOptionalSubDirectory(), groupId, cause, status,
+                                                     newRequests));
         }
     }
 
@@ -458,7 +496,7 @@ public class FileStorageRequestService {
         Collection<FileStorageRequest> remainingRequests = Sets.newHashSet();
         remainingRequests.addAll(fileStorageRequests);
         try {
-            PluginConfiguration conf = pluginService.getPluginConfigurationByLabel(storage);
+            PluginConfiguration conf = storageLocationConfService.getPluginConfiguration(storage);
             IStorageLocation storagePlugin = pluginService.getPlugin(conf.getBusinessId());
             PreparationResponse<FileStorageWorkingSubset, FileStorageRequest> response = storagePlugin
                     .prepareForStorage(fileStorageRequests);
@@ -516,6 +554,22 @@ public class FileStorageRequestService {
     public FileStorageRequest createNewFileStorageRequest(Collection<String> owners, FileReferenceMetaInfo fileMetaInfo,
             String originUrl, String storage, Optional<String> storageSubDirectory, String groupId,
             Optional<String> errorCause, Optional<FileRequestStatus> status) {
+        List<FileStorageRequest> newRequests = new ArrayList<>();
+        FileStorageRequest fileStorageRequest = initNewFileStorageRequest(owners, fileMetaInfo, originUrl, storage,
+                                                                          storageSubDirectory, groupId, errorCause,
+                                                                          status, newRequests);
+        fileStorageRequestRepo.saveAll(newRequests);
+        return fileStorageRequest;
+    }
+
+    /**
+     * Initialize a new {@link FileStorageRequest}. If the storage destination is available, the new request is added
+     * to the given new requests to save, else it is saved in error status.
+     */
+    private FileStorageRequest initNewFileStorageRequest(Collection<String> owners,
+            FileReferenceMetaInfo fileMetaInfo, String originUrl, String storage, Optional<String> storageSubDirectory,
+            String groupId, Optional<String> errorCause, Optional<FileRequestStatus> status,
+            List<FileStorageRequest> newRequests) {
         long start = System.currentTimeMillis();
         FileStorageRequest fileStorageRequest = new FileStorageRequest(owners, fileMetaInfo, originUrl, storage,
                 storageSubDirectory, groupId);
@@ -525,7 +579,7 @@ public class FileStorageRequestService {
             // The storage destination is unknown, we can already set the request in error status
             handleStorageNotAvailable(fileStorageRequest, Optional.empty());
         } else {
-            fileStorageRequestRepo.save(fileStorageRequest);
+            newRequests.add(fileStorageRequest);
             LOGGER.trace("[STORAGE REQUESTS] New file storage request created for file <{}> to store to {} with status {} in {}ms",
                          fileStorageRequest.getMetaInfo().getFileName(), fileStorageRequest.getStorage(),
                          fileStorageRequest.getStatus(), System.currentTimeMillis() - start);
@@ -656,15 +710,16 @@ public class FileStorageRequestService {
      * @return {@link FileReference} updated or null.
      */
     private RequestResult handleFileToStoreAlreadyExists(FileReference fileReference, FileStorageRequestDTO request,
-            Optional<FileDeletionRequest> oDeletionRequest, String groupId) {
+            Optional<FileDeletionRequest> oDeletionRequest, String groupId, List<FileStorageRequest> newRequests,
+            List<RequestResultInfo> results) {
         long start = System.currentTimeMillis();
         FileReferenceMetaInfo newMetaInfo = request.buildMetaInfo();
         if (oDeletionRequest.isPresent()) {
             // Deletion is running write now, so delay the new file reference creation with a FileReferenceRequest
-            return RequestResult.build(createNewFileStorageRequest(Sets.newHashSet(request.getOwner()), newMetaInfo,
-                                                                   request.getOriginUrl(), request.getStorage(),
-                                                                   request.getOptionalSubDirectory(), groupId,
-                                                                   Optional.empty(), Optional.empty()));
+            return RequestResult.build(initNewFileStorageRequest(Sets.newHashSet(request.getOwner()), newMetaInfo,
+                                                                 request.getOriginUrl(), request.getStorage(),
+                                                                 request.getOptionalSubDirectory(), groupId,
+                                                                 Optional.empty(), Optional.empty(), newRequests));
         } else {
             String message = String
                     .format("New owner <%s> added to existing referenced file <%s> at <%s> (checksum: %s) ",
@@ -672,9 +727,10 @@ public class FileStorageRequestService {
                             fileReference.getLocation().toString(), fileReference.getMetaInfo().getChecksum());
             eventPublisher.storeSuccess(fileReference, message, Sets.newHashSet(groupId));
             fileReference.getOwners().add(request.getOwner());
-            reqGroupService.requestSuccess(groupId, FileRequestType.STORAGE, request.getChecksum(),
-                                           request.getStorage(), request.getOptionalSubDirectory().orElse(null),
-                                           Sets.newHashSet(request.getOwner()), fileReference);
+            results.add(reqGroupService.buildRequestSuccess(groupId, FileRequestType.STORAGE, request.getChecksum(),
+                                                            request.getStorage(),
+                                                            request.getOptionalSubDirectory().orElse(null),
+                                                            Sets.newHashSet(request.getOwner()), fileReference));
             LOGGER.trace("[STORAGE REQUESTS] Storage request {} succeded for existing reference {} in {}ms.",
                          request.getFileName(), fileReference.getId(), System.currentTimeMillis() - start);
             return RequestResult.build(fileReference);
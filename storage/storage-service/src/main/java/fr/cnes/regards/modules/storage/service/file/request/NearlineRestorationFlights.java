@@ -0,0 +1,280 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.request;
+
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
+
+/**
+ * In-process single-flight of nearline files restorations, keyed by tenant and checksum.<br/>
+ * The first demand of a file not in cache starts the restoration (creation of its {@link FileCacheRequest}) with a new
+ * group id. Concurrent demands of the same file attach to this in-flight restoration without any database access, and
+ * all of them are notified together, through {@link Flight#getResult()}, when the restoration ends. Waiters that can
+ * give up before the end of the restoration use their own {@link Flight#listen()} result instead, so that nothing is
+ * left attached to the flight when they give up.<br/>
+ * A flight started in a transaction that is rolled back is removed and completed exceptionally, as its restoration
+ * request does not exist.<br/>
+ * Restorations ended by another instance of the microservice are not notified, so flights expire after
+ * regards.storage.nearline.restoration.flight.ttl seconds : the next demand starts a new one, and expired flights are
+ * evicted.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class NearlineRestorationFlights {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NearlineRestorationFlights.class);
+
+    private static final long EVICTION_PERIOD_MS = 60_000L;
+
+    @Value("${regards.storage.nearline.restoration.flight.ttl:3600}")
+    private long flightTtlSeconds;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Time of the last eviction of the expired flights
+     */
+    private final AtomicLong lastEviction = new AtomicLong(System.currentTimeMillis());
+
+    /**
+     * Attach to the in-flight restoration of the given file, or start a new one if there is none.
+     * @param checksum checksum of the file to restore
+     * @param restoration restoration to run with the group id of the new flight
+     * @return {@link Flight}
+     */
+    public Flight join(String checksum, Consumer<String> restoration) {
+        String key = getKey(checksum);
+        long now = System.currentTimeMillis();
+        evictExpired(now);
+        Flight newFlight = new Flight(UUID.randomUUID().toString(), now);
+        Flight flight = flights.compute(key, (k, current) -> {
+            if ((current == null) || current.getResult().isDone() || isExpired(current, now)) {
+                return newFlight;
+            }
+            current.waiters.incrementAndGet();
+            return current;
+        });
+        if (flight == newFlight) {
+            try {
+                restoration.accept(flight.getGroupId());
+            } catch (RuntimeException e) {
+                flights.remove(key, flight);
+                flight.complete(false);
+                throw e;
+            }
+            if (TransactionSynchronizationManager.isSynchronizationActive()) {
+                TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                    @Override
+                    public void afterCompletion(int status) {
+                        if (status != STATUS_COMMITTED) {
+                            abort(key, checksum, flight);
+                        }
+                    }
+                });
+            }
+        } else {
+            LOGGER.debug("[SINGLE FLIGHT] Restoration of file {} already in progress ({} waiters)", checksum,
+                         flight.getWaiters());
+        }
+        return flight;
+    }
+
+    /**
+     * Notify all the waiters of the in-flight restoration of the given file, once the current transaction, if any, is
+     * committed.
+     * @param checksum checksum of the restored file
+     * @param available true if the file is available in cache, false if the restoration failed
+     */
+    public void complete(String checksum, boolean available) {
+        String key = getKey(checksum);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCommit() {
+                    complete(key, checksum, available);
+                }
+            });
+        } else {
+            complete(key, checksum, available);
+        }
+    }
+
+    private void complete(String key, String checksum, boolean available) {
+        Flight flight = flights.remove(key);
+        if (flight != null) {
+            LOGGER.debug("[SINGLE FLIGHT] Restoration of file {} ended (available={}). {} waiters notified", checksum,
+                         available, flight.getWaiters());
+            flight.complete(available);
+        }
+    }
+
+    /**
+     * Remove a flight whose restoration request has not been committed
+     */
+    private void abort(String key, String checksum, Flight flight) {
+        if (flights.remove(key, flight)) {
+            LOGGER.debug("[SINGLE FLIGHT] Restoration of file {} rolled back. {} waiters notified", checksum,
+                         flight.getWaiters());
+        }
+        flight.fail(new IllegalStateException(
+                String.format("Restoration request of file %s has been rolled back", checksum)));
+    }
+
+    /**
+     * Evict the expired flights, at most once per minute.<br/>
+     * Their waiters are notified that the file is not available, as its restoration has not ended on this instance.
+     * @param now current time
+     */
+    private void evictExpired(long now) {
+        long last = lastEviction.get();
+        if (((now - last) > EVICTION_PERIOD_MS) && lastEviction.compareAndSet(last, now)) {
+            flights.forEach((key, flight) -> {
+                if (isExpired(flight, now) && flights.remove(key, flight)) {
+                    flight.complete(false);
+                }
+            });
+        }
+    }
+
+    private boolean isExpired(Flight flight, long now) {
+        return (now - flight.startTime) > (flightTtlSeconds * 1000);
+    }
+
+    /**
+     * @param checksum file checksum
+     * @return in-flight restoration of the given file, null if none
+     */
+    public Flight get(String checksum) {
+        return flights.get(getKey(checksum));
+    }
+
+    private String getKey(String checksum) {
+        return runtimeTenantResolver.getTenant() + ":" + checksum;
+    }
+
+    /**
+     * In-flight restoration of a file
+     */
+    public static class Flight {
+
+        private final String groupId;
+
+        private final long startTime;
+
+        private final AtomicInteger waiters = new AtomicInteger(1);
+
+        private final CompletableFuture<Boolean> result = new CompletableFuture<>();
+
+        /**
+         * Results of the waiters that can give up, see {@link #listen()}
+         */
+        private final Set<CompletableFuture<Boolean>> listeners = ConcurrentHashMap.newKeySet();
+
+        private Flight(String groupId, long startTime) {
+            this.groupId = groupId;
+            this.startTime = startTime;
+        }
+
+        /**
+         * @return group id of the restoration request
+         */
+        public String getGroupId() {
+            return groupId;
+        }
+
+        /**
+         * @return number of demands attached to this restoration
+         */
+        public int getWaiters() {
+            return waiters.get();
+        }
+
+        /**
+         * @return result of the restoration, true if the file is available in cache
+         */
+        public CompletableFuture<Boolean> getResult() {
+            return result;
+        }
+
+        /**
+         * Listen to the result of the restoration. The returned result is removed from the flight as soon as it is
+         * completed, so the waiter gives up by cancelling it.
+         * @return result of the restoration for one waiter, true if the file is available in cache
+         */
+        public CompletableFuture<Boolean> listen() {
+            CompletableFuture<Boolean> listener = new CompletableFuture<>();
+            listeners.add(listener);
+            listener.whenComplete((available, error) -> listeners.remove(listener));
+            if (result.isDone()) {
+                notifyListeners();
+            }
+            return listener;
+        }
+
+        private void complete(boolean available) {
+            result.complete(available);
+            notifyListeners();
+        }
+
+        private void fail(Throwable error) {
+            result.completeExceptionally(error);
+            notifyListeners();
+        }
+
+        /**
+         * Propagate the result of the ended restoration to the listeners. As the result is done, nothing is attached
+         * to it.
+         */
+        private void notifyListeners() {
+            for (CompletableFuture<Boolean> listener : listeners) {
+                result.whenComplete((available, error) -> {
+                    if (error != null) {
+                        listener.completeExceptionally(error);
+                    } else {
+                        listener.complete(available);
+                    }
+                });
+            }
+        }
+    }
+
+}
@@ -18,7 +18,9 @@
  */
 package fr.cnes.regards.modules.storage.service.file.request;
 
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -35,16 +37,22 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.data.domain.Pageable;
 import org.springframework.data.domain.Sort.Direction;
+import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
 
 import fr.cnes.regards.framework.amqp.IPublisher;
+import fr.cnes.regards.framework.jpa.multitenant.event.spring.TenantConnectionReady;
 import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
 import fr.cnes.regards.modules.storage.dao.IFileCacheRequestRepository;
 import fr.cnes.regards.modules.storage.dao.IFileCopyRequestRepository;
 import fr.cnes.regards.modules.storage.dao.IFileDeletetionRequestRepository;
 import fr.cnes.regards.modules.storage.dao.IFileStorageRequestRepository;
 import fr.cnes.regards.modules.storage.dao.IGroupRequestInfoRepository;
 import fr.cnes.regards.modules.storage.dao.IRequestGroupRepository;
+import fr.cnes.regards.modules.storage.dao.RequestResultInfoPartitions;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
 import fr.cnes.regards.modules.storage.domain.database.request.RequestGroup;
@@ -104,6 +112,18 @@ public class RequestsGroupService {
     @Autowired
     private IRequestGroupRepository reqGroupRepository;
 
+    @Autowired
+    private RequestResultInfoPartitions resultPartitions;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    /**
+     * Number of daily partitions of request results created in advance
+     */
+    @Value("${regards.storage.groups.results.partitions.ahead:7}")
+    private int nbResultPartitionsAhead;
+
     /**
      * Handle new request success for the given groupId.<br>
      *
@@ -231,8 +251,8 @@ public class RequestsGroupService {
                 groupDone(group,
                           infos.stream().filter(i -> i.getGroupId().equals(group.getId())).collect(Collectors.toSet()));
             }
-            groupReqInfoRepository
-                    .deleteByGroupIdIn(groupDones.stream().map(RequestGroup::getId).collect(Collectors.toSet()));
+            // Results of terminated groups are not deleted here. They are purged with their partitions.
+            // See maintainRequestResultPartitions.
             reqGroupRepository.deleteAll(groupDones);
             LOGGER.info(message, System.currentTimeMillis() - start, groupDones.size(), response.getTotalElements());
         } else {
@@ -358,6 +378,51 @@ public class RequestsGroupService {
         }
     }
 
+    /**
+     * Delete the results of the given group if the group is terminated. To be used before retrying requests of a group,
+     * as results of terminated groups are kept until their partitions are purged.
+     * @param groupId
+     */
+    public void deleteTerminatedGroupResults(String groupId) {
+        if (!reqGroupRepository.existsById(groupId)) {
+            groupReqInfoRepository.deleteByGroupId(groupId);
+        }
+    }
+
+    /**
+     * Create the next daily partitions of the {@link RequestResultInfo}s and drop the ones older than yesterday.<br/>
+     * Results of pending groups are kept as they are moved out of the dropped partitions.<br/>
+     * Not transactional, so that partitions are created and dropped in their own short transactions, and the locks
+     * they take on the results table are released as soon as possible.
+     */
+    @MultitenantTransactional(propagation = Propagation.NOT_SUPPORTED)
+    public void maintainRequestResultPartitions() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        resultPartitions.createPartitions(today, today.plusDays(nbResultPartitionsAhead));
+        resultPartitions.dropPartitionsBefore(today.minusDays(1));
+    }
+
+    /**
+     * Create the partitions of the {@link RequestResultInfo}s for today and tomorrow when the tenant connection is
+     * ready, so that results are not all sent to the default partition when the storage scheduler is disabled.
+     * @param event {@link TenantConnectionReady}
+     */
+    @Transactional(propagation = Propagation.SUPPORTS)
+    @EventListener
+    public void processEvent(TenantConnectionReady event) {
+        try {
+            runtimeTenantResolver.forceTenant(event.getTenant());
+            LocalDate today = LocalDate.now(ZoneOffset.UTC);
+            resultPartitions.createPartitions(today, today.plusDays(1));
+        } catch (Exception e) {
+            LOGGER.error(String.format("[REQUEST RESULTS] Error creating request results partitions of tenant %s",
+                                       event.getTenant()),
+                         e);
+        } finally {
+            runtimeTenantResolver.clearTenant();
+        }
+    }
+
     public void deleteRequestInfoForFile(Long fileId) {
         groupReqInfoRepository.deleteByResultFileId(fileId);
     }
@@ -376,11 +441,44 @@ public class RequestsGroupService {
      */
     private void requestDone(String groupId, FileRequestType type, String checksum, String storage, String storePath,
             Collection<String> owners, FileReference fileRef, boolean error, String errorCause) {
+        groupReqInfoRepository
+                .save(buildResult(groupId, type, checksum, storage, storePath, owners, fileRef, error, errorCause));
+    }
+
+    /**
+     * Build the result of a request terminated with success for the given groupId, without saving it.<br/>
+     * Used by mass intake flows to save their results at once with {@link #requestsDoneInBatches(Collection)}.
+     */
+    public RequestResultInfo buildRequestSuccess(String groupId, FileRequestType type, String checksum,
+            String storage, String storePath, Collection<String> owners, FileReference fileRef) {
+        return buildResult(groupId, type, checksum, storage, storePath, owners, fileRef, false, null);
+    }
+
+    /**
+     * Save the given built requests results.
+     * @param results
+     */
+    public void requestsDone(Collection<RequestResultInfo> results) {
+        groupReqInfoRepository.saveAll(results);
+    }
+
+    /**
+     * Save the given built requests results by JDBC batches.<br/>
+     * <b>Note :</b> The persistence context is flushed and cleared every batch. Entities previously loaded in the
+     * current transaction are detached.
+     * @param results
+     */
+    public void requestsDoneInBatches(Collection<RequestResultInfo> results) {
+        groupReqInfoRepository.saveAllInBatches(results);
+    }
+
+    private RequestResultInfo buildResult(String groupId, FileRequestType type, String checksum, String storage,
+            String storePath, Collection<String> owners, FileReference fileRef, boolean error, String errorCause) {
         RequestResultInfo gInfo = new RequestResultInfo(groupId, type, checksum, storage, storePath, owners);
         gInfo.setResultFile(fileRef);
         gInfo.setError(error);
         gInfo.setErrorCause(errorCause);
-        groupReqInfoRepository.save(gInfo);
+        return gInfo;
     }
 
     /**
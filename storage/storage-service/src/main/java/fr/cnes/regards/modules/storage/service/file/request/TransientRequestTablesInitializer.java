@@ -0,0 +1,77 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.request;
+
+import java.time.Instant;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+
+import fr.cnes.regards.framework.jpa.multitenant.event.spring.TenantConnectionReady;
+import fr.cnes.regards.framework.jpa.multitenant.lock.LockingTaskExecutors;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import net.javacrumbs.shedlock.core.LockConfiguration;
+
+/**
+ * Initialize the transient request tables of each tenant when its connection is ready.<br/>
+ * Initialization is run under a lock so that only one instance of the microservice rebuilds the in-flight requests.
+ * See {@link TransientRequestsRecoveryService}.
+ *
+ * @author Sébastien Binda
+ */
+@Component
+public class TransientRequestTablesInitializer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransientRequestTablesInitializer.class);
+
+    private static final String TRANSIENT_TABLES_LOCK = "storage-transient-tables";
+
+    @Autowired
+    private TransientRequestsRecoveryService recoveryService;
+
+    @Autowired
+    private LockingTaskExecutors lockingTaskExecutors;
+
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    /**
+     * Initialize transient request tables of the tenant
+     * @param event {@link TenantConnectionReady}
+     */
+    @EventListener
+    public void processEvent(TenantConnectionReady event) {
+        try {
+            runtimeTenantResolver.forceTenant(event.getTenant());
+            lockingTaskExecutors.executeWithLock(recoveryService::initialize,
+                                                 new LockConfiguration(TRANSIENT_TABLES_LOCK,
+                                                         Instant.now().plusSeconds(3600)));
+        } catch (Throwable e) {
+            LOGGER.error(String.format("[TRANSIENT TABLES] Error initializing transient request tables of tenant %s",
+                                       event.getTenant()),
+                         e);
+        } finally {
+            runtimeTenantResolver.clearTenant();
+        }
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.request;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Multimap;
+
+import fr.cnes.regards.framework.jpa.multitenant.transactional.MultitenantTransactional;
+import fr.cnes.regards.framework.modules.jobs.domain.JobInfo;
+import fr.cnes.regards.framework.modules.jobs.domain.JobStatus;
+import fr.cnes.regards.framework.modules.jobs.service.IJobInfoService;
+import fr.cnes.regards.modules.storage.dao.TransientRequestTables;
+import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
+import fr.cnes.regards.modules.storage.domain.database.request.FileStorageRequest;
+import fr.cnes.regards.modules.storage.domain.dto.request.FileStorageRequestDTO;
+import fr.cnes.regards.modules.storage.domain.flow.AvailabilityFlowItem;
+import fr.cnes.regards.modules.storage.domain.flow.StorageFlowItem;
+import fr.cnes.regards.modules.storage.domain.plugin.FileRestorationWorkingSubset;
+import fr.cnes.regards.modules.storage.domain.plugin.FileStorageWorkingSubset;
+import fr.cnes.regards.modules.storage.service.file.job.FileCacheRequestJob;
+import fr.cnes.regards.modules.storage.service.file.job.FileStorageRequestJob;
+
+/**
+ * Service to handle the transient request tables mode (see {@link TransientRequestTables}).<br/>
+ * When the mode is enabled, storage requests, cache requests, requests groups and requests results are stored in
+ * unlogged tables. This divides the WAL volume generated by requests handling, but those tables are truncated by
+ * PostgreSQL after a crash (not after a clean shutdown) and they are not available on replicas.<br/>
+ * After such a truncation, the in-flight requests are rebuilt from the jobs not terminated, as jobs are stored in
+ * logged tables with all their requests :
+ * <ul>
+ * <li>Storage requests of the {@link FileStorageRequestJob}s are created again, files already stored are handled as
+ * already referenced files.</li>
+ * <li>Cache requests of the {@link FileCacheRequestJob}s are created again, files already restored are handled as
+ * available files.</li>
+ * <li>Groups of those requests are granted again and rebuilt jobs are stopped.</li>
+ * </ul>
+ * Requests not yet scheduled in a job, requests in error, and the results of the groups handled before the crash are
+ * lost. Clients of those groups do not receive a response, so they have to rely on their own timeouts to resubmit
+ * them.
+ *
+ * @author Sébastien Binda
+ */
+@Service
+@MultitenantTransactional
+public class TransientRequestsRecoveryService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TransientRequestsRecoveryService.class);
+
+    private static final JobStatus[] ACTIVE_JOB_STATUS = { JobStatus.PENDING, JobStatus.QUEUED, JobStatus.TO_BE_RUN,
+            JobStatus.RUNNING };
+
+    @Value("${" + TransientRequestTables.UNLOGGED_PROPERTY + ":false}")
+    private boolean unlogged;
+
+    @Autowired
+    private TransientRequestTables transientTables;
+
+    @Autowired
+    private IJobInfoService jobInfoService;
+
+    @Autowired
+    private FileStorageRequestService storageReqService;
+
+    @Autowired
+    private FileCacheRequestService cacheReqService;
+
+    /**
+     * Apply the configured durability mode to the transient request tables of the current tenant, and rebuild the
+     * in-flight requests if the tables have been truncated.
+     */
+    public void initialize() {
+        if (!unlogged) {
+            transientTables.setUnlogged(false);
+        } else {
+            boolean truncated = transientTables.isTruncated();
+            transientTables.setUnlogged(true);
+            if (truncated) {
+                LOGGER.warn("[TRANSIENT TABLES] Transient request tables have been truncated. "
+                        + "Rebuilding in-flight requests from jobs.");
+                recover();
+            }
+            transientTables.mark();
+        }
+    }
+
+    /**
+     * Rebuild the in-flight storage and cache requests from the not terminated jobs.
+     * @return number of rebuilt requests
+     */
+    public int recover() {
+        int nbRequests = 0;
+        for (JobInfo job : getActiveJobs(FileStorageRequestJob.class.getName())) {
+            FileStorageWorkingSubset subset = job.getParametersAsMap().get(FileStorageRequestJob.WORKING_SUB_SET)
+                    .getValue();
+            nbRequests += recoverStorageRequests(subset.getFileReferenceRequests());
+            jobInfoService.stopJob(job.getId());
+        }
+        for (JobInfo job : getActiveJobs(FileCacheRequestJob.class.getName())) {
+            FileRestorationWorkingSubset subset = job.getParametersAsMap().get(FileCacheRequestJob.WORKING_SUB_SET)
+                    .getValue();
+            nbRequests += recoverCacheRequests(subset.getFileRestorationRequests());
+            jobInfoService.stopJob(job.getId());
+        }
+        LOGGER.info("[TRANSIENT TABLES] {} in-flight requests rebuilt from jobs", nbRequests);
+        return nbRequests;
+    }
+
+    private List<JobInfo> getActiveJobs(String className) {
+        List<JobInfo> jobs = Lists.newArrayList();
+        for (JobStatus status : ACTIVE_JOB_STATUS) {
+            jobInfoService.retrieveJobs(status).stream().filter(j -> className.equals(j.getClassName()))
+                    .forEach(jobs::add);
+        }
+        return jobs;
+    }
+
+    private int recoverStorageRequests(Set<FileStorageRequest> requests) {
+        Multimap<String, FileStorageRequestDTO> filesByGroup = ArrayListMultimap.create();
+        for (FileStorageRequest request : requests) {
+            for (String groupId : request.getGroupIds()) {
+                for (String owner : request.getOwners()) {
+                    FileStorageRequestDTO file = FileStorageRequestDTO
+                            .build(request.getMetaInfo().getFileName(), request.getMetaInfo().getChecksum(),
+                                   request.getMetaInfo().getAlgorithm(), request.getMetaInfo().getMimeType().toString(),
+                                   owner, request.getOriginUrl(), request.getStorage(),
+                                   Optional.ofNullable(request.getStorageSubDirectory()));
+                    file.withType(request.getMetaInfo().getType());
+                    filesByGroup.put(groupId, file);
+                }
+            }
+        }
+        storageReqService.store(filesByGroup.asMap().entrySet().stream()
+                .map(e -> StorageFlowItem.build(e.getValue(), e.getKey())).collect(Collectors.toList()));
+        return requests.size();
+    }
+
+    private int recoverCacheRequests(Set<FileCacheRequest> requests) {
+        // Prefetch requests are not rebuilt, as nobody waits for them
+        Map<String, List<FileCacheRequest>> requestsByGroup = requests.stream().filter(r -> !r.isPrefetch())
+                .collect(Collectors.groupingBy(FileCacheRequest::getGroupId));
+        List<AvailabilityFlowItem> items = Lists.newArrayList();
+        requestsByGroup.forEach((groupId, groupRequests) -> {
+            OffsetDateTime expirationDate = groupRequests.stream().map(FileCacheRequest::getExpirationDate)
+                    .filter(Objects::nonNull).max(OffsetDateTime::compareTo).orElse(OffsetDateTime.now().plusDays(1));
+            items.add(AvailabilityFlowItem.build(groupRequests.stream().map(FileCacheRequest::getChecksum)
+                    .collect(Collectors.toSet()), expirationDate, groupId));
+        });
+        cacheReqService.makeAvailable(items);
+        return requests.size();
+    }
+
+}
@@ -19,14 +19,24 @@
 package fr.cnes.regards.modules.storage.service.location;
 
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.stream.Collectors;
 
 import javax.annotation.Nullable;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import com.google.common.collect.ImmutableList;
 
 import fr.cnes.regards.framework.jpa.utils.RegardsTransactional;
 import fr.cnes.regards.framework.module.rest.exception.EntityAlreadyExistsException;
@@ -35,6 +45,7 @@ import fr.cnes.regards.framework.module.rest.exception.EntityNotFoundException;
 import fr.cnes.regards.framework.module.rest.exception.ModuleException;
 import fr.cnes.regards.framework.modules.plugins.domain.PluginConfiguration;
 import fr.cnes.regards.framework.modules.plugins.service.IPluginService;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
 import fr.cnes.regards.modules.storage.dao.IStorageLocationConfigurationRepostory;
 import fr.cnes.regards.modules.storage.domain.database.StorageLocationConfiguration;
 import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
@@ -43,6 +54,11 @@ import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
  * Service to handle configuration of storge locations.<br>
  * A storage location can be associated to a plugin configuration<br>
  * If there is no plugin configuration associated, so the storage location is not reachable and files are only referenced.<br>
+ * Read-only lookups (priority resolution, search by type, plugin configuration by storage) are served from an in-memory
+ * cache of the configurations of each tenant, sorted by storage type and priority. The cache of a tenant is invalidated
+ * after each modification made by this service, on {@link StoragePluginConfigurationHandler} plugin configuration
+ * events, and after regards.storage.location.configurations.cache.ttl seconds to catch priority changes made by other
+ * instances of the microservice.<br>
  *
  * @author Sylvain VISSIERE-GUERINET
  * @author Sébastien Binda
@@ -51,12 +67,27 @@ import fr.cnes.regards.modules.storage.domain.plugin.StorageType;
 @RegardsTransactional
 public class StorageLocationConfigurationService {
 
+    private static final Comparator<StorageLocationConfiguration> TYPE_PRIORITY_ORDER = Comparator
+            .comparing(StorageLocationConfiguration::getStorageType, Comparator.nullsLast(Comparator.naturalOrder()))
+            .thenComparing(StorageLocationConfiguration::getPriority, Comparator.nullsLast(Comparator.naturalOrder()));
+
     @Autowired
     private IPluginService pluginService;
 
     @Autowired
     private IStorageLocationConfigurationRepostory storageLocConfRepo;
 
+    @Autowired
+    private IRuntimeTenantResolver runtimeTenantResolver;
+
+    @Value("${regards.storage.location.configurations.cache.ttl:60}")
+    private long cacheTtlInSeconds;
+
+    /**
+     * Cached configurations by tenant
+     */
+    private final Map<String, CachedConfigurations> cache = new ConcurrentHashMap<>();
+
     /**
      * Creates a new configuration for a storage location.
      */
@@ -77,6 +108,7 @@ public class StorageLocationConfigurationService {
         // Calculate priority
         Long actualLowestPriority = getLowestPriority(conf.getStorageType());
         conf.setPriority(actualLowestPriority == null ? 0 : actualLowestPriority + 1);
+        invalidate();
         return storageLocConfRepo.save(conf);
     }
 
@@ -85,14 +117,14 @@ public class StorageLocationConfigurationService {
      * @param type {@link StorageType}
      */
     public List<StorageLocationConfiguration> search(StorageType type) {
-        return storageLocConfRepo.findAllByStorageTypeOrderByPriorityAsc(type);
+        return getCached().sorted.stream().filter(c -> c.getStorageType() == type).collect(Collectors.toList());
     }
 
     /**
-     * Search for all storage location configuration of the given storage type.
+     * Search for all storage location configurations, sorted by storage type and priority.
      */
     public List<StorageLocationConfiguration> searchAll() {
-        return storageLocConfRepo.findAll();
+        return getCached().sorted;
     }
 
     /**
@@ -114,15 +146,12 @@ public class StorageLocationConfigurationService {
     public Optional<StorageLocationConfiguration> searchActiveHigherPriority(Collection<String> storageIds,
             StorageType type) {
         Optional<StorageLocationConfiguration> storage = Optional.empty();
-        Set<StorageLocationConfiguration> confs;
-        if (type != null) {
-            confs = storageLocConfRepo.findByStorageTypeAndNameIn(type, storageIds);
-        } else {
-            confs = storageLocConfRepo.findByNameIn(storageIds);
-        }
-        for (StorageLocationConfiguration c : confs) {
-            if (c.getPluginConfiguration().isActive()
-                    && (!storage.isPresent() || c.getPriority() < storage.get().getPriority())) {
+        Map<String, StorageLocationConfiguration> confs = getCached().byName;
+        for (String storageId : storageIds) {
+            StorageLocationConfiguration c = confs.get(storageId);
+            if ((c != null) && ((type == null) || (c.getStorageType() == type))
+                    && (c.getPluginConfiguration() != null) && c.getPluginConfiguration().isActive()
+                    && (!storage.isPresent() || (c.getPriority() < storage.get().getPriority()))) {
                 storage = Optional.of(c);
             }
         }
@@ -145,8 +174,23 @@ public class StorageLocationConfigurationService {
      */
     @Nullable
     public StorageLocationConfiguration getFirstActive(StorageType storageType) {
-        return storageLocConfRepo.findFirstByStorageTypeAndPluginConfigurationActiveOrderByPriorityAsc(storageType,
-                                                                                                       true);
+        return getCached().sorted.stream().filter(c -> (c.getStorageType() == storageType)
+                && (c.getPluginConfiguration() != null) && c.getPluginConfiguration().isActive()).findFirst()
+                .orElse(null);
+    }
+
+    /**
+     * Retrieve the {@link PluginConfiguration} of the given storage location.
+     * @param storageId storage location name
+     * @return {@link PluginConfiguration}
+     * @throws EntityNotFoundException if the storage location does not exist or has no plugin configuration
+     */
+    public PluginConfiguration getPluginConfiguration(String storageId) throws EntityNotFoundException {
+        StorageLocationConfiguration conf = getCached().byName.get(storageId);
+        if ((conf == null) || (conf.getPluginConfiguration() == null)) {
+            throw new EntityNotFoundException(storageId, PluginConfiguration.class);
+        }
+        return conf.getPluginConfiguration();
     }
 
     /**
@@ -171,6 +215,7 @@ public class StorageLocationConfigurationService {
                 actual.setPriority(actualPriority - 1);
                 storageLocConfRepo.saveAndFlush(other);
                 storageLocConfRepo.saveAndFlush(actual);
+                invalidate();
             }
         } else {
             throw new EntityNotFoundException(storageId, StorageLocationConfiguration.class);
@@ -199,6 +244,7 @@ public class StorageLocationConfigurationService {
                 actual.setPriority(actualPriority + 1);
                 storageLocConfRepo.saveAndFlush(other);
                 storageLocConfRepo.saveAndFlush(actual);
+                invalidate();
             }
         } else {
             throw new EntityNotFoundException(storageId, StorageLocationConfiguration.class);
@@ -254,6 +300,7 @@ public class StorageLocationConfigurationService {
                 updated.getPluginConfiguration(), updated.getAllocatedSizeInKo());
         toUpdate.setId(oldOne.getId());
         toUpdate.setPriority(oldOne.getPriority());
+        invalidate();
         return storageLocConfRepo.save(toUpdate);
     }
 
@@ -279,6 +326,7 @@ public class StorageLocationConfigurationService {
                 lessPrioritized.setPriority(lessPrioritized.getPriority() - 1);
             }
             storageLocConfRepo.saveAll(lessPrioritizeds);
+            invalidate();
         }
     }
 
@@ -294,4 +342,60 @@ public class StorageLocationConfigurationService {
         }
         return lowestPrioritizedStorage.getPriority();
     }
+
+    /**
+     * Invalidate the cached configurations of the current tenant. When called in a transaction, the cache is
+     * invalidated again after the transaction completion so that no configuration read before the commit is kept.
+     */
+    public void invalidate() {
+        String tenant = runtimeTenantResolver.getTenant();
+        if (tenant == null) {
+            return;
+        }
+        cache.remove(tenant);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+
+                @Override
+                public void afterCompletion(int status) {
+                    cache.remove(tenant);
+                }
+            });
+        }
+    }
+
+    private CachedConfigurations getCached() {
+        String tenant = runtimeTenantResolver.getTenant();
+        if (tenant == null) {
+            return new CachedConfigurations(storageLocConfRepo.findAll());
+        }
+        CachedConfigurations cached = cache.get(tenant);
+        if ((cached == null) || cached.isExpired(cacheTtlInSeconds)) {
+            cached = new CachedConfigurations(storageLocConfRepo.findAll());
+            cache.put(tenant, cached);
+        }
+        return cached;
+    }
+
+    /**
+     * Immutable snapshot of the storage location configurations of a tenant
+     */
+    private static class CachedConfigurations {
+
+        private final long loadTime = System.currentTimeMillis();
+
+        private final List<StorageLocationConfiguration> sorted;
+
+        private final Map<String, StorageLocationConfiguration> byName;
+
+        private CachedConfigurations(List<StorageLocationConfiguration> confs) {
+            this.sorted = ImmutableList.sortedCopyOf(TYPE_PRIORITY_ORDER, confs);
+            this.byName = confs.stream()
+                    .collect(Collectors.toMap(StorageLocationConfiguration::getName, Function.identity()));
+        }
+
+        private boolean isExpired(long ttlInSeconds) {
+            return (System.currentTimeMillis() - loadTime) > (ttlInSeconds * 1000);
+        }
+    }
 }
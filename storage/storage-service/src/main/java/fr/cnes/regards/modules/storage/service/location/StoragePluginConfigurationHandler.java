@@ -19,24 +19,27 @@
 package fr.cnes.regards.modules.storage.service.location;
 
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationStartedEvent;
 import org.springframework.context.event.EventListener;
 import org.springframework.stereotype.Component;
 
-import com.google.common.collect.LinkedHashMultimap;
-import com.google.common.collect.SetMultimap;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
 
 import fr.cnes.regards.framework.amqp.ISubscriber;
 import fr.cnes.regards.framework.amqp.domain.IHandler;
 import fr.cnes.regards.framework.amqp.domain.TenantWrapper;
-import fr.cnes.regards.framework.module.rest.exception.EntityNotFoundException;
 import fr.cnes.regards.framework.modules.plugins.domain.PluginConfiguration;
 import fr.cnes.regards.framework.modules.plugins.domain.event.BroadcastPluginConfEvent;
 import fr.cnes.regards.framework.modules.plugins.service.IPluginService;
@@ -47,7 +50,11 @@ import fr.cnes.regards.modules.storage.domain.plugin.IOnlineStorageLocation;
 import fr.cnes.regards.modules.storage.domain.plugin.IStorageLocation;
 
 /**
- * This component handle the pool of {@link IStorageLocation} plugins configuration as known as {@link StorageLocationConfiguration}.
+ * This component handle the pool of {@link IStorageLocation} plugins configuration as known as {@link StorageLocationConfiguration}.<br/>
+ * Configurations of each tenant are kept in an immutable registry indexed by label. A new registry is built and
+ * published atomically each time a storage plugin configuration event is received, so lookups never lock nor query the
+ * database. A lookup of an unknown storage reloads the registry at most once per
+ * regards.storage.plugins.registry.miss.refresh.period milliseconds.
  *
  * @author Sébastien Binda
  */
@@ -56,9 +63,10 @@ public class StoragePluginConfigurationHandler implements IHandler<BroadcastPlug
 
     private static final Logger LOGGER = LoggerFactory.getLogger(StoragePluginConfigurationHandler.class);
 
-    private final SetMultimap<String, PluginConfiguration> storages = LinkedHashMultimap.create();
+    private final Map<String, StorageRegistry> registries = new ConcurrentHashMap<>();
 
-    private final SetMultimap<String, PluginConfiguration> onlineStorages = LinkedHashMultimap.create();
+    @Value("${regards.storage.plugins.registry.miss.refresh.period:10000}")
+    private long missRefreshPeriodMs;
 
     @Autowired
     private IPluginService pluginService;
@@ -72,6 +80,9 @@ public class StoragePluginConfigurationHandler implements IHandler<BroadcastPlug
     @Autowired
     private ITenantResolver tenantResolver;
 
+    @Autowired
+    private StorageLocationConfigurationService storageLocationConfService;
+
     @EventListener(ApplicationStartedEvent.class)
     public void init() {
         subscriber.subscribeTo(BroadcastPluginConfEvent.class, this);
@@ -94,30 +105,8 @@ public class StoragePluginConfigurationHandler implements IHandler<BroadcastPlug
         if ((wrapper.getContent().getPluginTypes().contains(IStorageLocation.class.getName()))) {
             runtimeTenantResolver.forceTenant(tenant);
             try {
-
-                switch (wrapper.getContent().getAction()) {
-                    case CREATE:
-                        PluginConfiguration conf = pluginService
-                                .getPluginConfiguration(wrapper.getContent().getPluginBusinnessId());
-                        this.storages.put(tenant, conf);
-                        if (conf.getInterfaceNames().contains(IOnlineStorageLocation.class.getName())) {
-                            this.onlineStorages.put(tenant, conf);
-                        }
-                        break;
-                    case DELETE:
-                        BroadcastPluginConfEvent pluginEvent = wrapper.getContent();
-                        this.storages.remove(tenant, pluginEvent.getLabel());
-                        this.onlineStorages.remove(tenant, pluginEvent.getLabel());
-                        break;
-                    case ACTIVATE:
-                    case DISABLE:
-                    case UPDATE:
-                    default:
-                        break;
-                }
-            } catch (EntityNotFoundException e) {
-                // Nothing to do, the storage does not match an existing plugin configuration. Only log error.
-                LOGGER.error(e.getMessage(), e);
+                storageLocationConfService.invalidate();
+                refresh();
             } finally {
                 runtimeTenantResolver.clearTenant();
             }
@@ -128,27 +117,11 @@ public class StoragePluginConfigurationHandler implements IHandler<BroadcastPlug
      * Return all the configured {@link PluginConfiguration} labels.
      */
     public Set<PluginConfiguration> getConfiguredStorages() {
-        if ((this.storages.get(runtimeTenantResolver.getTenant()) == null)
-                || this.storages.get(runtimeTenantResolver.getTenant()).isEmpty()) {
-            this.refresh();
-            LOGGER.trace("[STORAGE CONFIGURATION] Plugin configuration list refreshed !");
-        }
-        return this.storages.get(runtimeTenantResolver.getTenant());
+        return getRegistry().storages;
     }
 
     public Optional<PluginConfiguration> getConfiguredStorage(String storage) {
-        return getConfiguredStorages().stream().filter(c -> c.getLabel().equals(storage)).findFirst();
-    }
-
-    /**
-     * Return all the online storage location configured {@link PluginConfiguration} labels.
-     */
-    private Set<PluginConfiguration> getConfiguredOnlineStorages() {
-        if ((this.onlineStorages.get(runtimeTenantResolver.getTenant()) == null)
-                || this.onlineStorages.get(runtimeTenantResolver.getTenant()).isEmpty()) {
-            this.refresh();
-        }
-        return this.onlineStorages.get(runtimeTenantResolver.getTenant());
+        return Optional.ofNullable(getRegistry(storage).byLabel.get(storage));
     }
 
     /**
@@ -156,19 +129,62 @@ public class StoragePluginConfigurationHandler implements IHandler<BroadcastPlug
      */
     public void refresh() {
         List<PluginConfiguration> confs = pluginService.getPluginConfigurationsByType(IStorageLocation.class);
-        List<PluginConfiguration> onlineConfs = confs.stream()
-                .filter(c -> c.getInterfaceNames().contains(IOnlineStorageLocation.class.getName()))
-                .collect(Collectors.toList());
-        confs.forEach(c -> this.storages.put(runtimeTenantResolver.getTenant(), c));
-        onlineConfs.forEach(c -> this.onlineStorages.put(runtimeTenantResolver.getTenant(), c));
+        registries.put(runtimeTenantResolver.getTenant(), new StorageRegistry(confs));
+        LOGGER.trace("[STORAGE CONFIGURATION] Plugin configuration list refreshed !");
     }
 
     public boolean isConfigured(String storage) {
-        return this.getConfiguredStorages().stream().anyMatch(c -> c.getLabel().equals(storage));
+        return getRegistry(storage).byLabel.containsKey(storage);
     }
 
     public boolean isOnline(String storage) {
-        return this.getConfiguredOnlineStorages().stream().anyMatch(c -> c.getLabel().equals(storage));
+        return getRegistry(storage).onlineLabels.contains(storage);
+    }
+
+    private StorageRegistry getRegistry() {
+        StorageRegistry registry = registries.get(runtimeTenantResolver.getTenant());
+        if (registry == null) {
+            refresh();
+            registry = registries.get(runtimeTenantResolver.getTenant());
+        }
+        return registry;
+    }
+
+    /**
+     * Get the registry of the current tenant, reloaded if the given storage is unknown and the registry has not been
+     * reloaded recently.
+     */
+    private StorageRegistry getRegistry(String storage) {
+        StorageRegistry registry = getRegistry();
+        if (!registry.byLabel.containsKey(storage)
+                && ((System.currentTimeMillis() - registry.loadTime) > missRefreshPeriodMs)) {
+            refresh();
+            registry = registries.get(runtimeTenantResolver.getTenant());
+        }
+        return registry;
+    }
+
+    /**
+     * Immutable registry of the storage plugin configurations of a tenant
+     */
+    private static class StorageRegistry {
+
+        private final long loadTime = System.currentTimeMillis();
+
+        private final Set<PluginConfiguration> storages;
+
+        private final Map<String, PluginConfiguration> byLabel;
+
+        private final Set<String> onlineLabels;
+
+        private StorageRegistry(List<PluginConfiguration> confs) {
+            this.storages = ImmutableSet.copyOf(confs);
+            this.byLabel = ImmutableMap.copyOf(confs.stream()
+                    .collect(Collectors.toMap(PluginConfiguration::getLabel, Function.identity(), (c1, c2) -> c1)));
+            this.onlineLabels = confs.stream()
+                    .filter(c -> c.getInterfaceNames().contains(IOnlineStorageLocation.class.getName()))
+                    .map(PluginConfiguration::getLabel).collect(ImmutableSet.toImmutableSet());
+        }
     }
 
 }
@@ -18,13 +18,20 @@
  */
 package fr.cnes.regards.modules.storage.service.cache;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.nio.file.attribute.PosixFilePermission;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
 import java.time.OffsetDateTime;
+import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Optional;
 import java.util.UUID;
@@ -37,12 +44,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 import org.springframework.util.MimeType;
 
+import com.google.common.io.ByteStreams;
+
 import fr.cnes.regards.framework.jpa.multitenant.test.AbstractMultitenantServiceTest;
 import fr.cnes.regards.framework.test.report.annotation.Purpose;
 import fr.cnes.regards.framework.test.report.annotation.Requirement;
 import fr.cnes.regards.framework.urn.DataType;
+import fr.cnes.regards.framework.utils.file.ChecksumUtils;
 import fr.cnes.regards.modules.storage.dao.ICacheFileRepository;
 import fr.cnes.regards.modules.storage.domain.database.CacheFile;
 
@@ -53,7 +65,9 @@ import fr.cnes.regards.modules.storage.domain.database.CacheFile;
 @ActiveProfiles({ "noschedule" })
 @TestPropertySource(
         properties = { "spring.jpa.properties.hibernate.default_schema=storage_cache_tests",
-                "regards.storage.cache.path=target/cache", "regards.storage.cache.schedule.purge.bulk.size=5" },
+                "regards.storage.cache.path=target/cache", "regards.storage.cache.schedule.purge.bulk.size=5",
+                "regards.storage.cache.verification.reclaim.orphans=true", "regards.storage.cache.hot.enabled=true",
+                "regards.storage.cache.hot.promotion.hits=2", "regards.storage.cache.shared.enabled=true" },
         locations = { "classpath:application-test.properties" })
 public class CacheServiceTest extends AbstractMultitenantServiceTest {
 
@@ -63,6 +77,12 @@ public class CacheServiceTest extends AbstractMultitenantServiceTest {
     @Autowired
     private ICacheFileRepository repository;
 
+    @Autowired
+    private HotCacheTier hotTier;
+
+    @Autowired
+    private SharedCacheStore sharedStore;
+
     @Before
     public void init() {
         runtimeTenantResolver.forceTenant(getDefaultTenant());
@@ -164,4 +184,138 @@ public class CacheServiceTest extends AbstractMultitenantServiceTest {
         Assert.assertEquals("File in database that does not exists on disk should be removed", 1, repository.count());
 
     }
+
+    @Test
+    public void checkShardedCacheCoherence() throws IOException {
+        // Referenced file present in its cache directory
+        String checksum = UUID.randomUUID().toString();
+        Path file = Paths.get(service.getFilePath(checksum));
+        Files.createDirectories(file.getParent());
+        Files.createFile(file);
+        repository.save(new CacheFile(checksum, 12L, "file.test",
+                MimeType.valueOf(MediaType.APPLICATION_ATOM_XML_VALUE), new URL("file:" + file.toString()),
+                OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString(), "RAWDATA"));
+        // Referenced file missing from its cache directory
+        String missing = checksum.substring(0, 2) + UUID.randomUUID().toString();
+        repository.save(new CacheFile(missing, 12L, "missing.test",
+                MimeType.valueOf(MediaType.APPLICATION_ATOM_XML_VALUE), new URL("file:" + service.getFilePath(missing)),
+                OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString(), "RAWDATA"));
+        // Old referenced file named by the storage plugin that restored it
+        String pluginChecksum = UUID.randomUUID().toString();
+        Path pluginFile = Paths.get(service.getCacheDirectoryPath(pluginChecksum), "quicklook.png");
+        Files.createDirectories(pluginFile.getParent());
+        Files.createFile(pluginFile);
+        Files.setLastModifiedTime(pluginFile, FileTime.from(Instant.now().minus(2, ChronoUnit.DAYS)));
+        repository.save(new CacheFile(pluginChecksum, 12L, "quicklook.png", MimeType.valueOf(MediaType.IMAGE_PNG_VALUE),
+                new URL("file:" + pluginFile.toString()), OffsetDateTime.now().plusDays(1),
+                UUID.randomUUID().toString(), "QUICKLOOK"));
+        // Old and recent files not referenced
+        Path oldOrphan = Paths.get(service.getFilePath(UUID.randomUUID().toString()));
+        Files.createDirectories(oldOrphan.getParent());
+        Files.createFile(oldOrphan);
+        Files.setLastModifiedTime(oldOrphan, FileTime.from(Instant.now().minus(2, ChronoUnit.DAYS)));
+        Path recentOrphan = Paths.get(service.getFilePath(UUID.randomUUID().toString()));
+        Files.createDirectories(recentOrphan.getParent());
+        Files.createFile(recentOrphan);
+
+        service.checkDiskDBCoherence();
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        Assert.assertTrue("Referenced file should be kept", service.getCacheFile(checksum).isPresent());
+        Assert.assertTrue(Files.exists(file));
+        Assert.assertFalse("Missing file should be removed", service.getCacheFile(missing).isPresent());
+        Assert.assertTrue("Referenced file not named by its checksum should be kept",
+                          service.getCacheFile(pluginChecksum).isPresent());
+        Assert.assertTrue("Referenced file not named by its checksum is not an orphan", Files.exists(pluginFile));
+        Assert.assertFalse("Old orphan file should be reclaimed", Files.exists(oldOrphan));
+        Assert.assertTrue("Recent orphan file can be a restoration in progress", Files.exists(recentOrphan));
+        Assert.assertFalse("Checkpoint should be removed at the end of the verification",
+                           Files.exists(service.getTenantCachePath().resolve(".verification-checkpoint")));
+    }
+
+    @Test
+    public void promoteToHotTier() throws IOException {
+        byte[] content = "thumbnail".getBytes();
+        CacheFile thumbnail = createFileOnDisk(DataType.THUMBNAIL.name(), content);
+        CacheFile rawdata = createFileOnDisk(DataType.RAWDATA.name(), content);
+        long hits = service.getDiskTierMetrics().getHits();
+        for (int i = 0; i < 2; i++) {
+            service.recordDownload(thumbnail);
+            service.recordDownload(rawdata);
+        }
+        Optional<InputStream> is = hotTier.get(thumbnail.getChecksum());
+        Assert.assertTrue("File read twice should be promoted", is.isPresent());
+        Assert.assertArrayEquals(content, ByteStreams.toByteArray(is.get()));
+        Assert.assertFalse("Raw data should never be promoted", hotTier.get(rawdata.getChecksum()).isPresent());
+        Assert.assertEquals("Each download from the cache directory should be counted", hits + 4L,
+                            service.getDiskTierMetrics().getHits());
+
+        // Deleted files are evicted from the tier
+        service.delete(thumbnail);
+        Assert.assertFalse("Deleted file should be evicted", hotTier.get(thumbnail.getChecksum()).isPresent());
+    }
+
+    @Test
+    public void shareCacheFileBetweenTenants() throws IOException, NoSuchAlgorithmException {
+        // Files whose content does not match their checksum are not published
+        CacheFile poisoned = createFileOnDisk(DataType.RAWDATA.name(), "poisoned".getBytes());
+        sharedStore.publish(poisoned.getChecksum(), "MD5", Paths.get(poisoned.getLocation().getPath()));
+        Assert.assertFalse("File not matching its checksum should not be published",
+                           Files.exists(sharedStore.getPath(poisoned.getChecksum(), "MD5")));
+
+        String checksum = ChecksumUtils.computeHexChecksum(new ByteArrayInputStream("shared".getBytes()), "MD5");
+        CacheFile cacheFile = createFileOnDisk(checksum, DataType.RAWDATA.name(), "shared".getBytes());
+        sharedStore.publish(checksum, "MD5", Paths.get(cacheFile.getLocation().getPath()));
+        Path shared = sharedStore.getPath(checksum, "MD5");
+        Assert.assertEquals("Published file should be referenced by its tenant", 1,
+                            sharedStore.getReferenceCount(shared));
+        Assert.assertFalse("Published file should be read-only",
+                           Files.getPosixFilePermissions(shared).contains(PosixFilePermission.OWNER_WRITE));
+
+        // An other tenant links the shared file instead of restoring it
+        Path otherTenantFile = Paths.get("target/cache/other-tenant", checksum);
+        Assert.assertTrue(sharedStore.link(checksum, "MD5", otherTenantFile));
+        Assert.assertArrayEquals("shared".getBytes(), Files.readAllBytes(otherTenantFile));
+        Assert.assertEquals(2, sharedStore.getReferenceCount(shared));
+        Assert.assertFalse("Unknown shared file cannot be linked",
+                           sharedStore.link(UUID.randomUUID().toString(), "MD5", otherTenantFile.resolveSibling("x")));
+
+        // Shared file is kept while a tenant references it
+        service.delete(cacheFile);
+        Assert.assertTrue("Shared file still referenced should be kept", Files.exists(shared));
+        Assert.assertEquals(1, sharedStore.getReferenceCount(shared));
+        Files.delete(otherTenantFile);
+        Assert.assertTrue("Unreferenced shared file should be deleted", sharedStore.sweep() > 0);
+        Assert.assertFalse(Files.exists(shared));
+    }
+
+    @Test
+    public void publishSharedFileAfterCommit() throws IOException, NoSuchAlgorithmException {
+        String checksum = ChecksumUtils.computeHexChecksum(new ByteArrayInputStream("committed".getBytes()), "MD5");
+        CacheFile cacheFile = createFileOnDisk(checksum, DataType.RAWDATA.name(), "committed".getBytes());
+        Path shared = sharedStore.getPath(checksum, "MD5");
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            sharedStore.publishAfterCommit(checksum, "MD5", Paths.get(cacheFile.getLocation().getPath()));
+            Assert.assertFalse("File should not be published before commit", Files.exists(shared));
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            Assert.assertTrue("File should be published after commit", Files.exists(shared));
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+        service.delete(cacheFile);
+        sharedStore.sweep();
+    }
+
+    private CacheFile createFileOnDisk(String type, byte[] content) throws IOException {
+        return createFileOnDisk(UUID.randomUUID().toString(), type, content);
+    }
+
+    private CacheFile createFileOnDisk(String checksum, String type, byte[] content) throws IOException {
+        Path file = Paths.get(service.getFilePath(checksum));
+        Files.createDirectories(file.getParent());
+        Files.write(file, content);
+        return repository.save(new CacheFile(checksum, (long) content.length, "file.test",
+                MimeType.valueOf(MediaType.IMAGE_PNG_VALUE), new URL("file:" + file.toString()),
+                OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString(), type));
+    }
 }
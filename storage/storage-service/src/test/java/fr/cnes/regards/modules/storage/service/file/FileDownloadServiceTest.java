@@ -27,7 +27,10 @@ import java.util.Optional;
 import java.util.Random;
 import java.util.UUID;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.IntStream;
 
 import fr.cnes.regards.framework.urn.DataType;
@@ -35,6 +38,7 @@ import io.vavr.control.Try;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 
@@ -49,6 +53,8 @@ import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
 import fr.cnes.regards.modules.storage.domain.exception.NearlineFileNotAvailableException;
 import fr.cnes.regards.modules.storage.service.AbstractStorageTest;
+import fr.cnes.regards.modules.storage.service.file.request.NearlineRestorationFlights;
+import fr.cnes.regards.modules.storage.service.file.request.NearlineRestorationFlights.Flight;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
@@ -63,6 +69,9 @@ import static org.junit.Assert.assertTrue;
         "regards.storage.cache.path=target/cache" }, locations = { "classpath:application-test.properties" })
 public class FileDownloadServiceTest extends AbstractStorageTest {
 
+    @Autowired
+    private NearlineRestorationFlights restorationFlights;
+
     @Before
     @Override
     public void init() throws ModuleException {
@@ -155,6 +164,54 @@ public class FileDownloadServiceTest extends AbstractStorageTest {
         }
     }
 
+    @Test
+    public void download_concurrent_demands_share_restoration()
+            throws InterruptedException, ExecutionException, TimeoutException {
+        FileReference fileRef = this.generateRandomStoredNearlineFileReference();
+        String checksum = fileRef.getMetaInfo().getChecksum();
+        for (int i = 0; i < 3; i++) {
+            Try<InputStream> result = Try.of(() -> downloadService.download(fileRef));
+            assertTrue(result.getCause() instanceof NearlineFileNotAvailableException);
+        }
+        Flight flight = restorationFlights.get(checksum);
+        Assert.assertNotNull("A restoration should be in flight", flight);
+        assertEquals("All demands should attach to the same restoration", 3, flight.getWaiters());
+        Optional<FileCacheRequest> oReq = fileCacheRequestService.search(checksum);
+        Assert.assertTrue(oReq.isPresent());
+        assertEquals("Restoration should be requested once with the flight group", flight.getGroupId(),
+                     oReq.get().getGroupId());
+
+        runAndWaitJob(fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO));
+        Assert.assertTrue("All waiters should be notified of the restoration",
+                          flight.getResult().get(10, TimeUnit.SECONDS));
+        Assert.assertNull("Restoration should not be in flight anymore", restorationFlights.get(checksum));
+    }
+
+    @Test
+    public void waitAvailability() throws InterruptedException, ExecutionException, TimeoutException,
+            EntityNotFoundException {
+        Assert.assertTrue("Online file should be available at once", downloadService
+                .waitAvailability(this.generateRandomStoredOnlineFileReference().getMetaInfo().getChecksum())
+                .get(1, TimeUnit.SECONDS));
+
+        FileReference fileRef = this.generateRandomStoredNearlineFileReference();
+        String checksum = fileRef.getMetaInfo().getChecksum();
+        CompletableFuture<Boolean> availability = downloadService.waitAvailability(checksum);
+        Assert.assertFalse("Nearline file should be restored first", availability.isDone());
+        Assert.assertTrue("Interactive restoration should be requested",
+                          fileCacheRequestService.search(checksum).get().isInteractive());
+
+        runAndWaitJob(fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO));
+        Assert.assertTrue("Wait should end with the restoration", availability.get(10, TimeUnit.SECONDS));
+        Assert.assertTrue("Restored file should be available at once",
+                          downloadService.waitAvailability(checksum).isDone());
+    }
+
+    @Test(expected = EntityNotFoundException.class)
+    public void waitAvailability_unknown() throws EntityNotFoundException {
+        downloadService.waitAvailability(UUID.randomUUID().toString());
+    }
+
     @Test
     public void download_with_cache()
             throws InterruptedException, ExecutionException, EntityNotFoundException, IOException,
@@ -101,6 +101,27 @@ public class FileReferenceServiceTest extends AbstractStorageTest {
                                                           null, null, page),
                         page)
                 .getTotalElements());
+        // Search by owner
+        Assert.assertEquals("There should be 1 file references for given owner", 1, fileRefService
+                .search(FileReferenceSpecification.search(null, null, null, null, Sets.newHashSet(owner), null, null,
+                                                          page),
+                        page)
+                .getTotalElements());
+        Assert.assertEquals("There should be 5 file references for given owners", 5,
+                            fileRefService
+                                    .search(FileReferenceSpecification.search(null, null, null, null,
+                                                                              Sets.newHashSet(owner, "someone-else"),
+                                                                              null, null, page),
+                                            page)
+                                    .getTotalElements());
+        Assert.assertEquals("There should be 2 file references for given owner and storage", 2,
+                            fileRefService
+                                    .search(FileReferenceSpecification.search(null, null, null,
+                                                                              Sets.newHashSet("anywhere", "void"),
+                                                                              Sets.newHashSet("someone-else"), null,
+                                                                              null, page),
+                                            page)
+                                    .getTotalElements());
         // Search by type
         Assert.assertEquals("There should be 0 file references for given type", 0,
                             fileRefService
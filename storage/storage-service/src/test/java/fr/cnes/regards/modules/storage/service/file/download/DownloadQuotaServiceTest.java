@@ -22,6 +22,7 @@ import org.assertj.core.api.ThrowableAssert;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentMatchers;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
@@ -397,6 +398,43 @@ public class DownloadQuotaServiceTest {
         assertEquals(expected, result.get());
     }
 
+    @Test
+    public void getCurrentQuotas_for_many_users_should_fetch_missing_limits_and_gauges_in_bulk() {
+        String[] userEmails = IntStream.range(0, 5_000).mapToObj(i -> "user" + i + "@bar.com").toArray(String[]::new);
+
+        // one user is already cached
+        Cache<QuotaKey, DownloadQuotaLimits> cache = Caffeine.newBuilder().build();
+        DownloadQuotaLimits cached = new DownloadQuotaLimits(TENANT, userEmails[0], 1L, 1L);
+        cache.put(QuotaKey.make(TENANT, userEmails[0]), cached);
+        quotaService.setCache(cache);
+
+        java.util.Map<String, DownloadQuotaLimits> created = new java.util.HashMap<>();
+        java.util.Map<String, io.vavr.Tuple2<UserQuotaAggregate, UserRateAggregate>> gauges = new java.util.HashMap<>();
+        for (String userEmail : userEmails) {
+            created.put(userEmail, new DownloadQuotaLimits(TENANT, userEmail, DEFAULT_QUOTA, DEFAULT_RATE));
+            gauges.put(userEmail, Tuple.of(new UserQuotaAggregate(2L), new UserRateAggregate(1L)));
+        }
+        created.remove(userEmails[0]);
+        doReturn(created)
+            .when(quotaRepository)
+            .findOrCreateByEmailIn(any(), eq(DEFAULT_QUOTA), eq(DEFAULT_RATE));
+        doReturn(gauges)
+            .when(quotaManager)
+            .get(ArgumentMatchers.<java.util.Collection<DownloadQuotaLimits>>any());
+
+        Try<java.util.List<UserCurrentQuotas>> result = quotaService.getCurrentQuotas(userEmails);
+
+        assertTrue(result.isSuccess());
+        assertEquals(userEmails.length, result.get().size());
+        assertEquals(new UserCurrentQuotas(userEmails[0], 1L, 1L, 2L, 1L), result.get().get(0));
+        assertEquals(new UserCurrentQuotas(userEmails[42], DEFAULT_QUOTA, DEFAULT_RATE, 2L, 1L), result.get().get(42));
+        // limits and gauges have been fetched all at once
+        verify(quotaRepository, times(1)).findOrCreateByEmailIn(any(), anyLong(), anyLong());
+        verify(quotaRepository, never()).findByEmail(anyString());
+        verify(quotaManager, times(1)).get(ArgumentMatchers.<java.util.Collection<DownloadQuotaLimits>>any());
+        assertEquals(userEmails.length, cache.estimatedSize());
+    }
+
     @Test
     public void upsertDownloadQuotaLimits_should_upsert() {
         String userEmail = "foo@bar.com";
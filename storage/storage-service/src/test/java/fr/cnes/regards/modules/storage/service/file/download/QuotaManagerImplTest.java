@@ -6,6 +6,7 @@ import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
 import fr.cnes.regards.framework.multitenant.ITenantResolver;
 import fr.cnes.regards.modules.storage.domain.database.*;
 import fr.cnes.regards.modules.storage.domain.database.repository.IDownloadQuotaRepository;
+import fr.cnes.regards.modules.storage.service.file.exception.DownloadLimitExceededException;
 import io.vavr.Tuple2;
 import io.vavr.control.Option;
 import org.assertj.core.api.ThrowableAssert;
@@ -16,6 +17,8 @@ import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.Mockito;
 import org.mockito.MockitoAnnotations;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.env.Environment;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskScheduler;
@@ -25,7 +28,12 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.junit.Assert.assertEquals;
@@ -35,6 +43,8 @@ import static org.mockito.Mockito.*;
 
 public class QuotaManagerImplTest {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(QuotaManagerImplTest.class);
+
     private static final String TENANT = "default";
 
     private long gaugeExpirationTick = 600;
@@ -252,9 +262,7 @@ public class QuotaManagerImplTest {
         // if an incr happens during the sync
         doAnswer(a -> {
             // cause side effect on the current diffs to simulate their incr during a sync
-            cache.asMap().computeIfPresent(email, (q, d) ->
-                QuotaManagerImpl.UserDiffs.incrementQuotaAndRateDiffs(d)
-            );
+            cache.getIfPresent(email).incrementQuotaAndRateDiffs();
             return new HashMap<String, QuotaManagerImpl.UserDiffs>() {{
                 put(email,
                     new QuotaManagerImpl.UserDiffs(
@@ -327,9 +335,7 @@ public class QuotaManagerImplTest {
         Throwable expected = new RuntimeException("expected");
         doAnswer(a -> {
             // cause side effect on the current diffs to simulate their incr during a sync
-            cache.asMap().computeIfPresent(email, (q, d) ->
-                QuotaManagerImpl.UserDiffs.incrementQuotaAndRateDiffs(d)
-            );
+            cache.getIfPresent(email).incrementQuotaAndRateDiffs();
 
             throw expected;
         }).when(quotaManager)
@@ -385,4 +391,86 @@ public class QuotaManagerImplTest {
         assertEquals(1L + rateDiff, argument.getRateDiff().longValue());
         assertEquals(1L + quotaDiff, argument.getQuotaDiff().longValue());
     }
+
+    @Test
+    public void increment_decrement_should_not_lose_updates_under_contention() throws InterruptedException {
+        String email = "bot@bar.com";
+        DownloadQuotaLimits downloadQuota = new DownloadQuotaLimits(TENANT, email, -1L, -1L);
+        Cache<String, QuotaManagerImpl.UserDiffs> cache = Caffeine.newBuilder().build();
+        cache.put(email, new QuotaManagerImpl.UserDiffs(
+            new UserRateAggregate(0L), 0L,
+            new UserQuotaAggregate(0L), 0L));
+
+        // 256 threads hammering the same user
+        int threads = 256;
+        int iterations = 10_000;
+        // use a plain instance rather than the spy to measure the real cost of incr/decr
+        QuotaManagerImpl manager = new QuotaManagerImpl();
+        manager.setUserDiffsByTenant(new HashMap<String, Cache<String, QuotaManagerImpl.UserDiffs>>() {{
+            put(TENANT, cache);
+        }});
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                for (int i = 0; i < iterations; i++) {
+                    manager.increment(downloadQuota);
+                    manager.decrement(downloadQuota);
+                }
+                return null;
+            });
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(5, TimeUnit.MINUTES));
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - begin);
+        LOGGER.info("{} threads x {} download start/stop on a single user done in {} ms", threads, iterations,
+                    elapsedMs);
+
+        QuotaManagerImpl.UserDiffs diffs = cache.getIfPresent(email);
+        assertEquals((long) threads * iterations, diffs.getQuotaDiff().longValue());
+        assertEquals(0L, diffs.getRateDiff().longValue());
+    }
+
+    @Test
+    public void increment_should_never_exceed_rate_limit_under_contention() throws InterruptedException {
+        String email = "bot@bar.com";
+        long rateLimit = 100L;
+        DownloadQuotaLimits downloadQuota = new DownloadQuotaLimits(TENANT, email, -1L, rateLimit);
+        Cache<String, QuotaManagerImpl.UserDiffs> cache = Caffeine.newBuilder().build();
+        cache.put(email, new QuotaManagerImpl.UserDiffs(
+            new UserRateAggregate(0L), 0L,
+            new UserQuotaAggregate(0L), 0L));
+        QuotaManagerImpl manager = new QuotaManagerImpl();
+        manager.setUserDiffsByTenant(new HashMap<String, Cache<String, QuotaManagerImpl.UserDiffs>>() {{
+            put(TENANT, cache);
+        }});
+
+        int threads = 256;
+        AtomicLong granted = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                start.await();
+                try {
+                    manager.increment(downloadQuota);
+                    granted.incrementAndGet();
+                } catch (DownloadLimitExceededException e) {
+                    // expected for threads over the limit
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(1, TimeUnit.MINUTES));
+
+        QuotaManagerImpl.UserDiffs diffs = cache.getIfPresent(email);
+        assertTrue(granted.get() <= rateLimit);
+        assertEquals(granted.get(), diffs.getRateDiff().longValue());
+        assertEquals(granted.get(), diffs.getQuotaDiff().longValue());
+    }
 }
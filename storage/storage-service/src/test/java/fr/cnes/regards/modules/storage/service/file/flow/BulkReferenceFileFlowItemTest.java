@@ -0,0 +1,140 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.flow;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import com.google.common.collect.Lists;
+
+import fr.cnes.regards.framework.module.rest.exception.ModuleException;
+import fr.cnes.regards.modules.storage.domain.database.FileLocation;
+import fr.cnes.regards.modules.storage.domain.database.FileReference;
+import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
+import fr.cnes.regards.modules.storage.domain.dto.request.FileReferenceRequestDTO;
+import fr.cnes.regards.modules.storage.domain.event.FileReferenceEvent;
+import fr.cnes.regards.modules.storage.domain.flow.ReferenceFlowItem;
+import fr.cnes.regards.modules.storage.service.AbstractStorageTest;
+
+/**
+ * Test class for the bulk reference mode
+ *
+ * @author Sébastien Binda
+ */
+@ActiveProfiles({ "noschedule" })
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_bulk_tests",
+        "regards.storage.cache.path=target/cache", "regards.storage.reference.bulk.enabled=true",
+        "regards.storage.reference.bulk.threshold=1" }, locations = { "classpath:application-test.properties" })
+public class BulkReferenceFileFlowItemTest extends AbstractStorageTest {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkReferenceFileFlowItemTest.class);
+
+    private static final int NB_FILES = 5_000;
+
+    @Autowired
+    private ReferenceFlowItemHandler handler;
+
+    @Before
+    public void initialize() throws ModuleException {
+        Mockito.clearInvocations(publisher);
+        super.init();
+    }
+
+    @Test
+    public void referenceFilesInBulk() {
+        String storage = "somewhere";
+        List<ReferenceFlowItem> items = Lists.newArrayList();
+        List<FileReferenceRequestDTO> files = Lists.newArrayList();
+        for (int i = 0; i < NB_FILES; i++) {
+            files.add(FileReferenceRequestDTO.build("file" + i + ".name", "checksum" + i, "MD5",
+                                                    "application/octet-stream", 10L, "owner", storage,
+                                                    "file://storage/location/file" + i + ".name"));
+            if (files.size() == ReferenceFlowItem.MAX_REQUEST_PER_GROUP) {
+                items.add(ReferenceFlowItem.build(files, UUID.randomUUID().toString()));
+                files.clear();
+            }
+        }
+        // Same file requested by a second owner in the same batch
+        items.add(ReferenceFlowItem.build(FileReferenceRequestDTO
+                .build("file0.name", "checksum0", "MD5", "application/octet-stream", 10L, "other-owner", storage,
+                       "file://storage/location/file0.name"), UUID.randomUUID().toString()));
+        long start = System.currentTimeMillis();
+        handler.handleBatch(getDefaultTenant(), items);
+        LOGGER.info("{} files referenced in bulk in {}ms", NB_FILES, System.currentTimeMillis() - start);
+
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        Assert.assertEquals("All files should be referenced", NB_FILES, fileRefRepo.count());
+        Optional<FileReference> fileRef = fileRefService.search(storage, "checksum0");
+        Assert.assertTrue("File should be referenced", fileRef.isPresent());
+        Assert.assertEquals("File should have both owners", 2, fileRef.get().getOwners().size());
+        Assert.assertEquals("One result should be created for each request", NB_FILES + 1, grpReqInfoRepo.count());
+        Mockito.verify(publisher, Mockito.times(NB_FILES)).publish(Mockito.any(FileReferenceEvent.class));
+
+        // Reference again existing files with a new owner
+        Mockito.clearInvocations(publisher);
+        String newGroupId = UUID.randomUUID().toString();
+        handler.handleBatch(getDefaultTenant(), Lists.newArrayList(ReferenceFlowItem
+                .build(FileReferenceRequestDTO.build("file1.name", "checksum1", "MD5", "application/octet-stream",
+                                                     10L, "new-owner", storage, "file://storage/location/file1.name"),
+                       newGroupId)));
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        Assert.assertEquals("No new file should be referenced", NB_FILES, fileRefRepo.count());
+        fileRef = fileRefService.search(storage, "checksum1");
+        Assert.assertTrue("New owner should be added",
+                          fileRef.isPresent() && fileRef.get().getOwners().contains("new-owner"));
+        Assert.assertEquals(1, grpReqInfoRepo.findByGroupIdAndError(newGroupId, false).size());
+        Mockito.verify(publisher, Mockito.times(1)).publish(Mockito.any(FileReferenceEvent.class));
+    }
+
+    @Test
+    public void referenceExistingFileWithInvalidUrlInBulk() {
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        FileReferenceMetaInfo metaInfo = new FileReferenceMetaInfo("checksum", "MD5", "file.name", 10L,
+                MediaType.APPLICATION_OCTET_STREAM);
+        fileRefService.create(Lists.newArrayList("owner"), metaInfo,
+                              new FileLocation(OFFLINE_CONF_LABEL, "file://storage/location/file.name"));
+
+        // Url is not valid for the storage location but only the new owner is added to the existing file
+        String groupId = UUID.randomUUID().toString();
+        handler.handleBatch(getDefaultTenant(), Lists.newArrayList(ReferenceFlowItem
+                .build(FileReferenceRequestDTO.build("file.name", "checksum", "MD5", "application/octet-stream", 10L,
+                                                     "new-owner", OFFLINE_CONF_LABEL,
+                                                     "anywhere://in/this/directory/file.name"),
+                       groupId)));
+        runtimeTenantResolver.forceTenant(getDefaultTenant());
+        Optional<FileReference> fileRef = fileRefService.search(OFFLINE_CONF_LABEL, "checksum");
+        Assert.assertTrue("New owner should be added",
+                          fileRef.isPresent() && fileRef.get().getOwners().contains("new-owner"));
+        Assert.assertEquals(1, grpReqInfoRepo.findByGroupIdAndError(groupId, false).size());
+        Assert.assertTrue(grpReqInfoRepo.findByGroupIdAndError(groupId, true).isEmpty());
+    }
+
+}
@@ -35,6 +35,8 @@ import org.springframework.data.domain.Page;
 import org.springframework.data.domain.PageRequest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 
 import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
@@ -179,6 +181,38 @@ public class StoreFileFlowItemTest extends AbstractStorageTest {
 
     }
 
+    @Test
+    public void storeFilesFlowItemsByChunks() {
+        Object service = AopTestUtils.getTargetObject(stoReqService);
+        ReflectionTestUtils.setField(service, "itemsPerChunk", 2);
+        try {
+            String cs1 = UUID.randomUUID().toString();
+            String cs2 = UUID.randomUUID().toString();
+            List<StorageFlowItem> items = new ArrayList<>();
+            // Same file requested twice in the first chunk and once again in the second one
+            for (String owner : Lists.newArrayList("owner1", "owner2", "owner3")) {
+                items.add(StorageFlowItem.build(FileStorageRequestDTO
+                        .build("file.name", cs1, "MD5", "application/octet-stream", owner, originUrl,
+                               ONLINE_CONF_LABEL, Optional.empty()), UUID.randomUUID().toString()));
+            }
+            items.add(StorageFlowItem.build(FileStorageRequestDTO
+                    .build("file2.name", cs2, "MD5", "application/octet-stream", "owner1", originUrl,
+                           ONLINE_CONF_LABEL, Optional.empty()), UUID.randomUUID().toString()));
+            storeHandler.handleBatch(getDefaultTenant(), items);
+            runtimeTenantResolver.forceTenant(getDefaultTenant());
+
+            Collection<FileStorageRequest> storageReqs = stoReqService.search(ONLINE_CONF_LABEL, cs1);
+            Assert.assertEquals("Only one request should be created for the same file", 1, storageReqs.size());
+            FileStorageRequest storageReq = storageReqs.iterator().next();
+            Assert.assertEquals("Owners of all chunks should be added", 3, storageReq.getOwners().size());
+            Assert.assertEquals("Groups of all chunks should be added", 3, storageReq.getGroupIds().size());
+            Assert.assertEquals("File request should be created", 1,
+                                stoReqService.search(ONLINE_CONF_LABEL, cs2).size());
+        } finally {
+            ReflectionTestUtils.setField(service, "itemsPerChunk", 10);
+        }
+    }
+
     /**
      * Test request to reference and store a file. An error should be thrown as the destination storage is unknown
      * The file is not stored by the service as the origin storage and the destination storage are identical
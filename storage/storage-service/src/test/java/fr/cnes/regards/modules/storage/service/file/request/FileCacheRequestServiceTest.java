@@ -18,25 +18,33 @@
  */
 package fr.cnes.regards.modules.storage.service.file.request;
 
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 import java.util.Collection;
+import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
 
 import fr.cnes.regards.framework.urn.DataType;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.Mockito;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.MediaType;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.util.AopTestUtils;
+import org.springframework.test.util.ReflectionTestUtils;
 import org.springframework.util.MimeType;
 
+import com.google.common.collect.Lists;
 import com.google.common.collect.Sets;
 
 import fr.cnes.regards.framework.module.rest.exception.ModuleException;
@@ -46,7 +54,13 @@ import fr.cnes.regards.framework.test.report.annotation.Requirement;
 import fr.cnes.regards.modules.storage.domain.database.FileReference;
 import fr.cnes.regards.modules.storage.domain.database.request.FileCacheRequest;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
+import fr.cnes.regards.modules.storage.domain.plugin.FileRestorationWorkingSubset;
 import fr.cnes.regards.modules.storage.service.AbstractStorageTest;
+import fr.cnes.regards.modules.storage.service.JobsPriority;
+import fr.cnes.regards.modules.storage.service.cache.CacheFairShare;
+import fr.cnes.regards.modules.storage.service.cache.CachePrefetchService;
+import fr.cnes.regards.modules.storage.service.cache.CacheReservationLedger;
+import fr.cnes.regards.modules.storage.service.file.job.FileCacheRequestJob;
 
 /**
  * Test class
@@ -57,10 +71,20 @@ import fr.cnes.regards.modules.storage.service.AbstractStorageTest;
 @ActiveProfiles({ "noschedule" })
 @TestPropertySource(
         properties = { "spring.jpa.properties.hibernate.default_schema=storage_cache_tests",
-                "regards.storage.cache.path=target/cache", "regards.storage.cache.size.limit.ko.per.tenant=10" },
+                "regards.storage.cache.path=target/cache", "regards.storage.cache.size.limit.ko.per.tenant=10",
+                "regards.storage.cache.prefetch.enabled=true", "regards.storage.cache.prefetch.share=50" },
         locations = { "classpath:application-test.properties" })
 public class FileCacheRequestServiceTest extends AbstractStorageTest {
 
+    @Autowired
+    private CachePrefetchService prefetchService;
+
+    @Autowired
+    private CacheReservationLedger reservationLedger;
+
+    @Autowired
+    private CacheFairShare fairShare;
+
     @Before
     @Override
     public void init() throws ModuleException {
@@ -288,4 +312,172 @@ public class FileCacheRequestServiceTest extends AbstractStorageTest {
                                                                        Mockito.any());
     }
 
+    @Test
+    public void prefetch() {
+        String owner = "product-" + UUID.randomUUID().toString();
+        FileReference requested = referenceRandomFile(owner, null, "file-1.test", NEARLINE_CONF_LABEL).get();
+        FileReference sibling = referenceRandomFile(owner, null, "file-2.test", NEARLINE_CONF_LABEL).get();
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(requested.getMetaInfo().getChecksum()),
+                                              OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString());
+        prefetchService.schedulePrefetch();
+        Optional<FileCacheRequest> prefetched = fileCacheRequestService.search(sibling.getMetaInfo().getChecksum());
+        Assert.assertTrue("File of the same product should be prefetched", prefetched.isPresent());
+        Assert.assertTrue(prefetched.get().isPrefetch());
+        Assert.assertFalse("Requested file is not a prefetched one",
+                           fileCacheRequestService.search(requested.getMetaInfo().getChecksum()).get().isPrefetch());
+
+        // Prefetch request becomes a requested one when the file is requested
+        String groupId = UUID.randomUUID().toString();
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(sibling.getMetaInfo().getChecksum()),
+                                              OffsetDateTime.now().plusDays(1), groupId);
+        FileCacheRequest request = fileCacheRequestService.search(sibling.getMetaInfo().getChecksum()).get();
+        Assert.assertFalse("Requested file is no longer a prefetched one", request.isPrefetch());
+        Assert.assertEquals(groupId, request.getGroupId());
+    }
+
+    /**
+     * Cache size limit is set to 10ko (regards.storage.cache.size.limit.ko.per.tenant=10) see class @TestPropertySource.
+     * @throws Exception
+     */
+    @Test
+    public void makeAvailable_evictPrefetched() throws Exception {
+        // Simulate cache full with 9 requested files and one prefetched file of 1ko each
+        for (int i = 0; i < 10; i++) {
+            cacheService.addFile(UUID.randomUUID().toString(), 1024L, "file",
+                                 MimeType.valueOf(MediaType.APPLICATION_OCTET_STREAM_VALUE), DataType.RAWDATA.name(),
+                                 new URL("file", null, "/plop/file"), OffsetDateTime.now().plusDays(1),
+                                 UUID.randomUUID().toString(), i == 0);
+        }
+        Assert.assertEquals(0L, cacheService.getFreeSpaceInBytes().longValue());
+        FileReference fileRef = this.generateRandomStoredNearlineFileReference("file-nl-1.test", Optional.empty());
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(fileRef.getMetaInfo().getChecksum()),
+                                              OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString());
+        Collection<JobInfo> jobs = fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
+        Assert.assertFalse("Prefetched file should be evicted to restore the requested one", jobs.isEmpty());
+        Assert.assertEquals("There should be 9 files in cache", 9, cacheFileRepo.count());
+        Assert.assertEquals(0L, cacheService.getPrefetchSizeUsedBytes().longValue());
+    }
+
+    @Test
+    public void scheduleJobs_localityOrder() throws InterruptedException, ExecutionException {
+        Object service = AopTestUtils.getTargetObject(fileCacheRequestService);
+        ReflectionTestUtils.setField(service, "nbRequestsPerJob", 2);
+        try {
+            // Requests arrive alternately for files of two directories
+            for (int i = 0; i < 2; i++) {
+                for (String dir : Lists.newArrayList("dir_a", "dir_b")) {
+                    FileReference fileRef = this
+                            .generateRandomStoredNearlineFileReference("file-" + dir + i + ".test", Optional.of(dir));
+                    fileCacheRequestService.makeAvailable(Sets.newHashSet(fileRef.getMetaInfo().getChecksum()),
+                                                          OffsetDateTime.now().plusDays(1),
+                                                          UUID.randomUUID().toString());
+                }
+            }
+            Collection<JobInfo> jobs = fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
+            Assert.assertEquals(2, jobs.size());
+            for (JobInfo job : jobs) {
+                FileRestorationWorkingSubset subset = job.getParametersAsMap()
+                        .get(FileCacheRequestJob.WORKING_SUB_SET).getValue();
+                Set<String> directories = subset.getFileRestorationRequests().stream()
+                        .map(r -> Paths.get(r.getFileReference().getLocation().getUrl()).getParent().toString())
+                        .collect(Collectors.toSet());
+                Assert.assertEquals("Files of a same directory should be restored together", 1, directories.size());
+            }
+        } finally {
+            ReflectionTestUtils.setField(service, "nbRequestsPerJob", 100);
+        }
+    }
+
+    @Test
+    public void scheduleJobs_allLocalityBatches() throws InterruptedException, ExecutionException {
+        Object service = AopTestUtils.getTargetObject(fileCacheRequestService);
+        ReflectionTestUtils.setField(service, "nbRequestsPerJob", 1);
+        ReflectionTestUtils.setField(service, "localityMaxRequests", 2);
+        try {
+            for (int i = 0; i < 5; i++) {
+                FileReference fileRef = this.generateRandomStoredNearlineFileReference("file-nl-" + i + ".test",
+                                                                                       Optional.empty());
+                fileCacheRequestService.makeAvailable(Sets.newHashSet(fileRef.getMetaInfo().getChecksum()),
+                                                      OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString());
+            }
+            Collection<JobInfo> jobs = fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
+            Assert.assertEquals("Requests of all the locality batches should be scheduled", 5, jobs.size());
+        } finally {
+            ReflectionTestUtils.setField(service, "nbRequestsPerJob", 100);
+            ReflectionTestUtils.setField(service, "localityMaxRequests", 10000);
+        }
+    }
+
+    @Test
+    public void makeAvailable_reservation() throws InterruptedException, ExecutionException {
+        FileReference fileRef = this.generateRandomStoredNearlineFileReference("file-nl-1.test", Optional.empty());
+        FileReference errorFileRef = this.generateRandomStoredNearlineFileReference("restoError.file1.test",
+                                                                                    Optional.empty());
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(fileRef.getMetaInfo().getChecksum(),
+                                                              errorFileRef.getMetaInfo().getChecksum()),
+                                              OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString());
+        Assert.assertEquals("No space should be reserved before scheduling", 0L, reservationLedger.getReservedSize());
+
+        Collection<JobInfo> jobs = fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
+        Assert.assertEquals("Space of the scheduled restorations should be reserved", 2048L,
+                            reservationLedger.getReservedSize());
+        Assert.assertEquals(10240L - 2048L, reservationLedger.getAvailableSize());
+
+        runAndWaitJob(jobs);
+        Assert.assertEquals("Reserved space should be given back after restorations", 0L,
+                            reservationLedger.getReservedSize());
+        Assert.assertEquals("Restored file should be counted in cache", 10240L - 1024L,
+                            reservationLedger.getAvailableSize());
+    }
+
+    @Test
+    public void scheduleJobs_interactiveFirst() throws InterruptedException, ExecutionException {
+        FileReference batchRef = this.generateRandomStoredNearlineFileReference("file-nl-1.test", Optional.empty());
+        FileReference downloadRef = this.generateRandomStoredNearlineFileReference("file-nl-2.test",
+                                                                                   Optional.empty());
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(batchRef.getMetaInfo().getChecksum()),
+                                              OffsetDateTime.now().plusDays(1), UUID.randomUUID().toString());
+        fileCacheRequestService.makeAvailable(Sets.newHashSet(downloadRef), OffsetDateTime.now().plusHours(1),
+                                              UUID.randomUUID().toString(), "alice", true);
+        FileCacheRequest download = fileCacheRequestService.search(downloadRef.getMetaInfo().getChecksum()).get();
+        Assert.assertTrue(download.isInteractive());
+        Assert.assertEquals("alice", download.getRequester());
+        Assert.assertEquals("Batch requests without requester are shared as a single one",
+                            CacheFairShare.BATCH_REQUESTER,
+                            fileCacheRequestService.search(batchRef.getMetaInfo().getChecksum()).get().getRequester());
+
+        Collection<JobInfo> jobs = fileCacheRequestService.scheduleJobs(FileRequestStatus.TO_DO);
+        Assert.assertFalse(jobs.isEmpty());
+        for (JobInfo job : jobs) {
+            FileRestorationWorkingSubset subset = job.getParametersAsMap().get(FileCacheRequestJob.WORKING_SUB_SET)
+                    .getValue();
+            boolean interactive = subset.getFileRestorationRequests().iterator().next().isInteractive();
+            int expectedPriority = interactive ? JobsPriority.FILE_CACHE_INTERACTIVE_JOB.getPriority()
+                    : JobsPriority.FILE_CACHE_JOB.getPriority();
+            Assert.assertEquals(expectedPriority, (int) job.getPriority());
+        }
+    }
+
+    @Test
+    public void fairShare_select() throws MalformedURLException {
+        // Harvester already uses cache space
+        cacheService.addFile(UUID.randomUUID().toString(), 4096L, "harvested.test",
+                             MimeType.valueOf(MediaType.APPLICATION_OCTET_STREAM_VALUE), DataType.RAWDATA.name(),
+                             new URL("file", null, "/plop/harvested.test"), OffsetDateTime.now().plusDays(1),
+                             UUID.randomUUID().toString(), false, "harvester");
+        List<FileCacheRequest> requests = Lists.newArrayList();
+        for (String requester : new String[] { "harvester", "harvester", "harvester", "alice", "alice" }) {
+            FileReference fileRef = this.generateRandomStoredNearlineFileReference("file-nl-1.test",
+                                                                                   Optional.empty());
+            FileCacheRequest request = new FileCacheRequest(fileRef, "target/cache", OffsetDateTime.now().plusDays(1),
+                    UUID.randomUUID().toString());
+            request.setRequester(requester);
+            requests.add(request);
+        }
+        List<FileCacheRequest> selected = fairShare.select(requests, 3072L);
+        Assert.assertEquals("Requester using the least cache space should be served first",
+                            Lists.newArrayList("alice", "alice", "harvester"),
+                            selected.stream().map(FileCacheRequest::getRequester).collect(Collectors.toList()));
+    }
+
 }
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.request;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.modules.storage.service.file.request.NearlineRestorationFlights.Flight;
+
+/**
+ * Test class for {@link NearlineRestorationFlights}
+ *
+ * @author Sébastien Binda
+ */
+public class NearlineRestorationFlightsTest {
+
+    private NearlineRestorationFlights flights;
+
+    @Before
+    public void init() {
+        IRuntimeTenantResolver tenantResolver = Mockito.mock(IRuntimeTenantResolver.class);
+        Mockito.when(tenantResolver.getTenant()).thenReturn("tenant");
+        flights = new NearlineRestorationFlights();
+        ReflectionTestUtils.setField(flights, "runtimeTenantResolver", tenantResolver);
+        ReflectionTestUtils.setField(flights, "flightTtlSeconds", 3600L);
+    }
+
+    @After
+    public void clear() {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+
+    @Test
+    public void rolledBackFlightRemoved() {
+        TransactionSynchronizationManager.initSynchronization();
+        Flight flight = flights.join("checksum", groupId -> {
+        });
+        Assert.assertSame("Demands in the same transaction should attach to the flight", flight,
+                          flights.join("checksum", groupId -> Assert.fail("Restoration should run once")));
+        List<TransactionSynchronization> synchronizations = TransactionSynchronizationManager.getSynchronizations();
+        synchronizations.forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_ROLLED_BACK));
+        Assert.assertNull("Rolled back flight should be removed", flights.get("checksum"));
+        Assert.assertTrue("Waiters of a rolled back flight should be notified",
+                          flight.getResult().isCompletedExceptionally());
+    }
+
+    @Test
+    public void committedFlightKept() {
+        TransactionSynchronizationManager.initSynchronization();
+        Flight flight = flights.join("checksum", groupId -> {
+        });
+        TransactionSynchronizationManager.getSynchronizations()
+                .forEach(s -> s.afterCompletion(TransactionSynchronization.STATUS_COMMITTED));
+        Assert.assertSame("Committed flight should wait for its restoration", flight, flights.get("checksum"));
+        Assert.assertFalse(flight.getResult().isDone());
+    }
+
+    @Test
+    public void expiredFlightsEvicted() {
+        Flight expired = flights.join("expired", groupId -> {
+        });
+        ReflectionTestUtils.setField(flights, "flightTtlSeconds", -1L);
+        ReflectionTestUtils.setField(flights, "lastEviction", new AtomicLong(0L));
+        Flight flight = flights.join("checksum", groupId -> {
+        });
+        Assert.assertNull("Expired flight should be evicted", flights.get("expired"));
+        Assert.assertFalse("Waiters of an expired flight should be notified", expired.getResult().getNow(true));
+        Assert.assertNotSame(expired, flight);
+    }
+
+    @Test
+    public void cancelledListenerDetached() throws Exception {
+        Flight flight = flights.join("checksum", groupId -> {
+        });
+        CompletableFuture<Boolean> gaveUp = flight.listen();
+        CompletableFuture<Boolean> waiting = flight.listen();
+        gaveUp.cancel(false);
+        Assert.assertEquals("Cancelled listener should be removed from the flight", 1,
+                            ((Set<?>) ReflectionTestUtils.getField(flight, "listeners")).size());
+        flights.complete("checksum", true);
+        Assert.assertTrue("Remaining listener should be notified", waiting.get(1, TimeUnit.SECONDS));
+        Assert.assertTrue("Listening to an ended flight should be notified at once", flight.listen().getNow(false));
+        Assert.assertTrue(((Set<?>) ReflectionTestUtils.getField(flight, "listeners")).isEmpty());
+    }
+
+}
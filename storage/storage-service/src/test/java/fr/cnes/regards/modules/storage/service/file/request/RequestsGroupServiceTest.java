@@ -18,10 +18,13 @@
  */
 package fr.cnes.regards.modules.storage.service.file.request;
 
+import java.time.LocalDate;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Optional;
+import java.util.SortedSet;
 import java.util.UUID;
 
 import org.apache.commons.compress.utils.Sets;
@@ -38,6 +41,7 @@ import org.springframework.test.context.TestPropertySource;
 import fr.cnes.regards.framework.module.rest.exception.ModuleException;
 import fr.cnes.regards.modules.storage.dao.IGroupRequestInfoRepository;
 import fr.cnes.regards.modules.storage.dao.IRequestGroupRepository;
+import fr.cnes.regards.modules.storage.dao.RequestResultInfoPartitions;
 import fr.cnes.regards.modules.storage.domain.database.FileReferenceMetaInfo;
 import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
 import fr.cnes.regards.modules.storage.domain.database.request.RequestGroup;
@@ -71,6 +75,9 @@ public class RequestsGroupServiceTest extends AbstractStorageTest {
     @Autowired
     private FileStorageRequestService storageReqService;
 
+    @Autowired
+    private RequestResultInfoPartitions resultPartitions;
+
     @Before
     public void initialize() throws ModuleException {
         super.init();
@@ -127,21 +134,70 @@ public class RequestsGroupServiceTest extends AbstractStorageTest {
                                        Sets.newHashSet("someone"), null);
             // Group should be created
             Assert.assertTrue("Error during group request creation", reqGrpRepository.findById(groupId).isPresent());
-            Assert.assertEquals("There be requests infos for expired group", 2, reqInfoRepo.count());
+            Assert.assertEquals("There be requests infos for expired group", 2,
+                                reqInfoRepo.findByGroupId(groupId).size());
             // Check group is terminated
             reqGrpService.checkRequestsGroupsDone();
             // Group should not exists anymore
             Assert.assertFalse("Request group should be deleted as no requests are associated",
                                reqGrpRepository.findById(groupId).isPresent());
-            // No request info should remains
-            Assert.assertTrue("There should ne remaining request infos in success",
-                              reqInfoRepo.findByGroupIdAndError(groupId, false).isEmpty());
-            Assert.assertTrue("There should ne remaining request infos in error",
-                              reqInfoRepo.findByGroupIdAndError(groupId, true).isEmpty());
+            // Request infos remain until their partition is dropped
+            Assert.assertEquals("There should be remaining request infos in success until partition purge", 1,
+                                reqInfoRepo.findByGroupIdAndError(groupId, false).size());
+            Assert.assertEquals("There should be remaining request infos in error until partition purge", 1,
+                                reqInfoRepo.findByGroupIdAndError(groupId, true).size());
 
         }
     }
 
+    @Test
+    public void maintainResultPartitions() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        resultPartitions.createPartitions(today.minusDays(10), today.minusDays(8));
+        Assert.assertTrue("Old partitions should be created",
+                          resultPartitions.getPartitionDays().contains(today.minusDays(10)));
+
+        reqGrpService.maintainRequestResultPartitions();
+
+        SortedSet<LocalDate> days = resultPartitions.getPartitionDays();
+        Assert.assertTrue("Old partitions should be dropped as no group is pending",
+                          days.headSet(today.minusDays(1)).isEmpty());
+        for (LocalDate day = today; !day.isAfter(today.plusDays(7)); day = day.plusDays(1)) {
+            Assert.assertTrue(String.format("Partition for day %s should be created", day), days.contains(day));
+        }
+    }
+
+    @Test
+    public void dropResultPartitionKeepsPendingGroups() {
+        LocalDate today = LocalDate.now(ZoneOffset.UTC);
+        reqGrpService.maintainRequestResultPartitions();
+        String pendingGroupId = UUID.randomUUID().toString();
+        String doneGroupId = UUID.randomUUID().toString();
+        reqGrpService.granted(pendingGroupId, FileRequestType.STORAGE, 2, OffsetDateTime.now().plusSeconds(120));
+        reqInfoRepo.save(new RequestResultInfo(pendingGroupId, FileRequestType.STORAGE, UUID.randomUUID().toString(),
+                ONLINE_CONF_LABEL, null, Sets.newHashSet("owner")));
+        reqInfoRepo.save(new RequestResultInfo(doneGroupId, FileRequestType.STORAGE, UUID.randomUUID().toString(),
+                ONLINE_CONF_LABEL, null, Sets.newHashSet("owner")));
+
+        // Drop the partition of today
+        resultPartitions.dropPartitionsBefore(today.plusDays(1));
+        Assert.assertFalse("Partition of today should be dropped",
+                           resultPartitions.getPartitionDays().contains(today));
+        Assert.assertEquals("Results of the pending group should be kept", 1,
+                            reqInfoRepo.findByGroupId(pendingGroupId).size());
+        Assert.assertTrue("Results of the terminated group should be dropped",
+                          reqInfoRepo.findByGroupId(doneGroupId).isEmpty());
+
+        // Results of today are now sent to the default partition, then moved with the partition creation
+        reqInfoRepo.save(new RequestResultInfo(pendingGroupId, FileRequestType.STORAGE, UUID.randomUUID().toString(),
+                ONLINE_CONF_LABEL, null, Sets.newHashSet("owner")));
+        reqGrpService.maintainRequestResultPartitions();
+        Assert.assertTrue("Partition of today should be created again",
+                          resultPartitions.getPartitionDays().contains(today));
+        Assert.assertEquals("Results of the pending group should be kept", 2,
+                            reqInfoRepo.findByGroupId(pendingGroupId).size());
+    }
+
     @Test
     public void checkGroupExpired() {
         String groupId = UUID.randomUUID().toString();
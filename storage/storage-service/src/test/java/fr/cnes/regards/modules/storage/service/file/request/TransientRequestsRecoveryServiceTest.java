@@ -0,0 +1,108 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.file.request;
+
+import java.util.Collection;
+import java.util.Optional;
+import java.util.UUID;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.module.rest.exception.ModuleException;
+import fr.cnes.regards.framework.modules.jobs.domain.JobInfo;
+import fr.cnes.regards.modules.storage.dao.IRequestGroupRepository;
+import fr.cnes.regards.modules.storage.dao.TransientRequestTables;
+import fr.cnes.regards.modules.storage.domain.database.request.FileRequestStatus;
+import fr.cnes.regards.modules.storage.domain.database.request.FileStorageRequest;
+import fr.cnes.regards.modules.storage.domain.dto.request.FileStorageRequestDTO;
+import fr.cnes.regards.modules.storage.domain.flow.StorageFlowItem;
+import fr.cnes.regards.modules.storage.service.AbstractStorageTest;
+
+/**
+ * Test class for service {@link TransientRequestsRecoveryService}.<br/>
+ * Truncation of transient tables after a database crash is simulated by deleting all requests and groups.
+ *
+ * @author Sébastien Binda
+ */
+@ActiveProfiles({ "noschedule" })
+@TestPropertySource(properties = { "spring.jpa.properties.hibernate.default_schema=storage_transient_tests",
+        "regards.storage.cache.path=target/cache", TransientRequestTables.UNLOGGED_PROPERTY + "=true" },
+        locations = { "classpath:application-test.properties" })
+public class TransientRequestsRecoveryServiceTest extends AbstractStorageTest {
+
+    @Autowired
+    private TransientRequestsRecoveryService recoveryService;
+
+    @Autowired
+    private TransientRequestTables transientTables;
+
+    @Autowired
+    private IRequestGroupRepository reqGrpRepository;
+
+    @Before
+    public void initialize() throws ModuleException {
+        super.init();
+        reqGrpRepository.deleteAll();
+    }
+
+    @Test
+    public void initializeSwitchesTablesToUnlogged() {
+        recoveryService.initialize();
+        Assert.assertTrue(transientTables.isUnlogged("t_file_storage_request"));
+        Assert.assertTrue(transientTables.isUnlogged("t_file_cache_request"));
+        Assert.assertTrue(transientTables.isUnlogged("t_request_group"));
+        Assert.assertFalse("Tables should be marked after initialization", transientTables.isTruncated());
+    }
+
+    @Test
+    public void recoverScheduledStorageRequests() {
+        String groupId = UUID.randomUUID().toString();
+        String checksum = UUID.randomUUID().toString();
+        stoReqService.store(Lists.newArrayList(StorageFlowItem.build(FileStorageRequestDTO
+                .build("file.test", checksum, "MD5", MediaType.APPLICATION_OCTET_STREAM_VALUE, "owner", originUrl,
+                       ONLINE_CONF_LABEL, Optional.empty()), groupId)));
+        Collection<JobInfo> jobs = stoReqService.scheduleJobs(FileRequestStatus.TO_DO, Sets.newHashSet(),
+                                                              Sets.newHashSet());
+        Assert.assertEquals("One storage job should be scheduled", 1, jobs.size());
+
+        // Simulate truncation of the transient tables
+        fileStorageRequestRepo.deleteAll();
+        reqGrpRepository.deleteAll();
+
+        Assert.assertEquals("Scheduled request should be rebuilt", 1, recoveryService.recover());
+        Collection<FileStorageRequest> requests = stoReqService.search(ONLINE_CONF_LABEL, checksum);
+        Assert.assertEquals("Storage request should be rebuilt", 1, requests.size());
+        FileStorageRequest request = requests.iterator().next();
+        Assert.assertEquals("Rebuilt request should be scheduled again", FileRequestStatus.TO_DO,
+                            request.getStatus());
+        Assert.assertTrue(request.getOwners().contains("owner"));
+        Assert.assertTrue("Group of the rebuilt request should be granted again",
+                          reqGrpRepository.findById(groupId).isPresent());
+    }
+
+}
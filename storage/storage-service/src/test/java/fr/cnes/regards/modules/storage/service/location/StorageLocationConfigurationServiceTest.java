@@ -33,6 +33,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.TestPropertySource;
 
+import com.google.common.collect.Sets;
+
 import fr.cnes.regards.framework.jpa.multitenant.test.AbstractMultitenantServiceTest;
 import fr.cnes.regards.framework.module.rest.exception.ModuleException;
 import fr.cnes.regards.framework.modules.jobs.dao.IJobInfoRepository;
@@ -112,6 +114,26 @@ public class StorageLocationConfigurationServiceTest extends AbstractMultitenant
         Assert.assertEquals(0L, updated.getAllocatedSizeInKo().longValue());
     }
 
+    @Test
+    public void testPriorityResolution() throws ModuleException, IOException, URISyntaxException {
+        StorageLocationConfiguration first = createStorageLocationConf("first");
+        StorageLocationConfiguration second = createStorageLocationConf("second");
+        Set<String> storages = Sets.newHashSet(first.getName(), second.getName());
+        Assert.assertEquals(first.getName(),
+                            storageLocationConfService.searchActiveHigherPriority(storages, StorageType.ONLINE).get()
+                                    .getName());
+        // Cached configurations should be refreshed after priority changes
+        storageLocationConfService.increasePriority(second.getName());
+        Assert.assertEquals(second.getName(),
+                            storageLocationConfService.searchActiveHigherPriority(storages, StorageType.ONLINE).get()
+                                    .getName());
+        Assert.assertEquals(second.getName(), storageLocationConfService.getFirstActive(StorageType.ONLINE).getName());
+        Assert.assertFalse(storageLocationConfService.searchActiveHigherPriority(storages, StorageType.NEARLINE)
+                .isPresent());
+        Assert.assertEquals(first.getName(),
+                            storageLocationConfService.getPluginConfiguration(first.getName()).getLabel());
+    }
+
     private PluginConfiguration getPluginConf(String label) throws IOException, URISyntaxException {
         URL baseStorageLocation = new URL("file", "", Paths.get(targetPath).toFile().getAbsolutePath());
 
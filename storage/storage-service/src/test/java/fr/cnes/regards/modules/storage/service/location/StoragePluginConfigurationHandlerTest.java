@@ -0,0 +1,206 @@
+/*
+ * Copyright 2017-2020 CNES - CENTRE NATIONAL d'ETUDES SPATIALES
+ *
+ * This file is part of REGARDS.
+ *
+ * REGARDS is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * REGARDS is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with REGARDS. If not, see <http://www.gnu.org/licenses/>.
+ */
+package fr.cnes.regards.modules.storage.service.location;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import fr.cnes.regards.framework.amqp.domain.TenantWrapper;
+import fr.cnes.regards.framework.modules.plugins.domain.PluginConfiguration;
+import fr.cnes.regards.framework.modules.plugins.domain.event.BroadcastPluginConfEvent;
+import fr.cnes.regards.framework.modules.plugins.service.IPluginService;
+import fr.cnes.regards.framework.multitenant.IRuntimeTenantResolver;
+import fr.cnes.regards.modules.storage.domain.plugin.INearlineStorageLocation;
+import fr.cnes.regards.modules.storage.domain.plugin.IOnlineStorageLocation;
+import fr.cnes.regards.modules.storage.domain.plugin.IStorageLocation;
+
+/**
+ * Test class for {@link StoragePluginConfigurationHandler}
+ *
+ * @author Sébastien Binda
+ */
+public class StoragePluginConfigurationHandlerTest {
+
+    private static final String TENANT = "tenant";
+
+    private static final String OTHER_TENANT = "other";
+
+    private final ThreadLocal<String> currentTenant = new ThreadLocal<>();
+
+    private final Map<String, List<PluginConfiguration>> confsByTenant = new ConcurrentHashMap<>();
+
+    private final Map<String, AtomicInteger> loadsByTenant = new ConcurrentHashMap<>();
+
+    private StoragePluginConfigurationHandler handler;
+
+    private IPluginService pluginService;
+
+    private ExecutorService executor;
+
+    @Before
+    public void init() {
+        // Stub only mocks do not record invocations, so they can be called intensively from several threads
+        IRuntimeTenantResolver tenantResolver = Mockito.mock(IRuntimeTenantResolver.class,
+                                                             Mockito.withSettings().stubOnly());
+        Mockito.doAnswer(invocation -> {
+            currentTenant.set(invocation.getArgument(0));
+            return null;
+        }).when(tenantResolver).forceTenant(Mockito.anyString());
+        Mockito.doAnswer(invocation -> {
+            currentTenant.remove();
+            return null;
+        }).when(tenantResolver).clearTenant();
+        Mockito.when(tenantResolver.getTenant()).thenAnswer(invocation -> currentTenant.get());
+
+        pluginService = Mockito.mock(IPluginService.class, Mockito.withSettings().stubOnly());
+        Mockito.when(pluginService.getPluginConfigurationsByType(IStorageLocation.class)).thenAnswer(invocation -> {
+            loadsByTenant.computeIfAbsent(currentTenant.get(), t -> new AtomicInteger()).incrementAndGet();
+            return confsByTenant.get(currentTenant.get());
+        });
+
+        handler = new StoragePluginConfigurationHandler();
+        ReflectionTestUtils.setField(handler, "runtimeTenantResolver", tenantResolver);
+        ReflectionTestUtils.setField(handler, "pluginService", pluginService);
+        ReflectionTestUtils.setField(handler, "storageLocationConfService",
+                                     Mockito.mock(StorageLocationConfigurationService.class));
+        ReflectionTestUtils.setField(handler, "missRefreshPeriodMs", 3_600_000L);
+        executor = Executors.newFixedThreadPool(5);
+    }
+
+    @After
+    public void clear() {
+        executor.shutdownNow();
+        currentTenant.remove();
+    }
+
+    @Test
+    public void concurrentRefreshAndReads() throws Exception {
+        List<PluginConfiguration> confs = Lists.newArrayList(conf("online", IOnlineStorageLocation.class),
+                                                             conf("nearline", INearlineStorageLocation.class));
+        List<PluginConfiguration> moreConfs = new ArrayList<>(confs);
+        moreConfs.add(conf("added", IOnlineStorageLocation.class));
+        confsByTenant.put(TENANT, confs);
+        // Misses of unknown storages reload the registry on each read, concurrently with event refreshes
+        ReflectionTestUtils.setField(handler, "missRefreshPeriodMs", -1L);
+
+        CountDownLatch start = new CountDownLatch(1);
+        AtomicBoolean refreshing = new AtomicBoolean(true);
+        List<Future<?>> readers = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            readers.add(executor.submit(() -> {
+                currentTenant.set(TENANT);
+                start.await();
+                do {
+                    Assert.assertTrue(handler.isConfigured("online"));
+                    Assert.assertTrue(handler.isOnline("online"));
+                    Assert.assertFalse(handler.isOnline("nearline"));
+                    Assert.assertTrue(handler.getConfiguredStorage("nearline").isPresent());
+                    Assert.assertFalse(handler.isConfigured("unknown"));
+                    int nbStorages = handler.getConfiguredStorages().size();
+                    Assert.assertTrue("Unexpected number of storages " + nbStorages,
+                                      (nbStorages == 2) || (nbStorages == 3));
+                } while (refreshing.get());
+                return null;
+            }));
+        }
+        Future<?> writer = executor.submit(() -> {
+            start.await();
+            try {
+                for (int i = 0; i < 2_000; i++) {
+                    confsByTenant.put(TENANT, (i % 2) == 0 ? moreConfs : confs);
+                    handler.handle(event(TENANT, IStorageLocation.class));
+                }
+            } finally {
+                refreshing.set(false);
+            }
+            return null;
+        });
+        start.countDown();
+        writer.get(30, TimeUnit.SECONDS);
+        for (Future<?> reader : readers) {
+            // Rethrows assertion errors of readers
+            reader.get(30, TimeUnit.SECONDS);
+        }
+    }
+
+    @Test
+    public void registriesIsolatedByTenant() {
+        confsByTenant.put(TENANT, Lists.newArrayList(conf("storage", IOnlineStorageLocation.class)));
+        confsByTenant.put(OTHER_TENANT, Lists.newArrayList(conf("other", INearlineStorageLocation.class)));
+
+        currentTenant.set(TENANT);
+        Assert.assertTrue(handler.isConfigured("storage"));
+        Assert.assertTrue(handler.isOnline("storage"));
+        Assert.assertFalse(handler.isConfigured("other"));
+        currentTenant.set(OTHER_TENANT);
+        Assert.assertTrue(handler.isConfigured("other"));
+        Assert.assertFalse(handler.isOnline("other"));
+        Assert.assertFalse(handler.isConfigured("storage"));
+
+        // Configuration event of a tenant only reloads the registry of this tenant
+        confsByTenant.put(OTHER_TENANT, Lists.newArrayList(conf("other", INearlineStorageLocation.class),
+                                                           conf("storage", IOnlineStorageLocation.class)));
+        handler.handle(event(OTHER_TENANT, IStorageLocation.class));
+        currentTenant.set(OTHER_TENANT);
+        Assert.assertTrue(handler.isConfigured("storage"));
+        Assert.assertEquals(2, handler.getConfiguredStorages().size());
+        currentTenant.set(TENANT);
+        Assert.assertEquals(1, handler.getConfiguredStorages().size());
+        Assert.assertEquals(1, loadsByTenant.get(TENANT).get());
+        Assert.assertEquals(2, loadsByTenant.get(OTHER_TENANT).get());
+
+        // Events of other plugin types do not reload registries
+        handler.handle(event(TENANT, Object.class));
+        Assert.assertEquals(1, loadsByTenant.get(TENANT).get());
+    }
+
+    private static PluginConfiguration conf(String label, Class<?> pluginInterface) {
+        PluginConfiguration conf = Mockito.mock(PluginConfiguration.class, Mockito.withSettings().stubOnly());
+        Mockito.when(conf.getLabel()).thenReturn(label);
+        Mockito.when(conf.getInterfaceNames())
+                .thenReturn(Sets.newHashSet(IStorageLocation.class.getName(), pluginInterface.getName()));
+        return conf;
+    }
+
+    private static TenantWrapper<BroadcastPluginConfEvent> event(String tenant, Class<?> pluginType) {
+        BroadcastPluginConfEvent event = Mockito.mock(BroadcastPluginConfEvent.class);
+        Mockito.when(event.getPluginTypes()).thenReturn(Sets.newHashSet(pluginType.getName()));
+        return TenantWrapper.build(event, tenant);
+    }
+
+}